@@ -0,0 +1,45 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader;
+
+/**
+ * What happens to a new request when the queue already holds as many waiting requests
+ * as its capacity.
+ */
+public enum AdmissionPolicy {
+
+    /**
+     * The caller of start blocks until a waiting request started or was cancelled. On the
+     * main thread, which must never block, the request is rejected as with {@link #REJECT}.
+     */
+    BLOCK,
+
+    /**
+     * The request fails right away with an error reporting {@link Error#isQueueFull()}.
+     */
+    REJECT,
+
+    /**
+     * The waiting request of the lowest priority, possibly the new one, is written to
+     * the database and dropped from memory, without its listeners. It is queued again
+     * once there is room. Requests awaited through a future, a group or their events are
+     * never spilled, a new one of them is rejected instead.
+     */
+    SPILL
+
+}
@@ -29,14 +29,30 @@ public final class Constants {
     public static final int UPDATE = 0x01;
     public static final String RANGE = "Range";
     public static final String ETAG = "ETag";
+    public static final String LAST_MODIFIED = "Last-Modified";
+    public static final String CACHE_CONTROL = "Cache-Control";
+    public static final String EXPIRES = "Expires";
+    public static final String IF_NONE_MATCH = "If-None-Match";
+    public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
     public static final String USER_AGENT = "User-Agent";
+    public static final String AUTHORIZATION = "Authorization";
+    public static final String VARY = "Vary";
     public static final String DEFAULT_USER_AGENT = "PRDownloader";
 
     public static final int DEFAULT_READ_TIMEOUT_IN_MILLS = 20_000;
     public static final int DEFAULT_CONNECT_TIMEOUT_IN_MILLS = 20_000;
+    public static final String DEFAULT_CACHE_DIRECTORY_NAME = "prdownloader";
+    public static final int DEFAULT_MIN_CONCURRENCY = 2;
+    public static final int DEFAULT_MAX_CONCURRENCY = 4 * Runtime.getRuntime().availableProcessors() + 1;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 6;
+    public static final long DEFAULT_PRIORITY_AGING_INTERVAL_IN_MILLS = 10_000;
+    public static final long DEFAULT_STARVATION_BOUND_IN_MILLS = 60_000;
+    public static final long DEFAULT_PROGRESS_INTERVAL_IN_MILLS = 100;
+    public static final long DEFAULT_PROGRESS_DISPATCH_INTERVAL_IN_MILLS = 16;
 
     public static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
     public static final int HTTP_TEMPORARY_REDIRECT = 307;
     public static final int HTTP_PERMANENT_REDIRECT = 308;
+    public static final int HTTP_TOO_MANY_REQUESTS = 429;
 
 }
@@ -0,0 +1,36 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader;
+
+/**
+ * Engines which can run the downloads.
+ */
+public enum DownloadEngine {
+
+    /**
+     * Every running download blocks a thread of the download pool while it reads.
+     */
+    THREAD_POOL,
+
+    /**
+     * Plain http downloads are driven by a single selector thread over non-blocking
+     * sockets, which scales to many concurrent downloads. Https urls, custom http
+     * clients and the disk cache still use the thread pool.
+     */
+    NON_BLOCKING
+
+}
@@ -31,6 +31,9 @@ public class Error {
     private Map<String, List<String>> headerFields;
     private Throwable connectionException;
     private int responseCode;
+    private boolean isTimeBudgetExceeded;
+    private boolean isQueueFull;
+    private boolean isShutDown;
 
     public boolean isServerError() {
         return isServerError;
@@ -79,4 +82,37 @@ public class Error {
     public int getResponseCode() {
         return responseCode;
     }
+
+    /**
+     * Returns whether the request was ended because it ran longer than its time budget.
+     */
+    public boolean isTimeBudgetExceeded() {
+        return isTimeBudgetExceeded;
+    }
+
+    public void setTimeBudgetExceeded(boolean timeBudgetExceeded) {
+        isTimeBudgetExceeded = timeBudgetExceeded;
+    }
+
+    /**
+     * Returns whether the request was rejected because the queue was at its capacity.
+     */
+    public boolean isQueueFull() {
+        return isQueueFull;
+    }
+
+    public void setQueueFull(boolean queueFull) {
+        isQueueFull = queueFull;
+    }
+
+    /**
+     * Returns whether the request was rejected because PRDownloader was shutting down.
+     */
+    public boolean isShutDown() {
+        return isShutDown;
+    }
+
+    public void setShutDown(boolean shutDown) {
+        isShutDown = shutDown;
+    }
 }
@@ -0,0 +1,52 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader;
+
+/**
+ * Aggregated progress of the requests of a {@link com.downloader.request.DownloadGroup}.
+ */
+public class GroupProgress {
+
+    public final long currentBytes;
+    public final long totalBytes;
+    public final int completedCount;
+    public final int failedCount;
+    public final int totalCount;
+    public final long bytesPerSecond;
+
+    public GroupProgress(long currentBytes, long totalBytes, int completedCount, int failedCount,
+                         int totalCount, long bytesPerSecond) {
+        this.currentBytes = currentBytes;
+        this.totalBytes = totalBytes;
+        this.completedCount = completedCount;
+        this.failedCount = failedCount;
+        this.totalCount = totalCount;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    @Override
+    public String toString() {
+        return "GroupProgress{" +
+                "currentBytes=" + currentBytes +
+                ", totalBytes=" + totalBytes +
+                ", completedCount=" + completedCount +
+                ", failedCount=" + failedCount +
+                ", totalCount=" + totalCount +
+                ", bytesPerSecond=" + bytesPerSecond +
+                '}';
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader;
+
+import java.util.List;
+
+/**
+ * Receives the progress of all the downloads which moved since the previous call, once per
+ * dispatch tick on the main thread.
+ */
+public interface OnProgressBatchListener {
+
+    /**
+     * @param progressList the changed progress snapshots. The list and its elements are
+     *                     reused and only valid during the call.
+     */
+    void onProgress(List<Progress> progressList);
+
+}
@@ -22,13 +22,21 @@ package com.downloader;
 
 import android.content.Context;
 
+import com.downloader.cache.CacheStats;
+import com.downloader.cache.DiskCache;
 import com.downloader.core.Core;
+import com.downloader.core.WaitTimeHistogram;
+import com.downloader.handler.ProgressHandler;
 import com.downloader.internal.ComponentHolder;
 import com.downloader.internal.DownloadRequestQueue;
+import com.downloader.request.DownloadGroup;
 import com.downloader.request.DownloadRequest;
 import com.downloader.request.DownloadRequestBuilder;
+import com.downloader.stream.DownloadEventStream;
 import com.downloader.utils.Utils;
 
+import java.util.List;
+
 /**
  * PRDownloader entry point.
  * You must initialize this class before use. The simplest way is to just do
@@ -36,6 +44,8 @@ import com.downloader.utils.Utils;
  */
 public class PRDownloader {
 
+    private static DownloadEventStream events;
+
     /**
      * private constructor to prevent instantiation of this class
      */
@@ -59,6 +69,7 @@ public class PRDownloader {
      */
     public static void initialize(Context context, PRDownloaderConfig config) {
         ComponentHolder.getInstance().init(context, config);
+        Core.initialize();
         DownloadRequestQueue.initialize();
     }
 
@@ -74,6 +85,38 @@ public class PRDownloader {
         return new DownloadRequestBuilder(url, new DownloadRequest.DownloadDetails(dirPath, fileName, mimeType));
     }
 
+    /**
+     * Method to create a group of requests started together, with one aggregate progress
+     * and one completion callback
+     *
+     * @return the DownloadGroup
+     */
+    public static DownloadGroup newGroup() {
+        return new DownloadGroup();
+    }
+
+    /**
+     * Method to start many requests at once, much cheaper than starting them one by one.
+     * The stored progress of all of them is read on the calling thread.
+     *
+     * @param requests           The requests to start
+     * @param onDownloadListener The listener called for each of them, may be null
+     * @return the downloadIds, in the order of the requests
+     */
+    public static int[] enqueueAll(List<DownloadRequest> requests, OnDownloadListener onDownloadListener) {
+        return DownloadRequest.startAll(requests, onDownloadListener);
+    }
+
+    /**
+     * Method to start many requests at once without a download listener
+     *
+     * @param requests The requests to start
+     * @return the downloadIds, in the order of the requests
+     */
+    public static int[] enqueueAll(List<DownloadRequest> requests) {
+        return enqueueAll(requests, null);
+    }
+
     /**
      * Method to pause request with the given downloadId
      *
@@ -83,6 +126,22 @@ public class PRDownloader {
         DownloadRequestQueue.getInstance().pause(downloadId);
     }
 
+    /**
+     * Method to pause requests with the given tag
+     *
+     * @param tag The tag with which requests are to be paused
+     */
+    public static void pause(Object tag) {
+        DownloadRequestQueue.getInstance().pause(tag);
+    }
+
+    /**
+     * Method to pause all requests
+     */
+    public static void pauseAll() {
+        DownloadRequestQueue.getInstance().pauseAll();
+    }
+
     /**
      * Method to resume request with the given downloadId
      *
@@ -92,6 +151,34 @@ public class PRDownloader {
         DownloadRequestQueue.getInstance().resume(downloadId);
     }
 
+    /**
+     * Method to resume the paused requests with the given tag
+     *
+     * @param tag The tag with which requests are to be resumed
+     */
+    public static void resume(Object tag) {
+        DownloadRequestQueue.getInstance().resume(tag);
+    }
+
+    /**
+     * Method to resume all paused requests
+     */
+    public static void resumeAll() {
+        DownloadRequestQueue.getInstance().resumeAll();
+    }
+
+    /**
+     * Method to change the priority of the request with the given downloadId. A queued
+     * request moves to its new place in the queue, a running one continues with the
+     * thread priority matching the new priority.
+     *
+     * @param downloadId The downloadId of the request
+     * @param priority   The new priority
+     */
+    public static void setPriority(int downloadId, Priority priority) {
+        DownloadRequestQueue.getInstance().setPriority(downloadId, priority);
+    }
+
     /**
      * Method to cancel request with the given downloadId
      *
@@ -127,6 +214,62 @@ public class PRDownloader {
         return DownloadRequestQueue.getInstance().getStatus(downloadId);
     }
 
+    /**
+     * Method to get the progress of a download, with its current speed, average speed and
+     * estimated time left, without a progress listener
+     *
+     * @param downloadId The downloadId of the download
+     * @return the progress, null if the download is not known
+     */
+    public static Progress getProgress(int downloadId) {
+        return DownloadRequestQueue.getInstance().getProgress(downloadId);
+    }
+
+    /**
+     * Method to get the stream of the events of all the downloads, for subscribers asking
+     * for events as they are ready for them
+     *
+     * @return the stream, which never completes
+     */
+    public static synchronized DownloadEventStream getEvents() {
+        if (events == null) {
+            events = new DownloadEventStream(null);
+            DownloadRequest.addGlobalObserver(events);
+        }
+        return events;
+    }
+
+    /**
+     * Method to get the stream of the events of a download, completing after its
+     * terminal event
+     *
+     * @param downloadId The downloadId of the download
+     * @return the stream, null if the download is not known
+     */
+    public static DownloadEventStream getEvents(int downloadId) {
+        return DownloadRequestQueue.getInstance().getEvents(downloadId);
+    }
+
+    /**
+     * Method to receive the progress of all the downloads in one call per dispatch tick,
+     * instead of one call per download
+     *
+     * @param listener The listener, null to remove it
+     */
+    public static void setOnProgressBatchListener(OnProgressBatchListener listener) {
+        ProgressHandler.getInstance().setOnProgressBatchListener(listener);
+    }
+
+    /**
+     * Method to get the number of progress messages posted to the main looper so far,
+     * to measure the load progress reporting puts on it
+     *
+     * @return the message count
+     */
+    public static long getProgressMessageCount() {
+        return ProgressHandler.getInstance().getMessageCount();
+    }
+
     /**
      * Method to clean up temporary resumed files which is older than the given day
      *
@@ -136,6 +279,104 @@ public class PRDownloader {
         Utils.deleteUnwantedModelsAndTempFiles(days);
     }
 
+    /**
+     * Method to get the number of downloads currently allowed to run at the same time
+     *
+     * @return the concurrency limit
+     */
+    public static int getConcurrencyLimit() {
+        return Core.getInstance().getExecutorSupplier().forDownloadTasks()
+                .getConcurrencyLimit().getLimit();
+    }
+
+    /**
+     * Method to get the number of requests waiting to start
+     *
+     * @return the queue depth
+     */
+    public static int getQueueDepth() {
+        return DownloadRequestQueue.getInstance().getQueueDepth();
+    }
+
+    /**
+     * Method to get the number of requests currently spilled to the database by the
+     * {@link AdmissionPolicy#SPILL} admission policy
+     *
+     * @return the number of spilled requests
+     */
+    public static int getSpilledRequestCount() {
+        return DownloadRequestQueue.getInstance().getSpilledRequestCount();
+    }
+
+    /**
+     * Method to get how many times a request was spilled to the database
+     *
+     * @return the spill count
+     */
+    public static long getSpillCount() {
+        return DownloadRequestQueue.getInstance().getSpillCount();
+    }
+
+    /**
+     * Method to get the histogram of the time requests of the given priority waited in
+     * the queue before they started
+     *
+     * @param priority The priority of the requests
+     * @return the wait time histogram
+     */
+    public static WaitTimeHistogram getQueueWaitTimeHistogram(Priority priority) {
+        return Core.getInstance().getExecutorSupplier().forDownloadTasks()
+                .getWaitTimeHistogram(priority);
+    }
+
+    /**
+     * Method to get the number of running downloads paused to make room for requests
+     * of higher priority
+     *
+     * @return the preemption count
+     */
+    public static long getPreemptionCount() {
+        return Core.getInstance().getExecutorSupplier().forDownloadTasks()
+                .getPreemptionCount();
+    }
+
+    /**
+     * Method to get the histogram of the time requests which preempted a running download
+     * waited in the queue before they started
+     *
+     * @return the latency to start histogram
+     */
+    public static WaitTimeHistogram getPreemptionLatencyHistogram() {
+        return Core.getInstance().getExecutorSupplier().forDownloadTasks()
+                .getPreemptionLatencyHistogram();
+    }
+
+    /**
+     * Method to get the hit, miss and saved bytes counters of the disk cache
+     *
+     * @return the cache stats or null if the cache is not enabled
+     */
+    public static CacheStats getCacheStats() {
+        DiskCache diskCache = ComponentHolder.getInstance().getDiskCache();
+        return diskCache != null ? diskCache.getStats() : null;
+    }
+
+    /**
+     * Method to remove all the files kept by the disk cache
+     */
+    public static void clearCache() {
+        final DiskCache diskCache = ComponentHolder.getInstance().getDiskCache();
+        if (diskCache != null) {
+            Core.getInstance().getExecutorSupplier().forBackgroundTasks()
+                    .execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            diskCache.clear();
+                        }
+                    });
+        }
+    }
+
     /**
      * Shuts PRDownloader down
      */
@@ -143,4 +384,21 @@ public class PRDownloader {
         Core.shutDown();
     }
 
+    /**
+     * Shuts PRDownloader down gracefully: new requests are rejected, the running downloads
+     * are stopped and their exact progress is stored in one transaction, then the threads
+     * are stopped. It blocks for at most the timeout. With a persisted queue the stopped
+     * and queued requests are queued again by the next initialize. Until then the threads
+     * are not started again, whatever is called.
+     *
+     * @param timeoutInMills The maximum time to wait
+     * @return false if the downloads or the threads did not stop within the timeout
+     */
+    public static boolean shutDown(long timeoutInMills) {
+        final long deadline = System.currentTimeMillis() + timeoutInMills;
+        final boolean stopped = DownloadRequestQueue.getInstance().shutDown(timeoutInMills);
+        final boolean terminated = Core.shutDown(Math.max(0, deadline - System.currentTimeMillis()));
+        return stopped && terminated;
+    }
+
 }
@@ -21,6 +21,12 @@ import android.content.Context;
 import com.downloader.httpclient.DefaultHttpClient;
 import com.downloader.httpclient.HttpClient;
 
+import java.io.File;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
 /**
  * Created by amitshekhar on 13/11/17.
  */
@@ -34,6 +40,27 @@ public class PRDownloaderConfig {
     private boolean databaseEnabled;
     private Context context;
     private OnStoragePermissionsRequested storagePermissionsHandler;
+    private File cacheDirectory;
+    private long cacheMaxBytes;
+    private int minConcurrency;
+    private int maxConcurrency;
+    private boolean adaptiveConcurrencyEnabled;
+    private int maxConnectionsPerHost;
+    private Map<String, Integer> hostConnectionLimits;
+    private long priorityAgingInterval;
+    private long starvationBound;
+    private boolean preemptionEnabled;
+    private DownloadEngine downloadEngine;
+    private SchedulingMode schedulingMode;
+    private int queueCapacity;
+    private AdmissionPolicy admissionPolicy;
+    private boolean queuePersistenceEnabled;
+    private boolean probeLaneEnabled;
+    private long progressInterval;
+    private long progressMinBytes;
+    private int progressMinPercent;
+    private long progressDispatchInterval;
+    private Executor callbackExecutor;
 
     private PRDownloaderConfig(Builder builder) {
         this.readTimeout = builder.readTimeout;
@@ -43,6 +70,27 @@ public class PRDownloaderConfig {
         this.databaseEnabled = builder.databaseEnabled;
         this.context = builder.context;
         this.storagePermissionsHandler = builder.storagePermissionsHandler;
+        this.cacheDirectory = builder.cacheDirectory;
+        this.cacheMaxBytes = builder.cacheMaxBytes;
+        this.minConcurrency = builder.minConcurrency;
+        this.maxConcurrency = builder.maxConcurrency;
+        this.adaptiveConcurrencyEnabled = builder.adaptiveConcurrencyEnabled;
+        this.maxConnectionsPerHost = builder.maxConnectionsPerHost;
+        this.hostConnectionLimits = builder.hostConnectionLimits;
+        this.priorityAgingInterval = builder.priorityAgingInterval;
+        this.starvationBound = builder.starvationBound;
+        this.preemptionEnabled = builder.preemptionEnabled;
+        this.downloadEngine = builder.downloadEngine;
+        this.schedulingMode = builder.schedulingMode;
+        this.queueCapacity = builder.queueCapacity;
+        this.admissionPolicy = builder.admissionPolicy;
+        this.queuePersistenceEnabled = builder.queuePersistenceEnabled;
+        this.probeLaneEnabled = builder.probeLaneEnabled;
+        this.progressInterval = builder.progressInterval;
+        this.progressMinBytes = builder.progressMinBytes;
+        this.progressMinPercent = builder.progressMinPercent;
+        this.progressDispatchInterval = builder.progressDispatchInterval;
+        this.callbackExecutor = builder.callbackExecutor;
     }
 
     public int getReadTimeout() {
@@ -89,6 +137,94 @@ public class PRDownloaderConfig {
 
     public OnStoragePermissionsRequested getStoragePermissionsHandler() { return storagePermissionsHandler; }
 
+    public File getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    public long getCacheMaxBytes() {
+        return cacheMaxBytes;
+    }
+
+    public boolean isCacheEnabled() {
+        return cacheMaxBytes > 0;
+    }
+
+    public int getMinConcurrency() {
+        return minConcurrency;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public boolean isAdaptiveConcurrencyEnabled() {
+        return adaptiveConcurrencyEnabled;
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    public Map<String, Integer> getHostConnectionLimits() {
+        return hostConnectionLimits;
+    }
+
+    public long getPriorityAgingInterval() {
+        return priorityAgingInterval;
+    }
+
+    public long getStarvationBound() {
+        return starvationBound;
+    }
+
+    public boolean isPreemptionEnabled() {
+        return preemptionEnabled;
+    }
+
+    public DownloadEngine getDownloadEngine() {
+        return downloadEngine;
+    }
+
+    public SchedulingMode getSchedulingMode() {
+        return schedulingMode;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public AdmissionPolicy getAdmissionPolicy() {
+        return admissionPolicy;
+    }
+
+    public boolean isQueuePersistenceEnabled() {
+        return queuePersistenceEnabled;
+    }
+
+    public boolean isProbeLaneEnabled() {
+        return probeLaneEnabled;
+    }
+
+    public long getProgressInterval() {
+        return progressInterval;
+    }
+
+    public long getProgressMinBytes() {
+        return progressMinBytes;
+    }
+
+    public int getProgressMinPercent() {
+        return progressMinPercent;
+    }
+
+    public long getProgressDispatchInterval() {
+        return progressDispatchInterval;
+    }
+
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
     public static Builder newBuilder() {
         return new Builder();
     }
@@ -102,6 +238,27 @@ public class PRDownloaderConfig {
         boolean databaseEnabled = false;
         Context context = null;
         OnStoragePermissionsRequested storagePermissionsHandler = null;
+        File cacheDirectory = null;
+        long cacheMaxBytes = 0;
+        int minConcurrency = Constants.DEFAULT_MIN_CONCURRENCY;
+        int maxConcurrency = Constants.DEFAULT_MAX_CONCURRENCY;
+        boolean adaptiveConcurrencyEnabled = true;
+        int maxConnectionsPerHost = Constants.DEFAULT_MAX_CONNECTIONS_PER_HOST;
+        Map<String, Integer> hostConnectionLimits = new HashMap<>();
+        long priorityAgingInterval = Constants.DEFAULT_PRIORITY_AGING_INTERVAL_IN_MILLS;
+        long starvationBound = Constants.DEFAULT_STARVATION_BOUND_IN_MILLS;
+        boolean preemptionEnabled = true;
+        DownloadEngine downloadEngine = DownloadEngine.THREAD_POOL;
+        SchedulingMode schedulingMode = SchedulingMode.PRIORITY;
+        int queueCapacity = 0;
+        AdmissionPolicy admissionPolicy = AdmissionPolicy.BLOCK;
+        boolean queuePersistenceEnabled = false;
+        boolean probeLaneEnabled = false;
+        long progressInterval = Constants.DEFAULT_PROGRESS_INTERVAL_IN_MILLS;
+        long progressMinBytes = 0;
+        int progressMinPercent = 0;
+        long progressDispatchInterval = Constants.DEFAULT_PROGRESS_DISPATCH_INTERVAL_IN_MILLS;
+        Executor callbackExecutor = null;
 
         public Builder setReadTimeout(int readTimeout) {
             this.readTimeout = readTimeout;
@@ -134,16 +291,252 @@ public class PRDownloaderConfig {
             return this;
         }
 
+        /**
+         * Sets the handler granting access to the storage the files are written to. Without
+         * one the files are written at their path directly, which the app must have access to.
+         */
         public Builder setStoragePermissionsHandler(OnStoragePermissionsRequested storagePermissionsHandler)
         {
             this.storagePermissionsHandler = storagePermissionsHandler;
             return this;
         }
 
+        /**
+         * Enables the disk cache of downloaded files with the given byte budget. Once the
+         * budget is exceeded the least recently used files are evicted.
+         *
+         * @param cacheMaxBytes The maximum size of the cache, 0 disables the cache
+         */
+        public Builder setCacheMaxBytes(long cacheMaxBytes) {
+            this.cacheMaxBytes = cacheMaxBytes;
+            return this;
+        }
+
+        /**
+         * Sets the directory used by the disk cache, defaults to a directory inside
+         * {@link Context#getCacheDir()}.
+         *
+         * @param cacheDirectory The cache directory
+         */
+        public Builder setCacheDirectory(File cacheDirectory) {
+            this.cacheDirectory = cacheDirectory;
+            return this;
+        }
+
+        /**
+         * Sets the bounds within which the number of downloads running at the same time
+         * is adjusted, based on the observed throughput, errors and latency.
+         *
+         * @param minConcurrency The lowest number of concurrent downloads
+         * @param maxConcurrency The highest number of concurrent downloads
+         */
+        public Builder setConcurrencyBounds(int minConcurrency, int maxConcurrency) {
+            this.minConcurrency = minConcurrency;
+            this.maxConcurrency = maxConcurrency;
+            return this;
+        }
+
+        /**
+         * Enables or disables the runtime adjustment of the number of concurrent downloads.
+         * When disabled the number stays at its initial value.
+         *
+         * @param adaptiveConcurrencyEnabled Whether the limit is adjusted at runtime
+         */
+        public Builder setAdaptiveConcurrencyEnabled(boolean adaptiveConcurrencyEnabled) {
+            this.adaptiveConcurrencyEnabled = adaptiveConcurrencyEnabled;
+            return this;
+        }
+
+        /**
+         * Sets how many downloads may run against the same host at the same time.
+         *
+         * @param maxConnectionsPerHost The limit applied to every host without a limit of its own
+         */
+        public Builder setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+            return this;
+        }
+
+        /**
+         * Sets how many downloads may run against the given host at the same time.
+         *
+         * @param host                  The host name, like {@code cdn.example.com}
+         * @param maxConnectionsPerHost The limit for this host
+         */
+        public Builder setMaxConnectionsPerHost(String host, int maxConnectionsPerHost) {
+            this.hostConnectionLimits.put(host.toLowerCase(Locale.ENGLISH), maxConnectionsPerHost);
+            return this;
+        }
+
+        /**
+         * Sets how long a queued request has to wait to be ranked like a request of the next
+         * higher priority, so that low priority requests are not starved by a steady stream of
+         * high priority ones.
+         *
+         * @param priorityAgingInterval The interval in milliseconds, 0 orders strictly by priority
+         */
+        public Builder setPriorityAgingInterval(long priorityAgingInterval) {
+            this.priorityAgingInterval = priorityAgingInterval;
+            return this;
+        }
+
+        /**
+         * Sets the longest time a request waits in the queue before it is started ahead of
+         * every other request, regardless of priorities.
+         *
+         * @param starvationBound The bound in milliseconds, 0 disables it
+         */
+        public Builder setStarvationBound(long starvationBound) {
+            this.starvationBound = starvationBound;
+            return this;
+        }
+
+        /**
+         * Sets whether a running download may be paused to free its slot for a queued request
+         * of higher priority when all slots are busy. The paused download is queued again and
+         * continues from where it stopped once a slot frees up.
+         *
+         * @param preemptionEnabled Whether lower priority downloads can be preempted
+         */
+        public Builder setPreemptionEnabled(boolean preemptionEnabled) {
+            this.preemptionEnabled = preemptionEnabled;
+            return this;
+        }
+
+        /**
+         * Sets the engine running the downloads. The non blocking engine drives many plain http
+         * downloads from a single thread instead of one thread per download.
+         *
+         * @param downloadEngine The download engine
+         */
+        public Builder setDownloadEngine(DownloadEngine downloadEngine) {
+            this.downloadEngine = downloadEngine;
+            return this;
+        }
+
+        /**
+         * Sets the order in which queued requests are started. In deadline mode the requests
+         * with a deadline set through {@link com.downloader.request.DownloadRequestBuilder#setDeadline(long)}
+         * are started earliest deadline first, as long as they can still make it.
+         *
+         * @param schedulingMode The scheduling mode
+         */
+        public Builder setSchedulingMode(SchedulingMode schedulingMode) {
+            this.schedulingMode = schedulingMode;
+            return this;
+        }
+
+        /**
+         * Sets how many requests may wait to start at the same time, 0 for no limit.
+         * What happens to the requests beyond it is set by the admission policy.
+         *
+         * @param queueCapacity The capacity of the queue
+         */
+        public Builder setQueueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * Sets what happens to a new request when the queue is at its capacity.
+         *
+         * @param admissionPolicy The admission policy
+         */
+        public Builder setAdmissionPolicy(AdmissionPolicy admissionPolicy) {
+            this.admissionPolicy = admissionPolicy;
+            return this;
+        }
+
+        /**
+         * Sets whether the queued and paused requests are stored in the database, so that
+         * initialize queues them again after the process died. They come back without their
+         * listeners. It requires the database to be enabled.
+         *
+         * @param queuePersistenceEnabled Whether the queue is persisted
+         */
+        public Builder setQueuePersistenceEnabled(boolean queuePersistenceEnabled) {
+            this.queuePersistenceEnabled = queuePersistenceEnabled;
+            return this;
+        }
+
+        /**
+         * Runs the work which comes before the body of a download, like resolving the file,
+         * looking up the database, connecting and following the redirects, on a separate
+         * lane of a few threads. A download takes one of the concurrent download slots only
+         * once its response is ready to be read, so that slow connects on high latency links
+         * do not hold slots while no bytes flow.
+         * <p>
+         * A few responses can wait connected for a slot, and those connections do not count
+         * towards the limits per host. It applies to the thread pool engine only.
+         *
+         * @param probeLaneEnabled Whether the preparation of downloads runs on its own lane
+         */
+        public Builder setProbeLaneEnabled(boolean probeLaneEnabled) {
+            this.probeLaneEnabled = probeLaneEnabled;
+            return this;
+        }
+
+        /**
+         * Sets the shortest time between two progress updates of a download. The updates in
+         * between are dropped, the listener always gets the latest progress.
+         *
+         * @param progressInterval The interval in milliseconds, 0 to report every write
+         */
+        public Builder setProgressInterval(long progressInterval) {
+            this.progressInterval = progressInterval;
+            return this;
+        }
+
+        /**
+         * Sets how many bytes a download has to move before its next progress update.
+         *
+         * @param progressMinBytes The step in bytes, 0 for no step
+         */
+        public Builder setProgressMinBytes(long progressMinBytes) {
+            this.progressMinBytes = progressMinBytes;
+            return this;
+        }
+
+        /**
+         * Sets by how many percent of its total size a download has to move before its next
+         * progress update. It is ignored while the total size is unknown. Either step being
+         * reached is enough when both are set.
+         *
+         * @param progressMinPercent The step in percent, 0 for no step
+         */
+        public Builder setProgressMinPercent(int progressMinPercent) {
+            this.progressMinPercent = progressMinPercent;
+            return this;
+        }
+
+        /**
+         * Sets the shortest time between two deliveries of progress on the main thread. The
+         * updates of all the downloads which arrive in between are delivered together, so the
+         * main looper gets at most one progress message per interval.
+         *
+         * @param progressDispatchInterval The interval in milliseconds, one frame by default
+         */
+        public Builder setProgressDispatchInterval(long progressDispatchInterval) {
+            this.progressDispatchInterval = progressDispatchInterval;
+            return this;
+        }
+
+        /**
+         * Sets the executor the listeners of the downloads are called on, instead of the main
+         * thread. A {@link com.downloader.core.DirectExecutor} calls them right away on the
+         * download threads. Requests can set their own with
+         * {@link com.downloader.request.DownloadRequestBuilder#setCallbackExecutor(Executor)}.
+         *
+         * @param callbackExecutor The executor, null for the main thread
+         */
+        public Builder setCallbackExecutor(Executor callbackExecutor) {
+            this.callbackExecutor = callbackExecutor;
+            return this;
+        }
+
         public PRDownloaderConfig build() throws Exception
         {
             if (this.context == null) throw new Exception("'Context' is a required parameter and should be set before calling this method.");
-            if (this.storagePermissionsHandler == null) throw new Exception("'OnStoragePermissionsRequested' is a required parameter and should be set before calling this method.");
 
             return new PRDownloaderConfig(this);
         }
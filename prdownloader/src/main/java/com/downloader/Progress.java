@@ -29,11 +29,19 @@ public class Progress implements Serializable
     public DownloadRequest request;
     public long currentBytes;
     public long totalBytes;
+    // bytes per second, smoothed over the last seconds
+    public long speed;
+    // bytes per second since the download last started
+    public long averageSpeed;
+    // estimated milliseconds left, -1 if unknown
+    public long eta;
 
     public Progress(DownloadRequest request, long currentBytes, long totalBytes)
     {
+        this.request = request;
         this.currentBytes = currentBytes;
         this.totalBytes = totalBytes;
+        this.eta = -1;
     }
 
     @Override
@@ -41,6 +49,9 @@ public class Progress implements Serializable
         return "Progress{" +
                 "currentBytes=" + currentBytes +
                 ", totalBytes=" + totalBytes +
+                ", speed=" + speed +
+                ", averageSpeed=" + averageSpeed +
+                ", eta=" + eta +
                 '}';
     }
 }
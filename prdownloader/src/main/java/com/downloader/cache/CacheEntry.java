@@ -0,0 +1,131 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader.cache;
+
+import java.io.File;
+
+/**
+ * A single cached response body along with the metadata needed to decide
+ * whether it can be served as is or has to be revalidated first.
+ * The metadata is updated under the lock of the {@link DiskCache} but read
+ * by the downloads without it, hence the volatile fields.
+ * <p>
+ * A response which varies on some request headers is stored once per set of their
+ * values, the entry keeps the names of those headers.
+ */
+public class CacheEntry {
+
+    static final String URL = "url";
+    static final String ETAG = "etag";
+    static final String LAST_MODIFIED = "last_modified";
+    static final String EXPIRES_AT = "expires_at";
+    static final String NO_CACHE = "no_cache";
+    static final String LENGTH = "length";
+    static final String VARY = "vary";
+
+    private final String key;
+    private final String url;
+    private volatile File dataFile;
+    private volatile String eTag;
+    private volatile String lastModified;
+    private volatile long expiresAt;
+    private volatile boolean noCache;
+    private volatile long length;
+    private String[] varyNames = new String[0];
+    // guarded by the lock of the disk cache
+    int readerCount;
+    boolean dataFileMoved;
+
+    CacheEntry(String key, String url, File dataFile) {
+        this.key = key;
+        this.url = url;
+        this.dataFile = dataFile;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public File getDataFile() {
+        return dataFile;
+    }
+
+    void setDataFile(File dataFile) {
+        this.dataFile = dataFile;
+    }
+
+    String[] getVaryNames() {
+        return varyNames;
+    }
+
+    void setVaryNames(String[] varyNames) {
+        this.varyNames = varyNames;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    void setETag(String eTag) {
+        this.eTag = eTag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    void setLastModified(String lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    public boolean isNoCache() {
+        return noCache;
+    }
+
+    void setNoCache(boolean noCache) {
+        this.noCache = noCache;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    void setLength(long length) {
+        this.length = length;
+    }
+
+    public boolean isFresh(long now) {
+        return !noCache && now < expiresAt;
+    }
+
+    public boolean hasValidators() {
+        return eTag != null || lastModified != null;
+    }
+
+}
@@ -0,0 +1,253 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader.cache;
+
+import com.downloader.Constants;
+import com.downloader.httpclient.HttpClient;
+import com.downloader.request.DownloadRequest;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeSet;
+
+/**
+ * Reads the caching related response headers ({@code Cache-Control}, {@code Expires},
+ * {@code ETag}, {@code Last-Modified} and {@code Vary}) of a response.
+ */
+public final class CachePolicy {
+
+    private static final String NO_STORE = "no-store";
+    private static final String NO_CACHE = "no-cache";
+    private static final String PRIVATE = "private";
+    private static final String PUBLIC = "public";
+    private static final String MUST_REVALIDATE = "must-revalidate";
+    private static final String MAX_AGE = "max-age";
+    private static final String S_MAX_AGE = "s-maxage";
+    // delta-seconds too large to be represented are taken as 2^31, see RFC 9111 section 1.2.2
+    private static final long MAX_DELTA_SECONDS = 2147483648L;
+    private static final String HTTP_DATE_PATTERN = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    private CachePolicy() {
+        // no instance
+    }
+
+    /**
+     * Returns true if the response may be stored at all. The disk cache is shared by every
+     * request of the app, so it follows the rules of a shared cache: the response must not
+     * be marked {@code no-store} or {@code private}, nor vary on every header, and the
+     * answer to a request with credentials must be explicitly allowed to be shared. It also
+     * has to be either served fresh for a while or revalidated later.
+     */
+    public static boolean isCacheable(DownloadRequest request, HttpClient httpClient) {
+        final Map<String, String> directives =
+                parseCacheControl(httpClient.getResponseHeader(Constants.CACHE_CONTROL));
+        if (directives.containsKey(NO_STORE) || directives.containsKey(PRIVATE)) {
+            return false;
+        }
+        if (getRequestHeader(request, Constants.AUTHORIZATION) != null && !directives.containsKey(PUBLIC)
+                && !directives.containsKey(S_MAX_AGE) && !directives.containsKey(MUST_REVALIDATE)) {
+            return false;
+        }
+        if (parseVary(httpClient.getResponseHeader(Constants.VARY)) == null) {
+            return false;
+        }
+        return getMaxAgeMillis(directives) > 0
+                || httpClient.getResponseHeader(Constants.EXPIRES) != null
+                || httpClient.getResponseHeader(Constants.ETAG) != null
+                || httpClient.getResponseHeader(Constants.LAST_MODIFIED) != null;
+    }
+
+    /**
+     * Copies the validators and the freshness lifetime of the response onto the entry.
+     * Validators missing from the response (as allowed for a 304) are kept as they were.
+     */
+    static void apply(CacheEntry entry, HttpClient httpClient, long now) {
+        final Map<String, String> directives =
+                parseCacheControl(httpClient.getResponseHeader(Constants.CACHE_CONTROL));
+        final String eTag = httpClient.getResponseHeader(Constants.ETAG);
+        final String lastModified = httpClient.getResponseHeader(Constants.LAST_MODIFIED);
+        if (eTag != null) {
+            entry.setETag(eTag);
+        }
+        if (lastModified != null) {
+            entry.setLastModified(lastModified);
+        }
+
+        entry.setNoCache(directives.containsKey(NO_CACHE));
+
+        final long maxAge = getMaxAgeMillis(directives);
+        if (maxAge > 0) {
+            entry.setExpiresAt(now + maxAge);
+        } else {
+            final long expires = parseHttpDate(httpClient.getResponseHeader(Constants.EXPIRES));
+            entry.setExpiresAt(expires > 0 ? expires : 0);
+        }
+    }
+
+    /**
+     * Returns the lower cased and sorted header names of a {@code Vary} header, an empty
+     * array if there is none, or null for {@code *}, which no stored response can match.
+     */
+    static String[] parseVary(String vary) {
+        final TreeSet<String> names = new TreeSet<>();
+        if (vary != null) {
+            for (String name : vary.split(",")) {
+                name = name.trim().toLowerCase(Locale.ENGLISH);
+                if (name.equals("*")) {
+                    return null;
+                }
+                if (!name.isEmpty()) {
+                    names.add(name);
+                }
+            }
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    /**
+     * Returns the values the request sends for the given headers, one line per header, to
+     * tell apart the responses of a url which vary on them.
+     */
+    static String getVaryValues(DownloadRequest request, String[] varyNames) {
+        final StringBuilder builder = new StringBuilder();
+        for (String name : varyNames) {
+            final String value = getRequestHeader(request, name);
+            builder.append(name).append(':').append(value != null ? value : "").append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns the values the request sends for the header, joined by commas, or null if it
+     * sends none. The user agent is set apart from the other headers.
+     */
+    private static String getRequestHeader(DownloadRequest request, String name) {
+        String value = null;
+        final Map<String, List<String>> headers = request.getHeaders();
+        if (headers != null) {
+            for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+                if (entry.getKey().equalsIgnoreCase(name) && entry.getValue() != null) {
+                    for (String headerValue : entry.getValue()) {
+                        value = value == null ? headerValue : value + "," + headerValue;
+                    }
+                }
+            }
+        }
+        if (value == null && name.equalsIgnoreCase(Constants.USER_AGENT)) {
+            value = request.getUserAgent();
+        }
+        return value;
+    }
+
+    /**
+     * Splits a {@code Cache-Control} header into its directives. Names are lower cased and
+     * mapped to their value with any quotes removed, or to an empty string if they have none.
+     * Commas inside quoted values do not end the directive and the first of duplicates wins.
+     */
+    static Map<String, String> parseCacheControl(String cacheControl) {
+        final Map<String, String> directives = new HashMap<>();
+        if (cacheControl == null) {
+            return directives;
+        }
+        final int length = cacheControl.length();
+        int i = 0;
+        while (i < length) {
+            int start = i;
+            while (i < length && cacheControl.charAt(i) != ',' && cacheControl.charAt(i) != '=') {
+                i++;
+            }
+            final String name = cacheControl.substring(start, i).trim().toLowerCase(Locale.ENGLISH);
+            String value = "";
+            if (i < length && cacheControl.charAt(i) == '=') {
+                i++;
+                while (i < length && cacheControl.charAt(i) == ' ') {
+                    i++;
+                }
+                if (i < length && cacheControl.charAt(i) == '"') {
+                    final StringBuilder quoted = new StringBuilder();
+                    i++;
+                    while (i < length && cacheControl.charAt(i) != '"') {
+                        if (cacheControl.charAt(i) == '\\' && i + 1 < length) {
+                            i++;
+                        }
+                        quoted.append(cacheControl.charAt(i++));
+                    }
+                    value = quoted.toString();
+                    while (i < length && cacheControl.charAt(i) != ',') {
+                        i++;
+                    }
+                } else {
+                    start = i;
+                    while (i < length && cacheControl.charAt(i) != ',') {
+                        i++;
+                    }
+                    value = cacheControl.substring(start, i).trim();
+                }
+            }
+            i++;
+            if (!name.isEmpty() && !directives.containsKey(name)) {
+                directives.put(name, value);
+            }
+        }
+        return directives;
+    }
+
+    /**
+     * Returns the freshness lifetime given by {@code s-maxage} or else {@code max-age}, or 0
+     * if there is none or it is invalid. The disk cache serves every request of the app for
+     * a url whatever its headers, so it takes the stricter shared cache view of s-maxage.
+     */
+    private static long getMaxAgeMillis(Map<String, String> directives) {
+        String seconds = directives.get(S_MAX_AGE);
+        if (seconds == null) {
+            seconds = directives.get(MAX_AGE);
+        }
+        if (seconds == null || seconds.isEmpty()) {
+            return 0;
+        }
+        for (int i = 0; i < seconds.length(); i++) {
+            if (seconds.charAt(i) < '0' || seconds.charAt(i) > '9') {
+                return 0;
+            }
+        }
+        if (seconds.length() > 10) {
+            return MAX_DELTA_SECONDS * 1000L;
+        }
+        return Math.min(Long.parseLong(seconds), MAX_DELTA_SECONDS) * 1000L;
+    }
+
+    private static long parseHttpDate(String value) {
+        if (value == null) {
+            return 0;
+        }
+        final SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_PATTERN, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            final Date date = format.parse(value);
+            return date.getTime();
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+
+}
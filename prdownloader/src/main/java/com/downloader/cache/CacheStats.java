@@ -0,0 +1,78 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader.cache;
+
+/**
+ * Snapshot of the disk cache counters.
+ */
+public class CacheStats {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long revalidatedCount;
+    private final long bytesSaved;
+    private final long size;
+    private final long maxSize;
+
+    CacheStats(long hitCount, long missCount, long revalidatedCount, long bytesSaved, long size, long maxSize) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.revalidatedCount = revalidatedCount;
+        this.bytesSaved = bytesSaved;
+        this.size = size;
+        this.maxSize = maxSize;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Number of hits which needed a conditional request answered with 304 Not Modified.
+     */
+    public long getRevalidatedCount() {
+        return revalidatedCount;
+    }
+
+    public long getBytesSaved() {
+        return bytesSaved;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{" +
+                "hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                ", revalidatedCount=" + revalidatedCount +
+                ", bytesSaved=" + bytesSaved +
+                ", size=" + size +
+                ", maxSize=" + maxSize +
+                '}';
+    }
+}
@@ -0,0 +1,461 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader.cache;
+
+import com.downloader.Constants;
+import com.downloader.httpclient.HttpClient;
+import com.downloader.request.DownloadRequest;
+import com.downloader.utils.Utils;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size bounded disk cache of downloaded response bodies, evicting the least recently
+ * used entries once the byte budget is exceeded.
+ * <p>
+ * Every entry is kept as a {@code .data} file holding the body and a {@code .meta}
+ * file holding its validators and freshness lifetime. The access order survives a
+ * restart through the modification time of the meta files.
+ * <p>
+ * An entry is keyed by its url, along with the values of the request headers named by
+ * the {@code Vary} header of the last response stored for that url. A body which is
+ * being read is moved aside rather than deleted when its entry is removed, and deleted
+ * once the last reader closed it.
+ */
+public class DiskCache {
+
+    private static final String DATA_SUFFIX = ".data";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final Comparator<File> LAST_MODIFIED_ORDER = new Comparator<File>() {
+        @Override
+        public int compare(File f1, File f2) {
+            final long t1 = f1.lastModified();
+            final long t2 = f2.lastModified();
+            return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+        }
+    };
+
+    private final File directory;
+    private final long maxSize;
+    private final LinkedHashMap<String, CacheEntry> entries;
+    private final Set<String> editing;
+    // the header names the last response stored for a url varies on, by hash of the url
+    private final Map<String, String[]> varyNames;
+    private final AtomicLong hitCount;
+    private final AtomicLong missCount;
+    private final AtomicLong revalidatedCount;
+    private final AtomicLong bytesSaved;
+    private long size;
+    private int movedFileCount;
+    private boolean initialized;
+
+    public DiskCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.editing = new HashSet<>();
+        this.varyNames = new HashMap<>();
+        this.hitCount = new AtomicLong();
+        this.missCount = new AtomicLong();
+        this.revalidatedCount = new AtomicLong();
+        this.bytesSaved = new AtomicLong();
+    }
+
+    /**
+     * Returns the entry stored for the url which matches the headers of the request, or
+     * null if there is none. Its body is read through {@link #openStream(CacheEntry)}.
+     */
+    public synchronized CacheEntry get(String url, DownloadRequest request) {
+        ensureInitialized();
+        final CacheEntry entry = entries.get(getKey(url, request, varyNames.get(Utils.getMd5Hex(url))));
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.getDataFile().exists()) {
+            removeEntry(entry);
+            return null;
+        }
+        //noinspection ResultOfMethodCallIgnored
+        getMetaFile(entry.getKey()).setLastModified(System.currentTimeMillis());
+        return entry;
+    }
+
+    /**
+     * Opens the body of an entry returned by {@link #get(String, DownloadRequest)}, or
+     * returns null if the entry was replaced or removed since. The entry is pinned until
+     * the stream is closed.
+     */
+    public synchronized InputStream openStream(final CacheEntry entry) {
+        if (entries.get(entry.getKey()) != entry) {
+            return null;
+        }
+        final InputStream inputStream;
+        try {
+            inputStream = new FileInputStream(entry.getDataFile());
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        entry.readerCount++;
+        return new FilterInputStream(inputStream) {
+
+            private boolean closed;
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    if (!closed) {
+                        closed = true;
+                        release(entry);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Starts writing the body of the response to the request. Returns null if the same
+     * entry is already being written by another download.
+     */
+    public synchronized Editor edit(String url, DownloadRequest request, HttpClient httpClient) {
+        ensureInitialized();
+        final String[] names = CachePolicy.parseVary(httpClient.getResponseHeader(Constants.VARY));
+        if (names == null) {
+            return null;
+        }
+        final String key = getKey(url, request, names);
+        if (!editing.add(key)) {
+            return null;
+        }
+        return new Editor(key, url, names);
+    }
+
+    /**
+     * Refreshes the freshness lifetime of an entry after the server answered a
+     * conditional request with 304 Not Modified, and counts it as a revalidated hit.
+     * Only called once the cached body could be opened, otherwise the download goes
+     * back to the network and is counted as a miss instead.
+     */
+    public synchronized void onRevalidated(CacheEntry entry, HttpClient httpClient) {
+        CachePolicy.apply(entry, httpClient, System.currentTimeMillis());
+        writeMeta(entry);
+        revalidatedCount.incrementAndGet();
+    }
+
+    public void onHit(CacheEntry entry) {
+        hitCount.incrementAndGet();
+        bytesSaved.addAndGet(entry.getLength());
+    }
+
+    public void onMiss() {
+        missCount.incrementAndGet();
+    }
+
+    /**
+     * Removes an entry returned by {@link #get(String, DownloadRequest)}, unless it was
+     * replaced or removed since.
+     */
+    public synchronized void remove(CacheEntry entry) {
+        if (entries.get(entry.getKey()) == entry) {
+            removeEntry(entry);
+        }
+    }
+
+    public synchronized void clear() {
+        ensureInitialized();
+        for (CacheEntry entry : new ArrayList<>(entries.values())) {
+            removeEntry(entry);
+        }
+        varyNames.clear();
+    }
+
+    public synchronized CacheStats getStats() {
+        return new CacheStats(hitCount.get(), missCount.get(), revalidatedCount.get(),
+                bytesSaved.get(), size, maxSize);
+    }
+
+    private void removeEntry(CacheEntry entry) {
+        entries.remove(entry.getKey());
+        size -= entry.getLength();
+        deleteFiles(entry);
+    }
+
+    /**
+     * Deletes the files of an entry taken out of the map. The body of an entry which is
+     * still read is moved aside instead, so that a new body can take its place.
+     */
+    private void deleteFiles(CacheEntry entry) {
+        //noinspection ResultOfMethodCallIgnored
+        getMetaFile(entry.getKey()).delete();
+        if (entry.readerCount > 0) {
+            // named as a temporary file, so that it is deleted on the next start at the latest
+            final File movedFile = new File(directory, entry.getKey() + "." + (++movedFileCount) + TEMP_SUFFIX);
+            if (entry.getDataFile().renameTo(movedFile)) {
+                entry.setDataFile(movedFile);
+                entry.dataFileMoved = true;
+            }
+            return;
+        }
+        //noinspection ResultOfMethodCallIgnored
+        entry.getDataFile().delete();
+    }
+
+    private synchronized void release(CacheEntry entry) {
+        if (--entry.readerCount == 0 && entry.dataFileMoved) {
+            //noinspection ResultOfMethodCallIgnored
+            entry.getDataFile().delete();
+        }
+    }
+
+    /**
+     * Returns the hash of the url, along with the values the request sends for the given
+     * header names if there are any.
+     */
+    private static String getKey(String url, DownloadRequest request, String[] names) {
+        if (names == null || names.length == 0) {
+            return Utils.getMd5Hex(url);
+        }
+        return Utils.getMd5Hex(url + '\n' + CachePolicy.getVaryValues(request, names));
+    }
+
+    private synchronized void commit(Editor editor, HttpClient httpClient, long length) {
+        editing.remove(editor.key);
+        if (length > maxSize) {
+            //noinspection ResultOfMethodCallIgnored
+            editor.tempFile.delete();
+            return;
+        }
+        final CacheEntry old = entries.get(editor.key);
+        if (old != null) {
+            removeEntry(old);
+        }
+        final CacheEntry entry = new CacheEntry(editor.key, editor.url, getDataFile(editor.key));
+        entry.setLength(length);
+        entry.setVaryNames(editor.varyNames);
+        CachePolicy.apply(entry, httpClient, System.currentTimeMillis());
+        if (!editor.tempFile.renameTo(entry.getDataFile())) {
+            //noinspection ResultOfMethodCallIgnored
+            editor.tempFile.delete();
+            return;
+        }
+        writeMeta(entry);
+        entries.put(entry.getKey(), entry);
+        varyNames.put(Utils.getMd5Hex(editor.url), editor.varyNames);
+        size += length;
+        trimToSize();
+    }
+
+    private synchronized void abort(Editor editor) {
+        editing.remove(editor.key);
+        //noinspection ResultOfMethodCallIgnored
+        editor.tempFile.delete();
+    }
+
+    private void trimToSize() {
+        final Iterator<Map.Entry<String, CacheEntry>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            final CacheEntry eldest = iterator.next().getValue();
+            iterator.remove();
+            size -= eldest.getLength();
+            deleteFiles(eldest);
+        }
+    }
+
+    private void ensureInitialized() {
+        if (initialized) {
+            return;
+        }
+        initialized = true;
+        if (!directory.exists() && !directory.mkdirs()) {
+            return;
+        }
+        final File[] metaFiles = directory.listFiles();
+        if (metaFiles == null) {
+            return;
+        }
+        final List<File> files = new ArrayList<>(Arrays.asList(metaFiles));
+        Collections.sort(files, LAST_MODIFIED_ORDER);
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            } else if (name.endsWith(META_SUFFIX)) {
+                final CacheEntry entry = readMeta(name.substring(0, name.length() - META_SUFFIX.length()));
+                if (entry == null || entry.getUrl() == null || entry.getVaryNames() == null) {
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                } else {
+                    entries.put(entry.getKey(), entry);
+                    // the most recently used response of a url comes last
+                    varyNames.put(Utils.getMd5Hex(entry.getUrl()), entry.getVaryNames());
+                    size += entry.getLength();
+                }
+            }
+        }
+        trimToSize();
+    }
+
+    private CacheEntry readMeta(String key) {
+        final File dataFile = getDataFile(key);
+        if (!dataFile.exists()) {
+            return null;
+        }
+        final Properties properties = new Properties();
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(getMetaFile(key));
+            properties.load(inputStream);
+            final CacheEntry entry = new CacheEntry(key, properties.getProperty(CacheEntry.URL), dataFile);
+            entry.setETag(properties.getProperty(CacheEntry.ETAG));
+            entry.setLastModified(properties.getProperty(CacheEntry.LAST_MODIFIED));
+            entry.setExpiresAt(Long.parseLong(properties.getProperty(CacheEntry.EXPIRES_AT, "0")));
+            entry.setNoCache(Boolean.parseBoolean(properties.getProperty(CacheEntry.NO_CACHE)));
+            entry.setVaryNames(CachePolicy.parseVary(properties.getProperty(CacheEntry.VARY)));
+            entry.setLength(dataFile.length());
+            return entry;
+        } catch (IOException | NumberFormatException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            closeSafely(inputStream);
+        }
+    }
+
+    private void writeMeta(CacheEntry entry) {
+        final Properties properties = new Properties();
+        properties.setProperty(CacheEntry.URL, entry.getUrl());
+        if (entry.getETag() != null) {
+            properties.setProperty(CacheEntry.ETAG, entry.getETag());
+        }
+        if (entry.getLastModified() != null) {
+            properties.setProperty(CacheEntry.LAST_MODIFIED, entry.getLastModified());
+        }
+        properties.setProperty(CacheEntry.EXPIRES_AT, String.valueOf(entry.getExpiresAt()));
+        properties.setProperty(CacheEntry.NO_CACHE, String.valueOf(entry.isNoCache()));
+        properties.setProperty(CacheEntry.LENGTH, String.valueOf(entry.getLength()));
+        if (entry.getVaryNames().length > 0) {
+            final StringBuilder vary = new StringBuilder();
+            for (String name : entry.getVaryNames()) {
+                vary.append(vary.length() > 0 ? "," : "").append(name);
+            }
+            properties.setProperty(CacheEntry.VARY, vary.toString());
+        }
+        OutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(getMetaFile(entry.getKey()));
+            properties.store(outputStream, null);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeSafely(outputStream);
+        }
+    }
+
+    private File getDataFile(String key) {
+        return new File(directory, key + DATA_SUFFIX);
+    }
+
+    private File getMetaFile(String key) {
+        return new File(directory, key + META_SUFFIX);
+    }
+
+    private static void closeSafely(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Writes a response body into a temporary file which only becomes visible to
+     * readers once the download completed and {@link #commit(HttpClient)} is called.
+     */
+    public final class Editor {
+
+        private final String key;
+        private final String url;
+        private final String[] varyNames;
+        private final File tempFile;
+        private OutputStream outputStream;
+        private long length;
+
+        private Editor(String key, String url, String[] varyNames) {
+            this.key = key;
+            this.url = url;
+            this.varyNames = varyNames;
+            this.tempFile = new File(directory, key + DATA_SUFFIX + TEMP_SUFFIX);
+        }
+
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            if (outputStream == null) {
+                outputStream = new BufferedOutputStream(new FileOutputStream(tempFile));
+            }
+            outputStream.write(buffer, offset, count);
+            length += count;
+        }
+
+        public void commit(HttpClient httpClient) {
+            try {
+                if (outputStream != null) {
+                    outputStream.close();
+                    outputStream = null;
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                abort();
+                return;
+            }
+            DiskCache.this.commit(this, httpClient, length);
+        }
+
+        public void abort() {
+            closeSafely(outputStream);
+            outputStream = null;
+            DiskCache.this.abort(this);
+        }
+
+    }
+
+}
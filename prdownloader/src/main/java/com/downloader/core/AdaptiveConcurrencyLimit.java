@@ -0,0 +1,192 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader.core;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Number of downloads allowed to transfer at the same time, adjusted at runtime from
+ * the aggregate throughput, the errors and the time to first byte of the downloads.
+ * <p>
+ * Every sample window the limit is grown by one while it is fully used and the last
+ * increase still raised the throughput (additive increase). It is cut by a quarter
+ * as soon as errors show up or the time to first byte doubles compared to the best
+ * one seen recently (multiplicative decrease).
+ * <p>
+ * Windows are closed by the downloads reporting bytes or errors, and by a timer so that
+ * a window in which every download stalls still counts, with no throughput at all.
+ */
+public class AdaptiveConcurrencyLimit {
+
+    private static final long SAMPLE_WINDOW_IN_MILLS = 2000;
+    private static final double BACKOFF_RATIO = 0.75;
+    private static final double MIN_THROUGHPUT_GAIN = 1.05;
+    private static final double MAX_LATENCY_RATIO = 2.0;
+    private static final int MIN_LATENCY_RESET_WINDOWS = 30;
+
+    interface OnLimitChangedListener {
+
+        void onLimitChanged(int limit);
+
+        int getInFlightCount();
+
+    }
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final boolean adaptive;
+    private final long sampleWindowInMills;
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicInteger errors = new AtomicInteger();
+    private final AtomicLong latencySum = new AtomicLong();
+    private final AtomicInteger latencyCount = new AtomicInteger();
+    private final AtomicInteger externalInFlightCount = new AtomicInteger();
+    private final AtomicLong lastSampleTime;
+    private final Clock clock;
+    private volatile int limit;
+    private volatile long throughput;
+    private OnLimitChangedListener listener;
+    private boolean lastChangeWasIncrease;
+    private long minLatency;
+    private int windowsSinceMinLatencyReset;
+
+    public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, boolean adaptive) {
+        this(initialLimit, minLimit, maxLimit, adaptive, SAMPLE_WINDOW_IN_MILLS, Clock.SYSTEM);
+    }
+
+    AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, boolean adaptive,
+                             long sampleWindowInMills, Clock clock) {
+        this.sampleWindowInMills = sampleWindowInMills;
+        this.clock = clock;
+        this.lastSampleTime = new AtomicLong(clock.currentTimeMillis());
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.adaptive = adaptive;
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    }
+
+    void setOnLimitChangedListener(OnLimitChangedListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Checks every half window whether the current one is over, for as long as the
+     * scheduler runs.
+     */
+    void startSampling(ScheduledExecutorService scheduler) {
+        final long period = Math.max(1, sampleWindowInMills / 2);
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                sampleIfRequired();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Aggregate throughput of all downloads during the last sample window, in bytes per second.
+     */
+    public long getThroughput() {
+        return throughput;
+    }
+
+    public void onBytesTransferred(long count) {
+        bytes.addAndGet(count);
+        sampleIfRequired();
+    }
+
+    public void onResponse(long latencyInMills) {
+        latencySum.addAndGet(latencyInMills);
+        latencyCount.incrementAndGet();
+    }
+
+    /**
+     * Counts a transfer which runs outside the pool of the listener, like the ones of the
+     * non blocking engine, as in flight until {@link #onTransferFinished()}.
+     */
+    public void onTransferStarted() {
+        externalInFlightCount.incrementAndGet();
+    }
+
+    public void onTransferFinished() {
+        externalInFlightCount.decrementAndGet();
+    }
+
+    public void onError() {
+        errors.incrementAndGet();
+        sampleIfRequired();
+    }
+
+    private void sampleIfRequired() {
+        final long currentTime = clock.currentTimeMillis();
+        final long lastTime = lastSampleTime.get();
+        final long timeDelta = currentTime - lastTime;
+        if (timeDelta >= sampleWindowInMills && lastSampleTime.compareAndSet(lastTime, currentTime)) {
+            sample(timeDelta);
+        }
+    }
+
+    private synchronized void sample(long timeDelta) {
+        final long sampleBytes = bytes.getAndSet(0);
+        final int sampleErrors = errors.getAndSet(0);
+        final long sampleLatencySum = latencySum.getAndSet(0);
+        final int sampleLatencyCount = latencyCount.getAndSet(0);
+        final long sampleThroughput = sampleBytes * 1000 / timeDelta;
+        final long sampleLatency = sampleLatencyCount > 0 ? sampleLatencySum / sampleLatencyCount : 0;
+
+        if (++windowsSinceMinLatencyReset >= MIN_LATENCY_RESET_WINDOWS) {
+            minLatency = 0;
+            windowsSinceMinLatencyReset = 0;
+        }
+        if (sampleLatency > 0 && (minLatency == 0 || sampleLatency < minLatency)) {
+            minLatency = sampleLatency;
+        }
+
+        if (adaptive && listener != null) {
+            int newLimit = limit;
+            if (sampleErrors > 0 || (minLatency > 0 && sampleLatency > minLatency * MAX_LATENCY_RATIO)) {
+                newLimit = (int) (limit * BACKOFF_RATIO);
+                lastChangeWasIncrease = false;
+            } else if (listener.getInFlightCount() + externalInFlightCount.get() >= limit) {
+                if (lastChangeWasIncrease && sampleThroughput < throughput * MIN_THROUGHPUT_GAIN) {
+                    newLimit = limit - 1;
+                    lastChangeWasIncrease = false;
+                } else {
+                    newLimit = limit + 1;
+                    lastChangeWasIncrease = true;
+                }
+            } else {
+                lastChangeWasIncrease = false;
+            }
+            newLimit = Math.min(maxLimit, Math.max(minLimit, newLimit));
+            if (newLimit != limit) {
+                limit = newLimit;
+                listener.onLimitChanged(newLimit);
+            }
+        }
+
+        throughput = sampleThroughput;
+    }
+
+}
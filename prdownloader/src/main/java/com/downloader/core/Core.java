@@ -22,8 +22,9 @@ package com.downloader.core;
 
 public class Core {
 
-    private static Core instance = null;
+    private static volatile Core instance = null;
     private final ExecutorSupplier executorSupplier;
+    private volatile boolean shutDown;
 
     private Core() {
         this.executorSupplier = new DefaultExecutorSupplier();
@@ -40,6 +41,22 @@ public class Core {
         return instance;
     }
 
+    /**
+     * Replaces the instance if it was shut down, so that initializing again after a shut
+     * down starts new executors.
+     */
+    public static void initialize() {
+        synchronized (Core.class) {
+            if (instance != null && instance.shutDown) {
+                instance = null;
+            }
+        }
+    }
+
+    public boolean isShutDown() {
+        return shutDown;
+    }
+
     public ExecutorSupplier getExecutorSupplier() {
         return executorSupplier;
     }
@@ -49,4 +66,23 @@ public class Core {
             instance = null;
         }
     }
+
+    /**
+     * Stops the executors of the instance, which stays in place until the next initialize.
+     * The late users get the stopped executors instead of new ones: the background work
+     * handed to them is dropped and the downloads are rejected.
+     *
+     * @return false if the executors did not terminate within the timeout
+     */
+    public static boolean shutDown(long timeoutInMills) {
+        final Core core;
+        synchronized (Core.class) {
+            core = instance;
+            if (core == null || core.shutDown) {
+                return true;
+            }
+            core.shutDown = true;
+        }
+        return core.executorSupplier.shutDown(timeoutInMills);
+    }
 }
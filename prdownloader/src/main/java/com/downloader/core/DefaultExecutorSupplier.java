@@ -18,9 +18,17 @@ package com.downloader.core;
 
 import android.os.Process;
 
+import com.downloader.internal.ComponentHolder;
+import com.downloader.internal.NioDownloadEngine;
+
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by amitshekhar on 13/11/17.
@@ -28,15 +36,35 @@ import java.util.concurrent.ThreadFactory;
 
 public class DefaultExecutorSupplier implements ExecutorSupplier {
 
-    private static final int DEFAULT_MAX_NUM_THREADS = 2 * Runtime.getRuntime().availableProcessors() + 1;
+    private static final int DEFAULT_NUM_THREADS = 2 * Runtime.getRuntime().availableProcessors() + 1;
+    private static final int ABORT_THREAD_COUNT = 2;
+    private static final long ABORT_THREAD_KEEP_ALIVE_IN_MILLS = 10000;
     private final DownloadExecutor networkExecutor;
-    private final Executor backgroundExecutor;
+    private final NioDownloadEngine nonBlockingEngine;
+    private final ProbeExecutor probeExecutor;
+    private final ScheduledThreadPoolExecutor backgroundExecutor;
+    private final ThreadPoolExecutor abortExecutor;
     private final Executor mainThreadExecutor;
 
     DefaultExecutorSupplier() {
         ThreadFactory backgroundPriorityThreadFactory = new PriorityThreadFactory(Process.THREAD_PRIORITY_BACKGROUND);
-        networkExecutor = new DownloadExecutor(DEFAULT_MAX_NUM_THREADS, backgroundPriorityThreadFactory);
-        backgroundExecutor = Executors.newSingleThreadExecutor();
+        ComponentHolder componentHolder = ComponentHolder.getInstance();
+        AdaptiveConcurrencyLimit concurrencyLimit = new AdaptiveConcurrencyLimit(DEFAULT_NUM_THREADS,
+                componentHolder.getMinConcurrency(), componentHolder.getMaxConcurrency(),
+                componentHolder.isAdaptiveConcurrencyEnabled());
+        networkExecutor = new DownloadExecutor(concurrencyLimit, backgroundPriorityThreadFactory);
+        nonBlockingEngine = new NioDownloadEngine(concurrencyLimit);
+        probeExecutor = new ProbeExecutor(backgroundPriorityThreadFactory);
+        backgroundExecutor = new ScheduledThreadPoolExecutor(1);
+        backgroundExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        // the late database writes and timeouts are dropped once shut down
+        backgroundExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.DiscardPolicy());
+        concurrencyLimit.startSampling(backgroundExecutor);
+        // aborts are rare, the threads end once idle
+        abortExecutor = new ThreadPoolExecutor(ABORT_THREAD_COUNT, ABORT_THREAD_COUNT,
+                ABORT_THREAD_KEEP_ALIVE_IN_MILLS, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), backgroundPriorityThreadFactory);
+        abortExecutor.allowCoreThreadTimeOut(true);
         mainThreadExecutor = new MainThreadExecutor();
     }
 
@@ -45,13 +73,62 @@ public class DefaultExecutorSupplier implements ExecutorSupplier {
         return networkExecutor;
     }
 
+    @Override
+    public NioDownloadEngine forNonBlockingDownloadTasks() {
+        return nonBlockingEngine;
+    }
+
+    @Override
+    public ProbeExecutor forProbeTasks() {
+        return probeExecutor;
+    }
+
     @Override
     public Executor forBackgroundTasks() {
         return backgroundExecutor;
     }
 
+    @Override
+    public Executor forAbortTasks() {
+        return abortExecutor;
+    }
+
+    @Override
+    public ScheduledExecutorService forScheduledTasks() {
+        return backgroundExecutor;
+    }
+
     @Override
     public Executor forMainThreadTasks() {
         return mainThreadExecutor;
     }
+
+    @Override
+    public boolean shutDown(long timeoutInMills) {
+        final long deadline = System.currentTimeMillis() + timeoutInMills;
+        probeExecutor.shutdownNow();
+        // the prepared downloads still queued have a connection to close
+        for (Runnable task : networkExecutor.shutdownNow()) {
+            ((Future<?>) task).cancel(false);
+        }
+        nonBlockingEngine.shutDown();
+        // let the pending database writes finish, the delayed ones are dropped
+        backgroundExecutor.shutdown();
+        // the aborts of the stopped downloads still run
+        abortExecutor.shutdown();
+        try {
+            return probeExecutor.awaitTermination(remaining(deadline), TimeUnit.MILLISECONDS)
+                    && networkExecutor.awaitTermination(remaining(deadline), TimeUnit.MILLISECONDS)
+                    && nonBlockingEngine.awaitTermination(remaining(deadline))
+                    && backgroundExecutor.awaitTermination(remaining(deadline), TimeUnit.MILLISECONDS)
+                    && abortExecutor.awaitTermination(remaining(deadline), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static long remaining(long deadline) {
+        return Math.max(0, deadline - System.currentTimeMillis());
+    }
 }
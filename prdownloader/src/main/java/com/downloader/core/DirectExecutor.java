@@ -0,0 +1,33 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.core;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs the callbacks right away on the thread delivering them, mostly a download thread.
+ * For consumers which do their work off the main thread and want no hand-off; the
+ * callbacks must then be quick and must not block.
+ */
+public class DirectExecutor implements Executor {
+
+    @Override
+    public void execute(Runnable runnable) {
+        runnable.run();
+    }
+}
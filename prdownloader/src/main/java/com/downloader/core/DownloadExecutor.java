@@ -16,23 +16,200 @@
 
 package com.downloader.core;
 
+import com.downloader.Priority;
+import com.downloader.internal.ComponentHolder;
 import com.downloader.internal.DownloadRunnable;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
-import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by amitshekhar on 13/11/17.
  */
 
-public class DownloadExecutor extends ThreadPoolExecutor {
+public class DownloadExecutor extends ThreadPoolExecutor
+        implements AdaptiveConcurrencyLimit.OnLimitChangedListener {
 
-    DownloadExecutor(int maxNumThreads, ThreadFactory threadFactory) {
-        super(maxNumThreads, maxNumThreads, 0, TimeUnit.MILLISECONDS,
-                new PriorityBlockingQueue<Runnable>(), threadFactory);
+    private final AdaptiveConcurrencyLimit concurrencyLimit;
+    private final DownloadQueue downloadQueue;
+    private final boolean preemptionEnabled;
+    private final Set<DownloadFutureTask> runningTasks =
+            Collections.newSetFromMap(new ConcurrentHashMap<DownloadFutureTask, Boolean>());
+    private final AtomicLong preemptionCount = new AtomicLong();
+    private final WaitTimeHistogram preemptionLatencyHistogram = new WaitTimeHistogram();
+
+    DownloadExecutor(AdaptiveConcurrencyLimit concurrencyLimit, ThreadFactory threadFactory) {
+        this(concurrencyLimit, new DownloadQueue(concurrencyLimit), threadFactory);
+    }
+
+    private DownloadExecutor(AdaptiveConcurrencyLimit concurrencyLimit, DownloadQueue downloadQueue,
+                             ThreadFactory threadFactory) {
+        super(concurrencyLimit.getLimit(), concurrencyLimit.getLimit(), 0, TimeUnit.MILLISECONDS,
+                downloadQueue, threadFactory);
+        this.concurrencyLimit = concurrencyLimit;
+        this.downloadQueue = downloadQueue;
+        this.preemptionEnabled = ComponentHolder.getInstance().isPreemptionEnabled();
+        concurrencyLimit.setOnLimitChangedListener(this);
+    }
+
+    public AdaptiveConcurrencyLimit getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    public WaitTimeHistogram getWaitTimeHistogram(Priority priority) {
+        return downloadQueue.getWaitTimeHistogram(priority);
+    }
+
+    public long getPreemptionCount() {
+        return preemptionCount.get();
+    }
+
+    /**
+     * Histogram of the time from being queued to being started of the tasks which
+     * preempted a running download.
+     */
+    public WaitTimeHistogram getPreemptionLatencyHistogram() {
+        return preemptionLatencyHistogram;
+    }
+
+    /**
+     * Moves the queued task to the place matching the current priority of its request.
+     *
+     * @return false if the task is not queued, it is running or already finished
+     */
+    public boolean reprioritize(Future<?> future) {
+        if (!(future instanceof DownloadFutureTask)) {
+            return false;
+        }
+        final DownloadFutureTask task = (DownloadFutureTask) future;
+        if (!downloadQueue.reprioritize(task)) {
+            return false;
+        }
+        preemptIfRequired(task);
+        return true;
+    }
+
+    /**
+     * Takes the task out of the queue if it did not start yet.
+     *
+     * @return false if the task is not queued
+     */
+    public boolean removeQueued(Future<?> future) {
+        return future instanceof DownloadFutureTask && downloadQueue.remove(future);
+    }
+
+    @Override
+    public void onLimitChanged(int limit) {
+        if (limit > getMaximumPoolSize()) {
+            setMaximumPoolSize(limit);
+            setCorePoolSize(limit);
+        } else {
+            setCorePoolSize(limit);
+            setMaximumPoolSize(limit);
+        }
+    }
+
+    @Override
+    public int getInFlightCount() {
+        return getActiveCount();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (isShutdown()) {
+            super.execute(command);
+            return;
+        }
+        // Always go through the queue, even when a core thread is missing, so that
+        // the host limits apply to every task.
+        downloadQueue.offer(command);
+        prestartAllCoreThreads();
+        preemptIfRequired((DownloadFutureTask) command);
+    }
+
+    @Override
+    protected void beforeExecute(Thread thread, Runnable runnable) {
+        super.beforeExecute(thread, runnable);
+        final DownloadFutureTask task = (DownloadFutureTask) runnable;
+        runningTasks.add(task);
+        if (task.preempting) {
+            preemptionLatencyHistogram.record(System.currentTimeMillis() - task.getEnqueueTime());
+        }
+    }
+
+    @Override
+    protected void afterExecute(Runnable runnable, Throwable throwable) {
+        super.afterExecute(runnable, throwable);
+        final DownloadFutureTask task = (DownloadFutureTask) runnable;
+        runningTasks.remove(task);
+        downloadQueue.release(task.host);
+    }
+
+    /**
+     * Pauses the running download of the lowest priority, if it is lower than the one of
+     * the queued task and every slot is busy. The paused download resumes on its own once
+     * it is taken from the queue again.
+     */
+    private void preemptIfRequired(DownloadFutureTask task) {
+        if (!preemptionEnabled || runningTasks.size() < getCorePoolSize()) {
+            return;
+        }
+        final boolean hostFull = !downloadQueue.hasCapacity(task.host);
+        final int priority = task.getPriority().ordinal();
+        DownloadFutureTask victim = null;
+        for (DownloadFutureTask running : runningTasks) {
+            final int runningPriority = running.getPriority().ordinal();
+            if (runningPriority >= priority || !running.isPreemptible()
+                    || (hostFull && !running.host.equals(task.host))) {
+                continue;
+            }
+            if (victim == null || runningPriority < victim.getPriority().ordinal()
+                    || (runningPriority == victim.getPriority().ordinal()
+                    && running.getSequence() > victim.getSequence())) {
+                victim = running;
+            }
+        }
+        if (victim != null && victim.preempt()) {
+            task.preempting = true;
+            preemptionCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Submits many downloads at once. They are sorted and inserted into the queue under
+     * a single lock and the idle workers are woken up together.
+     *
+     * @return the futures, in the order of the runnables
+     */
+    public List<Future<?>> submitAll(List<DownloadRunnable> runnables) {
+        final List<DownloadFutureTask> tasks = new ArrayList<>(runnables.size());
+        for (DownloadRunnable runnable : runnables) {
+            tasks.add(new DownloadFutureTask(runnable));
+        }
+        if (isShutdown()) {
+            for (DownloadFutureTask task : tasks) {
+                super.execute(task);
+            }
+        } else if (!tasks.isEmpty()) {
+            downloadQueue.offerAll(tasks);
+            prestartAllCoreThreads();
+            DownloadFutureTask highest = tasks.get(0);
+            for (DownloadFutureTask task : tasks) {
+                if (task.getPriority().ordinal() > highest.getPriority().ordinal()) {
+                    highest = task;
+                }
+            }
+            preemptIfRequired(highest);
+        }
+        return new ArrayList<Future<?>>(tasks);
     }
 
     @Override
@@ -18,6 +18,8 @@ package com.downloader.core;
 
 import com.downloader.Priority;
 import com.downloader.internal.DownloadRunnable;
+import com.downloader.request.DownloadRequest;
+import com.downloader.utils.Utils;
 
 import java.util.concurrent.FutureTask;
 
@@ -28,16 +30,59 @@ import java.util.concurrent.FutureTask;
 public class DownloadFutureTask extends FutureTask<DownloadRunnable> implements Comparable<DownloadFutureTask> {
 
     private final DownloadRunnable runnable;
+    final String host;
+    private long enqueueTime;
+    volatile boolean preempting;
 
     DownloadFutureTask(DownloadRunnable downloadRunnable) {
         super(downloadRunnable, null);
         this.runnable = downloadRunnable;
+        this.host = Utils.getHost(downloadRunnable.request.getUrl());
+        this.enqueueTime = System.currentTimeMillis();
+    }
+
+    DownloadRequest getRequest() {
+        return runnable.request;
+    }
+
+    Priority getPriority() {
+        return runnable.request.getPriority();
+    }
+
+    int getSequence() {
+        return runnable.sequence;
+    }
+
+    boolean isPreemptible() {
+        return runnable.request.isPreemptible();
+    }
+
+    boolean preempt() {
+        return runnable.request.preempt();
+    }
+
+    long getEnqueueTime() {
+        return enqueueTime;
+    }
+
+    /**
+     * Set by the queue from its clock, under its lock, when the task is offered.
+     */
+    void setEnqueueTime(long enqueueTime) {
+        this.enqueueTime = enqueueTime;
+    }
+
+    @Override
+    protected void done() {
+        if (isCancelled()) {
+            runnable.onCancelled();
+        }
     }
 
     @Override
     public int compareTo(DownloadFutureTask other) {
-        Priority p1 = runnable.priority;
-        Priority p2 = other.runnable.priority;
+        Priority p1 = getPriority();
+        Priority p2 = other.getPriority();
         return (p1 == p2 ? runnable.sequence - other.runnable.sequence : p2.ordinal() - p1.ordinal());
     }
 }
@@ -0,0 +1,644 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader.core;
+
+import com.downloader.Priority;
+import com.downloader.SchedulingMode;
+import com.downloader.request.DownloadRequest;
+import com.downloader.internal.ComponentHolder;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Work queue of the {@link DownloadExecutor} which keeps one priority queue per host and
+ * only hands out tasks whose host is below its connection limit. A task waiting on its
+ * host does not hold a worker thread, and tasks for other hosts are taken past it.
+ * <p>
+ * A task holds its host slot from the moment it is taken until {@link #release(String)}
+ * is called once it finished.
+ * <p>
+ * Waiting tasks age: every aging interval spent in the queue counts as one priority level,
+ * so a task is ranked by {@code enqueueTime - priority * agingInterval}. The rank does not
+ * change over time. The hosts below their limit are kept in a heap ordered by their best
+ * task, so that a poll looks at its top instead of at every host, and every operation is
+ * O(log n). On top of that the oldest task is taken first once it waited longer than the
+ * starvation bound.
+ * <p>
+ * Entries which were taken, removed or replaced stay in their heap until they reach its
+ * top, or until they are half of it, when it is rebuilt without them.
+ * <p>
+ * In the deadline scheduling mode the tasks with a deadline are ranked by it instead,
+ * ahead of the other tasks while they are estimated to make it and behind them otherwise.
+ * The estimate uses the remaining bytes and the current throughput per running download.
+ * The listeners of the deadlines at risk are called once the lock was released.
+ */
+class DownloadQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    private static final int TIER_FEASIBLE_DEADLINE = 0;
+    private static final int TIER_DEFAULT = 1;
+    private static final int TIER_MISSED_DEADLINE = 2;
+    // below this many stale entries a heap is not worth rebuilding
+    private static final int MIN_STALE_COUNT_TO_COMPACT = 32;
+
+    private static final Comparator<Entry> ENTRY_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry e1, Entry e2) {
+            if (e1.tier != e2.tier) {
+                return e1.tier - e2.tier;
+            }
+            if (e1.rank != e2.rank) {
+                return e1.rank < e2.rank ? -1 : 1;
+            }
+            return e1.task.getSequence() - e2.task.getSequence();
+        }
+    };
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Map<String, HostQueue> hostQueues = new HashMap<>();
+    private final Map<DownloadFutureTask, Entry> entries = new HashMap<>();
+    private ArrayDeque<DownloadFutureTask> arrivalOrder = new ArrayDeque<>();
+    // the hosts below their limit with a queued task, ordered by that task
+    private HostQueue[] readyHosts = new HostQueue[8];
+    private int readyCount;
+    // found under the lock, delivered once it was released
+    private ArrayList<DeadlineAtRisk> deadlinesAtRisk = new ArrayList<>();
+    private final WaitTimeHistogram[] waitTimeHistograms;
+    private final long agingInterval;
+    private final long starvationBound;
+    private final boolean deadlineScheduling;
+    private final AdaptiveConcurrencyLimit concurrencyLimit;
+    private final Clock clock;
+    private int running;
+
+    DownloadQueue(AdaptiveConcurrencyLimit concurrencyLimit) {
+        this(concurrencyLimit, Clock.SYSTEM);
+    }
+
+    DownloadQueue(AdaptiveConcurrencyLimit concurrencyLimit, Clock clock) {
+        this.concurrencyLimit = concurrencyLimit;
+        this.clock = clock;
+        this.deadlineScheduling = ComponentHolder.getInstance().getSchedulingMode() == SchedulingMode.DEADLINE;
+        this.agingInterval = ComponentHolder.getInstance().getPriorityAgingInterval();
+        this.starvationBound = ComponentHolder.getInstance().getStarvationBound();
+        this.waitTimeHistograms = new WaitTimeHistogram[Priority.values().length];
+        for (int i = 0; i < waitTimeHistograms.length; i++) {
+            waitTimeHistograms[i] = new WaitTimeHistogram();
+        }
+    }
+
+    WaitTimeHistogram getWaitTimeHistogram(Priority priority) {
+        return waitTimeHistograms[priority.ordinal()];
+    }
+
+    @Override
+    public boolean offer(Runnable runnable) {
+        final DownloadFutureTask task = (DownloadFutureTask) runnable;
+        final List<DeadlineAtRisk> atRisk;
+        lock.lock();
+        try {
+            HostQueue hostQueue = hostQueues.get(task.host);
+            if (hostQueue == null) {
+                hostQueue = new HostQueue(task.host);
+                hostQueues.put(task.host, hostQueue);
+            }
+            task.setEnqueueTime(clock.currentTimeMillis());
+            final Entry entry = newEntry(task);
+            hostQueue.queue.offer(entry);
+            arrivalOrder.offer(task);
+            entries.put(task, entry);
+            updateReady(hostQueue);
+            if (hostQueue.hasCapacity()) {
+                available.signal();
+            }
+            atRisk = takeDeadlinesAtRisk();
+        } finally {
+            lock.unlock();
+        }
+        deliverDeadlinesAtRisk(atRisk);
+        return true;
+    }
+
+    /**
+     * Inserts many tasks under one lock. The entries are sorted first, so that each of
+     * them sifts up little, if at all, in its host heap.
+     */
+    void offerAll(List<DownloadFutureTask> tasks) {
+        final List<DeadlineAtRisk> atRisk;
+        lock.lock();
+        try {
+            final List<Entry> newEntries = new ArrayList<>(tasks.size());
+            final long currentTime = clock.currentTimeMillis();
+            for (DownloadFutureTask task : tasks) {
+                task.setEnqueueTime(currentTime);
+                newEntries.add(newEntry(task));
+            }
+            Collections.sort(newEntries, ENTRY_ORDER);
+            for (Entry entry : newEntries) {
+                HostQueue hostQueue = hostQueues.get(entry.task.host);
+                if (hostQueue == null) {
+                    hostQueue = new HostQueue(entry.task.host);
+                    hostQueues.put(entry.task.host, hostQueue);
+                }
+                hostQueue.queue.offer(entry);
+                entries.put(entry.task, entry);
+                updateReady(hostQueue);
+            }
+            // arrival order is submission order, not rank order
+            arrivalOrder.addAll(tasks);
+            available.signalAll();
+            atRisk = takeDeadlinesAtRisk();
+        } finally {
+            lock.unlock();
+        }
+        deliverDeadlinesAtRisk(atRisk);
+    }
+
+    @Override
+    public void put(Runnable runnable) {
+        offer(runnable);
+    }
+
+    @Override
+    public boolean offer(Runnable runnable, long timeout, TimeUnit unit) {
+        return offer(runnable);
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            DownloadFutureTask task;
+            while ((task = pollEligible()) == null) {
+                available.await();
+            }
+            return task;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            DownloadFutureTask task;
+            while ((task = pollEligible()) == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = available.awaitNanos(nanos);
+            }
+            return task;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return pollEligible();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            final Entry entry = findEligible(clock.currentTimeMillis());
+            return entry != null ? entry.task : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves a queued task to the place matching its current priority. The previous entry
+     * is left in the heap as a stale one, so this is O(log n).
+     *
+     * @return false if the task is not queued anymore
+     */
+    boolean reprioritize(DownloadFutureTask task) {
+        final List<DeadlineAtRisk> atRisk;
+        lock.lock();
+        try {
+            if (!entries.containsKey(task)) {
+                return false;
+            }
+            final Entry entry = newEntry(task);
+            entries.put(task, entry);
+            final HostQueue hostQueue = hostQueues.get(task.host);
+            hostQueue.queue.offer(entry);
+            onEntryStale(hostQueue);
+            if (hostQueue.hasCapacity()) {
+                available.signal();
+            }
+            atRisk = takeDeadlinesAtRisk();
+        } finally {
+            lock.unlock();
+        }
+        deliverDeadlinesAtRisk(atRisk);
+        return true;
+    }
+
+    boolean hasCapacity(String host) {
+        lock.lock();
+        try {
+            final HostQueue hostQueue = hostQueues.get(host);
+            return hostQueue == null || hostQueue.hasCapacity();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back the slot held by a finished task of the host.
+     */
+    void release(String host) {
+        lock.lock();
+        try {
+            final HostQueue hostQueue = hostQueues.get(host);
+            if (hostQueue == null) {
+                return;
+            }
+            hostQueue.running--;
+            running--;
+            updateReady(hostQueue);
+            if (hostQueue.isIdle()) {
+                hostQueues.remove(host);
+            } else if (hostQueue.head() != null) {
+                available.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object object) {
+        lock.lock();
+        try {
+            final Entry entry = entries.remove(object);
+            if (entry == null) {
+                return false;
+            }
+            final HostQueue hostQueue = hostQueues.get(entry.task.host);
+            onEntryStale(hostQueue);
+            compactArrivalOrderIfRequired();
+            if (hostQueue.isIdle()) {
+                hostQueues.remove(entry.task.host);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> collection, int maxElements) {
+        lock.lock();
+        try {
+            int count = 0;
+            DownloadFutureTask task;
+            while (count < maxElements && (task = arrivalOrder.poll()) != null) {
+                if (entries.remove(task) != null) {
+                    onEntryStale(hostQueues.get(task.host));
+                    collection.add(task);
+                    count++;
+                }
+            }
+            final Iterator<HostQueue> iterator = hostQueues.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().isIdle()) {
+                    iterator.remove();
+                }
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Iterator<Runnable> iterator() {
+        lock.lock();
+        try {
+            final List<Runnable> snapshot = new ArrayList<Runnable>(entries.keySet());
+            return snapshot.iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Entry newEntry(DownloadFutureTask task) {
+        final DownloadRequest request = task.getRequest();
+        if (deadlineScheduling && request.getDeadline() > 0) {
+            final long throughput = concurrencyLimit.getThroughput() / Math.max(1, running);
+            final long currentTime = clock.currentTimeMillis();
+            if (request.isDeadlineFeasible(currentTime, throughput)) {
+                return new Entry(task, TIER_FEASIBLE_DEADLINE, request.getDeadline());
+            }
+            deadlinesAtRisk.add(new DeadlineAtRisk(request,
+                    request.estimateCompletionTime(currentTime, throughput)));
+            return new Entry(task, TIER_MISSED_DEADLINE, request.getDeadline());
+        }
+        return new Entry(task, TIER_DEFAULT, getRank(task));
+    }
+
+    private List<DeadlineAtRisk> takeDeadlinesAtRisk() {
+        if (deadlinesAtRisk.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<DeadlineAtRisk> atRisk = deadlinesAtRisk;
+        deadlinesAtRisk = new ArrayList<>();
+        return atRisk;
+    }
+
+    /**
+     * Warns the listeners, which may run right here with a direct callback executor, so
+     * never under the lock.
+     */
+    private static void deliverDeadlinesAtRisk(List<DeadlineAtRisk> atRisk) {
+        for (int i = 0; i < atRisk.size(); i++) {
+            final DeadlineAtRisk deadlineAtRisk = atRisk.get(i);
+            deadlineAtRisk.request.deliverDeadlineAtRisk(deadlineAtRisk.estimatedCompletionTime);
+        }
+    }
+
+    private long getRank(DownloadFutureTask task) {
+        final int level = task.getPriority().ordinal();
+        if (agingInterval <= 0) {
+            return -level;
+        }
+        return task.getEnqueueTime() - level * agingInterval;
+    }
+
+    private DownloadFutureTask pollEligible() {
+        final long now = clock.currentTimeMillis();
+        final Entry entry = findEligible(now);
+        if (entry == null) {
+            return null;
+        }
+        entries.remove(entry.task);
+        final HostQueue hostQueue = hostQueues.get(entry.task.host);
+        hostQueue.running++;
+        running++;
+        onEntryStale(hostQueue);
+        compactArrivalOrderIfRequired();
+        waitTimeHistograms[entry.task.getPriority().ordinal()].record(now - entry.task.getEnqueueTime());
+        return entry.task;
+    }
+
+    private Entry findEligible(long now) {
+        if (starvationBound > 0) {
+            DownloadFutureTask oldest;
+            while ((oldest = arrivalOrder.peek()) != null && !entries.containsKey(oldest)) {
+                arrivalOrder.poll();
+            }
+            if (oldest != null && now - oldest.getEnqueueTime() >= starvationBound
+                    && hostQueues.get(oldest.host).hasCapacity()) {
+                return entries.get(oldest);
+            }
+        }
+        return readyCount > 0 ? readyHosts[0].key : null;
+    }
+
+    /**
+     * Called once an entry of the host was taken, removed or replaced. Rebuilds the heap
+     * of the host once the stale entries are half of it, and updates its place among the
+     * ready hosts.
+     */
+    private void onEntryStale(HostQueue hostQueue) {
+        hostQueue.staleCount++;
+        if (hostQueue.staleCount >= MIN_STALE_COUNT_TO_COMPACT
+                && hostQueue.staleCount * 2 >= hostQueue.queue.size()) {
+            hostQueue.compact();
+        }
+        updateReady(hostQueue);
+    }
+
+    /**
+     * Drops the tasks which left the queue from the arrival order, once they are half of
+     * it. Otherwise they are only dropped when they reach its head.
+     */
+    private void compactArrivalOrderIfRequired() {
+        if (arrivalOrder.size() < MIN_STALE_COUNT_TO_COMPACT || arrivalOrder.size() < 2 * entries.size()) {
+            return;
+        }
+        final ArrayDeque<DownloadFutureTask> compacted = new ArrayDeque<>(entries.size());
+        for (DownloadFutureTask task : arrivalOrder) {
+            if (entries.containsKey(task)) {
+                compacted.offer(task);
+            }
+        }
+        arrivalOrder = compacted;
+    }
+
+    /**
+     * Puts the host among the ready hosts, ordered by its best task, while it is below
+     * its limit and has a queued task, and takes it out otherwise. Called whenever its
+     * best task or its number of running tasks changed.
+     */
+    private void updateReady(HostQueue hostQueue) {
+        final Entry head = hostQueue.hasCapacity() ? hostQueue.head() : null;
+        if (head == null) {
+            if (hostQueue.readyIndex >= 0) {
+                removeReady(hostQueue.readyIndex);
+            }
+            return;
+        }
+        if (hostQueue.readyIndex < 0) {
+            if (readyCount == readyHosts.length) {
+                readyHosts = Arrays.copyOf(readyHosts, readyCount * 2);
+            }
+            hostQueue.key = head;
+            readyHosts[readyCount] = hostQueue;
+            siftUpReady(readyCount++);
+        } else if (hostQueue.key != head) {
+            hostQueue.key = head;
+            siftUpReady(hostQueue.readyIndex);
+            siftDownReady(hostQueue.readyIndex);
+        }
+    }
+
+    private void removeReady(int index) {
+        final HostQueue removed = readyHosts[index];
+        removed.readyIndex = -1;
+        removed.key = null;
+        final HostQueue last = readyHosts[--readyCount];
+        readyHosts[readyCount] = null;
+        if (last != removed) {
+            readyHosts[index] = last;
+            siftUpReady(index);
+            siftDownReady(last.readyIndex);
+        }
+    }
+
+    private void siftUpReady(int index) {
+        final HostQueue hostQueue = readyHosts[index];
+        while (index > 0) {
+            final int parentIndex = (index - 1) >>> 1;
+            final HostQueue parent = readyHosts[parentIndex];
+            if (ENTRY_ORDER.compare(hostQueue.key, parent.key) >= 0) {
+                break;
+            }
+            readyHosts[index] = parent;
+            parent.readyIndex = index;
+            index = parentIndex;
+        }
+        readyHosts[index] = hostQueue;
+        hostQueue.readyIndex = index;
+    }
+
+    private void siftDownReady(int index) {
+        final HostQueue hostQueue = readyHosts[index];
+        final int half = readyCount >>> 1;
+        while (index < half) {
+            int childIndex = 2 * index + 1;
+            HostQueue child = readyHosts[childIndex];
+            final int rightIndex = childIndex + 1;
+            if (rightIndex < readyCount && ENTRY_ORDER.compare(readyHosts[rightIndex].key, child.key) < 0) {
+                childIndex = rightIndex;
+                child = readyHosts[childIndex];
+            }
+            if (ENTRY_ORDER.compare(hostQueue.key, child.key) <= 0) {
+                break;
+            }
+            readyHosts[index] = child;
+            child.readyIndex = index;
+            index = childIndex;
+        }
+        readyHosts[index] = hostQueue;
+        hostQueue.readyIndex = index;
+    }
+
+    private final class Entry {
+
+        final DownloadFutureTask task;
+        final int tier;
+        final long rank;
+
+        Entry(DownloadFutureTask task, int tier, long rank) {
+            this.task = task;
+            this.tier = tier;
+            this.rank = rank;
+        }
+
+    }
+
+    private static final class DeadlineAtRisk {
+
+        final DownloadRequest request;
+        final long estimatedCompletionTime;
+
+        DeadlineAtRisk(DownloadRequest request, long estimatedCompletionTime) {
+            this.request = request;
+            this.estimatedCompletionTime = estimatedCompletionTime;
+        }
+
+    }
+
+    private final class HostQueue {
+
+        final String host;
+        PriorityQueue<Entry> queue = new PriorityQueue<>(11, ENTRY_ORDER);
+        int running;
+        int staleCount;
+        // the best entry and the place in the ready hosts, while it is one of them
+        Entry key;
+        int readyIndex = -1;
+
+        HostQueue(String host) {
+            this.host = host;
+        }
+
+        /**
+         * Returns the best queued entry, dropping the ones which were taken, removed or
+         * replaced by a re-prioritization in the meantime.
+         */
+        Entry head() {
+            Entry head;
+            while ((head = queue.peek()) != null && entries.get(head.task) != head) {
+                queue.poll();
+                staleCount--;
+            }
+            return head;
+        }
+
+        void compact() {
+            final PriorityQueue<Entry> compacted = new PriorityQueue<>(Math.max(11, queue.size() - staleCount),
+                    ENTRY_ORDER);
+            for (Entry entry : queue) {
+                if (entries.get(entry.task) == entry) {
+                    compacted.offer(entry);
+                }
+            }
+            queue = compacted;
+            staleCount = 0;
+        }
+
+        boolean isIdle() {
+            return running <= 0 && head() == null;
+        }
+
+        boolean hasCapacity() {
+            return running < ComponentHolder.getInstance().getMaxConnectionsPerHost(host);
+        }
+
+    }
+
+}
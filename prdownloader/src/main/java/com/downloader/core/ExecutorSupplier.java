@@ -16,7 +16,10 @@
 
 package com.downloader.core;
 
+import com.downloader.internal.NioDownloadEngine;
+
 import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * Created by amitshekhar on 13/11/17.
@@ -26,8 +29,31 @@ public interface ExecutorSupplier {
 
     DownloadExecutor forDownloadTasks();
 
+    NioDownloadEngine forNonBlockingDownloadTasks();
+
+    ProbeExecutor forProbeTasks();
+
     Executor forBackgroundTasks();
 
+    /**
+     * Runs the aborts of blocked network I/O asked for on the main thread, apart from the
+     * background thread so that they don't wait behind its database writes.
+     */
+    Executor forAbortTasks();
+
+    /**
+     * Runs delayed work on the background thread, like the flushes of the progress
+     * checkpoints. The work still delayed is dropped on shut down.
+     */
+    ScheduledExecutorService forScheduledTasks();
+
     Executor forMainThreadTasks();
 
+    /**
+     * Stops the executors, dropping the queued downloads, and waits for them to terminate.
+     *
+     * @return false if they did not terminate within the timeout
+     */
+    boolean shutDown(long timeoutInMills);
+
 }
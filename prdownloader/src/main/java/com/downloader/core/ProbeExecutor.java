@@ -0,0 +1,87 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.core;
+
+import com.downloader.internal.DownloadRunnable;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lane preparing the downloads of the {@link DownloadExecutor}: everything which comes
+ * before the body, like resolving the file, the database lookup, connecting and following
+ * the redirects. The downloads only enter the {@link DownloadExecutor} once their
+ * response is ready to be read, so its slots are held while bytes flow.
+ * <p>
+ * A prepared download holds a ready slot until its transfer starts. That bounds the
+ * number of connections waiting idle for a transfer slot: once all ready slots are
+ * taken, the lane stops preparing.
+ */
+public class ProbeExecutor extends ThreadPoolExecutor {
+
+    private static final int THREAD_COUNT = 4;
+
+    private final Semaphore readySlots = new Semaphore(THREAD_COUNT);
+
+    ProbeExecutor(ThreadFactory threadFactory) {
+        super(THREAD_COUNT, THREAD_COUNT, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), threadFactory);
+    }
+
+    public void acquireReadySlot() throws InterruptedException {
+        readySlots.acquire();
+    }
+
+    public void releaseReadySlot() {
+        readySlots.release();
+    }
+
+    /**
+     * Moves the queued task to the place matching the current priority of its request.
+     *
+     * @return false if the task is not queued, it is being prepared or already finished
+     */
+    public boolean reprioritize(Future<?> future) {
+        if (!(future instanceof DownloadFutureTask) || !getQueue().remove(future)) {
+            return false;
+        }
+        getQueue().offer((DownloadFutureTask) future);
+        return true;
+    }
+
+    /**
+     * Takes the task out of the queue if its preparation did not start yet.
+     *
+     * @return false if the task is not queued
+     */
+    public boolean removeQueued(Future<?> future) {
+        return future instanceof DownloadFutureTask && remove((DownloadFutureTask) future);
+    }
+
+    @Override
+    public Future<?> submit(Runnable task) {
+        DownloadFutureTask futureTask = new DownloadFutureTask((DownloadRunnable) task);
+        execute(futureTask);
+        return futureTask;
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader.core;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of the time tasks spent waiting in the download queue. Bucket {@code i}
+ * counts the waits shorter than {@code 2^i} milliseconds (and at least {@code 2^(i-1)}),
+ * the last bucket counts everything longer.
+ */
+public class WaitTimeHistogram {
+
+    private static final int BUCKET_COUNT = 24;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    void record(long waitInMills) {
+        int bucket = waitInMills <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(waitInMills);
+        counts.incrementAndGet(Math.min(bucket, BUCKET_COUNT - 1));
+    }
+
+    public int getBucketCount() {
+        return BUCKET_COUNT;
+    }
+
+    /**
+     * Returns the exclusive upper bound of the bucket in milliseconds, or
+     * {@link Long#MAX_VALUE} for the last bucket.
+     */
+    public long getBucketUpperBound(int bucket) {
+        return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    public long getCount(int bucket) {
+        return counts.get(bucket);
+    }
+
+    public long getTotalCount() {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Returns the upper bound of the bucket containing the given percentile (0 to 100) of
+     * the recorded waits, in milliseconds.
+     */
+    public long getPercentile(double percentile) {
+        final long total = getTotalCount();
+        if (total == 0) {
+            return 0;
+        }
+        final long target = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return getBucketUpperBound(i);
+            }
+        }
+        return getBucketUpperBound(BUCKET_COUNT - 1);
+    }
+
+}
@@ -20,6 +20,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -31,6 +32,8 @@ import java.util.List;
 public class AppDbHelper implements DbHelper {
 
     public static final String TABLE_NAME = "prdownloader";
+    public static final String REQUEST_TABLE_NAME = "prdownloader_request";
+    private static final int MAX_IDS_PER_QUERY = 500;
     private final SQLiteDatabase db;
 
     public AppDbHelper(Context context) {
@@ -66,6 +69,27 @@ public class AppDbHelper implements DbHelper {
         return model;
     }
 
+    @Override
+    public List<DownloadModel> findAll(int[] ids) {
+        List<DownloadModel> models = new ArrayList<>(ids.length);
+        StringBuilder query = new StringBuilder();
+        for (int start = 0; start < ids.length; start += MAX_IDS_PER_QUERY) {
+            final int end = Math.min(ids.length, start + MAX_IDS_PER_QUERY);
+            query.setLength(0);
+            query.append("SELECT * FROM ").append(TABLE_NAME)
+                    .append(" WHERE ").append(DownloadModel.ID).append(" IN (");
+            for (int i = start; i < end; i++) {
+                if (i > start) {
+                    query.append(',');
+                }
+                query.append(ids[i]);
+            }
+            query.append(')');
+            readModels(query.toString(), models);
+        }
+        return models;
+    }
+
     @Override
     public void insert(DownloadModel model) {
         try {
@@ -115,6 +139,34 @@ public class AppDbHelper implements DbHelper {
         }
     }
 
+    @Override
+    public void updateProgress(int[] ids, long[] downloadedBytes, long lastModifiedAt) {
+        SQLiteStatement statement = null;
+        try {
+            db.beginTransaction();
+            try {
+                statement = db.compileStatement("UPDATE " + TABLE_NAME + " SET " +
+                        DownloadModel.DOWNLOADED_BYTES + " = ?, " +
+                        DownloadModel.LAST_MODIFIED_AT + " = ? WHERE " +
+                        DownloadModel.ID + " = ?");
+                for (int i = 0; i < ids.length; i++) {
+                    statement.bindLong(1, downloadedBytes[i]);
+                    statement.bindLong(2, lastModifiedAt);
+                    statement.bindLong(3, ids[i]);
+                    statement.executeUpdateDelete();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                if (statement != null) {
+                    statement.close();
+                }
+                db.endTransaction();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
     @Override
     public void remove(int id) {
         try {
@@ -125,15 +177,47 @@ public class AppDbHelper implements DbHelper {
         }
     }
 
+    @Override
+    public void removeAll(int[] ids) {
+        SQLiteStatement statement = null;
+        try {
+            db.beginTransaction();
+            try {
+                statement = db.compileStatement("DELETE FROM " + TABLE_NAME + " WHERE " +
+                        DownloadModel.ID + " = ?");
+                for (int id : ids) {
+                    statement.bindLong(1, id);
+                    statement.executeUpdateDelete();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                if (statement != null) {
+                    statement.close();
+                }
+                db.endTransaction();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
     @Override
     public List<DownloadModel> getUnwantedModels(int days) {
         List<DownloadModel> models = new ArrayList<>();
+        final long daysInMillis = days * 24 * 60 * 60 * 1000L;
+        final long beforeTimeInMillis = System.currentTimeMillis() - daysInMillis;
+        // the models of the stored requests are still needed to resume them
+        readModels("SELECT * FROM " + TABLE_NAME + " WHERE " +
+                DownloadModel.LAST_MODIFIED_AT + " <= " + beforeTimeInMillis + " AND " +
+                DownloadModel.ID + " NOT IN (SELECT " + RequestModel.ID + " FROM " +
+                REQUEST_TABLE_NAME + ")", models);
+        return models;
+    }
+
+    private void readModels(String query, List<DownloadModel> models) {
         Cursor cursor = null;
         try {
-            final long daysInMillis = days * 24 * 60 * 60 * 1000L;
-            final long beforeTimeInMillis = System.currentTimeMillis() - daysInMillis;
-            cursor = db.rawQuery("SELECT * FROM " + TABLE_NAME + " WHERE " +
-                    DownloadModel.LAST_MODIFIED_AT + " <= " + beforeTimeInMillis, null);
+            cursor = db.rawQuery(query, null);
             if (cursor != null && cursor.moveToFirst()) {
                 do {
                     DownloadModel model = new DownloadModel();
@@ -156,7 +240,6 @@ public class AppDbHelper implements DbHelper {
                 cursor.close();
             }
         }
-        return models;
     }
 
     @Override
@@ -167,4 +250,165 @@ public class AppDbHelper implements DbHelper {
             e.printStackTrace();
         }
     }
+
+    @Override
+    public void insertRequest(RequestModel model) {
+        try {
+            ContentValues values = new ContentValues();
+            values.put(RequestModel.ID, model.getId());
+            values.put(RequestModel.URL, model.getUrl());
+            values.put(RequestModel.DIR_PATH, model.getDirPath());
+            values.put(RequestModel.FILE_NAME, model.getFileName());
+            values.put(RequestModel.MIME_TYPE, model.getMimeType());
+            values.put(RequestModel.PRIORITY, model.getPriority());
+            values.put(RequestModel.TAG, model.getTag());
+            values.put(RequestModel.HEADERS, model.getHeaders());
+            values.put(RequestModel.STATUS, model.getStatus());
+            values.put(RequestModel.READ_TIMEOUT, model.getReadTimeout());
+            values.put(RequestModel.CONNECT_TIMEOUT, model.getConnectTimeout());
+            values.put(RequestModel.USER_AGENT, model.getUserAgent());
+            values.put(RequestModel.DEADLINE, model.getDeadline());
+            values.put(RequestModel.TIME_BUDGET, model.getTimeBudget());
+            values.put(RequestModel.CREATED_AT, model.getCreatedAt());
+            db.insertWithOnConflict(REQUEST_TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public List<RequestModel> getRequests(String status, int limit) {
+        List<RequestModel> models = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("SELECT * FROM " + REQUEST_TABLE_NAME + " WHERE " +
+                    RequestModel.STATUS + " = ? ORDER BY " +
+                    RequestModel.PRIORITY + " DESC, " +
+                    RequestModel.CREATED_AT + " ASC LIMIT " + limit, new String[]{status});
+            if (cursor != null && cursor.moveToFirst()) {
+                do {
+                    RequestModel model = new RequestModel();
+                    model.setId(cursor.getInt(cursor.getColumnIndex(RequestModel.ID)));
+                    model.setUrl(cursor.getString(cursor.getColumnIndex(RequestModel.URL)));
+                    model.setDirPath(cursor.getString(cursor.getColumnIndex(RequestModel.DIR_PATH)));
+                    model.setFileName(cursor.getString(cursor.getColumnIndex(RequestModel.FILE_NAME)));
+                    model.setMimeType(cursor.getString(cursor.getColumnIndex(RequestModel.MIME_TYPE)));
+                    model.setPriority(cursor.getInt(cursor.getColumnIndex(RequestModel.PRIORITY)));
+                    model.setTag(cursor.getString(cursor.getColumnIndex(RequestModel.TAG)));
+                    model.setHeaders(cursor.getString(cursor.getColumnIndex(RequestModel.HEADERS)));
+                    model.setStatus(cursor.getString(cursor.getColumnIndex(RequestModel.STATUS)));
+                    model.setReadTimeout(cursor.getInt(cursor.getColumnIndex(RequestModel.READ_TIMEOUT)));
+                    model.setConnectTimeout(cursor.getInt(cursor.getColumnIndex(RequestModel.CONNECT_TIMEOUT)));
+                    model.setUserAgent(cursor.getString(cursor.getColumnIndex(RequestModel.USER_AGENT)));
+                    model.setDeadline(cursor.getLong(cursor.getColumnIndex(RequestModel.DEADLINE)));
+                    model.setTimeBudget(cursor.getLong(cursor.getColumnIndex(RequestModel.TIME_BUDGET)));
+                    model.setCreatedAt(cursor.getLong(cursor.getColumnIndex(RequestModel.CREATED_AT)));
+                    models.add(model);
+                } while (cursor.moveToNext());
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return models;
+    }
+
+    @Override
+    public List<RequestModel> getRequestKeys(String status) {
+        List<RequestModel> models = new ArrayList<>();
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("SELECT " + RequestModel.ID + ", " + RequestModel.TAG +
+                    " FROM " + REQUEST_TABLE_NAME + " WHERE " +
+                    RequestModel.STATUS + " = ?", new String[]{status});
+            if (cursor != null && cursor.moveToFirst()) {
+                do {
+                    RequestModel model = new RequestModel();
+                    model.setId(cursor.getInt(0));
+                    model.setTag(cursor.getString(1));
+                    models.add(model);
+                } while (cursor.moveToNext());
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return models;
+    }
+
+    @Override
+    public void updateRequestStatus(int[] ids, String status) {
+        SQLiteStatement statement = null;
+        try {
+            db.beginTransaction();
+            try {
+                statement = db.compileStatement("UPDATE " + REQUEST_TABLE_NAME + " SET " +
+                        RequestModel.STATUS + " = ? WHERE " + RequestModel.ID + " = ?");
+                for (int id : ids) {
+                    statement.bindString(1, status);
+                    statement.bindLong(2, id);
+                    statement.executeUpdateDelete();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                if (statement != null) {
+                    statement.close();
+                }
+                db.endTransaction();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void replaceRequestStatus(String oldStatus, String newStatus) {
+        try {
+            ContentValues values = new ContentValues();
+            values.put(RequestModel.STATUS, newStatus);
+            db.update(REQUEST_TABLE_NAME, values, RequestModel.STATUS + " = ? ",
+                    new String[]{oldStatus});
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void removeRequests(int[] ids) {
+        SQLiteStatement statement = null;
+        try {
+            db.beginTransaction();
+            try {
+                statement = db.compileStatement("DELETE FROM " + REQUEST_TABLE_NAME + " WHERE " +
+                        RequestModel.ID + " = ?");
+                for (int id : ids) {
+                    statement.bindLong(1, id);
+                    statement.executeUpdateDelete();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                if (statement != null) {
+                    statement.close();
+                }
+                db.endTransaction();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void clearRequests() {
+        try {
+            db.delete(REQUEST_TABLE_NAME, null, null);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
 }
@@ -28,7 +28,7 @@ import android.database.sqlite.SQLiteOpenHelper;
 public class DatabaseOpenHelper extends SQLiteOpenHelper {
 
     private static final String DATABASE_NAME = "prdownloader.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 2;
 
     DatabaseOpenHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
@@ -48,10 +48,34 @@ public class DatabaseOpenHelper extends SQLiteOpenHelper {
                 DownloadModel.DOWNLOADED_BYTES + " INTEGER, " +
                 DownloadModel.LAST_MODIFIED_AT + " INTEGER " +
                 ")");
+        createRequestTable(db);
     }
 
     @Override
-    public void onUpgrade(SQLiteDatabase db, int i, int i1) {
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            createRequestTable(db);
+        }
+    }
 
+    private void createRequestTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " +
+                AppDbHelper.REQUEST_TABLE_NAME + "( " +
+                RequestModel.ID + " INTEGER PRIMARY KEY, " +
+                RequestModel.URL + " VARCHAR, " +
+                RequestModel.DIR_PATH + " VARCHAR, " +
+                RequestModel.FILE_NAME + " VARCHAR, " +
+                RequestModel.MIME_TYPE + " VARCHAR, " +
+                RequestModel.PRIORITY + " INTEGER, " +
+                RequestModel.TAG + " VARCHAR, " +
+                RequestModel.HEADERS + " VARCHAR, " +
+                RequestModel.STATUS + " VARCHAR, " +
+                RequestModel.READ_TIMEOUT + " INTEGER, " +
+                RequestModel.CONNECT_TIMEOUT + " INTEGER, " +
+                RequestModel.USER_AGENT + " VARCHAR, " +
+                RequestModel.DEADLINE + " INTEGER, " +
+                RequestModel.TIME_BUDGET + " INTEGER, " +
+                RequestModel.CREATED_AT + " INTEGER " +
+                ")");
     }
 }
@@ -26,16 +26,59 @@ public interface DbHelper {
 
     DownloadModel find(int id);
 
+    /**
+     * Returns the models stored for the given ids, in no particular order. Ids without
+     * a model are skipped.
+     */
+    List<DownloadModel> findAll(int[] ids);
+
     void insert(DownloadModel model);
 
     void update(DownloadModel model);
 
     void updateProgress(int id, long downloadedBytes, long lastModifiedAt);
 
+    /**
+     * Stores the progress of many downloads in one transaction.
+     */
+    void updateProgress(int[] ids, long[] downloadedBytes, long lastModifiedAt);
+
     void remove(int id);
 
+    /**
+     * Removes the models of many downloads in one transaction.
+     */
+    void removeAll(int[] ids);
+
     List<DownloadModel> getUnwantedModels(int days);
 
     void clear();
 
+    /**
+     * Stores a request, replacing the one with the same id.
+     */
+    void insertRequest(RequestModel model);
+
+    /**
+     * Returns at most limit stored requests of the given status, the highest priority
+     * first and then the oldest first.
+     */
+    List<RequestModel> getRequests(String status, int limit);
+
+    /**
+     * Returns the stored requests of the given status with only their id and tag set.
+     */
+    List<RequestModel> getRequestKeys(String status);
+
+    void updateRequestStatus(int[] ids, String status);
+
+    /**
+     * Changes the status of all the stored requests having the old one.
+     */
+    void replaceRequestStatus(String oldStatus, String newStatus);
+
+    void removeRequests(int[] ids);
+
+    void clearRequests();
+
 }
@@ -16,6 +16,7 @@
 
 package com.downloader.database;
 
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -33,6 +34,11 @@ public class NoOpsDbHelper implements DbHelper {
         return null;
     }
 
+    @Override
+    public List<DownloadModel> findAll(int[] ids) {
+        return Collections.emptyList();
+    }
+
     @Override
     public void insert(DownloadModel model) {
 
@@ -48,11 +54,21 @@ public class NoOpsDbHelper implements DbHelper {
 
     }
 
+    @Override
+    public void updateProgress(int[] ids, long[] downloadedBytes, long lastModifiedAt) {
+
+    }
+
     @Override
     public void remove(int id) {
 
     }
 
+    @Override
+    public void removeAll(int[] ids) {
+
+    }
+
     @Override
     public List<DownloadModel> getUnwantedModels(int days) {
         return null;
@@ -62,4 +78,39 @@ public class NoOpsDbHelper implements DbHelper {
     public void clear() {
 
     }
+
+    @Override
+    public void insertRequest(RequestModel model) {
+
+    }
+
+    @Override
+    public List<RequestModel> getRequests(String status, int limit) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<RequestModel> getRequestKeys(String status) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void updateRequestStatus(int[] ids, String status) {
+
+    }
+
+    @Override
+    public void replaceRequestStatus(String oldStatus, String newStatus) {
+
+    }
+
+    @Override
+    public void removeRequests(int[] ids) {
+
+    }
+
+    @Override
+    public void clearRequests() {
+
+    }
 }
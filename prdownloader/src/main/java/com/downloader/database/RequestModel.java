@@ -0,0 +1,184 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.database;
+
+/**
+ * What is stored of a request which waits in the database instead of in memory, enough
+ * to build it again.
+ */
+
+public class RequestModel {
+
+    /**
+     * Status of a request which is stored but not in memory, to be queued once there is room.
+     */
+    public static final String STATUS_SPILLED = "SPILLED";
+
+    static final String ID = "id";
+    static final String URL = "url";
+    static final String DIR_PATH = "dir_path";
+    static final String FILE_NAME = "file_name";
+    static final String MIME_TYPE = "mime_type";
+    static final String PRIORITY = "priority";
+    static final String TAG = "tag";
+    static final String HEADERS = "headers";
+    static final String STATUS = "status";
+    static final String READ_TIMEOUT = "read_timeout";
+    static final String CONNECT_TIMEOUT = "connect_timeout";
+    static final String USER_AGENT = "user_agent";
+    static final String DEADLINE = "deadline";
+    static final String TIME_BUDGET = "time_budget";
+    static final String CREATED_AT = "created_at";
+
+    private int id;
+    private String url;
+    private String dirPath;
+    private String fileName;
+    private String mimeType;
+    private int priority;
+    private String tag;
+    private String headers;
+    private String status;
+    private int readTimeout;
+    private int connectTimeout;
+    private String userAgent;
+    private long deadline;
+    private long timeBudget;
+    private long createdAt;
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public String getDirPath() {
+        return dirPath;
+    }
+
+    public void setDirPath(String dirPath) {
+        this.dirPath = dirPath;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public void setMimeType(String mimeType) {
+        this.mimeType = mimeType;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public void setTag(String tag) {
+        this.tag = tag;
+    }
+
+    public String getHeaders() {
+        return headers;
+    }
+
+    public void setHeaders(String headers) {
+        this.headers = headers;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public String getUserAgent() {
+        return userAgent;
+    }
+
+    public void setUserAgent(String userAgent) {
+        this.userAgent = userAgent;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    public long getTimeBudget() {
+        return timeBudget;
+    }
+
+    public void setTimeBudget(long timeBudget) {
+        this.timeBudget = timeBudget;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(long createdAt) {
+        this.createdAt = createdAt;
+    }
+
+}
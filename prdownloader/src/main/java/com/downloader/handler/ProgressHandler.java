@@ -14,41 +14,125 @@
  *    limitations under the License.
  */
 
+
 package com.downloader.handler;
 
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 
 import com.downloader.Constants;
+import com.downloader.OnProgressBatchListener;
 import com.downloader.Progress;
-import com.downloader.OnProgressListener;
+import com.downloader.internal.ComponentHolder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Created by amitshekhar on 13/11/17.
+ * Central dispatcher of the progress updates of all the downloads. The reporters with a
+ * new update are collected and delivered together, once per tick, by a single message on
+ * the main looper, however many downloads are running. Each tick calls the listeners of
+ * the requests and then the batch listener with all the changed snapshots.
  */
-
 public class ProgressHandler extends Handler {
 
-    private final OnProgressListener listener;
+    private static volatile ProgressHandler instance;
 
-    public ProgressHandler(OnProgressListener listener) {
+    private final Object lock = new Object();
+    private final AtomicLong messageCount = new AtomicLong();
+    private final List<Progress> batch = new ArrayList<>();
+    // guarded by lock
+    private ArrayList<ProgressReporter> dirtyReporters = new ArrayList<>();
+    private boolean tickScheduled;
+    private long lastTickTime;
+    // only touched on the main thread
+    private ArrayList<ProgressReporter> deliveredReporters = new ArrayList<>();
+    private volatile OnProgressBatchListener batchListener;
+
+    private ProgressHandler() {
         super(Looper.getMainLooper());
-        this.listener = listener;
+    }
+
+    public static ProgressHandler getInstance() {
+        if (instance == null) {
+            synchronized (ProgressHandler.class) {
+                if (instance == null) {
+                    instance = new ProgressHandler();
+                }
+            }
+        }
+        return instance;
+    }
+
+    public void setOnProgressBatchListener(OnProgressBatchListener batchListener) {
+        this.batchListener = batchListener;
+    }
+
+    public boolean hasBatchListener() {
+        return batchListener != null;
+    }
+
+    /**
+     * Returns the number of progress messages posted to the main looper so far.
+     */
+    public long getMessageCount() {
+        return messageCount.get();
+    }
+
+    /**
+     * Queues the reporter for the next tick, scheduling it if required. Called by the
+     * download threads, at most once per delivery of the reporter.
+     */
+    void markDirty(ProgressReporter reporter) {
+        final long tickTime;
+        synchronized (lock) {
+            dirtyReporters.add(reporter);
+            if (tickScheduled) {
+                return;
+            }
+            tickScheduled = true;
+            tickTime = Math.max(SystemClock.uptimeMillis(),
+                    lastTickTime + ComponentHolder.getInstance().getProgressDispatchInterval());
+        }
+        messageCount.incrementAndGet();
+        sendEmptyMessageAtTime(Constants.UPDATE, tickTime);
     }
 
     @Override
     public void handleMessage(Message msg) {
         switch (msg.what) {
             case Constants.UPDATE:
-                if (listener != null) {
-                    final Progress progress = (Progress) msg.obj;
-                    listener.onProgress(progress.request, progress);
-                }
+                dispatch();
                 break;
             default:
                 super.handleMessage(msg);
                 break;
         }
     }
+
+    private void dispatch() {
+        final ArrayList<ProgressReporter> reporters;
+        synchronized (lock) {
+            reporters = dirtyReporters;
+            dirtyReporters = deliveredReporters;
+            deliveredReporters = reporters;
+            tickScheduled = false;
+            lastTickTime = SystemClock.uptimeMillis();
+        }
+        final OnProgressBatchListener listener = batchListener;
+        for (int i = 0; i < reporters.size(); i++) {
+            final Progress progress = reporters.get(i).deliver();
+            if (listener != null) {
+                batch.add(progress);
+            }
+        }
+        reporters.clear();
+        if (listener != null && !batch.isEmpty()) {
+            listener.onProgress(batch);
+            batch.clear();
+        }
+    }
 }
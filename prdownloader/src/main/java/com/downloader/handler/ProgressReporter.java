@@ -0,0 +1,140 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.handler;
+
+import com.downloader.OnProgressListener;
+import com.downloader.Progress;
+import com.downloader.core.MainThreadExecutor;
+import com.downloader.internal.ComponentHolder;
+import com.downloader.request.DownloadRequest;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Throttles the progress updates of one request and hands them to the {@link ProgressHandler}
+ * without allocating. An update is published once the progress interval passed since the
+ * previous one and the bytes moved by the configured step. At most one update per request
+ * is pending: the latest values are read when it is delivered, into a {@link Progress}
+ * which is reused for the whole download.
+ */
+public class ProgressReporter implements Runnable {
+
+    private final DownloadRequest request;
+    // null when the listeners are called on the main thread, through the ticks
+    private final Executor callbackExecutor;
+    private final Progress progress;
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private final long interval;
+    private final long minBytes;
+    private final int minPercent;
+    private volatile long currentBytes;
+    private volatile long totalBytes;
+    // only touched by the download thread
+    private long lastTime;
+    private long lastBytes = -1;
+
+    public ProgressReporter(DownloadRequest request) {
+        this.request = request;
+        final Executor executor = request.getCallbackExecutor();
+        this.callbackExecutor = executor instanceof MainThreadExecutor ? null : executor;
+        this.progress = new Progress(request, 0, 0);
+        final ComponentHolder componentHolder = ComponentHolder.getInstance();
+        this.interval = componentHolder.getProgressInterval();
+        this.minBytes = componentHolder.getProgressMinBytes();
+        this.minPercent = componentHolder.getProgressMinPercent();
+    }
+
+    /**
+     * Called by the download thread whenever bytes were written.
+     *
+     * @param force true to publish regardless of the throttling, like when the download
+     *              stops
+     * @return true if the update was published, false if the throttling dropped it
+     */
+    public boolean onProgress(long currentBytes, long totalBytes, boolean force) {
+        if (currentBytes == lastBytes) {
+            return false;
+        }
+        final long currentTime = System.currentTimeMillis();
+        if (!force && (currentTime - lastTime < interval || !isStepReached(currentBytes, totalBytes))) {
+            return false;
+        }
+        lastTime = currentTime;
+        lastBytes = currentBytes;
+        this.totalBytes = totalBytes;
+        this.currentBytes = currentBytes;
+        if (!pending.compareAndSet(false, true)) {
+            return true;
+        }
+        if (callbackExecutor != null) {
+            callbackExecutor.execute(this);
+        } else {
+            ProgressHandler.getInstance().markDirty(this);
+        }
+        return true;
+    }
+
+    /**
+     * Delivers on the callback executor of the request, which is not the main thread.
+     */
+    @Override
+    public void run() {
+        deliver();
+    }
+
+    /**
+     * Delivers the pending update, if any, right away. Called on the callback executor
+     * before the callback of a download which stopped, so that the last update reaches the
+     * listener before it is released.
+     */
+    public void flush() {
+        if (pending.get()) {
+            deliver();
+        }
+    }
+
+    /**
+     * Called on the main thread by the tick of the {@link ProgressHandler}, or on the
+     * callback executor of the request. The listener is called once per published update,
+     * even if it was flushed before the tick.
+     *
+     * @return the updated progress
+     */
+    Progress deliver() {
+        final boolean wasPending = pending.getAndSet(false);
+        progress.currentBytes = currentBytes;
+        progress.totalBytes = totalBytes;
+        request.getSpeedMeter().copyTo(progress);
+        final OnProgressListener listener = request.getOnProgressListener();
+        if (wasPending && listener != null) {
+            listener.onProgress(request, progress);
+        }
+        return progress;
+    }
+
+    private boolean isStepReached(long currentBytes, long totalBytes) {
+        if (minBytes <= 0 && minPercent <= 0) {
+            return true;
+        }
+        final long delta = currentBytes - Math.max(lastBytes, 0);
+        return (minBytes > 0 && delta >= minBytes)
+                || (minPercent > 0 && totalBytes > 0 && delta * 100 >= minPercent * totalBytes);
+    }
+
+}
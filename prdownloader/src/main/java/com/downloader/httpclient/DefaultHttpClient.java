@@ -34,9 +34,10 @@ import java.util.Set;
  * Created by amitshekhar on 13/11/17.
  */
 
-public class DefaultHttpClient implements HttpClient {
+public class DefaultHttpClient implements HttpClient, Abortable {
 
-    private URLConnection connection;
+    private volatile URLConnection connection;
+    private volatile boolean aborted;
 
     public DefaultHttpClient() {
 
@@ -58,6 +59,9 @@ public class DefaultHttpClient implements HttpClient {
         connection.addRequestProperty(Constants.RANGE, range);
         connection.addRequestProperty(Constants.USER_AGENT, request.getUserAgent());
         addHeaders(request);
+        if (aborted) {
+            throw new IOException("Aborted");
+        }
         connection.connect();
     }
 
@@ -95,6 +99,18 @@ public class DefaultHttpClient implements HttpClient {
         // no operation
     }
 
+    /**
+     * Disconnects, which closes the socket under a blocked connect or read.
+     */
+    @Override
+    public void abort() {
+        aborted = true;
+        final URLConnection current = connection;
+        if (current instanceof HttpURLConnection) {
+            ((HttpURLConnection) current).disconnect();
+        }
+    }
+
     @Override
     public Map<String, List<String>> getHeaderFields() {
         return connection.getHeaderFields();
@@ -122,6 +138,12 @@ public class DefaultHttpClient implements HttpClient {
                 }
             }
         }
+        final HashMap<String, String> conditionalHeaders = request.getConditionalHeaders();
+        if (conditionalHeaders != null) {
+            for (Map.Entry<String, String> entry : conditionalHeaders.entrySet()) {
+                connection.addRequestProperty(entry.getKey(), entry.getValue());
+            }
+        }
     }
 
 }
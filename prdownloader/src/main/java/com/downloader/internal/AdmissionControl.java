@@ -0,0 +1,351 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.internal;
+
+import com.downloader.AdmissionPolicy;
+import com.downloader.Error;
+import com.downloader.Status;
+import com.downloader.core.Core;
+import com.downloader.database.DbHelper;
+import com.downloader.database.NoOpsDbHelper;
+import com.downloader.database.RequestModel;
+import com.downloader.request.DownloadRequest;
+import com.downloader.utils.Utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the requests waiting to start and bounds their number to the queue
+ * capacity, as set by the admission policy. A request waits from its admission until its
+ * download starts or it leaves the queue.
+ * <p>
+ * Spilled requests are written to the database on the background thread, and read back
+ * there, the highest priority first, whenever requests leave the queue. The requests
+ * restored from a persisted queue are handled as spilled ones. The requests read back are
+ * new objects, so the ones with observers are never spilled: those would wait forever.
+ * A request whose spill write fails gets a queue full error instead of being lost.
+ * <p>
+ * The block policy never blocks the main thread, requests started there are rejected
+ * once the queue is full.
+ */
+class AdmissionControl {
+
+    enum Result {
+        ADMITTED, REJECTED, SPILLED
+    }
+
+    private static final int REHYDRATION_BATCH_SIZE = 100;
+
+    private final DownloadRequestQueue requestQueue;
+    private final boolean persistent;
+    private final int capacity;
+    private final AdmissionPolicy policy;
+    private final IntObjectMap<DownloadRequest> waitingRequests = new IntObjectMap<>();
+    // the ids of the spilled requests, mapped to their stored tag or "" if there is none
+    private final IntObjectMap<String> spilledRequests = new IntObjectMap<>();
+    private final AtomicLong spillCount = new AtomicLong();
+    private boolean rehydrating;
+    private boolean shutDown;
+
+    AdmissionControl(DownloadRequestQueue requestQueue) {
+        final ComponentHolder componentHolder = ComponentHolder.getInstance();
+        this.requestQueue = requestQueue;
+        this.capacity = componentHolder.getQueueCapacity();
+        this.persistent = componentHolder.isQueuePersistenceEnabled();
+        // spilling without a database would lose the requests
+        this.policy = componentHolder.getAdmissionPolicy() == AdmissionPolicy.SPILL
+                && componentHolder.getDbHelper() instanceof NoOpsDbHelper
+                ? AdmissionPolicy.REJECT : componentHolder.getAdmissionPolicy();
+    }
+
+    synchronized int getWaitingCount() {
+        return waitingRequests.size();
+    }
+
+    synchronized int getSpilledCount() {
+        return spilledRequests.size();
+    }
+
+    long getSpillCount() {
+        return spillCount.get();
+    }
+
+    synchronized boolean isSpilled(int downloadId) {
+        return spilledRequests.get(downloadId) != null;
+    }
+
+    /**
+     * Rejects the requests waiting for room and the ones to come, and stops reading back
+     * spilled requests.
+     */
+    synchronized void shutDown() {
+        shutDown = true;
+        notifyAll();
+    }
+
+    Result admit(DownloadRequest request) {
+        synchronized (this) {
+            // once the executors stopped, a spilled request could not be written anymore
+            if (shutDown || Core.getInstance().isShutDown()) {
+                return Result.REJECTED;
+            }
+            if (spilledRequests.remove(request.getDownloadId()) != null) {
+                // the new request replaces the spilled one
+                removeStoredRequests(new int[]{request.getDownloadId()});
+            }
+            if (waitingRequests.get(request.getDownloadId()) != null) {
+                // it is going to join the waiting request with the same id
+                return Result.ADMITTED;
+            }
+            while (capacity > 0 && waitingRequests.size() >= capacity) {
+                if (policy == AdmissionPolicy.REJECT) {
+                    return Result.REJECTED;
+                }
+                if (policy == AdmissionPolicy.SPILL) {
+                    final DownloadRequest victim = findSpillCandidate();
+                    if (victim == null
+                            || victim.getPriority().ordinal() >= request.getPriority().ordinal()
+                            || !requestQueue.removeQueued(victim)) {
+                        if (request.hasObservers()) {
+                            return Result.REJECTED;
+                        }
+                        spill(request);
+                        return Result.SPILLED;
+                    }
+                    waitingRequests.remove(victim.getDownloadId());
+                    spill(victim);
+                    continue;
+                }
+                if (Utils.isMainThread()) {
+                    // blocking the main thread would freeze the app
+                    return Result.REJECTED;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return Result.REJECTED;
+                }
+                if (shutDown) {
+                    return Result.REJECTED;
+                }
+            }
+            waitingRequests.put(request.getDownloadId(), request);
+            return Result.ADMITTED;
+        }
+    }
+
+    /**
+     * Called once the download of the request started or the request left the queue.
+     */
+    void release(DownloadRequest request) {
+        synchronized (this) {
+            if (!waitingRequests.remove(request.getDownloadId(), request)) {
+                return;
+            }
+            notifyAll();
+            rehydrateIfRequired();
+        }
+    }
+
+    /**
+     * Drops the spilled requests with the given ids, or all of them if ids is null.
+     */
+    void cancelSpilled(int[] ids) {
+        final int[] removedIds;
+        synchronized (this) {
+            if (spilledRequests.isEmpty()) {
+                return;
+            }
+            if (ids == null) {
+                removedIds = spilledRequests.keys();
+                spilledRequests.clear();
+            } else {
+                int count = 0;
+                final int[] found = new int[ids.length];
+                for (int id : ids) {
+                    if (spilledRequests.remove(id) != null) {
+                        found[count++] = id;
+                    }
+                }
+                if (count == 0) {
+                    return;
+                }
+                removedIds = Arrays.copyOf(found, count);
+            }
+        }
+        removeStoredRequests(removedIds);
+    }
+
+    /**
+     * Returns the ids of the spilled requests with the given tag.
+     */
+    synchronized int[] getSpilledIds(String tag) {
+        final int[] ids = spilledRequests.keys();
+        int count = 0;
+        for (int id : ids) {
+            if (tag.equals(spilledRequests.get(id))) {
+                ids[count++] = id;
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * Returns the waiting request of the lowest priority which is still in the queue of
+     * the thread pool and has no observers, the most recent one among equals.
+     */
+    private DownloadRequest findSpillCandidate() {
+        DownloadRequest candidate = null;
+        for (DownloadRequest request : waitingRequests.values()) {
+            if (request.getStatus() != Status.QUEUED || request.getFuture() == null
+                    || request.hasObservers()) {
+                continue;
+            }
+            if (candidate == null
+                    || request.getPriority().ordinal() < candidate.getPriority().ordinal()
+                    || (request.getPriority() == candidate.getPriority()
+                    && request.getSequenceNumber() > candidate.getSequenceNumber())) {
+                candidate = request;
+            }
+        }
+        return candidate;
+    }
+
+    private void spill(final DownloadRequest request) {
+        final String tag = RequestSerializer.getStoredTag(request);
+        spilledRequests.put(request.getDownloadId(), tag != null ? tag : "");
+        spillCount.incrementAndGet();
+        final RequestModel model = RequestSerializer.toModel(request, RequestModel.STATUS_SPILLED);
+        runOnBackgroundThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ComponentHolder.getInstance().getDbHelper().insertRequest(model);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                    onSpillFailed(request);
+                }
+            }
+        });
+    }
+
+    /**
+     * Fails a request which could not be written to the database, instead of losing it.
+     */
+    private void onSpillFailed(DownloadRequest request) {
+        synchronized (this) {
+            if (spilledRequests.remove(request.getDownloadId()) == null) {
+                // cancelled or replaced in the meantime
+                return;
+            }
+        }
+        final Error error = new Error();
+        error.setQueueFull(true);
+        request.deliverError(error);
+    }
+
+    /**
+     * Takes the requests stored by a previous process as spilled ones.
+     */
+    void restoreSpilled(List<RequestModel> models) {
+        synchronized (this) {
+            for (RequestModel model : models) {
+                if (waitingRequests.get(model.getId()) == null) {
+                    spilledRequests.put(model.getId(), model.getTag() != null ? model.getTag() : "");
+                }
+            }
+            rehydrateIfRequired();
+        }
+    }
+
+    private void rehydrateIfRequired() {
+        if (shutDown || rehydrating || spilledRequests.isEmpty()
+                || (capacity > 0 && waitingRequests.size() >= capacity)) {
+            return;
+        }
+        rehydrating = true;
+        final int limit = capacity > 0 ? capacity - waitingRequests.size() : REHYDRATION_BATCH_SIZE;
+        runOnBackgroundThread(new Runnable() {
+            @Override
+            public void run() {
+                rehydrate(limit);
+            }
+        });
+    }
+
+    private void rehydrate(int limit) {
+        final DbHelper dbHelper = ComponentHolder.getInstance().getDbHelper();
+        final List<RequestModel> models;
+        try {
+            models = dbHelper.getRequests(RequestModel.STATUS_SPILLED, limit);
+        } catch (RuntimeException e) {
+            // the spilled requests stay, the next finished download tries again
+            e.printStackTrace();
+            synchronized (this) {
+                rehydrating = false;
+            }
+            return;
+        }
+        final List<DownloadRequest> requests = new ArrayList<>(models.size());
+        final List<RequestModel> unreadableModels = new ArrayList<>();
+        synchronized (this) {
+            for (RequestModel model : models) {
+                // skip the ones cancelled in the meantime
+                if (spilledRequests.remove(model.getId()) != null) {
+                    try {
+                        requests.add(RequestSerializer.fromModel(model));
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                        unreadableModels.add(model);
+                    }
+                }
+            }
+            rehydrating = false;
+        }
+        if (!persistent) {
+            dbHelper.removeRequests(QueuePersistence.getModelIds(models));
+        } else if (!unreadableModels.isEmpty()) {
+            dbHelper.removeRequests(QueuePersistence.getModelIds(unreadableModels));
+        }
+        // a persisted queue stores them again as queued ones
+        DownloadRequest.startAll(requests, null);
+        if (!models.isEmpty()) {
+            synchronized (this) {
+                rehydrateIfRequired();
+            }
+        }
+    }
+
+    private static void removeStoredRequests(final int[] ids) {
+        runOnBackgroundThread(new Runnable() {
+            @Override
+            public void run() {
+                ComponentHolder.getInstance().getDbHelper().removeRequests(ids);
+            }
+        });
+    }
+
+    private static void runOnBackgroundThread(Runnable runnable) {
+        Core.getInstance().getExecutorSupplier().forBackgroundTasks().execute(runnable);
+    }
+
+}
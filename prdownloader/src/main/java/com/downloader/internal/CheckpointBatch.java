@@ -0,0 +1,139 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.internal;
+
+import com.downloader.core.Core;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Progress checkpoints of the downloads paused together by a bulk pause. Every running
+ * download hands in its checkpoint once its output is synced, and they are all stored in
+ * one transaction when the last one arrived, or after a timeout for the downloads which
+ * stopped without one.
+ */
+class CheckpointBatch implements Runnable {
+
+    private static final long MAX_WAIT_IN_MILLS = 1000;
+
+    private final int[] downloadIds;
+    private final long[] downloadedBytes;
+    private int count;
+    private int pending;
+    private boolean committed;
+    private boolean stored;
+
+    CheckpointBatch(int expectedCount) {
+        this.downloadIds = new int[expectedCount];
+        this.downloadedBytes = new long[expectedCount];
+        this.pending = expectedCount;
+    }
+
+    /**
+     * Adds the checkpoint of a paused download.
+     *
+     * @return false if the batch was already stored, the caller has to store it itself
+     */
+    boolean add(int downloadId, long bytes) {
+        synchronized (this) {
+            if (committed) {
+                return false;
+            }
+            downloadIds[count] = downloadId;
+            downloadedBytes[count] = bytes;
+            count++;
+            if (--pending > 0) {
+                return true;
+            }
+            committed = true;
+        }
+        store();
+        return true;
+    }
+
+    /**
+     * Tells the batch a download stopped without a checkpoint to store.
+     */
+    void skip() {
+        synchronized (this) {
+            if (committed || --pending > 0) {
+                return;
+            }
+            committed = true;
+        }
+        store();
+    }
+
+    void startTimeout() {
+        Core.getInstance().getExecutorSupplier().forScheduledTasks()
+                .schedule(this, MAX_WAIT_IN_MILLS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (committed) {
+                return;
+            }
+            committed = true;
+        }
+        store();
+    }
+
+    /**
+     * Waits until the batch is stored, storing what was collected so far once the timeout
+     * elapsed.
+     *
+     * @return false if some downloads did not hand in their checkpoint in time
+     */
+    boolean awaitStored(long timeoutInMills) {
+        final long deadline = System.currentTimeMillis() + timeoutInMills;
+        synchronized (this) {
+            long remaining = timeoutInMills;
+            while (!stored && remaining > 0) {
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                remaining = deadline - System.currentTimeMillis();
+            }
+            if (stored) {
+                return true;
+            }
+        }
+        run();
+        return false;
+    }
+
+    private void store() {
+        if (count > 0) {
+            ComponentHolder.getInstance().getDbHelper().updateProgress(
+                    Arrays.copyOf(downloadIds, count),
+                    Arrays.copyOf(downloadedBytes, count),
+                    System.currentTimeMillis());
+        }
+        synchronized (this) {
+            stored = true;
+            notifyAll();
+        }
+    }
+
+}
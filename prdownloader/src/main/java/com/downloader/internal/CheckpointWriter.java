@@ -0,0 +1,118 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.internal;
+
+import com.downloader.core.Core;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-behind store of the periodic progress checkpoints of the running downloads. It
+ * keeps the latest offset per download and stores all of them in one transaction per
+ * interval, instead of one transaction per download and checkpoint.
+ * <p>
+ * An offset is handed in only once the data up to it was synced, so whatever is stored
+ * never runs ahead of the file. Once a download stopped its pending offset is discarded,
+ * waiting for a running flush, so that a late flush can't overwrite the checkpoint taken
+ * on pause or the entry of a later download with the same id.
+ * <p>
+ * On shut down the pending offsets are stored right away, the later ones are dropped.
+ */
+class CheckpointWriter implements Runnable {
+
+    private static final long FLUSH_INTERVAL_IN_MILLS = 2000;
+
+    // held while a flush writes, lock is only held to touch the pending offsets
+    private final Object flushLock = new Object();
+    private final Object lock = new Object();
+    private IntObjectMap<Long> pending = new IntObjectMap<>();
+    private boolean scheduled;
+    private boolean shutDown;
+
+    /**
+     * Hands in the offset of a download, synced up to it.
+     */
+    void checkpoint(int downloadId, long downloadedBytes) {
+        synchronized (lock) {
+            if (shutDown) {
+                return;
+            }
+            pending.put(downloadId, downloadedBytes);
+            if (scheduled) {
+                return;
+            }
+            // scheduled under the lock, so that it happens before the executors stop
+            try {
+                Core.getInstance().getExecutorSupplier().forScheduledTasks()
+                        .schedule(this, FLUSH_INTERVAL_IN_MILLS, TimeUnit.MILLISECONDS);
+                scheduled = true;
+            } catch (RejectedExecutionException e) {
+                pending.remove(downloadId);
+            }
+        }
+    }
+
+    /**
+     * Drops the pending offset of a download which stopped, once no flush is running.
+     */
+    void discard(int downloadId) {
+        synchronized (flushLock) {
+            synchronized (lock) {
+                pending.remove(downloadId);
+            }
+        }
+    }
+
+    /**
+     * Stores the pending offsets on the calling thread and drops the ones handed in later.
+     * Called before the executors stop, the scheduled flush may never run.
+     */
+    void shutDown() {
+        synchronized (lock) {
+            shutDown = true;
+        }
+        run();
+    }
+
+    /**
+     * Stores the pending offsets in one transaction.
+     */
+    @Override
+    public void run() {
+        synchronized (flushLock) {
+            final IntObjectMap<Long> offsets;
+            synchronized (lock) {
+                offsets = pending;
+                pending = new IntObjectMap<>();
+                scheduled = false;
+            }
+            if (offsets.isEmpty()) {
+                return;
+            }
+            final int[] downloadIds = offsets.keys();
+            final long[] downloadedBytes = new long[downloadIds.length];
+            for (int i = 0; i < downloadIds.length; i++) {
+                downloadedBytes[i] = offsets.get(downloadIds[i]);
+            }
+            ComponentHolder.getInstance().getDbHelper().updateProgress(downloadIds, downloadedBytes,
+                    System.currentTimeMillis());
+        }
+    }
+
+}
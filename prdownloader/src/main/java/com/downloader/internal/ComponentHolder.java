@@ -18,16 +18,25 @@ package com.downloader.internal;
 
 import android.content.Context;
 
+import com.downloader.AdmissionPolicy;
 import com.downloader.Constants;
+import com.downloader.DownloadEngine;
+import com.downloader.SchedulingMode;
 import com.downloader.OnStoragePermissionsRequested;
 import com.downloader.PRDownloader;
 import com.downloader.PRDownloaderConfig;
+import com.downloader.cache.DiskCache;
 import com.downloader.database.AppDbHelper;
 import com.downloader.database.DbHelper;
 import com.downloader.database.NoOpsDbHelper;
 import com.downloader.httpclient.DefaultHttpClient;
 import com.downloader.httpclient.HttpClient;
 
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
 /**
  * Created by amitshekhar on 14/11/17.
  */
@@ -42,6 +51,26 @@ public class ComponentHolder {
     private DbHelper dbHelper;
     private Context context;
     private OnStoragePermissionsRequested storagePermissionsHandler;
+    private DiskCache diskCache;
+    private int minConcurrency = Constants.DEFAULT_MIN_CONCURRENCY;
+    private int maxConcurrency = Constants.DEFAULT_MAX_CONCURRENCY;
+    private boolean adaptiveConcurrencyEnabled = true;
+    private int maxConnectionsPerHost = Constants.DEFAULT_MAX_CONNECTIONS_PER_HOST;
+    private Map<String, Integer> hostConnectionLimits = new HashMap<>();
+    private long priorityAgingInterval = Constants.DEFAULT_PRIORITY_AGING_INTERVAL_IN_MILLS;
+    private long starvationBound = Constants.DEFAULT_STARVATION_BOUND_IN_MILLS;
+    private boolean preemptionEnabled = true;
+    private DownloadEngine downloadEngine = DownloadEngine.THREAD_POOL;
+    private SchedulingMode schedulingMode = SchedulingMode.PRIORITY;
+    private int queueCapacity = 0;
+    private AdmissionPolicy admissionPolicy = AdmissionPolicy.BLOCK;
+    private boolean queuePersistenceEnabled = false;
+    private boolean probeLaneEnabled = false;
+    private long progressInterval = Constants.DEFAULT_PROGRESS_INTERVAL_IN_MILLS;
+    private long progressMinBytes = 0;
+    private int progressMinPercent = 0;
+    private long progressDispatchInterval = Constants.DEFAULT_PROGRESS_DISPATCH_INTERVAL_IN_MILLS;
+    private Executor callbackExecutor = null;
 
     public static ComponentHolder getInstance() {
         return INSTANCE;
@@ -55,6 +84,26 @@ public class ComponentHolder {
         this.dbHelper = config.isDatabaseEnabled() ? new AppDbHelper(context) : new NoOpsDbHelper();
         this.context = config.getContext();
         this.storagePermissionsHandler = config.getStoragePermissionsHandler();
+        this.diskCache = config.isCacheEnabled() ? createDiskCache(context, config) : null;
+        this.minConcurrency = config.getMinConcurrency();
+        this.maxConcurrency = config.getMaxConcurrency();
+        this.adaptiveConcurrencyEnabled = config.isAdaptiveConcurrencyEnabled();
+        this.maxConnectionsPerHost = config.getMaxConnectionsPerHost();
+        this.hostConnectionLimits = new HashMap<>(config.getHostConnectionLimits());
+        this.priorityAgingInterval = config.getPriorityAgingInterval();
+        this.starvationBound = config.getStarvationBound();
+        this.preemptionEnabled = config.isPreemptionEnabled();
+        this.downloadEngine = config.getDownloadEngine();
+        this.schedulingMode = config.getSchedulingMode();
+        this.queueCapacity = config.getQueueCapacity();
+        this.admissionPolicy = config.getAdmissionPolicy();
+        this.queuePersistenceEnabled = config.isQueuePersistenceEnabled();
+        this.probeLaneEnabled = config.isProbeLaneEnabled();
+        this.progressInterval = config.getProgressInterval();
+        this.progressMinBytes = config.getProgressMinBytes();
+        this.progressMinPercent = config.getProgressMinPercent();
+        this.progressDispatchInterval = config.getProgressDispatchInterval();
+        this.callbackExecutor = config.getCallbackExecutor();
 
         if (config.isDatabaseEnabled()) {
             PRDownloader.cleanUp(30);
@@ -105,6 +154,13 @@ public class ComponentHolder {
         return dbHelper;
     }
 
+    /**
+     * Replaces the database set up by init, for the tests which check what is stored.
+     */
+    void setDbHelper(DbHelper dbHelper) {
+        this.dbHelper = dbHelper;
+    }
+
     public HttpClient getHttpClient() {
         if (httpClient == null) {
             synchronized (ComponentHolder.class) {
@@ -116,7 +172,92 @@ public class ComponentHolder {
         return httpClient.clone();
     }
 
+    public DiskCache getDiskCache() {
+        return diskCache;
+    }
+
+    public int getMinConcurrency() {
+        return minConcurrency;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public boolean isAdaptiveConcurrencyEnabled() {
+        return adaptiveConcurrencyEnabled;
+    }
+
+    public int getMaxConnectionsPerHost(String host) {
+        Integer limit = hostConnectionLimits.get(host);
+        return limit != null ? limit : maxConnectionsPerHost;
+    }
+
+    public long getPriorityAgingInterval() {
+        return priorityAgingInterval;
+    }
+
+    public long getStarvationBound() {
+        return starvationBound;
+    }
+
+    public boolean isPreemptionEnabled() {
+        return preemptionEnabled;
+    }
+
+    public DownloadEngine getDownloadEngine() {
+        return downloadEngine;
+    }
+
+    public SchedulingMode getSchedulingMode() {
+        return schedulingMode;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public AdmissionPolicy getAdmissionPolicy() {
+        return admissionPolicy;
+    }
+
+    public boolean isQueuePersistenceEnabled() {
+        return queuePersistenceEnabled;
+    }
+
+    public boolean isProbeLaneEnabled() {
+        return probeLaneEnabled;
+    }
+
+    public long getProgressInterval() {
+        return progressInterval;
+    }
+
+    public long getProgressMinBytes() {
+        return progressMinBytes;
+    }
+
+    public int getProgressMinPercent() {
+        return progressMinPercent;
+    }
+
+    public long getProgressDispatchInterval() {
+        return progressDispatchInterval;
+    }
+
+    public Executor getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
     public Context getContext() { return context; }
 
     public OnStoragePermissionsRequested getStoragePermissionsHandler() { return storagePermissionsHandler; }
+
+    private static DiskCache createDiskCache(Context context, PRDownloaderConfig config) {
+        File directory = config.getCacheDirectory();
+        if (directory == null) {
+            directory = new File(context.getCacheDir(), Constants.DEFAULT_CACHE_DIRECTORY_NAME);
+        }
+        return new DiskCache(directory, config.getCacheMaxBytes());
+    }
 }
@@ -14,14 +14,31 @@
  *    limitations under the License.
  */
 
+
 package com.downloader.internal;
 
+import com.downloader.Error;
+import com.downloader.Priority;
+import com.downloader.Progress;
 import com.downloader.Status;
 import com.downloader.core.Core;
+import com.downloader.core.ExecutorSupplier;
+import com.downloader.database.DownloadModel;
 import com.downloader.request.DownloadRequest;
+import com.downloader.stream.DownloadEventStream;
+import com.downloader.utils.Utils;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -31,15 +48,36 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class DownloadRequestQueue {
 
     private static DownloadRequestQueue instance;
-    private final Map<Integer, DownloadRequest> currentRequestMap;
+    // guards currentRequestMap, tagIndex and checkpointBatches
+    private final Object lock = new Object();
+    private final IntObjectMap<DownloadRequest> currentRequestMap;
+    private final Map<Object, IntObjectMap<DownloadRequest>> tagIndex;
+    private final IntObjectMap<CheckpointBatch> checkpointBatches;
+    private final ConcurrentMap<String, DownloadRequest> sharedStreamMap;
     private final AtomicInteger sequenceGenerator;
+    private final AdmissionControl admissionControl;
+    private final QueuePersistence queuePersistence;
+    private final CheckpointWriter checkpointWriter;
+    private volatile boolean shutDown;
 
     private DownloadRequestQueue() {
-        currentRequestMap = new ConcurrentHashMap<>();
+        currentRequestMap = new IntObjectMap<>();
+        tagIndex = new HashMap<>();
+        checkpointBatches = new IntObjectMap<>();
+        sharedStreamMap = new ConcurrentHashMap<>();
         sequenceGenerator = new AtomicInteger();
+        admissionControl = new AdmissionControl(this);
+        queuePersistence = new QueuePersistence();
+        checkpointWriter = new CheckpointWriter();
+        queuePersistence.restore(this, admissionControl);
     }
 
     public static void initialize() {
+        synchronized (DownloadRequestQueue.class) {
+            if (instance != null && instance.shutDown) {
+                instance = null;
+            }
+        }
         getInstance();
     }
 
@@ -54,81 +92,641 @@ public class DownloadRequestQueue {
         return instance;
     }
 
+    /**
+     * Returns the number of requests waiting to start.
+     */
+    public int getQueueDepth() {
+        return admissionControl.getWaitingCount();
+    }
+
+    /**
+     * Returns the number of requests currently spilled to the database.
+     */
+    public int getSpilledRequestCount() {
+        return admissionControl.getSpilledCount();
+    }
+
+    /**
+     * Returns the number of times a request was spilled to the database.
+     */
+    public long getSpillCount() {
+        return admissionControl.getSpillCount();
+    }
+
     private int getSequenceNumber() {
         return sequenceGenerator.incrementAndGet();
     }
 
+    private DownloadRequest getRequest(int downloadId) {
+        synchronized (lock) {
+            return currentRequestMap.get(downloadId);
+        }
+    }
+
+    private List<DownloadRequest> getRequests(Object tag) {
+        synchronized (lock) {
+            final IntObjectMap<DownloadRequest> requests = tag != null ? tagIndex.get(tag) : null;
+            return requests != null ? requests.values() : Collections.<DownloadRequest>emptyList();
+        }
+    }
+
+    private List<DownloadRequest> getAllRequests() {
+        synchronized (lock) {
+            return currentRequestMap.values();
+        }
+    }
+
     public void pause(int downloadId) {
-        DownloadRequest request = currentRequestMap.get(downloadId);
+        DownloadRequest request = getRequest(downloadId);
         if (request != null) {
-            request.setStatus(Status.PAUSED);
+            request.clearPreempted();
+            request.moveTo(Status.PAUSED);
+            queuePersistence.onStatusChanged(Collections.singletonList(request), Status.PAUSED);
         }
     }
 
+    public void pause(Object tag) {
+        pause(getRequests(tag));
+    }
+
+    public void pauseAll() {
+        pause(getAllRequests());
+    }
+
+    /**
+     * Pauses the requests together. The running ones store their progress checkpoints in
+     * one batch instead of one transaction each.
+     */
+    private void pause(List<DownloadRequest> requests) {
+        final CheckpointBatch batch = createCheckpointBatch(requests);
+        for (DownloadRequest request : requests) {
+            request.clearPreempted();
+            request.moveTo(Status.PAUSED);
+        }
+        queuePersistence.onStatusChanged(requests, Status.PAUSED);
+        if (batch != null) {
+            batch.startTimeout();
+        }
+    }
+
+    /**
+     * Creates the batch collecting the checkpoints of the running requests among the
+     * given ones, null if none is running. It has to be created before they are paused.
+     */
+    private CheckpointBatch createCheckpointBatch(List<DownloadRequest> requests) {
+        int runningCount = 0;
+        for (DownloadRequest request : requests) {
+            if (isRunningOwnDownload(request)) {
+                runningCount++;
+            }
+        }
+        if (runningCount == 0) {
+            return null;
+        }
+        final CheckpointBatch batch = new CheckpointBatch(runningCount);
+        synchronized (lock) {
+            for (DownloadRequest request : requests) {
+                if (isRunningOwnDownload(request)) {
+                    checkpointBatches.put(request.getDownloadId(), batch);
+                }
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Returns whether the request runs a download of its own, which writes a checkpoint
+     * when it stops, unlike a request following the shared stream of another one.
+     */
+    private static boolean isRunningOwnDownload(DownloadRequest request) {
+        return request.getStatus() == Status.RUNNING && request.getLeader() == null;
+    }
+
+    /**
+     * Stops taking requests and stops the running downloads, storing their exact progress
+     * in one transaction. The queued requests are left as they are, a persisted queue
+     * restores both on the next initialize, which also replaces this queue.
+     *
+     * @return false if some downloads did not stop within the timeout
+     */
+    public boolean shutDown(long timeoutInMills) {
+        shutDown = true;
+        admissionControl.shutDown();
+        final List<DownloadRequest> runningRequests = new ArrayList<>();
+        for (DownloadRequest request : getAllRequests()) {
+            if (request.getStatus() == Status.RUNNING) {
+                request.clearPreempted();
+                runningRequests.add(request);
+            }
+        }
+        final CheckpointBatch batch = createCheckpointBatch(runningRequests);
+        boolean stopped = true;
+        if (batch != null) {
+            // the status is not mirrored, so that they are restored as queued ones
+            for (DownloadRequest request : runningRequests) {
+                request.compareAndSetStatus(Status.RUNNING, Status.PAUSED);
+            }
+            stopped = batch.awaitStored(timeoutInMills);
+        }
+        // the downloads which did not stop in time keep their last synced offsets
+        checkpointWriter.shutDown();
+        return stopped;
+    }
+
+    CheckpointWriter getCheckpointWriter() {
+        return checkpointWriter;
+    }
+
+    /**
+     * Stores the progress of a download which stopped because it was paused, as part of
+     * the batch of the bulk pause it belongs to, if any.
+     *
+     * @param store false if the download has no progress worth storing
+     */
+    void storePausedProgress(DownloadRequest request, boolean store) {
+        checkpointWriter.discard(request.getDownloadId());
+        final CheckpointBatch batch;
+        synchronized (lock) {
+            batch = checkpointBatches.remove(request.getDownloadId());
+        }
+        if (!store) {
+            if (batch != null) {
+                batch.skip();
+            }
+        } else if (batch == null || !batch.add(request.getDownloadId(), request.getDownloadedBytes())) {
+            ComponentHolder.getInstance().getDbHelper().updateProgress(request.getDownloadId(),
+                    request.getDownloadedBytes(), System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Called once a download stopped, whatever the reason, so that a bulk pause does not
+     * wait for a checkpoint which will never come.
+     */
+    void onDownloadStopped(DownloadRequest request) {
+        storePausedProgress(request, false);
+    }
+
     public void resume(int downloadId) {
-        DownloadRequest request = currentRequestMap.get(downloadId);
-        if (request != null) {
-            request.setStatus(Status.QUEUED);
+        DownloadRequest request = getRequest(downloadId);
+        if (request != null && !request.isPreempted()
+                && request.compareAndSetStatus(Status.PAUSED, Status.QUEUED)) {
+            DownloadRequest leader = request.getLeader();
+            if (leader != null && leader.getDownloadId() != downloadId) {
+                leader.detach(request);
+            }
+            submit(request);
+            queuePersistence.onStatusChanged(Collections.singletonList(request), Status.QUEUED);
+        }
+    }
+
+    public void resume(Object tag) {
+        resume(getRequests(tag));
+    }
+
+    public void resumeAll() {
+        resume(getAllRequests());
+    }
+
+    /**
+     * Resumes the paused requests among the given ones, handing them to the executor
+     * as one block.
+     */
+    private void resume(List<DownloadRequest> requests) {
+        final List<DownloadRequest> pausedRequests = new ArrayList<>(requests.size());
+        for (DownloadRequest request : requests) {
+            if (request.isPreempted() || !request.compareAndSetStatus(Status.PAUSED, Status.QUEUED)) {
+                continue;
+            }
+            DownloadRequest leader = request.getLeader();
+            if (leader != null && leader.getDownloadId() != request.getDownloadId()) {
+                leader.detach(request);
+            }
+            pausedRequests.add(request);
+        }
+        if (!pausedRequests.isEmpty()) {
+            submitAll(pausedRequests);
+            queuePersistence.onStatusChanged(pausedRequests, Status.QUEUED);
+        }
+    }
+
+    public void setPriority(int downloadId, Priority priority) {
+        DownloadRequest request = getRequest(downloadId);
+        if (request != null && priority != null && request.getPriority() != priority) {
+            request.setPriority(priority);
+            final ExecutorSupplier executorSupplier = Core.getInstance().getExecutorSupplier();
+            if (!executorSupplier.forDownloadTasks().reprioritize(request.getFuture())) {
+                executorSupplier.forProbeTasks().reprioritize(request.getFuture());
+            }
+        }
+    }
+
+    /**
+     * Queues a running download again, after it was paused to free its slot for a request
+     * of higher priority or when it has to move to another engine.
+     */
+    void requeue(DownloadRequest request) {
+        if (getRequest(request.getDownloadId()) == request
+                && (request.compareAndSetStatus(Status.PAUSED, Status.QUEUED)
+                || request.compareAndSetStatus(Status.RUNNING, Status.QUEUED))) {
+            submit(request);
+        }
+    }
+
+    /**
+     * Hands a request which moved to QUEUED to the engine which downloads it. Only the
+     * thread which made that transition submits, so a request is never submitted twice.
+     */
+    private void submit(DownloadRequest request) {
+        if (shutDown) {
+            return;
+        }
+        if (NioDownloadEngine.canHandle(request)) {
+            Core.getInstance()
+                    .getExecutorSupplier()
+                    .forNonBlockingDownloadTasks()
+                    .submit(request);
+            return;
+        }
+        if (ComponentHolder.getInstance().isProbeLaneEnabled()) {
             request.setFuture(Core.getInstance()
                     .getExecutorSupplier()
-                    .forDownloadTasks()
-                    .submit(new DownloadRunnable(request)));
+                    .forProbeTasks()
+                    .submit(new DownloadRunnable(request, true)));
+            return;
+        }
+        request.setFuture(Core.getInstance()
+                .getExecutorSupplier()
+                .forDownloadTasks()
+                .submit(new DownloadRunnable(request, false)));
+    }
+
+    /**
+     * Hands a download prepared on the probe lane to the thread pool, where it waits for
+     * a slot to transfer its body.
+     */
+    void submitTransfer(DownloadRunnable runnable) {
+        if (!shutDown) {
+            try {
+                runnable.request.setFuture(Core.getInstance()
+                        .getExecutorSupplier()
+                        .forDownloadTasks()
+                        .submit(runnable));
+                return;
+            } catch (RejectedExecutionException e) {
+                // shut down in the meantime
+            }
+        }
+        runnable.abort();
+    }
+
+    /**
+     * Submits the requests to the thread pool as one block, so that its queue is locked
+     * and sorted once instead of once per request.
+     */
+    private void submitAll(List<DownloadRequest> requests) {
+        if (shutDown) {
+            return;
+        }
+        if (ComponentHolder.getInstance().isProbeLaneEnabled()) {
+            // the probe lane prepares a few downloads at a time, there is no queue to batch
+            for (DownloadRequest request : requests) {
+                submit(request);
+            }
+            return;
+        }
+        final List<DownloadRunnable> runnables = new ArrayList<>(requests.size());
+        for (DownloadRequest request : requests) {
+            if (NioDownloadEngine.canHandle(request)) {
+                submit(request);
+            } else {
+                runnables.add(new DownloadRunnable(request, false));
+            }
+        }
+        if (runnables.isEmpty()) {
+            return;
+        }
+        final List<Future<?>> futures = Core.getInstance()
+                .getExecutorSupplier()
+                .forDownloadTasks()
+                .submitAll(runnables);
+        for (int i = 0; i < runnables.size(); i++) {
+            runnables.get(i).request.setFuture(futures.get(i));
         }
     }
 
     private void cancelAndRemoveFromMap(DownloadRequest request) {
         if (request != null) {
             request.cancel();
-            currentRequestMap.remove(request.getDownloadId());
+            unregister(request);
+            admissionControl.release(request);
+            queuePersistence.onRemoved(Collections.singletonList(request));
+            releaseSharedStream(request);
         }
     }
 
     public void cancel(int downloadId) {
-        DownloadRequest request = currentRequestMap.get(downloadId);
+        DownloadRequest request = getRequest(downloadId);
+        if (request == null) {
+            admissionControl.cancelSpilled(new int[]{downloadId});
+        }
         cancelAndRemoveFromMap(request);
     }
 
     public void cancel(Object tag) {
-        for (Map.Entry<Integer, DownloadRequest> currentRequestMapEntry : currentRequestMap.entrySet()) {
-            DownloadRequest request = currentRequestMapEntry.getValue();
-            if (request.getTag() instanceof String && tag instanceof String) {
-                final String tempRequestTag = (String) request.getTag();
-                final String tempTag = (String) tag;
-                if (tempRequestTag.equals(tempTag)) {
-                    cancelAndRemoveFromMap(request);
-                }
-            } else if (request.getTag().equals(tag)) {
-                cancelAndRemoveFromMap(request);
-            }
+        if (tag instanceof String) {
+            admissionControl.cancelSpilled(admissionControl.getSpilledIds((String) tag));
         }
+        cancel(getRequests(tag));
     }
 
     public void cancelAll() {
-        for (Map.Entry<Integer, DownloadRequest> currentRequestMapEntry : currentRequestMap.entrySet()) {
-            DownloadRequest request = currentRequestMapEntry.getValue();
-            cancelAndRemoveFromMap(request);
+        admissionControl.cancelSpilled(null);
+        cancel(getAllRequests());
+    }
+
+    /**
+     * Cancels the requests together, removing their database entries in one transaction.
+     */
+    private void cancel(List<DownloadRequest> requests) {
+        if (requests.isEmpty()) {
+            return;
         }
+        for (DownloadRequest request : requests) {
+            request.cancel(false);
+            unregister(request);
+            admissionControl.release(request);
+            releaseSharedStream(request);
+        }
+        queuePersistence.onRemoved(requests);
+        Utils.deleteTempFilesAndDatabaseEntriesInBackground(requests);
     }
 
     public Status getStatus(int downloadId) {
-        DownloadRequest request = currentRequestMap.get(downloadId);
+        DownloadRequest request = getRequest(downloadId);
         if (request != null) {
             return request.getStatus();
         }
-        return Status.UNKNOWN;
+        return admissionControl.isSpilled(downloadId) ? Status.QUEUED : Status.UNKNOWN;
+    }
+
+    /**
+     * Returns a snapshot of the progress of the download, null if it is not known.
+     */
+    public Progress getProgress(int downloadId) {
+        DownloadRequest request = getRequest(downloadId);
+        return request != null ? request.getProgress() : null;
+    }
+
+    public DownloadEventStream getEvents(int downloadId) {
+        DownloadRequest request = getRequest(downloadId);
+        return request != null ? request.getEvents() : null;
     }
 
     public void addRequest(DownloadRequest request) {
-        currentRequestMap.put(request.getDownloadId(), request);
-        request.setStatus(Status.QUEUED);
+        if (!admit(request)) {
+            return;
+        }
+        if (register(request) && request.compareAndSetStatus(null, Status.QUEUED)) {
+            submit(request);
+        } else {
+            admissionControl.release(request);
+        }
+    }
+
+    /**
+     * Adds many requests at once: the stored models of all of them are read up front and
+     * the ones which need a download of their own are handed to the executor together.
+     */
+    public void addRequests(List<DownloadRequest> requests) {
+        final List<DownloadRequest> pendingRequests = new ArrayList<>(requests.size());
+        for (DownloadRequest request : requests) {
+            if (!admit(request)) {
+                continue;
+            }
+            if (register(request) && request.compareAndSetStatus(null, Status.QUEUED)) {
+                pendingRequests.add(request);
+            } else {
+                admissionControl.release(request);
+            }
+        }
+        if (pendingRequests.isEmpty()) {
+            return;
+        }
+        prefetchModels(pendingRequests);
+        submitAll(pendingRequests);
+    }
+
+    /**
+     * Lets the request in if the queue has room for it, as set by the admission policy.
+     *
+     * @return false if the request was rejected or spilled
+     */
+    private boolean admit(DownloadRequest request) {
+        switch (admissionControl.admit(request)) {
+            case ADMITTED:
+                return true;
+            case REJECTED:
+                final Error error = new Error();
+                if (shutDown) {
+                    error.setShutDown(true);
+                } else {
+                    error.setQueueFull(true);
+                }
+                request.deliverError(error);
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Called once the download of the request started running.
+     */
+    void onDownloadStarted(DownloadRequest request) {
+        admissionControl.release(request);
+    }
+
+    /**
+     * Takes a request which did not start yet out of the queue of the thread pool, so
+     * that it can be spilled to the database.
+     *
+     * @return false if it was not in the queue anymore
+     */
+    boolean removeQueued(DownloadRequest request) {
+        final ExecutorSupplier executorSupplier = Core.getInstance().getExecutorSupplier();
+        if (!executorSupplier.forDownloadTasks().removeQueued(request.getFuture())
+                && !executorSupplier.forProbeTasks().removeQueued(request.getFuture())) {
+            return false;
+        }
+        unregister(request);
+        releaseSharedStream(request);
+        return true;
+    }
+
+    /**
+     * Registers the request, attaching it to an identical or a shared download if there
+     * is one.
+     *
+     * @return true if the request needs to be submitted
+     */
+    private boolean register(DownloadRequest request) {
+        DownloadRequest existing = getRequest(request.getDownloadId());
+        if (existing != null && existing != request && existing.attach(request)) {
+            if (existing.getStatus() == Status.PAUSED) {
+                resume(existing.getDownloadId());
+            }
+            return false;
+        }
+        addToRegistry(request);
+        queuePersistence.onQueued(request);
+        if (NioDownloadEngine.canHandle(request)) {
+            // the non blocking engine has no shared streams
+            return true;
+        }
+        final String key = getSharedStreamKey(request);
+        DownloadRequest leader = sharedStreamMap.get(key);
+        if (leader != null && leader.share(request)) {
+            request.compareAndSetStatus(null, Status.QUEUED);
+            return false;
+        }
+        if (sharedStreamMap.putIfAbsent(key, request) == null) {
+            request.setSharedStreamKey(key);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the key of the network stream of a request: its url, user agent and headers,
+     * since a request with other headers may get another response. The header names are
+     * lower cased and sorted, the values kept in order.
+     */
+    private static String getSharedStreamKey(DownloadRequest request) {
+        final StringBuilder key = new StringBuilder(request.getUrl())
+                .append('\n').append(request.getUserAgent());
+        final Map<String, List<String>> headers = request.getHeaders();
+        if (headers == null || headers.isEmpty()) {
+            return key.toString();
+        }
+        final TreeMap<String, List<String>> sortedHeaders = new TreeMap<>();
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            final String name = entry.getKey().toLowerCase(Locale.ENGLISH);
+            List<String> values = sortedHeaders.get(name);
+            if (values == null) {
+                values = new ArrayList<>();
+                sortedHeaders.put(name, values);
+            }
+            values.addAll(entry.getValue());
+        }
+        for (Map.Entry<String, List<String>> entry : sortedHeaders.entrySet()) {
+            for (String value : entry.getValue()) {
+                key.append('\n').append(entry.getKey()).append(": ").append(value);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Registers the paused requests restored from the persisted queue, without starting
+     * them. The ones registered again in the meantime are left out.
+     */
+    void restorePaused(List<DownloadRequest> requests) {
+        for (DownloadRequest request : requests) {
+            if (getRequest(request.getDownloadId()) == null) {
+                request.moveTo(Status.PAUSED);
+                addToRegistry(request);
+            }
+        }
+    }
+
+    private void addToRegistry(DownloadRequest request) {
+        synchronized (lock) {
+            final DownloadRequest previous = currentRequestMap.put(request.getDownloadId(), request);
+            if (previous != null && previous != request) {
+                removeFromTagIndex(previous);
+            }
+            final Object tag = request.getTag();
+            if (tag != null) {
+                IntObjectMap<DownloadRequest> requests = tagIndex.get(tag);
+                if (requests == null) {
+                    requests = new IntObjectMap<>();
+                    tagIndex.put(tag, requests);
+                }
+                requests.put(request.getDownloadId(), request);
+            }
+        }
         request.setSequenceNumber(getSequenceNumber());
-        request.setFuture(Core.getInstance()
-                .getExecutorSupplier()
-                .forDownloadTasks()
-                .submit(new DownloadRunnable(request)));
+    }
+
+    private void unregister(DownloadRequest request) {
+        synchronized (lock) {
+            if (currentRequestMap.remove(request.getDownloadId(), request)) {
+                removeFromTagIndex(request);
+            }
+        }
+    }
+
+    private void removeFromTagIndex(DownloadRequest request) {
+        final Object tag = request.getTag();
+        if (tag == null) {
+            return;
+        }
+        final IntObjectMap<DownloadRequest> requests = tagIndex.get(tag);
+        if (requests != null && requests.remove(request.getDownloadId(), request) && requests.isEmpty()) {
+            tagIndex.remove(tag);
+        }
+    }
+
+    private void prefetchModels(List<DownloadRequest> requests) {
+        final int[] downloadIds = new int[requests.size()];
+        for (int i = 0; i < downloadIds.length; i++) {
+            downloadIds[i] = requests.get(i).getDownloadId();
+        }
+        final List<DownloadModel> models = ComponentHolder.getInstance().getDbHelper().findAll(downloadIds);
+        final IntObjectMap<DownloadModel> modelMap = new IntObjectMap<>();
+        for (DownloadModel model : models) {
+            modelMap.put(model.getId(), model);
+        }
+        for (DownloadRequest request : requests) {
+            request.setPrefetchedModel(modelMap.get(request.getDownloadId()));
+        }
+    }
+
+    /**
+     * Stops other requests from joining the network stream of the given request and
+     * returns the ones which already joined it.
+     */
+    List<DownloadRequest> sealSharedStream(DownloadRequest request) {
+        String key = request.getSharedStreamKey();
+        if (key != null) {
+            sharedStreamMap.remove(key, request);
+        }
+        return request.sealSharedStream();
+    }
+
+    /**
+     * Lets the requests waiting on the network stream of the given request, which got
+     * paused or cancelled, run as downloads of their own.
+     */
+    void releaseSharedStream(DownloadRequest request) {
+        for (DownloadRequest follower : sealSharedStream(request)) {
+            request.detach(follower);
+            if (follower.getStatus() == Status.QUEUED
+                    || follower.compareAndSetStatus(Status.RUNNING, Status.QUEUED)) {
+                follower.setDownloadedBytes(0);
+                follower.setTotalBytes(0);
+                submit(follower);
+            }
+        }
     }
 
     public void finish(DownloadRequest request) {
-        currentRequestMap.remove(request.getDownloadId());
+        unregister(request);
+        admissionControl.release(request);
+        queuePersistence.onRemoved(Collections.singletonList(request));
+        String key = request.getSharedStreamKey();
+        if (key != null) {
+            sharedStreamMap.remove(key, request);
+        }
     }
 }
@@ -17,40 +17,117 @@
 package com.downloader.internal;
 
 import com.downloader.Error;
-import com.downloader.Priority;
 import com.downloader.Response;
 import com.downloader.Status;
+import com.downloader.core.Core;
+import com.downloader.core.ProbeExecutor;
 import com.downloader.request.DownloadRequest;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * Created by amitshekhar on 13/11/17.
  */
 
 public class DownloadRunnable implements Runnable {
 
-    public final Priority priority;
     public final int sequence;
     public final DownloadRequest request;
+    private final boolean probing;
+    private final AtomicBoolean transferTaken = new AtomicBoolean();
+    private volatile DownloadTask preparedTask;
 
-    DownloadRunnable(DownloadRequest request) {
+    DownloadRunnable(DownloadRequest request, boolean probing) {
         this.request = request;
-        this.priority = request.getPriority();
         this.sequence = request.getSequenceNumber();
+        this.probing = probing;
     }
 
+    /**
+     * Runs the whole download, or only its preparation when it was submitted to the probe
+     * lane. In that case it runs a second time on the thread pool to transfer the body.
+     */
     @Override
     public void run() {
-        request.setStatus(Status.RUNNING);
+        if (preparedTask != null) {
+            transfer();
+            return;
+        }
+        DownloadRequestQueue.getInstance().onDownloadStarted(request);
+        if (!request.compareAndSetStatus(Status.QUEUED, Status.RUNNING)) {
+            // paused or cancelled while queued, or already started by another runnable
+            if (request.getStatus() == Status.PAUSED) {
+                request.deliverPauseEvent();
+                DownloadRequestQueue.getInstance().releaseSharedStream(request);
+            }
+            return;
+        }
         DownloadTask downloadTask = DownloadTask.create(request);
-        Response response = downloadTask.run();
+        if (!probing) {
+            onResponse(downloadTask.run());
+            return;
+        }
+        final ProbeExecutor probeExecutor = Core.getInstance().getExecutorSupplier().forProbeTasks();
+        try {
+            probeExecutor.acquireReadySlot();
+        } catch (InterruptedException e) {
+            // cancelled or shut down while waiting
+            DownloadRequestQueue.getInstance().onDownloadStopped(request);
+            return;
+        }
+        Response response = downloadTask.prepare();
+        if (response != null) {
+            probeExecutor.releaseReadySlot();
+            onResponse(response);
+            return;
+        }
+        preparedTask = downloadTask;
+        DownloadRequestQueue.getInstance().submitTransfer(this);
+    }
+
+    /**
+     * Called once a future running this was cancelled, to close the connection of a
+     * prepared download which was still waiting for its transfer.
+     */
+    public void onCancelled() {
+        if (preparedTask != null) {
+            abort();
+        }
+    }
+
+    void abort() {
+        if (transferTaken.compareAndSet(false, true)) {
+            preparedTask.abort();
+            Core.getInstance().getExecutorSupplier().forProbeTasks().releaseReadySlot();
+            DownloadRequestQueue.getInstance().onDownloadStopped(request);
+        }
+    }
+
+    private void transfer() {
+        if (!transferTaken.compareAndSet(false, true)) {
+            return;
+        }
+        Core.getInstance().getExecutorSupplier().forProbeTasks().releaseReadySlot();
+        onResponse(preparedTask.transfer());
+    }
+
+    private void onResponse(Response response) {
+        DownloadRequestQueue.getInstance().onDownloadStopped(request);
         if (response.isSuccessful()) {
             request.deliverSuccess();
         } else if (response.isPaused()) {
-            request.deliverPauseEvent();
+            if (request.clearPreempted()) {
+                DownloadRequestQueue.getInstance().requeue(request);
+            } else {
+                request.deliverPauseEvent();
+                DownloadRequestQueue.getInstance().releaseSharedStream(request);
+            }
         } else if (response.getError() != null) {
             request.deliverError(response.getError());
         } else if (!response.isCancelled()) {
             request.deliverError(new Error());
+        } else {
+            DownloadRequestQueue.getInstance().releaseSharedStream(request);
         }
     }
 
@@ -16,15 +16,22 @@
 
 package com.downloader.internal;
 
+import android.os.Process;
 import android.support.v4.provider.DocumentFile;
 
 import com.downloader.Constants;
 import com.downloader.Error;
-import com.downloader.Progress;
+import com.downloader.OnStoragePermissionsRequested;
+import com.downloader.Priority;
 import com.downloader.Response;
 import com.downloader.Status;
+import com.downloader.cache.CacheEntry;
+import com.downloader.cache.CachePolicy;
+import com.downloader.cache.DiskCache;
+import com.downloader.core.AdaptiveConcurrencyLimit;
+import com.downloader.core.Core;
 import com.downloader.database.DownloadModel;
-import com.downloader.handler.ProgressHandler;
+import com.downloader.httpclient.Abortable;
 import com.downloader.httpclient.HttpClient;
 import com.downloader.internal.stream.FileDownloadOutputStream;
 import com.downloader.internal.stream.FileDownloadRandomAccessFile;
@@ -42,6 +49,9 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Created by amitshekhar on 13/11/17.
@@ -50,19 +60,59 @@ import java.net.HttpURLConnection;
 public class DownloadTask {
 
     private static final int BUFFER_SIZE = 1024 * 4;
+    private static final int CACHE_BUFFER_SIZE = 1024 * 64;
     private static final long TIME_GAP_FOR_SYNC = 2000;
     private static final long MIN_BYTES_FOR_SYNC = 65536;
+    private static final long DEADLINE_CHECK_INTERVAL_IN_MILLS = 1000;
     private final DownloadRequest request;
-    private ProgressHandler progressHandler;
     private long lastSyncTime;
     private long lastSyncBytes;
     private InputStream inputStream;
     private FileDownloadOutputStream outputStream;
-    private HttpClient httpClient;
+    private volatile HttpClient httpClient;
     private long totalBytes;
     private int responseCode;
     private String eTag;
     private boolean isResumeSupported;
+    // set once the model was removed, after which no checkpoint may be taken
+    private boolean isModelRemoved;
+    // set once the checkpoint of the pause was handed over, closing must not queue another
+    private boolean pausedCheckpointStored;
+    private DiskCache.Editor cacheEditor;
+    private final List<SharedOutput> sharedOutputs = new ArrayList<>();
+    private AdaptiveConcurrencyLimit concurrencyLimit;
+    private Priority appliedPriority;
+    private long transferStartTime;
+    private long transferStartBytes;
+    private long lastDeadlineCheckTime;
+    private DocumentFile documentFile;
+    private DiskCache diskCache;
+    private CacheEntry cacheHit;
+    // pause and cancel are mostly called from the main thread, where closing a socket
+    // must not happen, the other threads abort right away
+    private final Runnable abortAction = new Runnable() {
+        @Override
+        public void run() {
+            final HttpClient client = httpClient;
+            if (!(client instanceof Abortable)) {
+                return;
+            }
+            if (!Utils.isMainThread()) {
+                ((Abortable) client).abort();
+                return;
+            }
+            try {
+                Core.getInstance().getExecutorSupplier().forAbortTasks().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        ((Abortable) client).abort();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // shut down, which stopped the download already
+            }
+        }
+    };
 
     private DownloadTask(DownloadRequest request) {
         this.request = request;
@@ -72,7 +122,19 @@ public class DownloadTask {
         return new DownloadTask(request);
     }
 
-    Response run()
+    Response run() {
+        Response response = prepare();
+        return response != null ? response : transfer();
+    }
+
+    /**
+     * Runs everything which comes before the body: resolving the file, looking up the
+     * database and the disk cache, connecting and following the redirects.
+     *
+     * @return the response if the download already ended, or null once the body is ready
+     * to be read by {@link #transfer()}, which may run on another thread
+     */
+    Response prepare()
     {
         Response response = new Response();
 
@@ -84,13 +146,18 @@ public class DownloadTask {
             return response;
         }
 
-        try {
+        if (request.isTimeBudgetExceeded(System.currentTimeMillis())) {
+            response.setError(createTimeBudgetExceededError());
+            return response;
+        }
 
-            if (request.getOnProgressListener() != null) {
-                progressHandler = new ProgressHandler(request.getOnProgressListener());
-            }
+        boolean ready = false;
+
+        request.setAbortAction(abortAction);
+
+        try {
 
-            DocumentFile documentFile = getDocumentFile();
+            documentFile = getDocumentFile();
             DownloadModel model = getDownloadModelIfAlreadyPresentInDatabase();
 
             if (model != null) {
@@ -105,6 +172,33 @@ public class DownloadTask {
                 }
             }
 
+            final String url = request.getUrl();
+            diskCache = ComponentHolder.getInstance().getDiskCache();
+            CacheEntry cacheEntry = null;
+
+            if (diskCache != null && model == null) {
+                cacheEntry = diskCache.get(url, request);
+                if (cacheEntry != null && cacheEntry.isFresh(System.currentTimeMillis())) {
+                    inputStream = diskCache.openStream(cacheEntry);
+                    if (inputStream != null) {
+                        cacheHit = cacheEntry;
+                        ready = true;
+                        return null;
+                    }
+                    cacheEntry = null;
+                }
+                if (cacheEntry != null && cacheEntry.hasValidators()) {
+                    addConditionalHeaders(cacheEntry);
+                } else {
+                    cacheEntry = null;
+                }
+            }
+
+            concurrencyLimit = Core.getInstance().getExecutorSupplier()
+                    .forDownloadTasks().getConcurrencyLimit();
+
+            final long connectStartTime = System.currentTimeMillis();
+
             httpClient = ComponentHolder.getInstance().getHttpClient();
             httpClient.connect(request);
 
@@ -121,8 +215,32 @@ public class DownloadTask {
 
             httpClient = Utils.getRedirectedConnectionIfAny(httpClient, request);
 
+            request.clearConditionalHeaders();
+
             responseCode = httpClient.getResponseCode();
 
+            concurrencyLimit.onResponse(System.currentTimeMillis() - connectStartTime);
+
+            if (cacheEntry != null && responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                inputStream = diskCache.openStream(cacheEntry);
+                if (inputStream != null) {
+                    diskCache.onRevalidated(cacheEntry, httpClient);
+                    cacheHit = cacheEntry;
+                    ready = true;
+                    return null;
+                }
+                diskCache.remove(cacheEntry);
+                httpClient.close();
+                httpClient = ComponentHolder.getInstance().getHttpClient();
+                httpClient.connect(request);
+                httpClient = Utils.getRedirectedConnectionIfAny(httpClient, request);
+                responseCode = httpClient.getResponseCode();
+            }
+
+            if (diskCache != null && model == null) {
+                diskCache.onMiss();
+            }
+
             eTag = httpClient.getResponseHeader(Constants.ETAG);
 
             if (checkIfFreshStartRequiredAndStart(model))
@@ -132,6 +250,10 @@ public class DownloadTask {
 
             if (!isSuccessful())
             {
+                if (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                        || responseCode == Constants.HTTP_TOO_MANY_REQUESTS) {
+                    concurrencyLimit.onError();
+                }
                 Error error = new Error();
                 error.setServerError(true);
                 error.setServerErrorMessage(convertStreamToString(httpClient.getErrorStream()));
@@ -166,6 +288,50 @@ public class DownloadTask {
                 return response;
             }
 
+            ready = true;
+            return null;
+
+        }
+        catch (Exception e)
+        {
+            onException(e, response);
+        }
+        finally
+        {
+            if (!ready)
+            {
+                finish();
+            }
+        }
+
+        return response;
+    }
+
+    /**
+     * Reads the body of the response made ready by {@link #prepare()} into the file.
+     */
+    Response transfer()
+    {
+        Response response = new Response();
+
+        try {
+
+            applyPriorityIfChanged();
+
+            final String url = request.getUrl();
+
+            if (cacheHit != null) {
+                return deliverFromCache(diskCache, cacheHit, inputStream, documentFile, response);
+            }
+
+            if (request.getStatus() == Status.CANCELLED) {
+                response.setCancelled(true);
+                return response;
+            } else if (request.getStatus() == Status.PAUSED) {
+                response.setPaused(true);
+                return response;
+            }
+
             request.deliverStartEvent();
 
             inputStream = httpClient.getInputStream();
@@ -178,6 +344,18 @@ public class DownloadTask {
 
             this.outputStream = FileDownloadRandomAccessFile.create(stream);
 
+            openSharedOutputs(offset);
+
+            request.setPreemptible(isResumeSupported && sharedOutputs.isEmpty());
+
+            transferStartTime = System.currentTimeMillis();
+            transferStartBytes = request.getDownloadedBytes();
+            lastDeadlineCheckTime = transferStartTime;
+
+            if (diskCache != null && offset == 0 && CachePolicy.isCacheable(request, httpClient)) {
+                cacheEditor = diskCache.edit(url, request, httpClient);
+            }
+
             if (request.getStatus() == Status.CANCELLED)
             {
                 response.setCancelled(true);
@@ -199,17 +377,33 @@ public class DownloadTask {
 
                 outputStream.write(buff, 0, byteCount);
 
+                writeToCache(buff, byteCount);
+
+                writeToSharedOutputs(buff, byteCount);
+
                 request.setDownloadedBytes(request.getDownloadedBytes() + byteCount);
 
+                concurrencyLimit.onBytesTransferred(byteCount);
+
                 sendProgress();
 
+                applyPriorityIfChanged();
+
                 syncIfRequired(outputStream);
 
-                if (request.getStatus() == Status.CANCELLED) {
+                if (isTimeBudgetExceeded()) {
+                    sync(outputStream);
+                    response.setError(createTimeBudgetExceededError());
+                    return response;
+                }
+
+                final Status status = request.getStatus();
+                if (status == Status.CANCELLED) {
                     response.setCancelled(true);
                     return response;
-                } else if (request.getStatus() == Status.PAUSED) {
-                    sync(outputStream);
+                } else if (status == Status.PAUSED) {
+                    sendProgress(true);
+                    syncOnPause(outputStream);
                     response.setPaused(true);
                     return response;
                 }
@@ -217,48 +411,251 @@ public class DownloadTask {
             }
             while (true);
 
+            sendProgress(true);
+
             response.setSuccessful(true);
 
+            commitToCache();
+
             if (isResumeSupported)
             {
                 removeNoMoreNeededModelFromDatabase();
             }
 
         }
-        catch (IOException | IllegalAccessException e)
+        catch (Exception e)
         {
-            if (!isResumeSupported)
-            {
-                try
-                {
-                    deleteFile();
-                }
-                catch (Exception ie) { ie.printStackTrace(); }
-            }
-
-            Error error = new Error();
-            error.setConnectionError(true);
-            error.setConnectionException(e);
-            response.setError(error);
+            onException(e, response);
         }
-        catch (InterruptedException e)
+        finally
         {
+            finish();
+        }
+
+        return response;
+    }
+
+    /**
+     * Drops a download which was prepared but will not be transferred, closing its
+     * connection.
+     */
+    void abort() {
+        finish();
+    }
+
+    private void onException(Exception e, Response response) {
+        // the I/O was aborted by a pause or a cancel
+        if (request.getStatus() == Status.CANCELLED) {
+            response.setCancelled(true);
+            return;
+        } else if (request.getStatus() == Status.PAUSED) {
+            if (outputStream != null) {
+                sendProgress(true);
+                syncOnPause(outputStream);
+            }
+            response.setPaused(true);
+            return;
+        }
+
+        if (!(e instanceof IOException) && !(e instanceof IllegalAccessException)) {
             e.printStackTrace();
+            return;
         }
-        catch (Exception ex)
+
+        if (concurrencyLimit != null)
         {
-            ex.printStackTrace();
+            concurrencyLimit.onError();
         }
-        finally
+
+        if (!isResumeSupported)
         {
-            closeAllSafely(outputStream);
+            try
+            {
+                deleteFile();
+            }
+            catch (Exception ie) { ie.printStackTrace(); }
+        }
+
+        Error error = new Error();
+        error.setConnectionError(true);
+        error.setConnectionException(e);
+        response.setError(error);
+    }
+
+    private void finish() {
+        request.clearAbortAction(abortAction);
+        request.setPreemptible(false);
+        abortCacheIfAny();
+        closeAllSafely(outputStream);
+        restoreThreadPriority();
+    }
+
+    /**
+     * Ends the download once it ran past its time budget, and warns when the rate seen
+     * since the transfer started is too low to make the deadline.
+     */
+    private boolean isTimeBudgetExceeded() {
+        final long currentTime = System.currentTimeMillis();
+        if (request.isTimeBudgetExceeded(currentTime)) {
+            return true;
+        }
+        if (request.getDeadline() > 0 && currentTime - lastDeadlineCheckTime >= DEADLINE_CHECK_INTERVAL_IN_MILLS) {
+            lastDeadlineCheckTime = currentTime;
+            final long bytes = request.getDownloadedBytes() - transferStartBytes;
+            final long elapsed = currentTime - transferStartTime;
+            if (bytes > 0 && elapsed > 0) {
+                request.checkDeadline(currentTime, bytes * 1000 / elapsed);
+            }
         }
+        return false;
+    }
 
+    static Error createTimeBudgetExceededError() {
+        Error error = new Error();
+        error.setTimeBudgetExceeded(true);
+        return error;
+    }
+
+    /**
+     * There is no bandwidth allocator to hand a bigger share to, so a download which is
+     * re-prioritized while running gets it through the scheduling priority of its thread.
+     */
+    private void applyPriorityIfChanged() {
+        final Priority priority = request.getPriority();
+        if (priority == appliedPriority) {
+            return;
+        }
+        appliedPriority = priority;
+        setThreadPriority(getThreadPriority(priority));
+    }
+
+    private void restoreThreadPriority() {
+        if (appliedPriority != null) {
+            setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        }
+    }
+
+    private static int getThreadPriority(Priority priority) {
+        switch (priority) {
+            case LOW:
+                return Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_LESS_FAVORABLE;
+            case HIGH:
+                return Process.THREAD_PRIORITY_BACKGROUND + 5 * Process.THREAD_PRIORITY_MORE_FAVORABLE;
+            case IMMEDIATE:
+                return Process.THREAD_PRIORITY_DEFAULT;
+            default:
+                return Process.THREAD_PRIORITY_BACKGROUND;
+        }
+    }
+
+    private static void setThreadPriority(int threadPriority) {
+        try {
+            Process.setThreadPriority(threadPriority);
+        } catch (Throwable ignored) {
+
+        }
+    }
+
+    private void addConditionalHeaders(CacheEntry cacheEntry) {
+        if (cacheEntry.getETag() != null) {
+            request.setConditionalHeader(Constants.IF_NONE_MATCH, cacheEntry.getETag());
+        }
+        if (cacheEntry.getLastModified() != null) {
+            request.setConditionalHeader(Constants.IF_MODIFIED_SINCE, cacheEntry.getLastModified());
+        }
+    }
+
+    private Response deliverFromCache(DiskCache diskCache, CacheEntry cacheEntry, InputStream cacheStream,
+                                      DocumentFile documentFile, Response response) throws IOException {
+        DownloadRequestQueue.getInstance().releaseSharedStream(request);
+        inputStream = cacheStream;
+        totalBytes = cacheEntry.getLength();
+        request.setTotalBytes(totalBytes);
+        request.setDownloadedBytes(0);
+
+        DownloadRequest.DownloadDetails downloadDetails = request.getDownloadDetails();
+        downloadDetails.removeFile(documentFile);
+
+        request.deliverStartEvent();
+
+        this.outputStream = FileDownloadRandomAccessFile.create(downloadDetails.createOutputStream(documentFile, 0));
+
+        byte[] buff = new byte[CACHE_BUFFER_SIZE];
+
+        do {
+            final int byteCount = inputStream.read(buff, 0, CACHE_BUFFER_SIZE);
+
+            if (byteCount == -1) {
+                break;
+            }
+
+            outputStream.write(buff, 0, byteCount);
+
+            request.setDownloadedBytes(request.getDownloadedBytes() + byteCount);
+
+            sendProgress();
+
+            if (request.getStatus() == Status.CANCELLED) {
+                response.setCancelled(true);
+                return response;
+            } else if (request.getStatus() == Status.PAUSED) {
+                response.setPaused(true);
+                return response;
+            }
+        }
+        while (true);
+
+        sendProgress(true);
+
+        diskCache.onHit(cacheEntry);
+        response.setSuccessful(true);
         return response;
     }
 
+    private void writeToCache(byte[] buff, int byteCount) {
+        if (cacheEditor != null) {
+            try {
+                cacheEditor.write(buff, 0, byteCount);
+            } catch (IOException e) {
+                e.printStackTrace();
+                cacheEditor.abort();
+                cacheEditor = null;
+            }
+        }
+    }
+
+    private void commitToCache() {
+        if (cacheEditor != null) {
+            if (totalBytes <= 0 || request.getDownloadedBytes() == totalBytes) {
+                cacheEditor.commit(httpClient);
+            } else {
+                cacheEditor.abort();
+            }
+            cacheEditor = null;
+        }
+    }
+
+    private void abortCacheIfAny() {
+        if (cacheEditor != null) {
+            cacheEditor.abort();
+            cacheEditor = null;
+        }
+    }
+
     private DocumentFile getDocumentFile() throws Exception
     {
+        return getDocumentFile(request);
+    }
+
+    /**
+     * Returns the root directory granted by the storage permissions handler, or null if
+     * there is no handler, in which case the file is written at its path directly.
+     */
+    static DocumentFile getDocumentFile(DownloadRequest request) throws Exception
+    {
+        OnStoragePermissionsRequested permissionsHandler = ComponentHolder.getInstance().getStoragePermissionsHandler();
+        if (permissionsHandler == null) return null;
+
         String storageRoot = request.getDownloadDetails().getStorageRoot();
         DeferredObject obj = new DeferredObject();
         Promise promise = obj.promise();
@@ -275,7 +672,7 @@ public class DownloadTask {
             }
         });
 
-        ComponentHolder.getInstance().getStoragePermissionsHandler().OnStoragePermissionRequested(obj, storageRoot);
+        permissionsHandler.OnStoragePermissionRequested(obj, storageRoot);
         promise.waitSafely();
 
         if (documentFiles[0] == null) throw new Exception("Couldn't obtain DocumentFile most likely because the user chose to reject the permission request.");
@@ -327,6 +724,17 @@ public class DownloadTask {
 
     private DownloadModel getDownloadModelIfAlreadyPresentInDatabase()
     {
+        return findModel(request);
+    }
+
+    /**
+     * Returns the stored model of the request, taking the one prefetched by a bulk
+     * enqueue if there is one.
+     */
+    static DownloadModel findModel(DownloadRequest request) {
+        if (request.hasPrefetchedModel()) {
+            return request.takePrefetchedModel();
+        }
         return ComponentHolder.getInstance().getDbHelper().find(request.getDownloadId());
     }
 
@@ -345,13 +753,92 @@ public class DownloadTask {
     }
 
     private void removeNoMoreNeededModelFromDatabase() {
+        isModelRemoved = true;
+        DownloadRequestQueue.getInstance().getCheckpointWriter().discard(request.getDownloadId());
         ComponentHolder.getInstance().getDbHelper().remove(request.getDownloadId());
     }
 
+    private void openSharedOutputs(long offset) {
+        List<DownloadRequest> sharedRequests = DownloadRequestQueue.getInstance().sealSharedStream(request);
+        if (sharedRequests.isEmpty()) {
+            return;
+        }
+        if (offset != 0) {
+            DownloadRequestQueue.getInstance().releaseSharedStream(request);
+            return;
+        }
+        for (DownloadRequest sharedRequest : sharedRequests) {
+            if (!sharedRequest.compareAndSetStatus(Status.QUEUED, Status.RUNNING)) {
+                request.detach(sharedRequest);
+                if (sharedRequest.getStatus() == Status.PAUSED) {
+                    sharedRequest.deliverPauseEvent();
+                }
+                continue;
+            }
+            try {
+                DocumentFile documentFile = getDocumentFile(sharedRequest);
+                DownloadRequest.DownloadDetails downloadDetails = sharedRequest.getDownloadDetails();
+                downloadDetails.removeFile(documentFile);
+                OutputStream stream = downloadDetails.createOutputStream(documentFile, 0);
+                sharedOutputs.add(new SharedOutput(sharedRequest, FileDownloadRandomAccessFile.create(stream)));
+                sharedRequest.setDownloadedBytes(0);
+                sharedRequest.setTotalBytes(totalBytes);
+            } catch (Exception e) {
+                request.detach(sharedRequest);
+                Error error = new Error();
+                error.setConnectionError(true);
+                error.setConnectionException(e);
+                sharedRequest.deliverError(error);
+            }
+        }
+    }
+
+    private void writeToSharedOutputs(byte[] buff, int byteCount) {
+        for (int i = sharedOutputs.size() - 1; i >= 0; i--) {
+            SharedOutput sharedOutput = sharedOutputs.get(i);
+            DownloadRequest sharedRequest = sharedOutput.request;
+            if (sharedRequest.getLeader() != request) {
+                sharedOutputs.remove(i);
+                closeSafely(sharedOutput.outputStream);
+                if (sharedRequest.getStatus() == Status.PAUSED) {
+                    sharedRequest.deliverPauseEvent();
+                }
+                continue;
+            }
+            if (sharedRequest.getStatus() == Status.PAUSED) {
+                request.detach(sharedRequest);
+                sharedOutputs.remove(i);
+                closeSafely(sharedOutput.outputStream);
+                sharedRequest.deliverPauseEvent();
+                continue;
+            }
+            try {
+                sharedOutput.outputStream.write(buff, 0, byteCount);
+                sharedRequest.setDownloadedBytes(sharedRequest.getDownloadedBytes() + byteCount);
+            } catch (IOException e) {
+                request.detach(sharedRequest);
+                sharedOutputs.remove(i);
+                closeSafely(sharedOutput.outputStream);
+                Error error = new Error();
+                error.setConnectionError(true);
+                error.setConnectionException(e);
+                sharedRequest.deliverError(error);
+            }
+        }
+    }
+
     private void sendProgress() {
+        sendProgress(false);
+    }
+
+    private void sendProgress(boolean force) {
         if (request.getStatus() != Status.CANCELLED) {
-            if (progressHandler != null) {
-                progressHandler.obtainMessage(Constants.UPDATE, new Progress(request, request.getDownloadedBytes(), totalBytes)).sendToTarget();
+            request.reportProgress(totalBytes, force);
+            final List<DownloadRequest> followers = request.getFollowers();
+            if (!followers.isEmpty()) {
+                for (DownloadRequest follower : followers) {
+                    follower.reportProgress(totalBytes, force);
+                }
             }
         }
     }
@@ -378,16 +865,50 @@ public class DownloadTask {
             success = false;
             e.printStackTrace();
         }
-        if (success && isResumeSupported) {
-            ComponentHolder.getInstance().getDbHelper()
-                    .updateProgress(request.getDownloadId(),
-                            request.getDownloadedBytes(),
-                            System.currentTimeMillis());
+        if (success && isResumeSupported && !isModelRemoved
+                && request.getStatus() != Status.CANCELLED) {
+            DownloadRequestQueue.getInstance().getCheckpointWriter()
+                    .checkpoint(request.getDownloadId(), request.getDownloadedBytes());
         }
 
     }
 
+    /**
+     * Same as {@link #sync(FileDownloadOutputStream)}, but the checkpoint may be stored
+     * together with the ones of the other downloads paused by the same bulk pause.
+     */
+    private void syncOnPause(FileDownloadOutputStream outputStream)
+    {
+        boolean success;
+        try {
+            outputStream.flushAndSync();
+            success = true;
+        } catch (IOException e) {
+            success = false;
+            e.printStackTrace();
+        }
+        DownloadRequestQueue.getInstance().storePausedProgress(request, success && isResumeSupported);
+        pausedCheckpointStored = true;
+    }
+
+    private void closeSafely(FileDownloadOutputStream outputStream) {
+        try {
+            outputStream.flushAndSync();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        try {
+            outputStream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     private void closeAllSafely(FileDownloadOutputStream outputStream) {
+        for (SharedOutput sharedOutput : sharedOutputs) {
+            closeSafely(sharedOutput.outputStream);
+        }
+        sharedOutputs.clear();
         if (httpClient != null) {
             try {
                 httpClient.close();
@@ -403,7 +924,7 @@ public class DownloadTask {
             }
         }
         try {
-            if (outputStream != null) {
+            if (outputStream != null && !pausedCheckpointStored) {
                 try {
                     sync(outputStream);
                 } catch (Exception e) {
@@ -445,4 +966,16 @@ public class DownloadTask {
         return stringBuilder.toString();
     }
 
+    private static final class SharedOutput {
+
+        final DownloadRequest request;
+        final FileDownloadOutputStream outputStream;
+
+        SharedOutput(DownloadRequest request, FileDownloadOutputStream outputStream) {
+            this.request = request;
+            this.outputStream = outputStream;
+        }
+
+    }
+
 }
@@ -0,0 +1,277 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Incremental parser of an HTTP/1.1 response fed with the bytes read from a non-blocking
+ * channel. It collects the status line and the headers, then decodes the body, which may
+ * be delimited by Content-Length, chunked or read until the connection is closed.
+ */
+class HttpResponseParser {
+
+    private static final int MAX_HEAD_SIZE = 64 * 1024;
+    private static final int MAX_CHUNK_LINE_SIZE = 1024;
+
+    interface BodyConsumer {
+
+        void onBody(byte[] buffer, int offset, int count) throws IOException;
+
+    }
+
+    private enum State {
+        HEAD, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_DATA_END, CHUNK_TRAILER, DONE
+    }
+
+    private final StringBuilder line = new StringBuilder();
+    private final Map<String, List<String>> headerFields = new LinkedHashMap<>();
+    private State state = State.HEAD;
+    private int headSize;
+    private int responseCode;
+    private String reasonPhrase;
+    private long remaining;
+    private boolean chunked;
+
+    /**
+     * Feeds the bytes read from the channel. Body bytes are handed to the consumer
+     * without being copied. Feeding stops right after the end of the head, so that the
+     * caller can look at it before the body is consumed.
+     *
+     * @return the number of bytes consumed
+     */
+    int feed(byte[] buffer, int offset, int count, BodyConsumer consumer) throws IOException {
+        final int end = offset + count;
+        int position = offset;
+        while (position < end && state != State.DONE) {
+            switch (state) {
+                case HEAD:
+                    position = readHead(buffer, position, end);
+                    if (state != State.HEAD) {
+                        return position - offset;
+                    }
+                    break;
+                case BODY:
+                    position = readBody(buffer, position, end, consumer);
+                    break;
+                case CHUNK_DATA:
+                    position = readBody(buffer, position, end, consumer);
+                    if (remaining == 0) {
+                        state = State.CHUNK_DATA_END;
+                    }
+                    break;
+                default:
+                    position = readChunkLine(buffer, position, end);
+                    break;
+            }
+        }
+        return position - offset;
+    }
+
+    /**
+     * Tells the parser the peer closed the connection.
+     *
+     * @return true if the body was complete
+     */
+    boolean onEndOfStream() {
+        if (state == State.BODY && remaining < 0) {
+            state = State.DONE;
+        }
+        return state == State.DONE;
+    }
+
+    boolean isHeadComplete() {
+        return state != State.HEAD;
+    }
+
+    boolean isComplete() {
+        return state == State.DONE;
+    }
+
+    int getResponseCode() {
+        return responseCode;
+    }
+
+    String getReasonPhrase() {
+        return reasonPhrase;
+    }
+
+    String getHeader(String name) {
+        final List<String> values = headerFields.get(name.toLowerCase(Locale.ENGLISH));
+        return values != null && !values.isEmpty() ? values.get(values.size() - 1) : null;
+    }
+
+    Map<String, List<String>> getHeaderFields() {
+        return Collections.unmodifiableMap(headerFields);
+    }
+
+    /**
+     * Returns the value of the Content-Length header, or -1 if there is none.
+     */
+    long getContentLength() {
+        if (chunked) {
+            return -1;
+        }
+        try {
+            final String length = getHeader("Content-Length");
+            return length != null ? Long.parseLong(length.trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private int readHead(byte[] buffer, int position, int end) throws IOException {
+        while (position < end) {
+            final char c = (char) (buffer[position++] & 0xff);
+            if (++headSize > MAX_HEAD_SIZE) {
+                throw new IOException("Response head too large");
+            }
+            if (c != '\n') {
+                line.append(c);
+                continue;
+            }
+            if (line.length() > 0 && line.charAt(line.length() - 1) == '\r') {
+                line.setLength(line.length() - 1);
+            }
+            if (line.length() == 0) {
+                onHeadComplete();
+                return position;
+            }
+            if (responseCode == 0) {
+                parseStatusLine(line.toString());
+            } else {
+                parseHeader(line.toString());
+            }
+            line.setLength(0);
+        }
+        return position;
+    }
+
+    private void parseStatusLine(String statusLine) throws IOException {
+        final String[] parts = statusLine.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+            throw new IOException("Unexpected status line: " + statusLine);
+        }
+        try {
+            responseCode = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Unexpected status line: " + statusLine);
+        }
+        reasonPhrase = parts.length > 2 ? parts[2] : "";
+    }
+
+    private void parseHeader(String header) {
+        final int colon = header.indexOf(':');
+        if (colon <= 0) {
+            return;
+        }
+        final String name = header.substring(0, colon).trim().toLowerCase(Locale.ENGLISH);
+        List<String> values = headerFields.get(name);
+        if (values == null) {
+            values = new ArrayList<>(1);
+            headerFields.put(name, values);
+        }
+        values.add(header.substring(colon + 1).trim());
+    }
+
+    private void onHeadComplete() {
+        final String transferEncoding = getHeader("Transfer-Encoding");
+        chunked = transferEncoding != null
+                && transferEncoding.toLowerCase(Locale.ENGLISH).contains("chunked");
+        if (responseCode == 204 || responseCode == 304 || (responseCode >= 100 && responseCode < 200)) {
+            state = State.DONE;
+        } else if (chunked) {
+            state = State.CHUNK_SIZE;
+        } else {
+            remaining = getContentLength();
+            state = remaining == 0 ? State.DONE : State.BODY;
+        }
+    }
+
+    /**
+     * Hands body bytes to the consumer, at most the remaining ones if the length is known.
+     */
+    private int readBody(byte[] buffer, int position, int end, BodyConsumer consumer) throws IOException {
+        int count = end - position;
+        if (remaining >= 0 && remaining < count) {
+            count = (int) remaining;
+        }
+        if (count > 0) {
+            consumer.onBody(buffer, position, count);
+        }
+        if (remaining > 0) {
+            remaining -= count;
+            if (remaining == 0 && state == State.BODY) {
+                state = State.DONE;
+            }
+        }
+        return position + count;
+    }
+
+    private int readChunkLine(byte[] buffer, int position, int end) throws IOException {
+        while (position < end) {
+            final char c = (char) (buffer[position++] & 0xff);
+            if (c != '\n') {
+                if (line.length() >= MAX_CHUNK_LINE_SIZE) {
+                    throw new IOException("Chunk line too long");
+                }
+                line.append(c);
+                continue;
+            }
+            if (line.length() > 0 && line.charAt(line.length() - 1) == '\r') {
+                line.setLength(line.length() - 1);
+            }
+            final String chunkLine = line.toString();
+            line.setLength(0);
+            onChunkLine(chunkLine);
+            return position;
+        }
+        return position;
+    }
+
+    private void onChunkLine(String chunkLine) throws IOException {
+        switch (state) {
+            case CHUNK_SIZE:
+                final int extension = chunkLine.indexOf(';');
+                final String size = (extension >= 0 ? chunkLine.substring(0, extension) : chunkLine).trim();
+                try {
+                    remaining = Long.parseLong(size, 16);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Unexpected chunk size: " + chunkLine);
+                }
+                state = remaining == 0 ? State.CHUNK_TRAILER : State.CHUNK_DATA;
+                break;
+            case CHUNK_DATA_END:
+                state = State.CHUNK_SIZE;
+                break;
+            case CHUNK_TRAILER:
+                if (chunkLine.isEmpty()) {
+                    state = State.DONE;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hash map with primitive int keys, using open addressing with linear probing, so that
+ * looking up a download id neither boxes the key nor allocates an entry. Not thread safe.
+ */
+final class IntObjectMap<V> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+
+    IntObjectMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        for (int i = indexOf(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return (V) values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the previous value of the key, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    V put(int key, V value) {
+        if (value == null) {
+            throw new NullPointerException("value == null");
+        }
+        int i = indexOf(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                final V previous = (V) values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > values.length) {
+            resize(values.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * @return the removed value, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    V remove(int key) {
+        for (int i = indexOf(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                final V previous = (V) values[i];
+                removeAt(i);
+                return previous;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes the key only if it is mapped to the given value.
+     */
+    boolean remove(int key, V value) {
+        for (int i = indexOf(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                if (values[i] != value) {
+                    return false;
+                }
+                removeAt(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Returns a copy of the keys.
+     */
+    int[] keys() {
+        final int[] list = new int[size];
+        int count = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                list[count++] = keys[i];
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Returns a copy of the values, which stays valid while the map changes.
+     */
+    @SuppressWarnings("unchecked")
+    List<V> values() {
+        final List<V> list = new ArrayList<>(size);
+        for (Object value : values) {
+            if (value != null) {
+                list.add((V) value);
+            }
+        }
+        return list;
+    }
+
+    private int indexOf(int key) {
+        final int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * Empties the slot and moves the following entries of the probe sequence back into
+     * it, so that lookups never need tombstones.
+     */
+    private void removeAt(int gap) {
+        size--;
+        int i = gap;
+        while (true) {
+            i = (i + 1) & mask;
+            if (values[i] == null) {
+                break;
+            }
+            final int home = indexOf(keys[i]);
+            final boolean reachable = gap <= i ? gap < home && home <= i : gap < home || home <= i;
+            if (!reachable) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        values[gap] = null;
+    }
+
+    private void resize(int capacity) {
+        final int[] oldKeys = keys;
+        final Object[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int j = indexOf(oldKeys[i]);
+                while (values[j] != null) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+}
@@ -0,0 +1,293 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader.internal;
+
+import com.downloader.DownloadEngine;
+import com.downloader.core.AdaptiveConcurrencyLimit;
+import com.downloader.httpclient.DefaultHttpClient;
+import com.downloader.request.DownloadRequest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Download engine driving many plain HTTP/1.1 transfers from a single selector thread
+ * over non-blocking socket channels, instead of blocking one pool thread per download.
+ * <p>
+ * The work which may block, like asking for the storage permission, opening the file,
+ * syncing it and updating the database, runs on a small pool of prepare threads. The
+ * selector thread only moves bytes from the sockets to the files.
+ * <p>
+ * The transfers share the {@link AdaptiveConcurrencyLimit} of the thread pool engine: at
+ * most that many run at once, and they report their throughput, latency and errors to it.
+ * The waiting ones are started by their priority at the time a slot frees up.
+ */
+public class NioDownloadEngine {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long SELECT_TIMEOUT_IN_MILLS = 1000;
+    private static final int PREPARE_THREAD_COUNT = 2;
+
+    private final AdaptiveConcurrencyLimit concurrencyLimit;
+    private final ExecutorService prepareExecutor;
+    private final Queue<Runnable> pendingOperations;
+    private final ByteBuffer readBuffer;
+    // only touched from the selector thread
+    private final List<NioDownloadTask> waitingTasks;
+    private final Set<NioDownloadTask> activeTasks;
+    private final Map<String, Integer> hostConnections;
+    private Selector selector;
+    private Thread selectorThread;
+    private volatile boolean shutDown;
+
+    public NioDownloadEngine(AdaptiveConcurrencyLimit concurrencyLimit) {
+        this.concurrencyLimit = concurrencyLimit;
+        this.prepareExecutor = Executors.newFixedThreadPool(PREPARE_THREAD_COUNT);
+        this.pendingOperations = new ConcurrentLinkedQueue<>();
+        this.readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.waitingTasks = new ArrayList<>();
+        this.activeTasks = new HashSet<>();
+        this.hostConnections = new HashMap<>();
+    }
+
+    /**
+     * Returns whether the request can be downloaded by this engine: it has to be enabled,
+     * the url has to be plain http and neither a custom http client nor the disk cache
+     * may be in use, as both are tied to the blocking download path.
+     */
+    public static boolean canHandle(DownloadRequest request) {
+        final ComponentHolder componentHolder = ComponentHolder.getInstance();
+        final String url = request.getUrl();
+        return componentHolder.getDownloadEngine() == DownloadEngine.NON_BLOCKING
+                && componentHolder.getDiskCache() == null
+                && componentHolder.getHttpClient() instanceof DefaultHttpClient
+                && url != null && url.regionMatches(true, 0, "http://", 0, 7);
+    }
+
+    public void submit(DownloadRequest request) {
+        final NioDownloadTask task = new NioDownloadTask(this, request);
+        runOnSelectorThread(new Runnable() {
+            @Override
+            public void run() {
+                waitingTasks.add(task);
+                startWaitingTasks();
+            }
+        });
+    }
+
+    /**
+     * Stops the selector thread and the prepare threads. The transfers still running are
+     * dropped, their requests were paused before.
+     */
+    public void shutDown() {
+        shutDown = true;
+        prepareExecutor.shutdownNow();
+        synchronized (this) {
+            if (selector != null) {
+                selector.wakeup();
+            }
+        }
+    }
+
+    public boolean awaitTermination(long timeoutInMills) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutInMills;
+        if (!prepareExecutor.awaitTermination(timeoutInMills, TimeUnit.MILLISECONDS)) {
+            return false;
+        }
+        final Thread thread;
+        synchronized (this) {
+            thread = selectorThread;
+        }
+        if (thread != null) {
+            thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            return !thread.isAlive();
+        }
+        return true;
+    }
+
+    AdaptiveConcurrencyLimit getConcurrencyLimit() {
+        return concurrencyLimit;
+    }
+
+    Selector getSelector() {
+        return selector;
+    }
+
+    void runOnSelectorThread(Runnable operation) {
+        if (shutDown) {
+            // the transfers are dropped, don't start a selector thread for them
+            return;
+        }
+        pendingOperations.offer(operation);
+        ensureStarted().wakeup();
+    }
+
+    void runOnPrepareThread(Runnable operation) {
+        prepareExecutor.execute(operation);
+    }
+
+    /**
+     * Gives back the connection slot of a task which will not touch its channel anymore.
+     */
+    void onTaskFinished(final NioDownloadTask task) {
+        task.request.clearAbortAction(task.abortAction);
+        DownloadRequestQueue.getInstance().onDownloadStopped(task.request);
+        runOnSelectorThread(new Runnable() {
+            @Override
+            public void run() {
+                if (activeTasks.remove(task)) {
+                    concurrencyLimit.onTransferFinished();
+                    final Integer count = hostConnections.get(task.host);
+                    if (count == null || count <= 1) {
+                        hostConnections.remove(task.host);
+                    } else {
+                        hostConnections.put(task.host, count - 1);
+                    }
+                    startWaitingTasks();
+                }
+            }
+        });
+    }
+
+    private void startWaitingTasks() {
+        NioDownloadTask task;
+        while (activeTasks.size() < concurrencyLimit.getLimit() && (task = pollWaitingTask()) != null) {
+            final Integer count = hostConnections.get(task.host);
+            hostConnections.put(task.host, count != null ? count + 1 : 1);
+            activeTasks.add(task);
+            concurrencyLimit.onTransferStarted();
+            final NioDownloadTask startedTask = task;
+            runOnPrepareThread(new Runnable() {
+                @Override
+                public void run() {
+                    startedTask.prepare();
+                }
+            });
+        }
+    }
+
+    /**
+     * Takes the waiting task of the highest priority, the oldest among equals, whose host
+     * has a free connection. The priorities are read now, as they may have changed since
+     * the tasks were submitted.
+     */
+    private NioDownloadTask pollWaitingTask() {
+        int bestIndex = -1;
+        int bestPriority = 0;
+        int bestSequence = 0;
+        for (int i = 0; i < waitingTasks.size(); i++) {
+            final NioDownloadTask task = waitingTasks.get(i);
+            final Integer count = hostConnections.get(task.host);
+            if (count != null && count >= ComponentHolder.getInstance().getMaxConnectionsPerHost(task.host)) {
+                continue;
+            }
+            final int priority = task.request.getPriority().ordinal();
+            final int sequence = task.request.getSequenceNumber();
+            if (bestIndex == -1 || priority > bestPriority
+                    || (priority == bestPriority && sequence < bestSequence)) {
+                bestIndex = i;
+                bestPriority = priority;
+                bestSequence = sequence;
+            }
+        }
+        return bestIndex != -1 ? waitingTasks.remove(bestIndex) : null;
+    }
+
+    private synchronized Selector ensureStarted() {
+        if (selectorThread == null) {
+            try {
+                selector = Selector.open();
+            } catch (IOException e) {
+                throw new IllegalStateException("Couldn't open the selector", e);
+            }
+            selectorThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runSelectLoop();
+                }
+            }, "PRDownloader-Selector");
+            selectorThread.setDaemon(true);
+            selectorThread.start();
+        }
+        return selector;
+    }
+
+    private void runSelectLoop() {
+        long lastCheckTime = System.currentTimeMillis();
+        while (!shutDown) {
+            try {
+                selector.select(SELECT_TIMEOUT_IN_MILLS);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            Runnable operation;
+            while ((operation = pendingOperations.poll()) != null) {
+                try {
+                    operation.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            final Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                final SelectionKey key = iterator.next();
+                iterator.remove();
+                try {
+                    ((NioDownloadTask) key.attachment()).onSelected(key, readBuffer);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            final long currentTime = System.currentTimeMillis();
+            if (currentTime - lastCheckTime >= SELECT_TIMEOUT_IN_MILLS) {
+                lastCheckTime = currentTime;
+                for (NioDownloadTask task : new ArrayList<>(activeTasks)) {
+                    task.checkState(currentTime);
+                }
+                // picks up a limit raised in the meantime
+                startWaitingTasks();
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+}
@@ -0,0 +1,665 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader.internal;
+
+import android.support.v4.provider.DocumentFile;
+
+import com.downloader.Constants;
+import com.downloader.Error;
+import com.downloader.Status;
+import com.downloader.database.DownloadModel;
+import com.downloader.internal.stream.FileDownloadOutputStream;
+import com.downloader.internal.stream.FileDownloadRandomAccessFile;
+import com.downloader.request.DownloadRequest;
+import com.downloader.utils.Utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One download of the {@link NioDownloadEngine}. It follows the same steps as
+ * {@link DownloadTask}, split in the parts running on a prepare thread (finding the resume
+ * model, opening the file, finishing) and the parts running on the selector thread
+ * (connecting, sending the request, reading the response). The periodic sync of the file
+ * runs on a prepare thread as well, reading pauses meanwhile. Only one thread works on a
+ * task at any time, the handover goes through the queues of the engine.
+ */
+class NioDownloadTask implements HttpResponseParser.BodyConsumer {
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+    private static final int DEFAULT_HTTP_PORT = 80;
+    private static final long TIME_GAP_FOR_SYNC = 2000;
+    private static final long MIN_BYTES_FOR_SYNC = 65536;
+
+    final DownloadRequest request;
+    final String host;
+    private final NioDownloadEngine engine;
+    private DocumentFile documentFile;
+    private DownloadModel model;
+    private InetSocketAddress address;
+    private SocketChannel channel;
+    private SelectionKey selectionKey;
+    private ByteBuffer requestBuffer;
+    private HttpResponseParser parser;
+    private byte[] pendingBody;
+    private FileDownloadOutputStream outputStream;
+    private long totalBytes;
+    private boolean isResumeSupported;
+    private String eTag;
+    private int redirectCount;
+    private boolean freshStartDone;
+    private volatile boolean attached;
+    private long lastActivityTime;
+    private long connectStartTime;
+    private long timeout;
+    private long lastSyncTime;
+    private long lastSyncBytes;
+    private long transferStartTime;
+    private long transferStartBytes;
+    // stops a paused or cancelled task at once instead of at the next periodic check
+    final Runnable abortAction = new Runnable() {
+        @Override
+        public void run() {
+            engine.runOnSelectorThread(new Runnable() {
+                @Override
+                public void run() {
+                    checkState(System.currentTimeMillis());
+                }
+            });
+        }
+    };
+
+    NioDownloadTask(NioDownloadEngine engine, DownloadRequest request) {
+        this.engine = engine;
+        this.request = request;
+        this.host = Utils.getHost(request.getUrl());
+    }
+
+    /**
+     * Runs on a prepare thread once the engine admitted the task.
+     */
+    void prepare() {
+        DownloadRequestQueue.getInstance().onDownloadStarted(request);
+        request.setAbortAction(abortAction);
+        if (isStopped()) {
+            finishStopped();
+            return;
+        }
+        if (request.isTimeBudgetExceeded(System.currentTimeMillis())) {
+            finishWithError(DownloadTask.createTimeBudgetExceededError());
+            return;
+        }
+        if (!request.compareAndSetStatus(Status.QUEUED, Status.RUNNING)) {
+            finishStopped();
+            return;
+        }
+        try {
+            documentFile = DownloadTask.getDocumentFile(request);
+            model = DownloadTask.findModel(request);
+            if (model != null) {
+                if (request.getDownloadDetails().doesFileExist(documentFile)) {
+                    request.setTotalBytes(model.getTotalBytes());
+                    request.setDownloadedBytes(model.getDownloadedBytes());
+                } else {
+                    removeModel();
+                    request.setDownloadedBytes(0);
+                    request.setTotalBytes(0);
+                    model = null;
+                }
+            }
+            resolveAndConnect();
+        } catch (Exception e) {
+            finishWithConnectionError(e);
+        }
+    }
+
+    /**
+     * Runs on the selector thread for every ready operation of the channel.
+     */
+    void onSelected(SelectionKey key, ByteBuffer readBuffer) {
+        if (!attached || !key.isValid()) {
+            return;
+        }
+        try {
+            if (key.isConnectable()) {
+                if (channel.finishConnect()) {
+                    onConnected();
+                }
+            } else if (key.isWritable()) {
+                channel.write(requestBuffer);
+                if (!requestBuffer.hasRemaining()) {
+                    requestBuffer = null;
+                    selectionKey.interestOps(SelectionKey.OP_READ);
+                }
+            } else if (key.isReadable()) {
+                readBuffer.clear();
+                final int count = channel.read(readBuffer);
+                if (count == -1) {
+                    onEndOfStream();
+                } else if (count > 0) {
+                    lastActivityTime = System.currentTimeMillis();
+                    onResponseBytes(readBuffer.array(), 0, count);
+                }
+            }
+        } catch (IOException | IllegalAccessException e) {
+            finishWithConnectionError(e);
+        }
+    }
+
+    /**
+     * Runs periodically on the selector thread to pick up pauses, cancellations and
+     * timeouts of downloads which don't receive any data.
+     */
+    void checkState(long currentTime) {
+        if (!attached) {
+            return;
+        }
+        if (isStopped()) {
+            finishStopped();
+        } else if (request.isTimeBudgetExceeded(currentTime)) {
+            finishWithError(DownloadTask.createTimeBudgetExceededError());
+        } else if (currentTime - lastActivityTime > timeout) {
+            finishWithConnectionError(new SocketTimeoutException());
+        } else if (outputStream != null && currentTime > transferStartTime) {
+            request.checkDeadline(currentTime,
+                    (request.getDownloadedBytes() - transferStartBytes) * 1000 / (currentTime - transferStartTime));
+        }
+    }
+
+    @Override
+    public void onBody(byte[] buffer, int offset, int count) throws IOException {
+        outputStream.write(buffer, offset, count);
+        request.setDownloadedBytes(request.getDownloadedBytes() + count);
+        engine.getConcurrencyLimit().onBytesTransferred(count);
+    }
+
+    private void resolveAndConnect() throws IOException {
+        final URL url = new URL(request.getUrl());
+        address = new InetSocketAddress(url.getHost(),
+                url.getPort() != -1 ? url.getPort() : DEFAULT_HTTP_PORT);
+        if (address.isUnresolved()) {
+            throw new UnknownHostException(url.getHost());
+        }
+        engine.runOnSelectorThread(new Runnable() {
+            @Override
+            public void run() {
+                connect();
+            }
+        });
+    }
+
+    private void connect() {
+        attached = true;
+        if (isStopped()) {
+            finishStopped();
+            return;
+        }
+        try {
+            parser = new HttpResponseParser();
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            lastActivityTime = System.currentTimeMillis();
+            connectStartTime = lastActivityTime;
+            timeout = request.getConnectTimeout();
+            final boolean connected = channel.connect(address);
+            selectionKey = channel.register(engine.getSelector(), SelectionKey.OP_CONNECT, this);
+            if (connected) {
+                onConnected();
+            }
+        } catch (IOException e) {
+            finishWithConnectionError(e);
+        }
+    }
+
+    private void onConnected() throws IOException {
+        requestBuffer = ByteBuffer.wrap(buildRequestHead().getBytes(ISO_8859_1));
+        timeout = request.getReadTimeout();
+        lastActivityTime = System.currentTimeMillis();
+        selectionKey.interestOps(SelectionKey.OP_WRITE);
+    }
+
+    private String buildRequestHead() throws IOException {
+        final URL url = new URL(request.getUrl());
+        final String file = url.getFile();
+        final StringBuilder head = new StringBuilder();
+        head.append("GET ").append(file.isEmpty() ? "/" : file).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(url.getHost());
+        if (url.getPort() != -1 && url.getPort() != DEFAULT_HTTP_PORT) {
+            head.append(':').append(url.getPort());
+        }
+        head.append("\r\n");
+        appendHeader(head, Constants.USER_AGENT, request.getUserAgent());
+        appendHeader(head, Constants.RANGE, "bytes=" + request.getDownloadedBytes() + "-");
+        appendHeader(head, "Accept-Encoding", "identity");
+        appendHeader(head, "Connection", "close");
+        final HashMap<String, List<String>> headers = request.getHeaders();
+        if (headers != null) {
+            for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+                if (entry.getValue() != null) {
+                    for (String value : entry.getValue()) {
+                        appendHeader(head, entry.getKey(), value);
+                    }
+                }
+            }
+        }
+        return head.append("\r\n").toString();
+    }
+
+    private static void appendHeader(StringBuilder head, String name, String value) {
+        if (value != null) {
+            head.append(name).append(": ").append(value).append("\r\n");
+        }
+    }
+
+    private void onResponseBytes(byte[] buffer, int offset, int count) throws IOException, IllegalAccessException {
+        if (!parser.isHeadComplete()) {
+            final int consumed = parser.feed(buffer, offset, count, this);
+            if (parser.isHeadComplete()) {
+                onResponseHead(buffer, offset + consumed, count - consumed);
+            }
+            return;
+        }
+        parser.feed(buffer, offset, count, this);
+        onBodyProgress();
+    }
+
+    private void onResponseHead(byte[] buffer, int offset, int count) throws IOException, IllegalAccessException {
+        final int responseCode = parser.getResponseCode();
+        if (Utils.isRedirection(responseCode)) {
+            followRedirect(parser.getHeader("Location"));
+            return;
+        }
+        engine.getConcurrencyLimit().onResponse(System.currentTimeMillis() - connectStartTime);
+        pendingBody = new byte[count];
+        System.arraycopy(buffer, offset, pendingBody, 0, count);
+        eTag = parser.getHeader(Constants.ETAG);
+        detach();
+        engine.runOnPrepareThread(new Runnable() {
+            @Override
+            public void run() {
+                openOutput();
+            }
+        });
+    }
+
+    private void followRedirect(String location) throws IOException, IllegalAccessException {
+        closeChannel();
+        if (location == null) {
+            throw new IllegalAccessException("Location is null");
+        }
+        if (++redirectCount >= Utils.MAX_REDIRECTION) {
+            throw new IllegalAccessException("Max redirection done");
+        }
+        request.setUrl(new URL(new URL(request.getUrl()), location).toString());
+        detach();
+        if (!NioDownloadEngine.canHandle(request)) {
+            // e.g. redirected to https, which only the blocking engine can download
+            engine.onTaskFinished(this);
+            DownloadRequestQueue.getInstance().requeue(request);
+            return;
+        }
+        engine.runOnPrepareThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    resolveAndConnect();
+                } catch (IOException e) {
+                    finishWithConnectionError(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs on a prepare thread once the response head arrived.
+     */
+    private void openOutput() {
+        try {
+            final int responseCode = parser.getResponseCode();
+            if (!freshStartDone && (responseCode == Constants.HTTP_RANGE_NOT_SATISFIABLE || isETagChanged())) {
+                freshStartDone = true;
+                closeChannel();
+                if (model != null) {
+                    removeModel();
+                    model = null;
+                }
+                request.getDownloadDetails().removeFile(documentFile);
+                request.setDownloadedBytes(0);
+                request.setTotalBytes(0);
+                resolveAndConnect();
+                return;
+            }
+
+            if (responseCode < HttpURLConnection.HTTP_OK || responseCode >= HttpURLConnection.HTTP_MULT_CHOICE) {
+                closeChannel();
+                if (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                        || responseCode == Constants.HTTP_TOO_MANY_REQUESTS) {
+                    engine.getConcurrencyLimit().onError();
+                }
+                Error error = new Error();
+                error.setServerError(true);
+                error.setServerErrorMessage(parser.getReasonPhrase());
+                error.setHeaderFields(parser.getHeaderFields());
+                error.setResponseCode(responseCode);
+                request.deliverError(error);
+                engine.onTaskFinished(this);
+                return;
+            }
+
+            isResumeSupported = responseCode == HttpURLConnection.HTTP_PARTIAL;
+            totalBytes = request.getTotalBytes();
+            if (!isResumeSupported) {
+                request.getDownloadDetails().removeFile(documentFile);
+                request.setDownloadedBytes(0);
+            }
+            if (totalBytes == 0) {
+                totalBytes = parser.getContentLength();
+                request.setTotalBytes(totalBytes);
+            }
+            if (isResumeSupported && model == null) {
+                createAndInsertNewModel();
+            }
+            if (isStopped()) {
+                finishStopped();
+                return;
+            }
+
+            request.deliverStartEvent();
+
+            final long offset = isResumeSupported ? request.getDownloadedBytes() : 0;
+            final OutputStream stream = request.getDownloadDetails().createOutputStream(documentFile, offset);
+            outputStream = FileDownloadRandomAccessFile.create(stream);
+            lastSyncTime = System.currentTimeMillis();
+            lastSyncBytes = request.getDownloadedBytes();
+            transferStartTime = lastSyncTime;
+            transferStartBytes = lastSyncBytes;
+
+            engine.runOnSelectorThread(new Runnable() {
+                @Override
+                public void run() {
+                    startReadingBody();
+                }
+            });
+        } catch (Exception e) {
+            finishWithConnectionError(e);
+        }
+    }
+
+    private void startReadingBody() {
+        attached = true;
+        lastActivityTime = System.currentTimeMillis();
+        try {
+            final byte[] body = pendingBody;
+            pendingBody = null;
+            parser.feed(body, 0, body.length, this);
+            if (onBodyProgress()) {
+                selectionKey.interestOps(SelectionKey.OP_READ);
+            }
+        } catch (IOException e) {
+            finishWithConnectionError(e);
+        }
+    }
+
+    /**
+     * @return false if the download ended or reading pauses for a sync
+     */
+    private boolean onBodyProgress() {
+        if (parser.isComplete()) {
+            sendProgress(true);
+            finishSuccessfully();
+            return false;
+        }
+        if (isStopped()) {
+            sendProgress(true);
+            finishStopped();
+            return false;
+        }
+        sendProgress(false);
+        return !syncIfRequired();
+    }
+
+    private void onEndOfStream() throws IOException {
+        if (!parser.isHeadComplete()) {
+            throw new IOException("Connection closed before the response head");
+        }
+        if (!parser.onEndOfStream()) {
+            throw new IOException("Connection closed before the download completed");
+        }
+        sendProgress(true);
+        finishSuccessfully();
+    }
+
+    private void finishSuccessfully() {
+        closeChannel();
+        detach();
+        engine.runOnPrepareThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    outputStream.flushAndSync();
+                    outputStream.close();
+                } catch (IOException e) {
+                    finishWithConnectionError(e);
+                    return;
+                }
+                if (isResumeSupported) {
+                    removeModel();
+                }
+                request.deliverSuccess();
+                engine.onTaskFinished(NioDownloadTask.this);
+            }
+        });
+    }
+
+    private void finishStopped() {
+        closeChannel();
+        detach();
+        engine.runOnPrepareThread(new Runnable() {
+            @Override
+            public void run() {
+                closeOutput();
+                if (request.getStatus() == Status.PAUSED) {
+                    request.deliverPauseEvent();
+                }
+                engine.onTaskFinished(NioDownloadTask.this);
+            }
+        });
+    }
+
+    private void finishWithConnectionError(Exception exception) {
+        engine.getConcurrencyLimit().onError();
+        Error error = new Error();
+        error.setConnectionError(true);
+        error.setConnectionException(exception);
+        finishWithError(error);
+    }
+
+    private void finishWithError(final Error error) {
+        closeChannel();
+        detach();
+        engine.runOnPrepareThread(new Runnable() {
+            @Override
+            public void run() {
+                closeOutput();
+                if (!isResumeSupported && documentFile != null) {
+                    try {
+                        request.getDownloadDetails().removeFile(documentFile);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+                request.deliverError(error);
+                engine.onTaskFinished(NioDownloadTask.this);
+            }
+        });
+    }
+
+    private boolean isStopped() {
+        final Status status = request.getStatus();
+        return status == Status.CANCELLED || status == Status.PAUSED;
+    }
+
+    private boolean isETagChanged() {
+        return !(eTag == null || model == null || model.getETag() == null) && !model.getETag().equals(eTag);
+    }
+
+    private void detach() {
+        attached = false;
+        if (selectionKey != null && selectionKey.isValid()) {
+            selectionKey.interestOps(0);
+        }
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            channel = null;
+            selectionKey = null;
+        }
+    }
+
+    private void closeOutput() {
+        if (outputStream == null) {
+            return;
+        }
+        sync();
+        try {
+            outputStream.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        outputStream = null;
+    }
+
+    private void sendProgress(boolean force) {
+        if (request.getStatus() != Status.CANCELLED) {
+            request.reportProgress(totalBytes, force);
+        }
+    }
+
+    /**
+     * Hands the task to a prepare thread to sync the file, as waiting for the disk on the
+     * selector thread would hold up every transfer. Reading resumes once it is done.
+     *
+     * @return whether a sync was started
+     */
+    private boolean syncIfRequired() {
+        final long currentBytes = request.getDownloadedBytes();
+        final long currentTime = System.currentTimeMillis();
+        if (currentBytes - lastSyncBytes <= MIN_BYTES_FOR_SYNC || currentTime - lastSyncTime <= TIME_GAP_FOR_SYNC) {
+            return false;
+        }
+        lastSyncBytes = currentBytes;
+        lastSyncTime = currentTime;
+        detach();
+        engine.runOnPrepareThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    outputStream.flushAndSync();
+                    if (isResumeSupported) {
+                        // only queued here, the checkpoint writer stores it
+                        DownloadRequestQueue.getInstance().getCheckpointWriter()
+                                .checkpoint(request.getDownloadId(), currentBytes);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                engine.runOnSelectorThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        resumeReading();
+                    }
+                });
+            }
+        });
+        return true;
+    }
+
+    private void resumeReading() {
+        attached = true;
+        lastActivityTime = System.currentTimeMillis();
+        if (isStopped()) {
+            sendProgress(true);
+            finishStopped();
+            return;
+        }
+        selectionKey.interestOps(SelectionKey.OP_READ);
+    }
+
+    private void sync() {
+        try {
+            outputStream.flushAndSync();
+        } catch (IOException e) {
+            e.printStackTrace();
+            storeProgress(false);
+            return;
+        }
+        storeProgress(isResumeSupported);
+    }
+
+    /**
+     * Stores the synced progress. The checkpoint of a paused download may be stored
+     * together with the ones of the other downloads paused by the same bulk pause.
+     */
+    private void storeProgress(boolean store) {
+        if (request.getStatus() == Status.PAUSED) {
+            DownloadRequestQueue.getInstance().storePausedProgress(request, store);
+        } else if (store) {
+            DownloadRequestQueue.getInstance().getCheckpointWriter().discard(request.getDownloadId());
+            ComponentHolder.getInstance().getDbHelper().updateProgress(request.getDownloadId(),
+                    request.getDownloadedBytes(), System.currentTimeMillis());
+        }
+    }
+
+    private void createAndInsertNewModel() {
+        DownloadModel model = new DownloadModel();
+        model.setId(request.getDownloadId());
+        model.setUrl(request.getUrl());
+        model.setETag(eTag);
+        model.setDirPath(request.getDownloadDetails().getParentDirectory());
+        model.setFileName(request.getDownloadDetails().getFileName());
+        model.setMimeType(request.getDownloadDetails().getMimeType());
+        model.setDownloadedBytes(request.getDownloadedBytes());
+        model.setTotalBytes(totalBytes);
+        model.setLastModifiedAt(System.currentTimeMillis());
+        ComponentHolder.getInstance().getDbHelper().insert(model);
+        this.model = model;
+    }
+
+    private void removeModel() {
+        DownloadRequestQueue.getInstance().getCheckpointWriter().discard(request.getDownloadId());
+        ComponentHolder.getInstance().getDbHelper().remove(request.getDownloadId());
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.internal;
+
+import com.downloader.Status;
+import com.downloader.core.Core;
+import com.downloader.database.DbHelper;
+import com.downloader.database.RequestModel;
+import com.downloader.request.DownloadRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mirrors the queued and paused requests in the database, so that the queue can be
+ * rebuilt after the process died. The writes run on the background thread, in order.
+ * <p>
+ * On restore the paused requests are registered again, without being started, and the
+ * queued ones are handed to the {@link AdmissionControl} as spilled requests, which are
+ * read and started in batches as there is room.
+ */
+class QueuePersistence {
+
+    private final boolean enabled;
+
+    QueuePersistence() {
+        this.enabled = ComponentHolder.getInstance().isQueuePersistenceEnabled();
+    }
+
+    void onQueued(DownloadRequest request) {
+        if (!enabled) {
+            return;
+        }
+        final RequestModel model = RequestSerializer.toModel(request, Status.QUEUED.name());
+        runOnBackgroundThread(new Runnable() {
+            @Override
+            public void run() {
+                getDbHelper().insertRequest(model);
+            }
+        });
+    }
+
+    void onStatusChanged(List<DownloadRequest> requests, final Status status) {
+        if (!enabled || requests.isEmpty()) {
+            return;
+        }
+        final int[] ids = getIds(requests);
+        runOnBackgroundThread(new Runnable() {
+            @Override
+            public void run() {
+                getDbHelper().updateRequestStatus(ids, status.name());
+            }
+        });
+    }
+
+    void onRemoved(List<DownloadRequest> requests) {
+        if (!enabled || requests.isEmpty()) {
+            return;
+        }
+        final int[] ids = getIds(requests);
+        runOnBackgroundThread(new Runnable() {
+            @Override
+            public void run() {
+                getDbHelper().removeRequests(ids);
+            }
+        });
+    }
+
+    /**
+     * Rebuilds the queue stored by the previous process, on the background thread. The
+     * stored requests are dropped if the persistence is disabled. A row which cannot be
+     * read back is logged and removed, the others are still restored.
+     */
+    void restore(final DownloadRequestQueue requestQueue, final AdmissionControl admissionControl) {
+        runOnBackgroundThread(new Runnable() {
+            @Override
+            public void run() {
+                // the executor would swallow the exception along with the queue
+                try {
+                    restoreStoredQueue(requestQueue, admissionControl);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    private void restoreStoredQueue(DownloadRequestQueue requestQueue, AdmissionControl admissionControl) {
+        final DbHelper dbHelper = getDbHelper();
+        if (!enabled) {
+            dbHelper.clearRequests();
+            return;
+        }
+        final List<RequestModel> pausedModels = dbHelper.getRequests(Status.PAUSED.name(), Integer.MAX_VALUE);
+        final List<DownloadRequest> pausedRequests = new ArrayList<>(pausedModels.size());
+        final List<RequestModel> unreadableModels = new ArrayList<>();
+        for (RequestModel model : pausedModels) {
+            try {
+                final DownloadRequest request = RequestSerializer.fromModel(model);
+                request.setDownloadId(model.getId());
+                pausedRequests.add(request);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                unreadableModels.add(model);
+            }
+        }
+        if (!unreadableModels.isEmpty()) {
+            dbHelper.removeRequests(getModelIds(unreadableModels));
+        }
+        requestQueue.restorePaused(pausedRequests);
+        dbHelper.replaceRequestStatus(Status.QUEUED.name(), RequestModel.STATUS_SPILLED);
+        admissionControl.restoreSpilled(dbHelper.getRequestKeys(RequestModel.STATUS_SPILLED));
+    }
+
+    static int[] getModelIds(List<RequestModel> models) {
+        final int[] ids = new int[models.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = models.get(i).getId();
+        }
+        return ids;
+    }
+
+    private static int[] getIds(List<DownloadRequest> requests) {
+        final int[] ids = new int[requests.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = requests.get(i).getDownloadId();
+        }
+        return ids;
+    }
+
+    private static DbHelper getDbHelper() {
+        return ComponentHolder.getInstance().getDbHelper();
+    }
+
+    private static void runOnBackgroundThread(Runnable runnable) {
+        Core.getInstance().getExecutorSupplier().forBackgroundTasks().execute(runnable);
+    }
+
+}
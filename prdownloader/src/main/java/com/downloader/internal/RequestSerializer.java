@@ -0,0 +1,105 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.internal;
+
+import com.downloader.Priority;
+import com.downloader.database.RequestModel;
+import com.downloader.request.DownloadRequest;
+import com.downloader.request.DownloadRequestBuilder;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts requests to the models stored in the database and back. Listeners can't be
+ * stored, and only tags which are strings are kept.
+ */
+final class RequestSerializer {
+
+    private RequestSerializer() {
+        // no instance
+    }
+
+    static RequestModel toModel(DownloadRequest request, String status) {
+        final RequestModel model = new RequestModel();
+        model.setId(request.getDownloadId());
+        model.setUrl(request.getUrl());
+        model.setDirPath(request.getDownloadDetails().getParentDirectory());
+        model.setFileName(request.getDownloadDetails().getFileName());
+        model.setMimeType(request.getDownloadDetails().getMimeType());
+        model.setPriority(request.getPriority().ordinal());
+        model.setTag(getStoredTag(request));
+        model.setHeaders(encodeHeaders(request.getHeaders()));
+        model.setStatus(status);
+        model.setReadTimeout(request.getReadTimeout());
+        model.setConnectTimeout(request.getConnectTimeout());
+        model.setUserAgent(request.getUserAgent());
+        model.setDeadline(request.getDeadline());
+        model.setTimeBudget(request.getTimeBudget());
+        model.setCreatedAt(System.currentTimeMillis());
+        return model;
+    }
+
+    static DownloadRequest fromModel(RequestModel model) {
+        final DownloadRequestBuilder builder = new DownloadRequestBuilder(model.getUrl(),
+                new DownloadRequest.DownloadDetails(model.getDirPath(), model.getFileName(), model.getMimeType()));
+        final Priority[] priorities = Priority.values();
+        builder.setPriority(priorities[Math.min(Math.max(model.getPriority(), 0), priorities.length - 1)])
+                .setTag(model.getTag())
+                .setReadTimeout(model.getReadTimeout())
+                .setConnectTimeout(model.getConnectTimeout())
+                .setUserAgent(model.getUserAgent())
+                .setDeadline(model.getDeadline())
+                .setTimeBudget(model.getTimeBudget());
+        decodeHeaders(model.getHeaders(), builder);
+        return builder.build();
+    }
+
+    /**
+     * Returns the tag as it is stored, null if there is none or it is not a string.
+     */
+    static String getStoredTag(DownloadRequest request) {
+        return request.getTag() instanceof String ? (String) request.getTag() : null;
+    }
+
+    private static String encodeHeaders(Map<String, List<String>> headers) {
+        if (headers == null || headers.isEmpty()) {
+            return null;
+        }
+        final StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            for (String value : entry.getValue()) {
+                builder.append(entry.getKey()).append(": ").append(value).append('\n');
+            }
+        }
+        return builder.toString();
+    }
+
+    private static void decodeHeaders(String headers, DownloadRequestBuilder builder) {
+        if (headers == null) {
+            return;
+        }
+        for (String line : headers.split("\n")) {
+            final int separator = line.indexOf(": ");
+            if (separator > 0) {
+                builder.setHeader(line.substring(0, separator), line.substring(separator + 2));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.request;
+
+import com.downloader.Error;
+import com.downloader.Response;
+import com.downloader.internal.DownloadRequestQueue;
+
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Result of a request started with {@link DownloadRequest#startAsync()}, completed on the
+ * thread which finishes the download, without going through the main thread.
+ * <p>
+ * Like {@link DownloadRequest#executeSync()}, a failed download completes the future with a
+ * {@link Response} holding the error. Pausing the download leaves the future pending until
+ * the download is resumed and finishes. Cancelling the future cancels the download.
+ */
+public class DownloadFuture implements Future<Response>, RequestObserver {
+
+    private final DownloadRequest request;
+    private final AtomicReference<Response> result = new AtomicReference<>();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final Queue<Listener> listeners = new ConcurrentLinkedQueue<>();
+
+    DownloadFuture(DownloadRequest request) {
+        this.request = request;
+    }
+
+    public DownloadRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * Runs the listener on the executor once the future is done, right away if it is
+     * already done.
+     */
+    public void addListener(Runnable listener, Executor executor) {
+        listeners.add(new Listener(listener, executor));
+        if (isDone()) {
+            runListeners();
+        }
+    }
+
+    /**
+     * Cancels the download and removes its temp file and database entry.
+     *
+     * @return false if the future was already done
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        final Response response = new Response();
+        response.setCancelled(true);
+        if (!complete(response)) {
+            return false;
+        }
+        DownloadRequestQueue.getInstance().cancel(request.getDownloadId());
+        return true;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        final Response response = result.get();
+        return response != null && response.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+        return result.get() != null;
+    }
+
+    @Override
+    public Response get() throws InterruptedException {
+        done.await();
+        return getResult();
+    }
+
+    @Override
+    public Response get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getResult();
+    }
+
+    @Override
+    public void onStart(DownloadRequest request) {
+
+    }
+
+    @Override
+    public void onProgress(DownloadRequest request) {
+
+    }
+
+    @Override
+    public void onPause(DownloadRequest request) {
+
+    }
+
+    @Override
+    public void onCancel(DownloadRequest request) {
+        final Response response = new Response();
+        response.setCancelled(true);
+        complete(response);
+    }
+
+    @Override
+    public void onComplete(DownloadRequest request) {
+        final Response response = new Response();
+        response.setSuccessful(true);
+        complete(response);
+    }
+
+    @Override
+    public void onError(DownloadRequest request, Error error) {
+        final Response response = new Response();
+        response.setError(error);
+        complete(response);
+    }
+
+    private Response getResult() {
+        final Response response = result.get();
+        if (response.isCancelled()) {
+            throw new CancellationException();
+        }
+        return response;
+    }
+
+    private boolean complete(Response response) {
+        if (!result.compareAndSet(null, response)) {
+            return false;
+        }
+        request.removeObserver(this);
+        done.countDown();
+        runListeners();
+        return true;
+    }
+
+    private void runListeners() {
+        Listener listener;
+        while ((listener = listeners.poll()) != null) {
+            listener.executor.execute(listener.runnable);
+        }
+    }
+
+    private static class Listener {
+
+        final Runnable runnable;
+        final Executor executor;
+
+        Listener(Runnable runnable, Executor executor) {
+            this.runnable = runnable;
+            this.executor = executor;
+        }
+    }
+
+}
@@ -0,0 +1,296 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader.request;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.downloader.Error;
+import com.downloader.GroupProgress;
+import com.downloader.OnDownloadListener;
+import com.downloader.OnGroupDownloadListener;
+import com.downloader.OnGroupProgressListener;
+import com.downloader.core.Core;
+import com.downloader.core.MainThreadExecutor;
+import com.downloader.internal.ComponentHolder;
+import com.downloader.internal.DownloadRequestQueue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Set of requests started together, reporting one throttled aggregate progress and one
+ * completion callback on the callback executor of the config, the main thread by default,
+ * and paused, resumed or cancelled as a whole.
+ * <p>
+ * The members report to the group through a {@link RequestObserver} on the threads which
+ * finish them, so the bookkeeping only uses atomics. The aggregate bytes are summed on the
+ * callback executor when the progress is published, which keeps the workers out of it
+ * entirely.
+ */
+public class DownloadGroup implements RequestObserver {
+
+    private static final long DEFAULT_PROGRESS_INTERVAL_IN_MILLS = 250;
+
+    private final List<DownloadRequest> requests = new ArrayList<>();
+    private final List<OnDownloadListener> requestListeners = new ArrayList<>();
+    private final Set<DownloadRequest> pendingRequests =
+            Collections.newSetFromMap(new ConcurrentHashMap<DownloadRequest, Boolean>());
+    private final ConcurrentLinkedQueue<DownloadRequest> failedRequests = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger completedCount = new AtomicInteger();
+    private final AtomicInteger failedCount = new AtomicInteger();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final AtomicBoolean finished = new AtomicBoolean();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable progressTicker = new Runnable() {
+        @Override
+        public void run() {
+            publishProgress();
+            if (!finished.get()) {
+                mainHandler.postDelayed(this, progressInterval);
+            }
+        }
+    };
+    private final Runnable progressPublisher = new Runnable() {
+        @Override
+        public void run() {
+            publishProgress();
+        }
+    };
+    private volatile boolean cancelled;
+    private Executor callbackExecutor;
+    // ticks the progress when the callback executor is not the main thread
+    private volatile ScheduledFuture<?> scheduledTicker;
+    private volatile OnGroupProgressListener onGroupProgressListener;
+    private OnGroupDownloadListener onGroupDownloadListener;
+    private long progressInterval = DEFAULT_PROGRESS_INTERVAL_IN_MILLS;
+    private long lastProgressBytes;
+    private long lastProgressTime;
+
+    public DownloadGroup add(DownloadRequest request) {
+        return add(request, null);
+    }
+
+    /**
+     * Adds a request to the group, with a listener of its own for its completion.
+     */
+    public DownloadGroup add(DownloadRequest request, OnDownloadListener onDownloadListener) {
+        if (started.get()) {
+            throw new IllegalStateException("Requests can't be added once the group started");
+        }
+        requests.add(request);
+        requestListeners.add(onDownloadListener);
+        return this;
+    }
+
+    public DownloadGroup setOnGroupProgressListener(OnGroupProgressListener onGroupProgressListener) {
+        this.onGroupProgressListener = onGroupProgressListener;
+        return this;
+    }
+
+    /**
+     * Sets how often the aggregate progress is published, in milliseconds.
+     */
+    public DownloadGroup setProgressInterval(long progressInterval) {
+        this.progressInterval = progressInterval;
+        return this;
+    }
+
+    public List<DownloadRequest> getRequests() {
+        return Collections.unmodifiableList(requests);
+    }
+
+    public int size() {
+        return requests.size();
+    }
+
+    public boolean isFinished() {
+        return finished.get();
+    }
+
+    public void start(OnGroupDownloadListener onGroupDownloadListener) {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        this.onGroupDownloadListener = onGroupDownloadListener;
+        final Executor configured = ComponentHolder.getInstance().getCallbackExecutor();
+        callbackExecutor = configured != null ? configured : Core.getInstance().getExecutorSupplier().forMainThreadTasks();
+        // every member is pending before the first one starts, so that an early finish
+        // can't be taken for the end of the group
+        pendingRequests.addAll(requests);
+        lastProgressTime = System.currentTimeMillis();
+        if (onGroupProgressListener != null) {
+            startProgressTicker();
+        }
+        for (int i = 0; i < requests.size(); i++) {
+            final DownloadRequest request = requests.get(i);
+            request.addObserver(this);
+            request.start(requestListeners.get(i));
+        }
+        if (requests.isEmpty()) {
+            onRequestFinished();
+        }
+    }
+
+    public void pause() {
+        for (DownloadRequest request : pendingRequests) {
+            DownloadRequestQueue.getInstance().pause(request.getDownloadId());
+        }
+    }
+
+    public void resume() {
+        for (DownloadRequest request : pendingRequests) {
+            DownloadRequestQueue.getInstance().resume(request.getDownloadId());
+        }
+    }
+
+    /**
+     * Cancels every unfinished request of the group. The group listener is not called.
+     */
+    public void cancel() {
+        cancelled = true;
+        for (DownloadRequest request : pendingRequests) {
+            DownloadRequestQueue.getInstance().cancel(request.getDownloadId());
+        }
+    }
+
+    @Override
+    public void onStart(DownloadRequest request) {
+
+    }
+
+    @Override
+    public void onProgress(DownloadRequest request) {
+
+    }
+
+    @Override
+    public void onPause(DownloadRequest request) {
+
+    }
+
+    @Override
+    public void onCancel(DownloadRequest request) {
+        if (pendingRequests.remove(request)) {
+            onRequestFinished();
+        }
+    }
+
+    @Override
+    public void onComplete(DownloadRequest request) {
+        if (pendingRequests.remove(request)) {
+            completedCount.incrementAndGet();
+            onRequestFinished();
+        }
+    }
+
+    @Override
+    public void onError(DownloadRequest request, Error error) {
+        if (pendingRequests.remove(request)) {
+            failedRequests.add(request);
+            failedCount.incrementAndGet();
+            onRequestFinished();
+        }
+    }
+
+    private void onRequestFinished() {
+        if (!pendingRequests.isEmpty() || !finished.compareAndSet(false, true)) {
+            return;
+        }
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                stopProgressTicker();
+                publishProgress();
+                deliverGroupResult();
+            }
+        });
+    }
+
+    private void startProgressTicker() {
+        if (callbackExecutor instanceof MainThreadExecutor) {
+            mainHandler.postDelayed(progressTicker, progressInterval);
+            return;
+        }
+        scheduledTicker = Core.getInstance().getExecutorSupplier().forScheduledTasks()
+                .scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        callbackExecutor.execute(progressPublisher);
+                    }
+                }, progressInterval, progressInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private void stopProgressTicker() {
+        mainHandler.removeCallbacks(progressTicker);
+        if (scheduledTicker != null) {
+            scheduledTicker.cancel(false);
+        }
+    }
+
+    private void deliverGroupResult() {
+        final OnGroupDownloadListener listener = onGroupDownloadListener;
+        onGroupDownloadListener = null;
+        onGroupProgressListener = null;
+        if (listener == null || cancelled) {
+            return;
+        }
+        if (failedRequests.isEmpty()) {
+            listener.onGroupComplete(this);
+        } else {
+            listener.onGroupError(this, new ArrayList<>(failedRequests));
+        }
+    }
+
+    private void publishProgress() {
+        final OnGroupProgressListener listener = onGroupProgressListener;
+        if (listener == null) {
+            return;
+        }
+        listener.onProgress(this, nextProgress());
+    }
+
+    /**
+     * Synchronized, as a callback executor other than the main thread may run a tick and
+     * the final update at the same time. The listener is called outside.
+     */
+    private synchronized GroupProgress nextProgress() {
+        long currentBytes = 0;
+        long totalBytes = 0;
+        for (DownloadRequest request : requests) {
+            currentBytes += request.getDownloadedBytes();
+            totalBytes += Math.max(0, request.getTotalBytes());
+        }
+        final long currentTime = System.currentTimeMillis();
+        final long timeDelta = currentTime - lastProgressTime;
+        final long bytesPerSecond = timeDelta > 0 ? Math.max(0, currentBytes - lastProgressBytes) * 1000 / timeDelta : 0;
+        lastProgressBytes = currentBytes;
+        lastProgressTime = currentTime;
+        return new GroupProgress(currentBytes, totalBytes, completedCount.get(),
+                failedCount.get(), requests.size(), bytesPerSecond);
+    }
+
+}
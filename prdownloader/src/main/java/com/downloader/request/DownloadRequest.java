@@ -28,18 +28,24 @@ import android.util.Log;
 
 import com.downloader.Error;
 import com.downloader.OnCancelListener;
+import com.downloader.OnDeadlineAtRiskListener;
 import com.downloader.OnDownloadListener;
 import com.downloader.OnPauseListener;
 import com.downloader.OnProgressListener;
 import com.downloader.OnStartOrResumeListener;
 import com.downloader.OnStoragePermissionsRequested;
 import com.downloader.Priority;
+import com.downloader.Progress;
 import com.downloader.Response;
 import com.downloader.Status;
 import com.downloader.core.Core;
+import com.downloader.database.DownloadModel;
+import com.downloader.handler.ProgressHandler;
+import com.downloader.handler.ProgressReporter;
 import com.downloader.internal.ComponentHolder;
 import com.downloader.internal.DownloadRequestQueue;
 import com.downloader.internal.SynchronousCall;
+import com.downloader.stream.DownloadEventStream;
 import com.downloader.utils.Utils;
 
 import org.jdeferred2.impl.DefaultDeferredManager;
@@ -52,9 +58,14 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Created by amitshekhar on 13/11/17.
@@ -88,8 +99,18 @@ public class DownloadRequest
             return externalStorageLocation;
         }
 
+        /**
+         * Returns the file at the path itself, used when no storage permissions handler is
+         * set and the root directory is null.
+         */
+        public File getLocalFile()
+        {
+            return new File(Utils.getPath(_parentDirectory, _fileName));
+        }
+
         public boolean doesFileExist(DocumentFile rootDirectory)
         {
+            if (rootDirectory == null) return getLocalFile().exists();
             return getFile(rootDirectory) != null;
         }
 
@@ -133,6 +154,12 @@ public class DownloadRequest
 
         public void removeFile(DocumentFile rootDirectory)
         {
+            if (rootDirectory == null)
+            {
+                //noinspection ResultOfMethodCallIgnored
+                getLocalFile().delete();
+                return;
+            }
             DocumentFile file = getFile(rootDirectory);
             if (file != null) file.delete();
         }
@@ -153,6 +180,8 @@ public class DownloadRequest
 
         public OutputStream createOutputStream(DocumentFile rootDirectory, long offset) throws IOException
         {
+            if (rootDirectory == null) return createLocalOutputStream(offset);
+
             DocumentFile file = findOrCreateFile(rootDirectory);
             Context context = ComponentHolder.getInstance().getContext();
             ParcelFileDescriptor pfd = context.getContentResolver().openFileDescriptor(file.getUri(), "rw");
@@ -165,9 +194,23 @@ public class DownloadRequest
 
             return stream;
         }
+
+        private OutputStream createLocalOutputStream(long offset) throws IOException
+        {
+            File file = getLocalFile();
+            File parent = file.getParentFile();
+            if (parent != null && !parent.exists() && !parent.mkdirs() && !parent.exists())
+                throw new IOException("Couldn't create the directory " + parent);
+
+            // appends from the offset, dropping whatever was written past it
+            FileOutputStream stream = new FileOutputStream(file, true);
+            stream.getChannel().truncate(offset);
+
+            return stream;
+        }
     }
 
-    private Priority priority;
+    private volatile Priority priority;
     private Object tag;
     private String url;
     private DownloadDetails downloadDetails;
@@ -179,13 +222,34 @@ public class DownloadRequest
     private int connectTimeout;
     private String userAgent;
     private OnProgressListener onProgressListener;
+    private volatile ProgressReporter progressReporter;
+    private final SpeedMeter speedMeter = new SpeedMeter();
     private OnDownloadListener onDownloadListener;
     private OnStartOrResumeListener onStartOrResumeListener;
     private OnPauseListener onPauseListener;
     private OnCancelListener onCancelListener;
+    private OnDeadlineAtRiskListener onDeadlineAtRiskListener;
+    private final long deadline;
+    private final long timeBudget;
+    private Executor callbackExecutor;
+    private long startTime;
+    private final AtomicBoolean deadlineAtRiskDelivered = new AtomicBoolean();
     private int downloadId;
     private HashMap<String, List<String>> headerMap;
-    private Status status;
+    private HashMap<String, String> conditionalHeaderMap;
+    private final StateMachine stateMachine = new StateMachine(this);
+    private volatile boolean preemptible;
+    private final AtomicReference<Runnable> abortAction = new AtomicReference<>();
+    private final AtomicBoolean preempted = new AtomicBoolean();
+    private DownloadModel prefetchedModel;
+    private boolean modelPrefetched;
+    private static final List<RequestObserver> GLOBAL_OBSERVERS = new CopyOnWriteArrayList<>();
+    private final List<RequestObserver> observers = new CopyOnWriteArrayList<>();
+    private DownloadEventStream events;
+    private final List<DownloadRequest> followers = new CopyOnWriteArrayList<>();
+    private DownloadRequest leader;
+    private boolean sharedStreamSealed;
+    private String sharedStreamKey;
 
     DownloadRequest(DownloadRequestBuilder builder) {
         this.url = builder.url;
@@ -202,6 +266,21 @@ public class DownloadRequest
                         builder.connectTimeout :
                         getConnectTimeoutFromConfig();
         this.userAgent = builder.userAgent;
+        this.deadline = builder.deadline;
+        this.timeBudget = builder.timeBudget;
+        this.callbackExecutor = builder.callbackExecutor;
+    }
+
+    /**
+     * Returns the executor the listeners are called on: the one of the request, else the
+     * one of the config, else the main thread.
+     */
+    public Executor getCallbackExecutor() {
+        if (callbackExecutor != null) {
+            return callbackExecutor;
+        }
+        final Executor configured = ComponentHolder.getInstance().getCallbackExecutor();
+        return configured != null ? configured : Core.getInstance().getExecutorSupplier().forMainThreadTasks();
     }
 
     public Priority getPriority() {
@@ -242,6 +321,21 @@ public class DownloadRequest
         return headerMap;
     }
 
+    public HashMap<String, String> getConditionalHeaders() {
+        return conditionalHeaderMap;
+    }
+
+    public void setConditionalHeader(String name, String value) {
+        if (conditionalHeaderMap == null) {
+            conditionalHeaderMap = new HashMap<>();
+        }
+        conditionalHeaderMap.put(name, value);
+    }
+
+    public void clearConditionalHeaders() {
+        conditionalHeaderMap = null;
+    }
+
     public Future getFuture() {
         return future;
     }
@@ -250,12 +344,50 @@ public class DownloadRequest
         this.future = future;
     }
 
+    /**
+     * Hands over the model read from the database when the request was enqueued in bulk,
+     * so the first run does not look it up again.
+     */
+    public synchronized void setPrefetchedModel(DownloadModel model) {
+        prefetchedModel = model;
+        modelPrefetched = true;
+    }
+
+    public synchronized boolean hasPrefetchedModel() {
+        return modelPrefetched;
+    }
+
+    /**
+     * Returns the prefetched model, which may be null if there was none, and forgets it:
+     * a later resume has to read the checkpoint written in the meantime.
+     */
+    public synchronized DownloadModel takePrefetchedModel() {
+        final DownloadModel model = prefetchedModel;
+        prefetchedModel = null;
+        modelPrefetched = false;
+        return model;
+    }
+
     public long getDownloadedBytes() {
         return downloadedBytes;
     }
 
     public void setDownloadedBytes(long downloadedBytes) {
         this.downloadedBytes = downloadedBytes;
+        speedMeter.onBytes(downloadedBytes);
+    }
+
+    public SpeedMeter getSpeedMeter() {
+        return speedMeter;
+    }
+
+    /**
+     * Returns a snapshot of the progress, with the current speeds and estimate.
+     */
+    public Progress getProgress() {
+        final Progress progress = new Progress(this, downloadedBytes, totalBytes);
+        speedMeter.copyTo(progress);
+        return progress;
     }
 
     public long getTotalBytes() {
@@ -302,11 +434,114 @@ public class DownloadRequest
     }
 
     public Status getStatus() {
-        return status;
+        return stateMachine.get();
     }
 
+    /**
+     * Moves to the given status if the {@link StateMachine} allows it from the current one.
+     */
     public void setStatus(Status status) {
-        this.status = status;
+        moveTo(status);
+    }
+
+    /**
+     * @return false if the transition is not allowed from the current status
+     */
+    public boolean moveTo(Status status) {
+        if (!stateMachine.moveTo(status)) {
+            return false;
+        }
+        onStatusChanged(status);
+        return true;
+    }
+
+    /**
+     * @return false if the current status is not the expected one or the transition is
+     * not allowed
+     */
+    public boolean compareAndSetStatus(Status expected, Status status) {
+        if (!stateMachine.compareAndSet(expected, status)) {
+            return false;
+        }
+        onStatusChanged(status);
+        return true;
+    }
+
+    public StateMachine getStateMachine() {
+        return stateMachine;
+    }
+
+    private void onStatusChanged(Status status) {
+        speedMeter.restart();
+        if (status == Status.PAUSED || status == Status.CANCELLED) {
+            abortRunningIo();
+        }
+    }
+
+    /**
+     * Sets the action aborting the blocked I/O of the running download. It is run when
+     * the download is paused or cancelled, so that it stops without waiting for its
+     * current read or connect to return.
+     */
+    public void setAbortAction(Runnable action) {
+        abortAction.set(action);
+    }
+
+    /**
+     * Removes the abort action if it is still the given one.
+     */
+    public void clearAbortAction(Runnable action) {
+        abortAction.compareAndSet(action, null);
+    }
+
+    private void abortRunningIo() {
+        final Runnable action = abortAction.get();
+        if (action != null) {
+            action.run();
+        }
+    }
+
+    public boolean isPreemptible() {
+        return preemptible;
+    }
+
+    /**
+     * Marks whether the running download can be paused and resumed later without losing
+     * the bytes it already wrote.
+     */
+    public void setPreemptible(boolean preemptible) {
+        this.preemptible = preemptible;
+    }
+
+    public boolean isPreempted() {
+        return preempted.get();
+    }
+
+    /**
+     * Pauses the running download to hand its slot to a request of higher priority. The
+     * download stops at its next checkpoint and is queued again instead of reporting
+     * the pause.
+     *
+     * @return false if the download can't be preempted or already was
+     */
+    public boolean preempt() {
+        if (!preemptible || getStatus() != Status.RUNNING || !preempted.compareAndSet(false, true)) {
+            return false;
+        }
+        if (!compareAndSetStatus(Status.RUNNING, Status.PAUSED)) {
+            preempted.set(false);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Clears the preempted mark.
+     *
+     * @return true if the download was preempted
+     */
+    public boolean clearPreempted() {
+        return preempted.getAndSet(false);
     }
 
     public OnProgressListener getOnProgressListener() {
@@ -323,61 +558,346 @@ public class DownloadRequest
         return this;
     }
 
+    /**
+     * Reports the current progress to the progress listener, the batch listener and the
+     * observers, subject to the throttling of the {@link ProgressReporter}. Called by the
+     * download thread.
+     *
+     * @param force true to report regardless of the throttling
+     */
+    public void reportProgress(long totalBytes, boolean force) {
+        final boolean hasObservers = !observers.isEmpty() || !GLOBAL_OBSERVERS.isEmpty();
+        if (!hasObservers && onProgressListener == null && !ProgressHandler.getInstance().hasBatchListener()) {
+            return;
+        }
+        ProgressReporter reporter = progressReporter;
+        if (reporter == null) {
+            reporter = new ProgressReporter(this);
+            progressReporter = reporter;
+        }
+        if (!reporter.onProgress(downloadedBytes, totalBytes, force) || !hasObservers) {
+            return;
+        }
+        for (RequestObserver observer : observers) {
+            observer.onProgress(this);
+        }
+        for (RequestObserver observer : GLOBAL_OBSERVERS) {
+            observer.onProgress(this);
+        }
+    }
+
+    /**
+     * Delivers the last progress update before the download stopped, if it is still
+     * waiting for its tick. Called on the callback executor.
+     */
+    private void flushProgress() {
+        final ProgressReporter reporter = progressReporter;
+        if (reporter != null) {
+            reporter.flush();
+        }
+    }
+
     public DownloadRequest setOnPauseListener(OnPauseListener onPauseListener) {
         this.onPauseListener = onPauseListener;
         return this;
     }
 
+    public void addObserver(RequestObserver observer) {
+        observers.add(observer);
+    }
+
+    public void removeObserver(RequestObserver observer) {
+        observers.remove(observer);
+    }
+
+    /**
+     * Returns whether something waits for the outcome of this very object, like a
+     * {@link DownloadFuture}, a {@link DownloadGroup} or the stream of its events.
+     */
+    public boolean hasObservers() {
+        return !observers.isEmpty();
+    }
+
+    /**
+     * Adds an observer of every request, like the global {@link DownloadEventStream}.
+     */
+    public static void addGlobalObserver(RequestObserver observer) {
+        GLOBAL_OBSERVERS.add(observer);
+    }
+
+    public static void removeGlobalObserver(RequestObserver observer) {
+        GLOBAL_OBSERVERS.remove(observer);
+    }
+
+    /**
+     * Returns the stream of the events of this request, completing after its terminal
+     * event. Subscribe before starting the request to get all of them.
+     */
+    public synchronized DownloadEventStream getEvents() {
+        if (events == null) {
+            events = new DownloadEventStream(this);
+            observers.add(events);
+        }
+        return events;
+    }
+
+    public DownloadRequest setOnDeadlineAtRiskListener(OnDeadlineAtRiskListener onDeadlineAtRiskListener) {
+        this.onDeadlineAtRiskListener = onDeadlineAtRiskListener;
+        return this;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public long getTimeBudget() {
+        return timeBudget;
+    }
+
+    public boolean isTimeBudgetExceeded(long currentTime) {
+        return timeBudget > 0 && startTime > 0 && currentTime - startTime > timeBudget;
+    }
+
+    /**
+     * Estimates when the download completes at the given rate.
+     *
+     * @return the estimated time, or -1 if the size or the rate is unknown
+     */
+    public long estimateCompletionTime(long currentTime, long bytesPerSecond) {
+        if (totalBytes <= 0 || bytesPerSecond <= 0) {
+            return -1;
+        }
+        return currentTime + Math.max(0, totalBytes - downloadedBytes) * 1000 / bytesPerSecond;
+    }
+
+    /**
+     * Checks the deadline against the given download rate and warns the listener, once,
+     * if it can't be met anymore.
+     *
+     * @return false if the deadline is estimated to be missed
+     */
+    public boolean checkDeadline(long currentTime, long bytesPerSecond) {
+        if (isDeadlineFeasible(currentTime, bytesPerSecond)) {
+            return true;
+        }
+        deliverDeadlineAtRisk(estimateCompletionTime(currentTime, bytesPerSecond));
+        return false;
+    }
+
+    /**
+     * Same as {@link #checkDeadline(long, long)}, without warning the listener.
+     */
+    public boolean isDeadlineFeasible(long currentTime, long bytesPerSecond) {
+        if (deadline <= 0) {
+            return true;
+        }
+        final long estimatedCompletionTime = estimateCompletionTime(currentTime, bytesPerSecond);
+        if (estimatedCompletionTime < 0) {
+            return currentTime <= deadline;
+        }
+        return estimatedCompletionTime <= deadline;
+    }
+
+    /**
+     * Warns the listener, once, that the deadline is estimated to be missed.
+     */
+    public void deliverDeadlineAtRisk(final long estimatedCompletionTime) {
+        if (getStatus() == Status.CANCELLED || !deadlineAtRiskDelivered.compareAndSet(false, true)) {
+            return;
+        }
+        getCallbackExecutor()
+                .execute(new Runnable() {
+                    public void run() {
+                        if (onDeadlineAtRiskListener != null) {
+                            onDeadlineAtRiskListener.onDeadlineAtRisk(DownloadRequest.this,
+                                    estimatedCompletionTime);
+                        }
+                    }
+                });
+    }
+
     public DownloadRequest setOnCancelListener(OnCancelListener onCancelListener) {
         this.onCancelListener = onCancelListener;
         return this;
     }
 
+    public DownloadRequest getLeader() {
+        return leader;
+    }
+
+    public List<DownloadRequest> getFollowers() {
+        return followers;
+    }
+
+    public String getSharedStreamKey() {
+        return sharedStreamKey;
+    }
+
+    public void setSharedStreamKey(String sharedStreamKey) {
+        this.sharedStreamKey = sharedStreamKey;
+    }
+
+    /**
+     * Attaches a duplicate request with the same download id, so that it receives every
+     * event of this one instead of starting a download of its own.
+     *
+     * @return false if this request already finished and can not take followers anymore
+     */
+    public synchronized boolean attach(DownloadRequest request) {
+        if (isFinished()) {
+            return false;
+        }
+        request.leader = this;
+        followers.add(request);
+        return true;
+    }
+
+    /**
+     * Attaches a request for the same url but another destination, so that the network
+     * stream of this request is written to its file as well.
+     *
+     * @return false if this request has already started streaming or finished
+     */
+    public synchronized boolean share(DownloadRequest request) {
+        if (sharedStreamSealed || isFinished()) {
+            return false;
+        }
+        request.leader = this;
+        followers.add(request);
+        return true;
+    }
+
+    /**
+     * Stops accepting requests which share the network stream and returns the ones
+     * attached so far.
+     */
+    public synchronized List<DownloadRequest> sealSharedStream() {
+        sharedStreamSealed = true;
+        List<DownloadRequest> sharedRequests = new ArrayList<>();
+        for (DownloadRequest follower : followers) {
+            if (follower.downloadId != downloadId) {
+                sharedRequests.add(follower);
+            }
+        }
+        return sharedRequests;
+    }
+
+    public void detach(DownloadRequest follower) {
+        if (followers.remove(follower)) {
+            follower.leader = null;
+        }
+    }
+
+    private boolean isFinished() {
+        return StateMachine.isFinal(getStatus());
+    }
+
     public int start(OnDownloadListener onDownloadListener) {
         this.onDownloadListener = onDownloadListener;
         downloadId = Utils.getUniqueId(url, downloadDetails.getParentDirectory(), downloadDetails.getFileName());
+        startTime = System.currentTimeMillis();
+        stateMachine.restart();
         DownloadRequestQueue.getInstance().addRequest(this);
         return downloadId;
     }
 
+    /**
+     * Starts the request and returns its result as a future, completed on the thread which
+     * finishes the download. A request spilled to the database by the admission control is
+     * started again later as a new request, leaving the future pending.
+     */
+    public DownloadFuture startAsync() {
+        final DownloadFuture future = new DownloadFuture(this);
+        observers.add(future);
+        start(null);
+        return future;
+    }
+
+    /**
+     * Starts all the requests at once. The ids are computed in one pass, the resume state
+     * of all of them is read from the database with a few queries on the calling thread
+     * and the executor gets them as one block.
+     *
+     * @return the download ids, in the order of the requests
+     */
+    public static int[] startAll(List<DownloadRequest> requests, OnDownloadListener onDownloadListener) {
+        final int[] downloadIds = Utils.getUniqueIds(requests);
+        final long currentTime = System.currentTimeMillis();
+        for (int i = 0; i < downloadIds.length; i++) {
+            final DownloadRequest request = requests.get(i);
+            request.onDownloadListener = onDownloadListener;
+            request.downloadId = downloadIds[i];
+            request.startTime = currentTime;
+            request.stateMachine.restart();
+        }
+        DownloadRequestQueue.getInstance().addRequests(requests);
+        return downloadIds;
+    }
+
     public Response executeSync() {
         downloadId = Utils.getUniqueId(url, downloadDetails.getParentDirectory(), downloadDetails.getFileName());
         return new SynchronousCall(this).execute();
     }
 
     public void deliverError(final Error error) {
-        if (status != Status.CANCELLED) {
-            setStatus(Status.FAILED);
-            Core.getInstance().getExecutorSupplier().forMainThreadTasks()
-                    .execute(new Runnable() {
-                        public void run() {
-                            if (onDownloadListener != null) {
-                                onDownloadListener.onError(DownloadRequest.this, error);
-                            }
-                            finish();
+        if (!moveTo(Status.FAILED)) {
+            return;
+        }
+        for (RequestObserver observer : observers) {
+            observer.onError(this, error);
+        }
+        for (RequestObserver observer : GLOBAL_OBSERVERS) {
+            observer.onError(this, error);
+        }
+        getCallbackExecutor()
+                .execute(new Runnable() {
+                    public void run() {
+                        flushProgress();
+                        if (onDownloadListener != null) {
+                            onDownloadListener.onError(DownloadRequest.this, error);
                         }
-                    });
+                        finish();
+                    }
+                });
+        for (DownloadRequest follower : followers) {
+            follower.deliverError(error);
         }
     }
 
     public void deliverSuccess() {
-        if (status != Status.CANCELLED) {
-            setStatus(Status.COMPLETED);
-            Core.getInstance().getExecutorSupplier().forMainThreadTasks()
-                    .execute(new Runnable() {
-                        public void run() {
-                            if (onDownloadListener != null) {
-                                onDownloadListener.onDownloadComplete(DownloadRequest.this);
-                            }
-                            finish();
+        if (!moveTo(Status.COMPLETED)) {
+            return;
+        }
+        for (RequestObserver observer : observers) {
+            observer.onComplete(this);
+        }
+        for (RequestObserver observer : GLOBAL_OBSERVERS) {
+            observer.onComplete(this);
+        }
+        getCallbackExecutor()
+                .execute(new Runnable() {
+                    public void run() {
+                        flushProgress();
+                        if (onDownloadListener != null) {
+                            onDownloadListener.onDownloadComplete(DownloadRequest.this);
                         }
-                    });
+                        finish();
+                    }
+                });
+        for (DownloadRequest follower : followers) {
+            follower.deliverSuccess();
         }
     }
 
     public void deliverStartEvent() {
-        if (status != Status.CANCELLED) {
-            Core.getInstance().getExecutorSupplier().forMainThreadTasks()
+        if (getStatus() != Status.CANCELLED) {
+            for (RequestObserver observer : observers) {
+                observer.onStart(this);
+            }
+            for (RequestObserver observer : GLOBAL_OBSERVERS) {
+                observer.onStart(this);
+            }
+            getCallbackExecutor()
                     .execute(new Runnable() {
                         public void run() {
                             if (onStartOrResumeListener != null) {
@@ -386,23 +906,44 @@ public class DownloadRequest
                         }
                     });
         }
+        for (DownloadRequest follower : followers) {
+            follower.deliverStartEvent();
+        }
     }
 
     public void deliverPauseEvent() {
-        if (status != Status.CANCELLED) {
-            Core.getInstance().getExecutorSupplier().forMainThreadTasks()
+        if (getStatus() != Status.CANCELLED) {
+            for (RequestObserver observer : observers) {
+                observer.onPause(this);
+            }
+            for (RequestObserver observer : GLOBAL_OBSERVERS) {
+                observer.onPause(this);
+            }
+            getCallbackExecutor()
                     .execute(new Runnable() {
                         public void run() {
+                            flushProgress();
                             if (onPauseListener != null) {
                                 onPauseListener.onPause(DownloadRequest.this);
                             }
                         }
                     });
         }
+        for (DownloadRequest follower : followers) {
+            if (follower.downloadId == downloadId) {
+                follower.deliverPauseEvent();
+            }
+        }
     }
 
     private void deliverCancelEvent() {
-        Core.getInstance().getExecutorSupplier().forMainThreadTasks()
+        for (RequestObserver observer : observers) {
+            observer.onCancel(this);
+        }
+        for (RequestObserver observer : GLOBAL_OBSERVERS) {
+            observer.onCancel(this);
+        }
+        getCallbackExecutor()
                 .execute(new Runnable() {
                     public void run() {
                         if (onCancelListener != null) {
@@ -410,16 +951,37 @@ public class DownloadRequest
                         }
                     }
                 });
+        for (DownloadRequest follower : followers) {
+            if (follower.downloadId == downloadId) {
+                follower.deliverCancelEvent();
+            }
+        }
     }
 
     public void cancel() {
-        status = Status.CANCELLED;
+        cancel(true);
+    }
+
+    /**
+     * @param deleteFiles false if the caller removes the temp file and the database entry
+     *                    itself, together with the ones of other cancelled requests
+     */
+    public void cancel(boolean deleteFiles) {
+        if (!moveTo(Status.CANCELLED)) {
+            return;
+        }
         if (future != null) {
             future.cancel(true);
         }
+        DownloadRequest currentLeader = leader;
+        if (currentLeader != null) {
+            currentLeader.detach(this);
+        }
 
         deliverCancelEvent();
-        Utils.deleteTempFileAndDatabaseEntryInBackground(downloadDetails, downloadId);
+        if (deleteFiles) {
+            Utils.deleteTempFileAndDatabaseEntryInBackground(downloadDetails, downloadId);
+        }
     }
 
     private void finish() {
@@ -433,6 +995,7 @@ public class DownloadRequest
         this.onStartOrResumeListener = null;
         this.onPauseListener = null;
         this.onCancelListener = null;
+        this.onDeadlineAtRiskListener = null;
     }
 
     private int getReadTimeoutFromConfig() {
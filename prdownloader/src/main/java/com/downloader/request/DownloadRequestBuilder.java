@@ -21,6 +21,7 @@ import com.downloader.Priority;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * Created by amitshekhar on 13/11/17.
@@ -36,6 +37,9 @@ public class DownloadRequestBuilder implements RequestBuilder {
     int connectTimeout;
     String userAgent;
     HashMap<String, List<String>> headerMap;
+    long deadline;
+    long timeBudget;
+    Executor callbackExecutor;
 
     public DownloadRequestBuilder(String url, DownloadRequest.DownloadDetails downloadDetails) {
         this.url = url;
@@ -88,6 +92,37 @@ public class DownloadRequestBuilder implements RequestBuilder {
         return this;
     }
 
+    /**
+     * Sets the wall-clock time, in milliseconds since the epoch, by which the download
+     * should be complete. It is used by the deadline scheduling mode and to warn through
+     * the {@link com.downloader.OnDeadlineAtRiskListener} when it can't be met.
+     */
+    @Override
+    public DownloadRequestBuilder setDeadline(long deadline) {
+        this.deadline = deadline;
+        return this;
+    }
+
+    /**
+     * Sets how long, in milliseconds from the start, the download may take. Once exceeded
+     * it is ended with an error reporting {@link com.downloader.Error#isTimeBudgetExceeded()}.
+     */
+    @Override
+    public DownloadRequestBuilder setTimeBudget(long timeBudget) {
+        this.timeBudget = timeBudget;
+        return this;
+    }
+
+    /**
+     * Sets the executor the listeners of this request are called on, instead of the one
+     * of the config or the main thread.
+     */
+    @Override
+    public DownloadRequestBuilder setCallbackExecutor(Executor callbackExecutor) {
+        this.callbackExecutor = callbackExecutor;
+        return this;
+    }
+
     public DownloadRequest build() {
         return new DownloadRequest(this);
     }
@@ -18,6 +18,8 @@ package com.downloader.request;
 
 import com.downloader.Priority;
 
+import java.util.concurrent.Executor;
+
 /**
  * Created by amitshekhar on 13/11/17.
  */
@@ -36,4 +38,10 @@ public interface RequestBuilder {
 
     RequestBuilder setUserAgent(String userAgent);
 
+    RequestBuilder setDeadline(long deadline);
+
+    RequestBuilder setTimeBudget(long timeBudget);
+
+    RequestBuilder setCallbackExecutor(Executor callbackExecutor);
+
 }
@@ -0,0 +1,44 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader.request;
+
+import com.downloader.Error;
+
+/**
+ * Observes the lifecycle of a request on the thread delivering the events, before the
+ * listeners of the request are called on the main thread. Used to build views over many
+ * requests, like {@link DownloadGroup}. Implementations must be quick and must not block.
+ */
+public interface RequestObserver {
+
+    void onStart(DownloadRequest request);
+
+    /**
+     * Called by the download thread for every update the progress throttling lets
+     * through; the bytes are read from the request.
+     */
+    void onProgress(DownloadRequest request);
+
+    void onPause(DownloadRequest request);
+
+    void onCancel(DownloadRequest request);
+
+    void onComplete(DownloadRequest request);
+
+    void onError(DownloadRequest request, Error error);
+
+}
@@ -0,0 +1,135 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.request;
+
+import com.downloader.Progress;
+
+/**
+ * Transfer rate of one download, sampled from its byte counter at most every sample
+ * interval by the download thread. The current speed is an exponentially weighted moving
+ * average in which each sample weighs by the time it covers, so that a long stall counts
+ * more than a short one. The values are published through volatile fields and can be
+ * read from any thread.
+ */
+public class SpeedMeter {
+
+    private static final long SAMPLE_INTERVAL_IN_MILLS = 500;
+    private static final double TIME_CONSTANT_IN_MILLS = 2000;
+    private static final long STALL_TIMEOUT_IN_MILLS = 3000;
+
+    // only touched by the download thread
+    private long startTime;
+    private long startBytes;
+    private long sampleTime;
+    private long sampleBytes;
+    private double smoothedSpeed;
+    private boolean sampled;
+    private volatile boolean restart = true;
+    private volatile long speed;
+    private volatile long averageSpeed;
+    private volatile long publishTime;
+
+    SpeedMeter() {
+    }
+
+    /**
+     * Called by the download thread whenever its byte counter changed.
+     */
+    void onBytes(long bytes) {
+        onBytes(bytes, System.currentTimeMillis());
+    }
+
+    void onBytes(long bytes, long currentTime) {
+        if (restart || bytes < sampleBytes) {
+            restart = false;
+            startTime = sampleTime = currentTime;
+            startBytes = sampleBytes = bytes;
+            sampled = false;
+            return;
+        }
+        final long elapsed = currentTime - sampleTime;
+        if (elapsed < SAMPLE_INTERVAL_IN_MILLS) {
+            return;
+        }
+        final double sample = (bytes - sampleBytes) * 1000.0 / elapsed;
+        if (sampled) {
+            final double weight = 1 - Math.exp(-elapsed / TIME_CONSTANT_IN_MILLS);
+            smoothedSpeed += weight * (sample - smoothedSpeed);
+        } else {
+            smoothedSpeed = sample;
+            sampled = true;
+        }
+        sampleTime = currentTime;
+        sampleBytes = bytes;
+        speed = (long) smoothedSpeed;
+        averageSpeed = (bytes - startBytes) * 1000 / (currentTime - startTime);
+        publishTime = currentTime;
+    }
+
+    /**
+     * Starts measuring afresh from the next bytes, as the download started or stopped.
+     * Called from any thread.
+     */
+    void restart() {
+        restart = true;
+        speed = 0;
+    }
+
+    /**
+     * Returns the smoothed current speed in bytes per second, 0 if the download stalled.
+     */
+    public long getSpeed() {
+        return getSpeed(System.currentTimeMillis());
+    }
+
+    long getSpeed(long currentTime) {
+        return currentTime - publishTime > STALL_TIMEOUT_IN_MILLS ? 0 : speed;
+    }
+
+    /**
+     * Returns the average speed since the download last started, in bytes per second.
+     */
+    public long getAverageSpeed() {
+        return averageSpeed;
+    }
+
+    /**
+     * Returns the estimated time left in milliseconds, -1 if it can't be estimated.
+     */
+    public long getEta(long currentBytes, long totalBytes) {
+        return getEta(currentBytes, totalBytes, System.currentTimeMillis());
+    }
+
+    long getEta(long currentBytes, long totalBytes, long currentTime) {
+        final long currentSpeed = getSpeed(currentTime);
+        if (totalBytes <= 0 || currentSpeed <= 0) {
+            return -1;
+        }
+        return Math.max(0, totalBytes - currentBytes) * 1000 / currentSpeed;
+    }
+
+    /**
+     * Sets the speeds and the estimate of the progress from its byte counts.
+     */
+    public void copyTo(Progress progress) {
+        progress.speed = getSpeed();
+        progress.averageSpeed = getAverageSpeed();
+        progress.eta = getEta(progress.currentBytes, progress.totalBytes);
+    }
+
+}
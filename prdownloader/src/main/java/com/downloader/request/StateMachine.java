@@ -0,0 +1,133 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.request;
+
+import com.downloader.Status;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Status of a request, changed only by compare-and-set transitions, so that reading it on
+ * the hot path is a single volatile read and of two threads racing for a transition only
+ * one wins.
+ * <p>
+ * A new request may move to any status. Afterwards COMPLETED, FAILED and CANCELLED are
+ * final, RUNNING is only entered from QUEUED and a status never moves to itself. The
+ * hooks run after every transition, on the thread which made it.
+ */
+public final class StateMachine {
+
+    public interface TransitionHook {
+
+        void onTransition(DownloadRequest request, Status from, Status to);
+
+    }
+
+    private final DownloadRequest request;
+    private final AtomicReference<Status> status = new AtomicReference<>();
+    private final List<TransitionHook> hooks = new CopyOnWriteArrayList<>();
+
+    StateMachine(DownloadRequest request) {
+        this.request = request;
+    }
+
+    public Status get() {
+        return status.get();
+    }
+
+    /**
+     * Moves to the given status from whatever the current one is, if the transition is
+     * allowed.
+     *
+     * @return false if it is not
+     */
+    public boolean moveTo(Status to) {
+        while (true) {
+            final Status from = status.get();
+            if (!canMove(from, to)) {
+                return false;
+            }
+            if (status.compareAndSet(from, to)) {
+                onTransition(from, to);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Moves from the expected status to the given one.
+     *
+     * @return false if the current status is another one or the transition is not allowed
+     */
+    public boolean compareAndSet(Status expected, Status to) {
+        if (!canMove(expected, to) || !status.compareAndSet(expected, to)) {
+            return false;
+        }
+        onTransition(expected, to);
+        return true;
+    }
+
+    /**
+     * Starts a new lifecycle for a request which finished and is started again.
+     */
+    void restart() {
+        final Status from = status.get();
+        if (isFinal(from)) {
+            status.compareAndSet(from, null);
+        }
+    }
+
+    public void addHook(TransitionHook hook) {
+        hooks.add(hook);
+    }
+
+    public void removeHook(TransitionHook hook) {
+        hooks.remove(hook);
+    }
+
+    public static boolean isFinal(Status status) {
+        return status == Status.COMPLETED || status == Status.FAILED || status == Status.CANCELLED;
+    }
+
+    public static boolean canMove(Status from, Status to) {
+        if (to == null || from == to) {
+            return false;
+        }
+        if (from == null || from == Status.UNKNOWN) {
+            return true;
+        }
+        switch (from) {
+            case QUEUED:
+                return to != Status.UNKNOWN;
+            case RUNNING:
+            case PAUSED:
+                return to != Status.RUNNING && to != Status.UNKNOWN;
+            default:
+                return false;
+        }
+    }
+
+    private void onTransition(Status from, Status to) {
+        for (TransitionHook hook : hooks) {
+            hook.onTransition(request, from, to);
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.stream;
+
+import com.downloader.Error;
+import com.downloader.Progress;
+import com.downloader.request.DownloadRequest;
+
+/**
+ * Event in the lifecycle of a download, as emitted by a {@link DownloadEventStream}.
+ */
+public class DownloadEvent {
+
+    public enum Type {
+        START,
+        PROGRESS,
+        PAUSE,
+        CANCEL,
+        COMPLETE,
+        ERROR
+    }
+
+    private final Type type;
+    private final DownloadRequest request;
+    private final Progress progress;
+    private final Error error;
+
+    DownloadEvent(Type type, DownloadRequest request, Progress progress, Error error) {
+        this.type = type;
+        this.request = request;
+        this.progress = progress;
+        this.error = error;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public DownloadRequest getRequest() {
+        return request;
+    }
+
+    public int getDownloadId() {
+        return request.getDownloadId();
+    }
+
+    /**
+     * Returns the progress of a {@link Type#PROGRESS} event, null otherwise.
+     */
+    public Progress getProgress() {
+        return progress;
+    }
+
+    /**
+     * Returns the error of a {@link Type#ERROR} event, null otherwise.
+     */
+    public Error getError() {
+        return error;
+    }
+
+    /**
+     * Returns whether nothing follows this event for the download.
+     */
+    public boolean isTerminal() {
+        return type == Type.CANCEL || type == Type.COMPLETE || type == Type.ERROR;
+    }
+
+    @Override
+    public String toString() {
+        return "DownloadEvent{" +
+                "type=" + type +
+                ", downloadId=" + getDownloadId() +
+                (progress != null ? ", progress=" + progress : "") +
+                '}';
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.stream;
+
+import com.downloader.Error;
+import com.downloader.core.Core;
+import com.downloader.internal.ComponentHolder;
+import com.downloader.request.DownloadRequest;
+import com.downloader.request.RequestObserver;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stream of the events of one download, or of all of them, for subscribers asking for
+ * events as they are ready for them.
+ * <p>
+ * Every subscriber has its own queue. The lifecycle events are few and are all kept; the
+ * progress is conflated instead, a download has at most one progress event queued and it
+ * carries the latest bytes when it is emitted. A slow subscriber thus never falls behind
+ * by more than the lifecycle events plus one progress event per download.
+ * <p>
+ * Subscribers are called on the callback executor of the request for a stream of one
+ * download, on the one of the config for the global stream, the main thread by default.
+ * The stream of one download completes after its terminal event.
+ */
+public class DownloadEventStream implements Publisher<DownloadEvent>, RequestObserver {
+
+    private final DownloadRequest request;
+    private final List<EventSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile boolean finished;
+
+    /**
+     * @param request the request to follow, null to follow all the downloads
+     */
+    public DownloadEventStream(DownloadRequest request) {
+        this.request = request;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super DownloadEvent> subscriber) {
+        final EventSubscription subscription = new EventSubscription(subscriber, getExecutor());
+        subscriptions.add(subscription);
+        subscriber.onSubscribe(subscription);
+        if (finished) {
+            subscription.complete();
+        }
+    }
+
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    @Override
+    public void onStart(DownloadRequest request) {
+        emit(new DownloadEvent(DownloadEvent.Type.START, request, null, null));
+    }
+
+    @Override
+    public void onProgress(DownloadRequest request) {
+        for (EventSubscription subscription : subscriptions) {
+            subscription.offerProgress(request);
+        }
+    }
+
+    @Override
+    public void onPause(DownloadRequest request) {
+        emit(new DownloadEvent(DownloadEvent.Type.PAUSE, request, null, null));
+    }
+
+    @Override
+    public void onCancel(DownloadRequest request) {
+        emit(new DownloadEvent(DownloadEvent.Type.CANCEL, request, null, null));
+    }
+
+    @Override
+    public void onComplete(DownloadRequest request) {
+        emit(new DownloadEvent(DownloadEvent.Type.COMPLETE, request, null, null));
+    }
+
+    @Override
+    public void onError(DownloadRequest request, Error error) {
+        emit(new DownloadEvent(DownloadEvent.Type.ERROR, request, null, error));
+    }
+
+    private void emit(DownloadEvent event) {
+        final boolean last = request != null && event.isTerminal();
+        if (last) {
+            finished = true;
+        }
+        for (EventSubscription subscription : subscriptions) {
+            subscription.offer(event);
+            if (last) {
+                subscription.complete();
+            }
+        }
+    }
+
+    private Executor getExecutor() {
+        if (request != null) {
+            return request.getCallbackExecutor();
+        }
+        final Executor configured = ComponentHolder.getInstance().getCallbackExecutor();
+        return configured != null ? configured : Core.getInstance().getExecutorSupplier().forMainThreadTasks();
+    }
+
+    /**
+     * Queue of one subscriber, drained on the executor by one run at a time.
+     */
+    private class EventSubscription implements Subscription, Runnable {
+
+        private final Subscriber<? super DownloadEvent> subscriber;
+        private final Executor executor;
+        // either a DownloadEvent, or the request whose progress is pending
+        private final Queue<Object> queue = new ConcurrentLinkedQueue<>();
+        private final Set<DownloadRequest> pendingProgress =
+                Collections.newSetFromMap(new ConcurrentHashMap<DownloadRequest, Boolean>());
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger work = new AtomicInteger();
+        private volatile boolean completing;
+        private volatile boolean cancelled;
+        private volatile Throwable failure;
+
+        EventSubscription(Subscriber<? super DownloadEvent> subscriber, Executor executor) {
+            this.subscriber = subscriber;
+            this.executor = executor;
+        }
+
+        void offer(DownloadEvent event) {
+            if (!cancelled) {
+                queue.offer(event);
+                schedule();
+            }
+        }
+
+        void offerProgress(DownloadRequest request) {
+            if (!cancelled && pendingProgress.add(request)) {
+                queue.offer(request);
+                schedule();
+            }
+        }
+
+        void complete() {
+            completing = true;
+            schedule();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                failure = new IllegalArgumentException("Non positive request: " + n);
+                completing = true;
+            } else {
+                long current;
+                long next;
+                do {
+                    current = demand.get();
+                    next = current + n;
+                    if (next < 0) {
+                        next = Long.MAX_VALUE;
+                    }
+                } while (current != Long.MAX_VALUE && !demand.compareAndSet(current, next));
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        private void schedule() {
+            if (work.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            while (true) {
+                final long requested = demand.get();
+                long emitted = 0;
+                while (emitted != requested && !cancelled && failure == null) {
+                    final Object item = queue.poll();
+                    if (item == null) {
+                        break;
+                    }
+                    try {
+                        subscriber.onNext(toEvent(item));
+                    } catch (Throwable t) {
+                        // the subscriber gets no more events, only the error
+                        failure = t;
+                        break;
+                    }
+                    emitted++;
+                }
+                if (cancelled) {
+                    queue.clear();
+                    return;
+                }
+                if (failure != null || (completing && queue.isEmpty())) {
+                    cancel();
+                    queue.clear();
+                    if (failure != null) {
+                        subscriber.onError(failure);
+                    } else {
+                        subscriber.onComplete();
+                    }
+                    return;
+                }
+                if (emitted != 0 && requested != Long.MAX_VALUE) {
+                    demand.addAndGet(-emitted);
+                }
+                missed = work.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        private DownloadEvent toEvent(Object item) {
+            if (item instanceof DownloadEvent) {
+                return (DownloadEvent) item;
+            }
+            final DownloadRequest request = (DownloadRequest) item;
+            // cleared before the snapshot, so that newer bytes queue a new event
+            pendingProgress.remove(request);
+            return new DownloadEvent(DownloadEvent.Type.PROGRESS, request, request.getProgress(), null);
+        }
+    }
+
+}
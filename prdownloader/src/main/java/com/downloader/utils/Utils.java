@@ -18,6 +18,7 @@ package com.downloader.utils;
 
 import android.content.Context;
 import android.os.Environment;
+import android.os.Looper;
 import android.support.v4.provider.DocumentFile;
 
 import com.downloader.Constants;
@@ -36,10 +37,14 @@ import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * Created by amitshekhar on 13/11/17.
@@ -47,7 +52,8 @@ import java.util.List;
 
 public final class Utils {
 
-    private final static int MAX_REDIRECTION = 10;
+    public final static int MAX_REDIRECTION = 10;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
 
     private Utils() {
         // no instance
@@ -90,30 +96,61 @@ public final class Utils {
                     public void run()
                     {
                         ComponentHolder.getInstance().getDbHelper().remove(downloadId);
+                        deleteTempFile(downloadDetails);
+                    }
+                });
+    }
 
-                        DeferredObject object = new DeferredObject();
-                        Promise promise = object.promise();
-                        OnStoragePermissionsRequested permissionsHandler = ComponentHolder.getInstance().getStoragePermissionsHandler();
-
-                        try
-                        {
-                            object.done(new DoneCallback()
-                            {
-                                @Override
-                                public void onDone(Object result)
-                                {
-                                    downloadDetails.removeFile((DocumentFile)result);
-                                }
-                            });
-                            ;
-                            permissionsHandler.OnStoragePermissionRequested(object, downloadDetails.getStorageRoot());
-                            promise.waitSafely();
+    /**
+     * Same as {@link #deleteTempFileAndDatabaseEntryInBackground(DownloadRequest.DownloadDetails, int)}
+     * for many requests, removing all the database entries in one transaction.
+     */
+    public static void deleteTempFilesAndDatabaseEntriesInBackground(final List<DownloadRequest> requests) {
+        final int[] downloadIds = new int[requests.size()];
+        final List<DownloadRequest.DownloadDetails> downloadDetailsList = new ArrayList<>(requests.size());
+        for (int i = 0; i < downloadIds.length; i++) {
+            downloadIds[i] = requests.get(i).getDownloadId();
+            downloadDetailsList.add(requests.get(i).getDownloadDetails());
+        }
+        Core.getInstance().getExecutorSupplier().forBackgroundTasks().execute(new Runnable()
+        {
+                    @Override
+                    public void run()
+                    {
+                        ComponentHolder.getInstance().getDbHelper().removeAll(downloadIds);
+                        for (DownloadRequest.DownloadDetails downloadDetails : downloadDetailsList) {
+                            deleteTempFile(downloadDetails);
                         }
-                        catch (InterruptedException e) { e.printStackTrace(); }
                     }
                 });
     }
 
+    private static void deleteTempFile(final DownloadRequest.DownloadDetails downloadDetails) {
+        DeferredObject object = new DeferredObject();
+        Promise promise = object.promise();
+        OnStoragePermissionsRequested permissionsHandler = ComponentHolder.getInstance().getStoragePermissionsHandler();
+        if (permissionsHandler == null)
+        {
+            downloadDetails.removeFile(null);
+            return;
+        }
+
+        try
+        {
+            object.done(new DoneCallback()
+            {
+                @Override
+                public void onDone(Object result)
+                {
+                    downloadDetails.removeFile((DocumentFile)result);
+                }
+            });
+            permissionsHandler.OnStoragePermissionRequested(object, downloadDetails.getStorageRoot());
+            promise.waitSafely();
+        }
+        catch (InterruptedException e) { e.printStackTrace(); }
+    }
+
     public static void deleteUnwantedModelsAndTempFiles(final int days) {
         Core.getInstance().getExecutorSupplier().forBackgroundTasks()
                 .execute(new Runnable() {
@@ -130,6 +167,11 @@ public final class Utils {
                                 DeferredObject object = new DeferredObject();
                                 Promise promise = object.promise();
                                 OnStoragePermissionsRequested permissionsHandler = ComponentHolder.getInstance().getStoragePermissionsHandler();
+                                if (permissionsHandler == null)
+                                {
+                                    downloadDetails.removeFile(null);
+                                    continue;
+                                }
 
                                 try
                                 {
@@ -156,6 +198,46 @@ public final class Utils {
 
         String string = url + File.separator + dirPath + File.separator + fileName;
 
+        return getMd5Hex(string).hashCode();
+
+    }
+
+    /**
+     * Computes the ids of many requests at once, giving the same ids as
+     * {@link #getUniqueId(String, String, String)}. The digest is created once and the id is
+     * hashed straight from the digest bytes, without building the hex string.
+     */
+    public static int[] getUniqueIds(List<DownloadRequest> requests) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("NoSuchAlgorithmException", e);
+        }
+        final Charset charset = Charset.forName("UTF-8");
+        final StringBuilder builder = new StringBuilder();
+        final int[] ids = new int[requests.size()];
+        for (int i = 0; i < ids.length; i++) {
+            final DownloadRequest request = requests.get(i);
+            builder.setLength(0);
+            builder.append(request.getUrl())
+                    .append(File.separator)
+                    .append(request.getDownloadDetails().getParentDirectory())
+                    .append(File.separator)
+                    .append(request.getDownloadDetails().getFileName());
+            final byte[] hash = digest.digest(builder.toString().getBytes(charset));
+            int id = 0;
+            for (byte b : hash) {
+                id = 31 * id + HEX_DIGITS[(b >> 4) & 0xF];
+                id = 31 * id + HEX_DIGITS[b & 0xF];
+            }
+            ids[i] = id;
+        }
+        return ids;
+    }
+
+    public static String getMd5Hex(String string) {
+
         byte[] hash;
 
         try {
@@ -173,7 +255,7 @@ public final class Utils {
             hex.append(Integer.toHexString(b & 0xFF));
         }
 
-        return hex.toString().hashCode();
+        return hex.toString();
 
     }
 
@@ -204,7 +286,24 @@ public final class Utils {
         return httpClient;
     }
 
-    private static boolean isRedirection(int code) {
+    public static String getHost(String url) {
+        try {
+            String host = new URL(url).getHost();
+            return host != null ? host.toLowerCase(Locale.ENGLISH) : "";
+        } catch (MalformedURLException e) {
+            return "";
+        }
+    }
+
+    /**
+     * Returns whether the calling thread is the main thread, which must never block.
+     */
+    public static boolean isMainThread() {
+        final Looper mainLooper = Looper.getMainLooper();
+        return mainLooper != null && mainLooper.getThread() == Thread.currentThread();
+    }
+
+    public static boolean isRedirection(int code) {
         return code == HttpURLConnection.HTTP_MOVED_PERM
                 || code == HttpURLConnection.HTTP_MOVED_TEMP
                 || code == HttpURLConnection.HTTP_SEE_OTHER
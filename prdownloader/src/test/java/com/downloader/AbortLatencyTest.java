@@ -0,0 +1,213 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader;
+
+import android.content.Context;
+import android.test.mock.MockContext;
+
+import com.downloader.core.Core;
+import com.downloader.httpclient.DefaultHttpClient;
+import com.downloader.httpclient.HttpClient;
+import com.downloader.request.DownloadRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures how long a paused or cancelled download keeps its slot in the download
+ * executor while the server stalls, which without aborting the I/O is up to the read
+ * timeout.
+ */
+public class AbortLatencyTest {
+
+    // well under the read timeout, which bounds the wait of a blocked read otherwise
+    private static final long MAX_LATENCY_IN_MILLS = Constants.DEFAULT_READ_TIMEOUT_IN_MILLS / 10;
+    private static final long WAIT_TIMEOUT_IN_MILLS = 10000;
+    private static final int BODY_LENGTH = 1000000;
+
+    private File dir;
+    private LocalServer server;
+    private DownloadRequest request;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("prdownloader").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (server != null) {
+            server.close();
+        }
+        PRDownloader.shutDown(WAIT_TIMEOUT_IN_MILLS);
+        TestFiles.delete(dir);
+    }
+
+    @Test
+    public void cancelWhileConnecting() throws Exception {
+        final int downloadId = startStalledBeforeHeaders();
+        final long latency = measure(downloadId, false);
+        assertTrue("slot freed after " + latency + " ms", latency < MAX_LATENCY_IN_MILLS);
+        assertEquals(Status.UNKNOWN, PRDownloader.getStatus(downloadId));
+    }
+
+    @Test
+    public void pauseWhileConnecting() throws Exception {
+        final int downloadId = startStalledBeforeHeaders();
+        final long latency = measure(downloadId, true);
+        assertTrue("slot freed after " + latency + " ms", latency < MAX_LATENCY_IN_MILLS);
+        assertEquals(Status.PAUSED, PRDownloader.getStatus(downloadId));
+    }
+
+    @Test
+    public void cancelWhileReading() throws Exception {
+        final int downloadId = startStalledInBody();
+        final long latency = measure(downloadId, false);
+        assertTrue("slot freed after " + latency + " ms", latency < MAX_LATENCY_IN_MILLS);
+        assertEquals(Status.UNKNOWN, PRDownloader.getStatus(downloadId));
+    }
+
+    @Test
+    public void pauseWhileReading() throws Exception {
+        final int downloadId = startStalledInBody();
+        final long latency = measure(downloadId, true);
+        assertTrue("slot freed after " + latency + " ms", latency < MAX_LATENCY_IN_MILLS);
+        assertEquals(Status.PAUSED, PRDownloader.getStatus(downloadId));
+    }
+
+    @Test
+    public void pauseWhileBackgroundThreadBusy() throws Exception {
+        final int downloadId = startStalledInBody();
+        // the abort must not wait behind the database writes
+        final CountDownLatch busyLatch = new CountDownLatch(1);
+        Core.getInstance().getExecutorSupplier().forBackgroundTasks().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    busyLatch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        try {
+            final long latency = measure(downloadId, true);
+            assertTrue("slot freed after " + latency + " ms", latency < MAX_LATENCY_IN_MILLS);
+        } finally {
+            busyLatch.countDown();
+        }
+    }
+
+    private int startStalledBeforeHeaders() throws Exception {
+        initialize(new DefaultHttpClient());
+        server = new LocalServer(new LocalServer.Responder() {
+            @Override
+            public void respond(String requestHead, OutputStream out) throws InterruptedException {
+                LocalServer.stall();
+            }
+        });
+        final int downloadId = start();
+        assertTrue(server.awaitRequest(WAIT_TIMEOUT_IN_MILLS));
+        // the request head is out, the client waits for the response head
+        Thread.sleep(100);
+        assertEquals(1, getActiveCount());
+        return downloadId;
+    }
+
+    private int startStalledInBody() throws Exception {
+        // the default client can only be aborted during a body read on Android
+        initialize(new SocketHttpClient());
+        server = new LocalServer(new LocalServer.Responder() {
+            @Override
+            public void respond(String requestHead, OutputStream out) throws IOException, InterruptedException {
+                out.write(("HTTP/1.1 206 Partial Content\r\n"
+                        + "Content-Length: " + BODY_LENGTH + "\r\n"
+                        + "Content-Range: bytes 0-" + (BODY_LENGTH - 1) + "/" + BODY_LENGTH + "\r\n"
+                        + "\r\n").getBytes("ISO-8859-1"));
+                out.write(new byte[1000]);
+                out.flush();
+                LocalServer.stall();
+            }
+        });
+        final int downloadId = start();
+        final long deadline = System.currentTimeMillis() + WAIT_TIMEOUT_IN_MILLS;
+        while (request.getDownloadedBytes() < 1000) {
+            assertTrue("no body received", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertEquals(1, getActiveCount());
+        return downloadId;
+    }
+
+    private static void initialize(HttpClient httpClient) throws Exception {
+        final Context context = new MockContext();
+        PRDownloader.initialize(context, PRDownloaderConfig.newBuilder()
+                .setContext(context)
+                .setHttpClient(httpClient)
+                .build());
+    }
+
+    private int start() {
+        request = PRDownloader.download(server.getUrl("/file"), dir.getPath(), "file", "application/octet-stream")
+                .build();
+        return request.start(new OnDownloadListener() {
+                    @Override
+                    public void onDownloadComplete(DownloadRequest request) {
+
+                    }
+
+                    @Override
+                    public void onError(DownloadRequest request, Error error) {
+
+                    }
+                });
+    }
+
+    /**
+     * @return the time from the pause or cancel until the slot was free again
+     */
+    private long measure(int downloadId, boolean pause) throws InterruptedException {
+        final long startTime = System.nanoTime();
+        if (pause) {
+            PRDownloader.pause(downloadId);
+        } else {
+            PRDownloader.cancel(downloadId);
+        }
+        final long deadline = System.currentTimeMillis() + WAIT_TIMEOUT_IN_MILLS;
+        while (getActiveCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+    }
+
+    private static int getActiveCount() {
+        return Core.getInstance().getExecutorSupplier().forDownloadTasks().getActiveCount();
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP server on a local port for the tests. Every connection gets a thread of its own,
+ * named with {@link #THREAD_NAME_PREFIX}, and is handed to the responder once its request
+ * head was read.
+ */
+public class LocalServer implements Closeable {
+
+    public static final String THREAD_NAME_PREFIX = "LocalServer-";
+    // the last four bytes of a request head, \r\n\r\n
+    private static final int END_OF_HEAD = 0x0d0a0d0a;
+
+    public interface Responder {
+
+        void respond(String requestHead, OutputStream out) throws IOException, InterruptedException;
+
+    }
+
+    private final Responder responder;
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final Set<Socket> sockets = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private volatile CountDownLatch requestLatch = new CountDownLatch(1);
+
+    public LocalServer(Responder responder) throws IOException {
+        this.responder = responder;
+        this.serverSocket = new ServerSocket(0, 1024, InetAddress.getByName("127.0.0.1"));
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        });
+    }
+
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + path;
+    }
+
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Waits for the next request head, counting from the last call.
+     */
+    public boolean awaitRequest(long timeoutInMills) throws InterruptedException {
+        final boolean received = requestLatch.await(timeoutInMills, TimeUnit.MILLISECONDS);
+        requestLatch = new CountDownLatch(1);
+        return received;
+    }
+
+    /**
+     * Blocks the responder until the server is closed.
+     */
+    public static void stall() throws InterruptedException {
+        Thread.sleep(Long.MAX_VALUE);
+    }
+
+    public static String getHeader(String requestHead, String name) {
+        for (String line : requestHead.split("\r\n")) {
+            final int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase(name)) {
+                return line.substring(colon + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        executor.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            sockets.add(socket);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            });
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            final String requestHead = readRequestHead(socket.getInputStream());
+            requestCount.incrementAndGet();
+            requestLatch.countDown();
+            final OutputStream out = socket.getOutputStream();
+            responder.respond(requestHead, out);
+            out.flush();
+        } catch (IOException | InterruptedException ignored) {
+            // the client went away or the server was closed
+        } finally {
+            sockets.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+
+            }
+        }
+    }
+
+    private static String readRequestHead(InputStream in) throws IOException {
+        final ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int last = 0;
+        while (last != END_OF_HEAD) {
+            final int c = in.read();
+            if (c == -1) {
+                throw new IOException("Connection closed before the end of the request head");
+            }
+            head.write(c);
+            last = (last << 8) | c;
+        }
+        return head.toString("ISO-8859-1");
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader;
+
+import android.content.Context;
+import android.test.mock.MockContext;
+
+import com.downloader.request.DownloadRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs many transfers at the same time on the non blocking engine against a local server
+ * and checks the threads and the heap the library uses for them, which with the thread
+ * pool engine grow with every running download.
+ */
+public class NioTransferBenchmarkTest {
+
+    private static final int TRANSFER_COUNT = 500;
+    private static final int BODY_LENGTH = 64 * 1024;
+    // the selector thread, the prepare threads and the pools of the library
+    private static final int MAX_THREAD_COUNT = 50;
+    // less than a body each, so no transfer buffers its whole response
+    private static final long MAX_HEAP_PER_TRANSFER = BODY_LENGTH;
+    private static final long WAIT_TIMEOUT_IN_MILLS = 60000;
+
+    private File dir;
+    private LocalServer server;
+    private final CountDownLatch releaseLatch = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("prdownloader").toFile();
+        server = new LocalServer(new LocalServer.Responder() {
+            @Override
+            public void respond(String requestHead, OutputStream out) throws IOException, InterruptedException {
+                out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + BODY_LENGTH + "\r\n\r\n").getBytes("ISO-8859-1"));
+                out.write(new byte[BODY_LENGTH / 2]);
+                out.flush();
+                // keeps every transfer open until all of them were measured
+                releaseLatch.await();
+                out.write(new byte[BODY_LENGTH / 2]);
+            }
+        });
+        final Context context = new MockContext();
+        PRDownloader.initialize(context, PRDownloaderConfig.newBuilder()
+                .setContext(context)
+                .setDownloadEngine(DownloadEngine.NON_BLOCKING)
+                .setConcurrencyBounds(TRANSFER_COUNT, TRANSFER_COUNT)
+                .setAdaptiveConcurrencyEnabled(false)
+                .setMaxConnectionsPerHost(TRANSFER_COUNT)
+                .build());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        releaseLatch.countDown();
+        server.close();
+        PRDownloader.shutDown(WAIT_TIMEOUT_IN_MILLS);
+        TestFiles.delete(dir);
+    }
+
+    @Test
+    public void concurrentTransfers() throws Exception {
+        final int baseThreadCount = getLibraryThreadCount();
+        final long baseHeap = getUsedHeap();
+        final List<DownloadRequest> requests = new ArrayList<>(TRANSFER_COUNT);
+        for (int i = 0; i < TRANSFER_COUNT; i++) {
+            final DownloadRequest request = PRDownloader.download(server.getUrl("/file" + i), dir.getPath(),
+                    "file" + i, "application/octet-stream").build();
+            // the callbacks go to the main looper, which does not run here
+            request.start(null);
+            requests.add(request);
+        }
+
+        awaitHalfOfBodies(requests);
+        final int threadCount = getLibraryThreadCount() - baseThreadCount;
+        final long heap = getUsedHeap() - baseHeap;
+        releaseLatch.countDown();
+        final int errorCount = awaitFinished(requests);
+
+        assertEquals(0, errorCount);
+        assertTrue(threadCount + " threads for " + TRANSFER_COUNT + " transfers", threadCount < MAX_THREAD_COUNT);
+        assertTrue(heap / 1024 + " KB of heap for " + TRANSFER_COUNT + " transfers",
+                heap / TRANSFER_COUNT < MAX_HEAP_PER_TRANSFER);
+        for (int i = 0; i < TRANSFER_COUNT; i++) {
+            assertEquals(BODY_LENGTH, new File(dir, "file" + i).length());
+        }
+    }
+
+    private static void awaitHalfOfBodies(List<DownloadRequest> requests) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + WAIT_TIMEOUT_IN_MILLS;
+        for (DownloadRequest request : requests) {
+            while (request.getDownloadedBytes() < BODY_LENGTH / 2) {
+                assertTrue("transfers not open in time", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    /**
+     * Waits for every transfer to complete or fail and returns the number of failures.
+     */
+    private static int awaitFinished(List<DownloadRequest> requests) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + WAIT_TIMEOUT_IN_MILLS;
+        int errorCount = 0;
+        for (DownloadRequest request : requests) {
+            while (request.getStatus() != Status.COMPLETED && request.getStatus() != Status.FAILED) {
+                assertTrue("transfers not finished in time", System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+            if (request.getStatus() == Status.FAILED) {
+                errorCount++;
+            }
+        }
+        return errorCount;
+    }
+
+    private static int getLibraryThreadCount() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (!thread.getName().startsWith(LocalServer.THREAD_NAME_PREFIX)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static long getUsedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
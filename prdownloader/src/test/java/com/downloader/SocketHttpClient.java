@@ -0,0 +1,157 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader;
+
+import com.downloader.httpclient.Abortable;
+import com.downloader.httpclient.HttpClient;
+import com.downloader.request.DownloadRequest;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A minimal HTTP/1.1 client over a plain socket which aborts like the platform client of
+ * Android does, by closing the socket. The one of the JDK can't be aborted during a
+ * blocked body read, since its streams synchronize read and close.
+ */
+public class SocketHttpClient implements HttpClient, Abortable {
+
+    private volatile Socket socket;
+    private volatile boolean aborted;
+    private InputStream inputStream;
+    private int responseCode;
+    private final Map<String, List<String>> headers =
+            new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+
+    @SuppressWarnings("CloneDoesntCallSuperClone")
+    @Override
+    public HttpClient clone() {
+        return new SocketHttpClient();
+    }
+
+    @Override
+    public void connect(DownloadRequest request) throws IOException {
+        final URL url = new URL(request.getUrl());
+        socket = new Socket();
+        if (aborted) {
+            socket.close();
+            throw new IOException("Aborted");
+        }
+        socket.connect(new InetSocketAddress(url.getHost(), url.getPort()), request.getConnectTimeout());
+        socket.setSoTimeout(request.getReadTimeout());
+        final OutputStream out = socket.getOutputStream();
+        out.write(String.format(Locale.ENGLISH, "GET %s HTTP/1.1\r\nHost: %s\r\nRange: bytes=%d-\r\n\r\n",
+                url.getFile(), url.getAuthority(), request.getDownloadedBytes()).getBytes("ISO-8859-1"));
+        out.flush();
+        inputStream = new BufferedInputStream(socket.getInputStream());
+        final String statusLine = readLine();
+        responseCode = Integer.parseInt(statusLine.split(" ")[1]);
+        String line;
+        while (!(line = readLine()).isEmpty()) {
+            final int colon = line.indexOf(':');
+            final String name = line.substring(0, colon).trim();
+            if (!headers.containsKey(name)) {
+                headers.put(name, new ArrayList<String>());
+            }
+            headers.get(name).add(line.substring(colon + 1).trim());
+        }
+    }
+
+    @Override
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return inputStream;
+    }
+
+    @Override
+    public long getContentLength() {
+        try {
+            return Long.parseLong(getResponseHeader("Content-Length"));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public String getResponseHeader(String name) {
+        final List<String> values = headers.get(name);
+        return values != null ? values.get(0) : null;
+    }
+
+    @Override
+    public void close() {
+        closeSocket();
+    }
+
+    @Override
+    public void abort() {
+        aborted = true;
+        closeSocket();
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        return Collections.unmodifiableMap(headers);
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return inputStream;
+    }
+
+    private void closeSocket() {
+        final Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException ignore) {
+                // already closed
+            }
+        }
+    }
+
+    private String readLine() throws IOException {
+        final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = inputStream.read()) != '\n') {
+            if (b == -1) {
+                throw new IOException("Unexpected end of the response head");
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return line.toString("ISO-8859-1");
+    }
+
+}
@@ -0,0 +1,211 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.cache;
+
+import com.downloader.Constants;
+import com.downloader.httpclient.HttpClient;
+import com.downloader.request.DownloadRequest;
+import com.downloader.request.DownloadRequestBuilder;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CachePolicyTest {
+
+    private static final long NOW = 1000000L;
+
+    @Test
+    public void parsesDirectives() {
+        final Map<String, String> directives = CachePolicy.parseCacheControl(
+                "Public, MAX-AGE=60 , no-cache=\"Set-Cookie, X-Token\", private=\"\", must-revalidate");
+        assertEquals(5, directives.size());
+        assertEquals("", directives.get("public"));
+        assertEquals("60", directives.get("max-age"));
+        assertEquals("Set-Cookie, X-Token", directives.get("no-cache"));
+        assertEquals("", directives.get("private"));
+        assertEquals("", directives.get("must-revalidate"));
+    }
+
+    @Test
+    public void firstOfDuplicatesWins() {
+        assertEquals("10", CachePolicy.parseCacheControl("max-age=10, max-age=20").get("max-age"));
+    }
+
+    @Test
+    public void unquotesEscapedCharacters() {
+        assertEquals("a\"b", CachePolicy.parseCacheControl("ext=\"a\\\"b\"").get("ext"));
+    }
+
+    @Test
+    public void emptyOrMissingHeaderHasNoDirectives() {
+        assertTrue(CachePolicy.parseCacheControl(null).isEmpty());
+        assertTrue(CachePolicy.parseCacheControl("").isEmpty());
+        assertTrue(CachePolicy.parseCacheControl(" , ,").isEmpty());
+    }
+
+    @Test
+    public void maxAgeSetsExpiry() {
+        assertEquals(NOW + 60000L, apply("max-age=60").getExpiresAt());
+    }
+
+    @Test
+    public void quotedMaxAgeSetsExpiry() {
+        assertEquals(NOW + 60000L, apply("max-age=\"60\"").getExpiresAt());
+    }
+
+    @Test
+    public void sharedMaxAgeTakesPrecedence() {
+        assertEquals(NOW + 10000L, apply("max-age=60, s-maxage=10").getExpiresAt());
+        assertEquals(NOW + 10000L, apply("s-maxage=10").getExpiresAt());
+    }
+
+    @Test
+    public void invalidMaxAgeIsStale() {
+        assertEquals(0, apply("max-age=abc").getExpiresAt());
+        assertEquals(0, apply("max-age=-5").getExpiresAt());
+        assertEquals(0, apply("max-age=").getExpiresAt());
+    }
+
+    @Test
+    public void hugeMaxAgeIsCapped() {
+        assertEquals(NOW + 2147483648000L, apply("max-age=99999999999999999999").getExpiresAt());
+    }
+
+    @Test
+    public void expiresIsUsedWithoutMaxAge() {
+        final HeadersHttpClient httpClient = new HeadersHttpClient();
+        httpClient.headers.put(Constants.EXPIRES, "Thu, 01 Jan 1970 00:16:40 GMT");
+        final CacheEntry entry = newEntry();
+        CachePolicy.apply(entry, httpClient, NOW);
+        assertEquals(NOW, entry.getExpiresAt());
+    }
+
+    @Test
+    public void noCacheMatchesTheDirectiveOnly() {
+        assertTrue(apply("no-cache").isNoCache());
+        assertTrue(apply("NO-CACHE=\"Set-Cookie\"").isNoCache());
+        assertFalse(apply("ext=\"no-cache\", max-age=60").isNoCache());
+        assertFalse(apply("max-age=60").isNoCache());
+    }
+
+    @Test
+    public void noStoreIsNotCacheable() {
+        final DownloadRequest request = newRequest(null);
+        assertFalse(CachePolicy.isCacheable(request, withCacheControl("no-store, max-age=60")));
+        assertTrue(CachePolicy.isCacheable(request, withCacheControl("ext=\"no-store\", max-age=60")));
+        assertTrue(CachePolicy.isCacheable(request, withCacheControl("max-age=\"60\"")));
+        assertFalse(CachePolicy.isCacheable(request, withCacheControl("max-age=0")));
+    }
+
+    @Test
+    public void privateIsNotCacheable() {
+        final DownloadRequest request = newRequest(null);
+        assertFalse(CachePolicy.isCacheable(request, withCacheControl("private, max-age=60")));
+        assertFalse(CachePolicy.isCacheable(request, withCacheControl("max-age=60, Private=\"Set-Cookie\"")));
+    }
+
+    @Test
+    public void authorizedResponseNeedsExplicitSharing() {
+        final DownloadRequest request = newRequest("Bearer token");
+        assertFalse(CachePolicy.isCacheable(request, withCacheControl("max-age=60")));
+        assertTrue(CachePolicy.isCacheable(request, withCacheControl("public, max-age=60")));
+        assertTrue(CachePolicy.isCacheable(request, withCacheControl("s-maxage=60")));
+        assertTrue(CachePolicy.isCacheable(request, withCacheControl("must-revalidate, max-age=60")));
+    }
+
+    @Test
+    public void varyOnEverythingIsNotCacheable() {
+        final HeadersHttpClient httpClient = new HeadersHttpClient();
+        httpClient.headers.put(Constants.CACHE_CONTROL, "max-age=60");
+        httpClient.headers.put(Constants.VARY, "Accept-Encoding, *");
+        assertFalse(CachePolicy.isCacheable(newRequest(null), httpClient));
+        httpClient.headers.put(Constants.VARY, "Accept-Encoding");
+        assertTrue(CachePolicy.isCacheable(newRequest(null), httpClient));
+    }
+
+    @Test
+    public void varyNamesAreNormalized() {
+        assertEquals(0, CachePolicy.parseVary(null).length);
+        assertNull(CachePolicy.parseVary("*"));
+        assertArrayEquals(new String[]{"accept-language", "user-agent"},
+                CachePolicy.parseVary(" User-Agent ,accept-language, USER-AGENT,"));
+    }
+
+    @Test
+    public void varyValuesComeFromTheRequest() {
+        final DownloadRequest request = new DownloadRequestBuilder("http://example.com/file",
+                new DownloadRequest.DownloadDetails("/tmp", "file", "text/plain"))
+                .setHeader("Accept-Language", "en")
+                .setHeader("accept-language", "de")
+                .setUserAgent("agent")
+                .build();
+        final String values = CachePolicy.getVaryValues(request,
+                new String[]{"accept-language", "cookie", "user-agent"});
+        assertTrue(values, values.startsWith("accept-language:"));
+        assertTrue(values, values.contains("en") && values.contains("de"));
+        assertTrue(values, values.contains("cookie:\n"));
+        assertTrue(values, values.endsWith("user-agent:agent\n"));
+    }
+
+    @Test
+    public void validatorsAreKeptWhenMissing() {
+        final HeadersHttpClient httpClient = new HeadersHttpClient();
+        httpClient.headers.put(Constants.ETAG, "\"v1\"");
+        final CacheEntry entry = newEntry();
+        CachePolicy.apply(entry, httpClient, NOW);
+        CachePolicy.apply(entry, withCacheControl("max-age=60"), NOW);
+        assertEquals("\"v1\"", entry.getETag());
+        assertNull(entry.getLastModified());
+        assertTrue(entry.hasValidators());
+    }
+
+    private static CacheEntry apply(String cacheControl) {
+        final CacheEntry entry = newEntry();
+        CachePolicy.apply(entry, withCacheControl(cacheControl), NOW);
+        return entry;
+    }
+
+    private static DownloadRequest newRequest(String authorization) {
+        final DownloadRequestBuilder builder = new DownloadRequestBuilder("http://example.com/file",
+                new DownloadRequest.DownloadDetails("/tmp", "file", "text/plain"))
+                .setUserAgent("agent");
+        if (authorization != null) {
+            builder.setHeader(Constants.AUTHORIZATION, authorization);
+        }
+        return builder.build();
+    }
+
+    private static CacheEntry newEntry() {
+        return new CacheEntry("key", "http://example.com/file", new File("file"));
+    }
+
+    private static HttpClient withCacheControl(String cacheControl) {
+        final HeadersHttpClient httpClient = new HeadersHttpClient();
+        httpClient.headers.put(Constants.CACHE_CONTROL, cacheControl);
+        return httpClient;
+    }
+
+}
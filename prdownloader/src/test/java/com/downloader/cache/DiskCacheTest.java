@@ -0,0 +1,184 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.cache;
+
+import com.downloader.Constants;
+import com.downloader.TestFiles;
+import com.downloader.request.DownloadRequest;
+import com.downloader.request.DownloadRequestBuilder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DiskCacheTest {
+
+    private static final String URL = "http://example.com/file";
+    private static final int MAX_SIZE = 16;
+
+    private File dir;
+    private DiskCache diskCache;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("prdownloader").toFile();
+        diskCache = new DiskCache(dir, MAX_SIZE);
+    }
+
+    @After
+    public void tearDown() {
+        TestFiles.delete(dir);
+    }
+
+    @Test
+    public void varyingResponsesAreStoredPerHeaderValues() throws IOException {
+        store(URL, newRequest("en"), "Accept-Language", "english");
+        store(URL, newRequest("de"), "Accept-Language", "german");
+
+        assertEquals("english", read(diskCache.get(URL, newRequest("en"))));
+        assertEquals("german", read(diskCache.get(URL, newRequest("de"))));
+        assertNull(diskCache.get(URL, newRequest("fr")));
+        assertNull(diskCache.get(URL, newRequest(null)));
+
+        // the names come back with the entries after a restart
+        final DiskCache restarted = new DiskCache(dir, MAX_SIZE);
+        final CacheEntry entry = restarted.get(URL, newRequest("en"));
+        assertNotNull(entry);
+        assertEquals("english", readFully(restarted.openStream(entry)));
+        assertNull(restarted.get(URL, newRequest("fr")));
+    }
+
+    @Test
+    public void responseWithoutVaryIsSharedByAllRequests() throws IOException {
+        store(URL, newRequest("en"), null, "body");
+        assertEquals("body", read(diskCache.get(URL, newRequest("de"))));
+    }
+
+    @Test
+    public void removedEntryStaysReadableUntilClosed() throws IOException {
+        store(URL, newRequest(null), null, "first");
+        final CacheEntry entry = diskCache.get(URL, newRequest(null));
+        final InputStream inputStream = diskCache.openStream(entry);
+        assertNotNull(inputStream);
+
+        // replaced by a new body while the old one is read
+        store(URL, newRequest(null), null, "second");
+        assertNull(diskCache.openStream(entry));
+        final File movedFile = entry.getDataFile();
+        assertTrue(movedFile.exists());
+        assertEquals("first", readFully(inputStream));
+        assertFalse(movedFile.exists());
+
+        final CacheEntry newEntry = diskCache.get(URL, newRequest(null));
+        assertNotSame(entry, newEntry);
+        assertEquals("second", read(newEntry));
+    }
+
+    @Test
+    public void trimmedEntryStaysReadableUntilClosed() throws IOException {
+        store(URL, newRequest(null), null, "first");
+        final CacheEntry entry = diskCache.get(URL, newRequest(null));
+        final InputStream inputStream = diskCache.openStream(entry);
+
+        // evicts the first one, which is the least recently used
+        store("http://example.com/other", newRequest(null), null, "a longer body");
+        assertNull(diskCache.get(URL, newRequest(null)));
+        assertEquals("first", readFully(inputStream));
+        assertFalse(entry.getDataFile().exists());
+    }
+
+    @Test
+    public void unreadEntryIsDeletedAtOnce() throws IOException {
+        store(URL, newRequest(null), null, "first");
+        final CacheEntry entry = diskCache.get(URL, newRequest(null));
+        final File dataFile = entry.getDataFile();
+        diskCache.remove(entry);
+        assertFalse(dataFile.exists());
+        assertNull(diskCache.openStream(entry));
+    }
+
+    @Test
+    public void removeKeepsNewerEntry() throws IOException {
+        store(URL, newRequest(null), null, "first");
+        final CacheEntry entry = diskCache.get(URL, newRequest(null));
+        store(URL, newRequest(null), null, "second");
+        diskCache.remove(entry);
+        final CacheEntry newEntry = diskCache.get(URL, newRequest(null));
+        assertNotNull(newEntry);
+        assertSame(newEntry, diskCache.get(URL, newRequest(null)));
+        assertEquals("second", read(newEntry));
+    }
+
+    private void store(String url, DownloadRequest request, String vary, String body) throws IOException {
+        final HeadersHttpClient httpClient = new HeadersHttpClient();
+        httpClient.headers.put(Constants.CACHE_CONTROL, "max-age=60");
+        if (vary != null) {
+            httpClient.headers.put(Constants.VARY, vary);
+        }
+        final DiskCache.Editor editor = diskCache.edit(url, request, httpClient);
+        assertNotNull(editor);
+        final byte[] bytes = body.getBytes("UTF-8");
+        editor.write(bytes, 0, bytes.length);
+        editor.commit(httpClient);
+    }
+
+    private String read(CacheEntry entry) throws IOException {
+        assertNotNull(entry);
+        final InputStream inputStream = diskCache.openStream(entry);
+        assertNotNull(inputStream);
+        return readFully(inputStream);
+    }
+
+    private static String readFully(InputStream inputStream) throws IOException {
+        try {
+            final byte[] buffer = new byte[MAX_SIZE];
+            int length = 0;
+            int count;
+            while ((count = inputStream.read(buffer, length, buffer.length - length)) > 0) {
+                length += count;
+            }
+            return new String(buffer, 0, length, "UTF-8");
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static DownloadRequest newRequest(String language) {
+        final DownloadRequestBuilder builder = new DownloadRequestBuilder(URL,
+                new DownloadRequest.DownloadDetails("/tmp", "file", "text/plain"))
+                .setUserAgent("agent");
+        if (language != null) {
+            builder.setHeader("Accept-Language", language);
+        }
+        return builder.build();
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.cache;
+
+import com.downloader.httpclient.HttpClient;
+import com.downloader.request.DownloadRequest;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Http client which only answers the response headers set by the test.
+ */
+class HeadersHttpClient implements HttpClient {
+
+    final Map<String, String> headers = new HashMap<>();
+
+    @Override
+    public HttpClient clone() {
+        return this;
+    }
+
+    @Override
+    public void connect(DownloadRequest request) {
+    }
+
+    @Override
+    public int getResponseCode() {
+        return 200;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return null;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public String getResponseHeader(String name) {
+        return headers.get(name);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+        return null;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return null;
+    }
+
+}
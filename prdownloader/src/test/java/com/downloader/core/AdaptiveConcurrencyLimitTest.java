@@ -0,0 +1,144 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.core;
+
+import org.junit.Test;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveConcurrencyLimitTest {
+
+    private static final long SAMPLE_WINDOW_IN_MILLS = 50;
+
+    private final ManualClock clock = new ManualClock();
+    private final ManualScheduler scheduler = new ManualScheduler();
+
+    @Test
+    public void stalledWindowIsSampledByTheTimer() {
+        final AdaptiveConcurrencyLimit concurrencyLimit = newConcurrencyLimit(4);
+        final FullListener listener = new FullListener(concurrencyLimit);
+        concurrencyLimit.setOnLimitChangedListener(listener);
+        concurrencyLimit.startSampling(scheduler);
+
+        concurrencyLimit.onBytesTransferred(1024 * 1024);
+        // the window with bytes grows the fully used limit
+        clock.advance(SAMPLE_WINDOW_IN_MILLS);
+        scheduler.tick();
+        assertTrue(concurrencyLimit.getThroughput() > 0);
+        assertEquals(5, concurrencyLimit.getLimit());
+
+        // nothing reports anymore, the timer still closes the next window and the
+        // increase which did not pay off is taken back
+        clock.advance(SAMPLE_WINDOW_IN_MILLS);
+        scheduler.tick();
+        assertEquals(0, concurrencyLimit.getThroughput());
+        assertEquals(4, concurrencyLimit.getLimit());
+    }
+
+    @Test
+    public void windowIsNotClosedEarly() {
+        final AdaptiveConcurrencyLimit concurrencyLimit = newConcurrencyLimit(4);
+        concurrencyLimit.setOnLimitChangedListener(new FullListener(concurrencyLimit));
+        concurrencyLimit.startSampling(scheduler);
+
+        clock.advance(SAMPLE_WINDOW_IN_MILLS - 1);
+        concurrencyLimit.onBytesTransferred(1024 * 1024);
+        scheduler.tick();
+        assertEquals(0, concurrencyLimit.getThroughput());
+        assertEquals(4, concurrencyLimit.getLimit());
+
+        // the next report past the window closes it
+        clock.advance(1);
+        concurrencyLimit.onBytesTransferred(1024 * 1024);
+        assertEquals(2 * 1024 * 1024 * 1000 / SAMPLE_WINDOW_IN_MILLS, concurrencyLimit.getThroughput());
+        assertEquals(5, concurrencyLimit.getLimit());
+    }
+
+    @Test
+    public void limitStaysWithoutListener() {
+        final AdaptiveConcurrencyLimit concurrencyLimit = newConcurrencyLimit(4);
+        concurrencyLimit.startSampling(scheduler);
+        concurrencyLimit.onBytesTransferred(1024 * 1024);
+        clock.advance(SAMPLE_WINDOW_IN_MILLS);
+        scheduler.tick();
+        assertTrue(concurrencyLimit.getThroughput() > 0);
+        assertEquals(4, concurrencyLimit.getLimit());
+    }
+
+    @Test
+    public void errorsCutTheLimit() {
+        final AdaptiveConcurrencyLimit concurrencyLimit = newConcurrencyLimit(8);
+        concurrencyLimit.setOnLimitChangedListener(new FullListener(concurrencyLimit));
+        concurrencyLimit.onError();
+        concurrencyLimit.startSampling(scheduler);
+        clock.advance(SAMPLE_WINDOW_IN_MILLS);
+        scheduler.tick();
+        assertEquals(6, concurrencyLimit.getLimit());
+    }
+
+    private AdaptiveConcurrencyLimit newConcurrencyLimit(int initialLimit) {
+        return new AdaptiveConcurrencyLimit(initialLimit, 1, 8, true, SAMPLE_WINDOW_IN_MILLS, clock);
+    }
+
+    /**
+     * Keeps the sampling task instead of scheduling it, the test runs it with {@link #tick()}.
+     */
+    private static class ManualScheduler extends ScheduledThreadPoolExecutor {
+
+        private Runnable task;
+
+        ManualScheduler() {
+            super(0);
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay,
+                                                         TimeUnit unit) {
+            task = command;
+            return null;
+        }
+
+        void tick() {
+            task.run();
+        }
+    }
+
+    private static class FullListener implements AdaptiveConcurrencyLimit.OnLimitChangedListener {
+
+        private final AdaptiveConcurrencyLimit concurrencyLimit;
+
+        FullListener(AdaptiveConcurrencyLimit concurrencyLimit) {
+            this.concurrencyLimit = concurrencyLimit;
+        }
+
+        @Override
+        public void onLimitChanged(int limit) {
+        }
+
+        @Override
+        public int getInFlightCount() {
+            return concurrencyLimit.getLimit();
+        }
+    }
+
+}
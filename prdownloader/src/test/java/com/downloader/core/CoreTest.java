@@ -0,0 +1,89 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader.core;
+
+import android.content.Context;
+import android.test.mock.MockContext;
+
+import com.downloader.PRDownloader;
+import com.downloader.PRDownloaderConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CoreTest {
+
+    private Context context;
+
+    @Before
+    public void setUp() throws Exception {
+        context = new MockContext();
+        PRDownloader.initialize(context, PRDownloaderConfig.newBuilder().setContext(context).build());
+    }
+
+    @After
+    public void tearDown() {
+        PRDownloader.shutDown(1000);
+    }
+
+    @Test
+    public void lateUsersGetTheStoppedInstance() throws Exception {
+        final Core core = Core.getInstance();
+        assertTrue(PRDownloader.shutDown(1000));
+        assertSame(core, Core.getInstance());
+        assertTrue(core.isShutDown());
+
+        final AtomicBoolean ran = new AtomicBoolean();
+        Core.getInstance().getExecutorSupplier().forBackgroundTasks().execute(new Runnable() {
+            @Override
+            public void run() {
+                ran.set(true);
+            }
+        });
+        // terminated, so no thread is left which could still run it
+        assertTrue(core.getExecutorSupplier().forScheduledTasks().isTerminated());
+        assertFalse(ran.get());
+        // the getters read the stopped executors
+        PRDownloader.getConcurrencyLimit();
+        assertSame(core, Core.getInstance());
+    }
+
+    @Test
+    public void initializeReplacesStoppedInstance() throws Exception {
+        final Core core = Core.getInstance();
+        PRDownloader.shutDown(1000);
+        PRDownloader.initialize(context, PRDownloaderConfig.newBuilder().setContext(context).build());
+        final Core newCore = Core.getInstance();
+        assertNotSame(core, newCore);
+        assertFalse(newCore.isShutDown());
+    }
+
+    @Test
+    public void shutDownTwiceIsHarmless() {
+        assertTrue(Core.shutDown(1000));
+        assertTrue(Core.shutDown(1000));
+    }
+
+}
@@ -0,0 +1,387 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader.core;
+
+import android.content.Context;
+import android.test.mock.MockContext;
+
+import com.downloader.OnDeadlineAtRiskListener;
+import com.downloader.OnStoragePermissionsRequested;
+import com.downloader.PRDownloader;
+import com.downloader.PRDownloaderConfig;
+import com.downloader.Priority;
+import com.downloader.SchedulingMode;
+import com.downloader.internal.DownloadRunnables;
+import com.downloader.request.DownloadRequest;
+
+import org.jdeferred2.impl.DeferredObject;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadQueueTest {
+
+    private static final OnStoragePermissionsRequested NO_STORAGE = new OnStoragePermissionsRequested() {
+        @Override
+        public void OnStoragePermissionRequested(DeferredObject reference, String pathToRoot) {
+        }
+    };
+
+    private final Map<DownloadFutureTask, DownloadRequest> requests = new HashMap<>();
+    private final ManualClock clock = new ManualClock();
+    private int sequence;
+
+    @After
+    public void tearDown() {
+        PRDownloader.shutDown(1000);
+    }
+
+    @Test
+    public void hostLimitOnlyHoldsBackItsOwnHost() throws Exception {
+        initialize(strictPriorities().setMaxConnectionsPerHost(1));
+        final DownloadQueue queue = newQueue();
+        final DownloadFutureTask a1 = newTask("http://a/1", Priority.HIGH);
+        final DownloadFutureTask a2 = newTask("http://a/2", Priority.HIGH);
+        final DownloadFutureTask b1 = newTask("http://b/1", Priority.LOW);
+        queue.offer(a1);
+        queue.offer(a2);
+        queue.offer(b1);
+
+        assertSame(a1, queue.poll());
+        assertFalse(queue.hasCapacity("a"));
+        assertSame(b1, queue.poll());
+        assertNull(queue.poll());
+        assertEquals(1, queue.size());
+
+        queue.release("a");
+        assertSame(a2, queue.poll());
+    }
+
+    @Test
+    public void takesHigherPrioritiesFirstAcrossHosts() throws Exception {
+        initialize(strictPriorities());
+        final DownloadQueue queue = newQueue();
+        final DownloadFutureTask low = newTask("http://a/1", Priority.LOW);
+        final DownloadFutureTask high = newTask("http://b/1", Priority.HIGH);
+        final DownloadFutureTask medium = newTask("http://c/1", Priority.MEDIUM);
+        final DownloadFutureTask laterHigh = newTask("http://d/1", Priority.HIGH);
+        queue.offer(low);
+        queue.offer(high);
+        queue.offer(medium);
+        queue.offer(laterHigh);
+
+        assertSame(high, queue.peek());
+        assertSame(high, queue.poll());
+        assertSame(laterHigh, queue.poll());
+        assertSame(medium, queue.poll());
+        assertSame(low, queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void waitingTasksAge() throws Exception {
+        initialize(PRDownloaderConfig.newBuilder().setPriorityAgingInterval(50).setStarvationBound(0));
+        final DownloadQueue queue = newQueue();
+        final DownloadFutureTask low = newTask("http://a/1", Priority.LOW);
+        queue.offer(low);
+        // waited more than the two levels between low and high
+        clock.advance(101);
+        final DownloadFutureTask high = newTask("http://b/1", Priority.HIGH);
+        queue.offer(high);
+
+        assertSame(low, queue.poll());
+        assertSame(high, queue.poll());
+    }
+
+    @Test
+    public void shortWaitDoesNotAge() throws Exception {
+        initialize(PRDownloaderConfig.newBuilder().setPriorityAgingInterval(50).setStarvationBound(0));
+        final DownloadQueue queue = newQueue();
+        final DownloadFutureTask low = newTask("http://a/1", Priority.LOW);
+        queue.offer(low);
+        // one millisecond short of the two levels
+        clock.advance(99);
+        final DownloadFutureTask high = newTask("http://b/1", Priority.HIGH);
+        queue.offer(high);
+
+        assertSame(high, queue.poll());
+        assertSame(low, queue.poll());
+    }
+
+    @Test
+    public void starvedTaskIsTakenFirst() throws Exception {
+        initialize(PRDownloaderConfig.newBuilder().setPriorityAgingInterval(0).setStarvationBound(50));
+        final DownloadQueue queue = newQueue();
+        final DownloadFutureTask low = newTask("http://a/1", Priority.LOW);
+        queue.offer(low);
+        clock.advance(50);
+        final DownloadFutureTask immediate = newTask("http://b/1", Priority.IMMEDIATE);
+        queue.offer(immediate);
+
+        assertSame(low, queue.poll());
+        assertSame(immediate, queue.poll());
+    }
+
+    @Test
+    public void starvedTaskStillRespectsHostLimit() throws Exception {
+        initialize(PRDownloaderConfig.newBuilder().setPriorityAgingInterval(0).setStarvationBound(50)
+                .setMaxConnectionsPerHost(1));
+        final DownloadQueue queue = newQueue();
+        final DownloadFutureTask running = newTask("http://a/1", Priority.HIGH);
+        queue.offer(running);
+        assertSame(running, queue.poll());
+        final DownloadFutureTask low = newTask("http://a/2", Priority.LOW);
+        queue.offer(low);
+        clock.advance(50);
+        final DownloadFutureTask other = newTask("http://b/1", Priority.LOW);
+        queue.offer(other);
+
+        assertSame(other, queue.poll());
+        queue.release("a");
+        assertSame(low, queue.poll());
+    }
+
+    @Test
+    public void reprioritizeLeavesNoDuplicate() throws Exception {
+        initialize(strictPriorities());
+        final DownloadQueue queue = newQueue();
+        final DownloadFutureTask first = newTask("http://a/1", Priority.LOW);
+        final DownloadFutureTask second = newTask("http://a/2", Priority.MEDIUM);
+        queue.offer(first);
+        queue.offer(second);
+
+        requests.get(first).setPriority(Priority.HIGH);
+        assertTrue(queue.reprioritize(first));
+        assertEquals(2, queue.size());
+        assertSame(first, queue.poll());
+        assertSame(second, queue.poll());
+        assertNull(queue.poll());
+        assertFalse(queue.reprioritize(first));
+    }
+
+    @Test
+    public void removedTaskIsNotTaken() throws Exception {
+        initialize(strictPriorities());
+        final DownloadQueue queue = newQueue();
+        final DownloadFutureTask removed = newTask("http://a/1", Priority.HIGH);
+        final DownloadFutureTask kept = newTask("http://a/2", Priority.LOW);
+        queue.offer(removed);
+        queue.offer(kept);
+
+        assertTrue(queue.remove(removed));
+        assertFalse(queue.remove(removed));
+        assertSame(kept, queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void drainsInArrivalOrder() throws Exception {
+        initialize(strictPriorities());
+        final DownloadQueue queue = newQueue();
+        final List<DownloadFutureTask> tasks = new ArrayList<>();
+        for (Priority priority : new Priority[]{Priority.LOW, Priority.HIGH, Priority.MEDIUM}) {
+            final DownloadFutureTask task = newTask("http://a/" + priority, priority);
+            tasks.add(task);
+            queue.offer(task);
+        }
+        final List<Runnable> drained = new ArrayList<>();
+        assertEquals(3, queue.drainTo(drained));
+        assertEquals(new ArrayList<Runnable>(tasks), drained);
+        assertEquals(0, queue.size());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void feasibleDeadlinesGoFirstAndMissedOnesLast() throws Exception {
+        initialize(strictPriorities().setSchedulingMode(SchedulingMode.DEADLINE));
+        final DownloadQueue queue = newQueue();
+        final long now = clock.currentTimeMillis();
+        final DownloadFutureTask immediate = newTask("http://a/1", Priority.IMMEDIATE);
+        final DownloadFutureTask missed = newTask(newRequest("http://b/1", Priority.IMMEDIATE, now - 1));
+        final DownloadFutureTask later = newTask(newRequest("http://c/1", Priority.LOW, now + 2000));
+        final DownloadFutureTask sooner = newTask(newRequest("http://d/1", Priority.LOW, now + 1000));
+        queue.offer(immediate);
+        queue.offer(missed);
+        queue.offer(later);
+        queue.offer(sooner);
+
+        assertSame(sooner, queue.poll());
+        assertSame(later, queue.poll());
+        assertSame(immediate, queue.poll());
+        assertSame(missed, queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void deadlineAtRiskIsDeliveredOnceOutsideTheLock() throws Exception {
+        initialize(strictPriorities().setSchedulingMode(SchedulingMode.DEADLINE)
+                .setCallbackExecutor(new DirectExecutor()));
+        final DownloadQueue queue = newQueue();
+        final DownloadRequest request = newRequest("http://a/1", Priority.HIGH, clock.currentTimeMillis() - 1);
+        final DownloadFutureTask task = newTask(request);
+        final List<DownloadRequest> delivered = new ArrayList<>();
+        final AtomicBoolean lockFree = new AtomicBoolean();
+        request.setOnDeadlineAtRiskListener(new OnDeadlineAtRiskListener() {
+            @Override
+            public void onDeadlineAtRisk(DownloadRequest request, long estimatedCompletionTime) {
+                delivered.add(request);
+                lockFree.set(isLockFree(queue));
+            }
+        });
+        queue.offer(task);
+        assertEquals(1, delivered.size());
+        assertSame(request, delivered.get(0));
+        assertTrue(lockFree.get());
+
+        // re-queued, it is still at risk but not reported again
+        assertTrue(queue.reprioritize(task));
+        assertEquals(1, delivered.size());
+    }
+
+    /**
+     * Runs random operations on many hosts and checks every poll against a scan of all
+     * the queued tasks.
+     */
+    @Test
+    public void pollsMatchFullScan() throws Exception {
+        final int maxConnectionsPerHost = 2;
+        initialize(strictPriorities().setMaxConnectionsPerHost(maxConnectionsPerHost));
+        final DownloadQueue queue = newQueue();
+        final Random random = new Random(42);
+        final List<DownloadFutureTask> queued = new ArrayList<>();
+        final Map<String, Integer> running = new HashMap<>();
+        final List<DownloadFutureTask> runningTasks = new ArrayList<>();
+        final Priority[] priorities = Priority.values();
+        for (int i = 0; i < 5000; i++) {
+            final int operation = random.nextInt(10);
+            if (operation < 4) {
+                final DownloadFutureTask task = newTask("http://host" + random.nextInt(20) + "/" + i,
+                        priorities[random.nextInt(priorities.length)]);
+                queue.offer(task);
+                queued.add(task);
+            } else if (operation < 7) {
+                final DownloadFutureTask expected = findBest(queued, running, maxConnectionsPerHost);
+                assertSame(expected, queue.poll());
+                if (expected != null) {
+                    queued.remove(expected);
+                    runningTasks.add(expected);
+                    increment(running, expected.host, 1);
+                }
+            } else if (operation < 8 && !runningTasks.isEmpty()) {
+                final DownloadFutureTask finished = runningTasks.remove(random.nextInt(runningTasks.size()));
+                queue.release(finished.host);
+                increment(running, finished.host, -1);
+            } else if (operation < 9 && !queued.isEmpty()) {
+                final DownloadFutureTask task = queued.get(random.nextInt(queued.size()));
+                requests.get(task).setPriority(priorities[random.nextInt(priorities.length)]);
+                assertTrue(queue.reprioritize(task));
+            } else if (!queued.isEmpty()) {
+                assertTrue(queue.remove(queued.remove(random.nextInt(queued.size()))));
+            }
+            assertEquals(queued.size(), queue.size());
+        }
+    }
+
+    private static DownloadFutureTask findBest(List<DownloadFutureTask> queued, Map<String, Integer> running,
+                                               int maxConnectionsPerHost) {
+        DownloadFutureTask best = null;
+        for (DownloadFutureTask task : queued) {
+            final Integer count = running.get(task.host);
+            if (count != null && count >= maxConnectionsPerHost) {
+                continue;
+            }
+            if (best == null || task.getPriority().ordinal() > best.getPriority().ordinal()
+                    || (task.getPriority() == best.getPriority() && task.getSequence() < best.getSequence())) {
+                best = task;
+            }
+        }
+        return best;
+    }
+
+    private static void increment(Map<String, Integer> counts, String key, int delta) {
+        final Integer count = counts.get(key);
+        counts.put(key, (count != null ? count : 0) + delta);
+    }
+
+    private static void initialize(PRDownloaderConfig.Builder builder) throws Exception {
+        final Context context = new MockContext();
+        PRDownloader.initialize(context, builder.setContext(context).setStoragePermissionsHandler(NO_STORAGE).build());
+    }
+
+    private static PRDownloaderConfig.Builder strictPriorities() {
+        return PRDownloaderConfig.newBuilder().setPriorityAgingInterval(0).setStarvationBound(0);
+    }
+
+    private DownloadQueue newQueue() {
+        return new DownloadQueue(new AdaptiveConcurrencyLimit(4, 1, 8, false), clock);
+    }
+
+    private DownloadFutureTask newTask(String url, Priority priority) {
+        return newTask(PRDownloader.download(url, "/tmp", "file" + sequence, "text/plain")
+                .setPriority(priority)
+                .build());
+    }
+
+    private DownloadRequest newRequest(String url, Priority priority, long deadline) {
+        return PRDownloader.download(url, "/tmp", "file" + sequence, "text/plain")
+                .setPriority(priority)
+                .setDeadline(deadline)
+                .build();
+    }
+
+    /**
+     * Reads the size from another thread, which blocks if the calling thread holds the lock.
+     */
+    private static boolean isLockFree(final DownloadQueue queue) {
+        final FutureTask<Integer> size = new FutureTask<>(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return queue.size();
+            }
+        });
+        new Thread(size).start();
+        try {
+            size.get(1000, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private DownloadFutureTask newTask(DownloadRequest request) {
+        request.setSequenceNumber(sequence++);
+        final DownloadFutureTask task = new DownloadFutureTask(DownloadRunnables.create(request));
+        requests.put(task, request);
+        return task;
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class WaitTimeHistogramTest {
+
+    @Test
+    public void recordsIntoPowerOfTwoBuckets() {
+        final WaitTimeHistogram histogram = new WaitTimeHistogram();
+        histogram.record(-5);
+        histogram.record(0);
+        histogram.record(1);
+        histogram.record(2);
+        histogram.record(3);
+        histogram.record(1023);
+        histogram.record(1024);
+
+        assertEquals(2, histogram.getCount(0));
+        assertEquals(1, histogram.getCount(1));
+        assertEquals(2, histogram.getCount(2));
+        assertEquals(1, histogram.getCount(10));
+        assertEquals(1, histogram.getCount(11));
+        assertEquals(7, histogram.getTotalCount());
+    }
+
+    @Test
+    public void lastBucketTakesEverythingLonger() {
+        final WaitTimeHistogram histogram = new WaitTimeHistogram();
+        final int last = histogram.getBucketCount() - 1;
+        histogram.record(1L << last);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(2, histogram.getCount(last));
+        assertEquals(Long.MAX_VALUE, histogram.getBucketUpperBound(last));
+        assertEquals(1L << (last - 1), histogram.getBucketUpperBound(last - 1));
+    }
+
+    @Test
+    public void percentilesReturnBucketUpperBounds() {
+        final WaitTimeHistogram histogram = new WaitTimeHistogram();
+        assertEquals(0, histogram.getPercentile(50));
+        for (int i = 0; i < 90; i++) {
+            histogram.record(1);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(1000);
+        }
+
+        assertEquals(2, histogram.getPercentile(50));
+        assertEquals(2, histogram.getPercentile(90));
+        assertEquals(1024, histogram.getPercentile(91));
+        assertEquals(1024, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void recordsConcurrently() throws InterruptedException {
+        final WaitTimeHistogram histogram = new WaitTimeHistogram();
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        histogram.record(j);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, histogram.getTotalCount());
+    }
+
+}
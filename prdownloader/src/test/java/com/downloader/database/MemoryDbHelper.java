@@ -0,0 +1,180 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Database kept in memory, which records the progress writes so that the tests can check
+ * what was stored and in how many transactions.
+ */
+public class MemoryDbHelper implements DbHelper {
+
+    private final Map<Integer, DownloadModel> models = new LinkedHashMap<>();
+    private final Map<Integer, RequestModel> requests = new LinkedHashMap<>();
+    private final List<Map<Integer, Long>> progressWrites = new ArrayList<>();
+
+    @Override
+    public synchronized DownloadModel find(int id) {
+        return models.get(id);
+    }
+
+    @Override
+    public synchronized List<DownloadModel> findAll(int[] ids) {
+        final List<DownloadModel> found = new ArrayList<>();
+        for (int id : ids) {
+            final DownloadModel model = models.get(id);
+            if (model != null) {
+                found.add(model);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public synchronized void insert(DownloadModel model) {
+        models.put(model.getId(), model);
+    }
+
+    @Override
+    public synchronized void update(DownloadModel model) {
+        models.put(model.getId(), model);
+    }
+
+    @Override
+    public void updateProgress(int id, long downloadedBytes, long lastModifiedAt) {
+        updateProgress(new int[]{id}, new long[]{downloadedBytes}, lastModifiedAt);
+    }
+
+    @Override
+    public synchronized void updateProgress(int[] ids, long[] downloadedBytes, long lastModifiedAt) {
+        final Map<Integer, Long> write = new LinkedHashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            write.put(ids[i], downloadedBytes[i]);
+            final DownloadModel model = models.get(ids[i]);
+            if (model != null) {
+                model.setDownloadedBytes(downloadedBytes[i]);
+                model.setLastModifiedAt(lastModifiedAt);
+            }
+        }
+        progressWrites.add(write);
+    }
+
+    @Override
+    public synchronized void remove(int id) {
+        models.remove(id);
+    }
+
+    @Override
+    public synchronized void removeAll(int[] ids) {
+        for (int id : ids) {
+            models.remove(id);
+        }
+    }
+
+    @Override
+    public List<DownloadModel> getUnwantedModels(int days) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public synchronized void clear() {
+        models.clear();
+    }
+
+    @Override
+    public synchronized void insertRequest(RequestModel model) {
+        requests.remove(model.getId());
+        requests.put(model.getId(), model);
+    }
+
+    @Override
+    public synchronized List<RequestModel> getRequests(String status, int limit) {
+        final List<RequestModel> found = getRequestKeys(status);
+        // the highest priority first, then the oldest first, like the SQL query
+        Collections.sort(found, new Comparator<RequestModel>() {
+            @Override
+            public int compare(RequestModel first, RequestModel second) {
+                if (first.getPriority() != second.getPriority()) {
+                    return second.getPriority() - first.getPriority();
+                }
+                return Long.compare(first.getCreatedAt(), second.getCreatedAt());
+            }
+        });
+        return found.size() > limit ? found.subList(0, limit) : found;
+    }
+
+    @Override
+    public synchronized List<RequestModel> getRequestKeys(String status) {
+        final List<RequestModel> found = new ArrayList<>();
+        for (RequestModel model : requests.values()) {
+            if (model.getStatus().equals(status)) {
+                found.add(model);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public synchronized void updateRequestStatus(int[] ids, String status) {
+        for (int id : ids) {
+            final RequestModel model = requests.get(id);
+            if (model != null) {
+                model.setStatus(status);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void replaceRequestStatus(String oldStatus, String newStatus) {
+        for (RequestModel model : requests.values()) {
+            if (model.getStatus().equals(oldStatus)) {
+                model.setStatus(newStatus);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void removeRequests(int[] ids) {
+        for (int id : ids) {
+            requests.remove(id);
+        }
+    }
+
+    @Override
+    public synchronized void clearRequests() {
+        requests.clear();
+    }
+
+    /**
+     * Returns the progress writes so far, one map of id to offset per transaction.
+     */
+    public synchronized List<Map<Integer, Long>> getProgressWrites() {
+        return new ArrayList<>(progressWrites);
+    }
+
+    public synchronized RequestModel getRequest(int id) {
+        return requests.get(id);
+    }
+
+}
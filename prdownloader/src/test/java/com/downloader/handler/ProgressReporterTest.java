@@ -0,0 +1,148 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader.handler;
+
+import android.content.Context;
+import android.os.Message;
+import android.test.mock.MockContext;
+
+import com.downloader.Constants;
+import com.downloader.OnProgressBatchListener;
+import com.downloader.OnProgressListener;
+import com.downloader.PRDownloader;
+import com.downloader.PRDownloaderConfig;
+import com.downloader.Progress;
+import com.downloader.core.MainThreadExecutor;
+import com.downloader.request.DownloadRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ProgressReporterTest {
+
+    private final List<Long> deliveredBytes = new ArrayList<>();
+    private DownloadRequest request;
+
+    @Before
+    public void setUp() throws Exception {
+        final Context context = new MockContext();
+        PRDownloader.initialize(context, PRDownloaderConfig.newBuilder().setContext(context).build());
+        // the ticks of the main looper never run on the JVM, like a tick still far away
+        request = PRDownloader.download("http://localhost/file", "/tmp", "file", "application/octet-stream")
+                .setCallbackExecutor(new MainThreadExecutor())
+                .build()
+                .setOnProgressListener(new OnProgressListener() {
+                    @Override
+                    public void onProgress(DownloadRequest request, Progress progress) {
+                        deliveredBytes.add(progress.currentBytes);
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() {
+        PRDownloader.setOnProgressBatchListener(null);
+        PRDownloader.shutDown(1000);
+    }
+
+    @Test
+    public void flushDeliversPendingUpdateBeforeTick() {
+        final ProgressReporter reporter = new ProgressReporter(request);
+        reporter.onProgress(100, 100, true);
+        assertEquals(0, deliveredBytes.size());
+
+        reporter.flush();
+        assertEquals(1, deliveredBytes.size());
+        assertEquals(100, (long) deliveredBytes.get(0));
+
+        tick();
+        assertEquals(1, deliveredBytes.size());
+    }
+
+    @Test
+    public void flushWithoutPendingUpdateDeliversNothing() {
+        final ProgressReporter reporter = new ProgressReporter(request);
+        reporter.flush();
+        assertEquals(0, deliveredBytes.size());
+
+        reporter.onProgress(50, 100, true);
+        tick();
+        reporter.flush();
+        assertEquals(1, deliveredBytes.size());
+        assertEquals(50, (long) deliveredBytes.get(0));
+    }
+
+    @Test
+    public void updatesOfAllRequestsAreCoalescedPerTick() {
+        // deliver what earlier tests left for a tick which never ran
+        tick();
+        final List<List<Long>> batches = new ArrayList<>();
+        PRDownloader.setOnProgressBatchListener(new OnProgressBatchListener() {
+            @Override
+            public void onProgress(List<Progress> progressList) {
+                final List<Long> bytes = new ArrayList<>();
+                for (Progress progress : progressList) {
+                    bytes.add(progress.currentBytes);
+                }
+                batches.add(bytes);
+            }
+        });
+        final ProgressReporter first = new ProgressReporter(request);
+        final ProgressReporter second = new ProgressReporter(newRequest("second"));
+        final ProgressReporter third = new ProgressReporter(newRequest("third"));
+        final long messageCount = ProgressHandler.getInstance().getMessageCount();
+
+        first.onProgress(10, 100, true);
+        second.onProgress(20, 100, true);
+        third.onProgress(30, 100, true);
+        first.onProgress(60, 100, true);
+        assertEquals(messageCount + 1, ProgressHandler.getInstance().getMessageCount());
+
+        tick();
+        assertEquals(1, batches.size());
+        assertEquals(Arrays.asList(60L, 20L, 30L), batches.get(0));
+        // the listener of the request only gets the latest update
+        assertEquals(Collections.singletonList(60L), deliveredBytes);
+
+        second.onProgress(40, 100, true);
+        assertEquals(messageCount + 2, ProgressHandler.getInstance().getMessageCount());
+        tick();
+        assertEquals(2, batches.size());
+        assertEquals(Collections.singletonList(40L), batches.get(1));
+    }
+
+    private static DownloadRequest newRequest(String fileName) {
+        return PRDownloader.download("http://localhost/" + fileName, "/tmp", fileName, "application/octet-stream")
+                .setCallbackExecutor(new MainThreadExecutor())
+                .build();
+    }
+
+    private static void tick() {
+        final Message message = new Message();
+        message.what = Constants.UPDATE;
+        ProgressHandler.getInstance().handleMessage(message);
+    }
+
+}
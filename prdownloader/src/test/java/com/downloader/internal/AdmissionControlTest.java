@@ -0,0 +1,220 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.internal;
+
+import android.content.Context;
+import android.test.mock.MockContext;
+
+import com.downloader.AdmissionPolicy;
+import com.downloader.Error;
+import com.downloader.LocalServer;
+import com.downloader.OnDownloadListener;
+import com.downloader.PRDownloader;
+import com.downloader.PRDownloaderConfig;
+import com.downloader.Priority;
+import com.downloader.Status;
+import com.downloader.TestFiles;
+import com.downloader.core.DirectExecutor;
+import com.downloader.database.MemoryDbHelper;
+import com.downloader.database.RequestModel;
+import com.downloader.request.DownloadRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs one download at a time, stalled, so that the others wait in the queue of capacity
+ * two.
+ */
+public class AdmissionControlTest {
+
+    private static final long WAIT_TIMEOUT_IN_MILLS = 10000;
+    private static final int CAPACITY = 2;
+
+    private File dir;
+    private LocalServer server;
+    private MemoryDbHelper dbHelper;
+    private final List<Error> errors = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("prdownloader").toFile();
+        server = new LocalServer(new LocalServer.Responder() {
+            @Override
+            public void respond(String requestHead, OutputStream out) throws InterruptedException {
+                LocalServer.stall();
+            }
+        });
+        dbHelper = new MemoryDbHelper();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        PRDownloader.shutDown(WAIT_TIMEOUT_IN_MILLS);
+        TestFiles.delete(dir);
+    }
+
+    @Test
+    public void rejectFailsNewRequestOnceFull() throws Exception {
+        initialize(AdmissionPolicy.REJECT);
+        startRunning();
+        final DownloadRequest first = start("first", Priority.MEDIUM);
+        final DownloadRequest second = start("second", Priority.MEDIUM);
+        assertTrue(errors.isEmpty());
+
+        final DownloadRequest rejected = start("rejected", Priority.HIGH);
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0).isQueueFull());
+        assertEquals(Status.UNKNOWN, PRDownloader.getStatus(rejected.getDownloadId()));
+        assertEquals(CAPACITY, DownloadRequestQueue.getInstance().getQueueDepth());
+
+        // a cancel makes room again
+        PRDownloader.cancel(first.getDownloadId());
+        start("admitted", Priority.MEDIUM);
+        assertEquals(1, errors.size());
+        assertEquals(Status.QUEUED, PRDownloader.getStatus(second.getDownloadId()));
+    }
+
+    @Test
+    public void spillStoresLowestPriorityRequest() throws Exception {
+        initialize(AdmissionPolicy.SPILL);
+        startRunning();
+        start("first", Priority.LOW);
+        final DownloadRequest second = start("second", Priority.LOW);
+
+        // the newest of the lowest priority makes room for a higher one
+        final DownloadRequest high = start("high", Priority.HIGH);
+        // and a new one of the lowest priority is spilled itself
+        final DownloadRequest low = start("low", Priority.LOW);
+        assertTrue(TestDatabase.awaitBackgroundThread(WAIT_TIMEOUT_IN_MILLS));
+
+        assertTrue(errors.isEmpty());
+        assertEquals(2, DownloadRequestQueue.getInstance().getSpilledRequestCount());
+        assertEquals(2, DownloadRequestQueue.getInstance().getSpillCount());
+        assertEquals(Status.QUEUED, PRDownloader.getStatus(high.getDownloadId()));
+        assertEquals(Status.QUEUED, PRDownloader.getStatus(second.getDownloadId()));
+        assertEquals(Status.QUEUED, PRDownloader.getStatus(low.getDownloadId()));
+        assertEquals(RequestModel.STATUS_SPILLED, dbHelper.getRequest(second.getDownloadId()).getStatus());
+        assertEquals(RequestModel.STATUS_SPILLED, dbHelper.getRequest(low.getDownloadId()).getStatus());
+        assertNull(dbHelper.getRequest(high.getDownloadId()));
+    }
+
+    @Test
+    public void rehydratesHighestPriorityThenOldest() throws Exception {
+        initialize(AdmissionPolicy.SPILL);
+        startRunning();
+        final DownloadRequest first = start("first", Priority.MEDIUM);
+        final DownloadRequest second = start("second", Priority.MEDIUM);
+        final DownloadRequest oldLow = start("oldLow", Priority.LOW);
+        final DownloadRequest newLow = start("newLow", Priority.LOW);
+        final DownloadRequest medium = start("medium", Priority.MEDIUM);
+        assertTrue(TestDatabase.awaitBackgroundThread(WAIT_TIMEOUT_IN_MILLS));
+        assertEquals(3, DownloadRequestQueue.getInstance().getSpilledRequestCount());
+
+        PRDownloader.cancel(first.getDownloadId());
+        assertTrue(TestDatabase.awaitBackgroundThread(WAIT_TIMEOUT_IN_MILLS));
+        assertNull(dbHelper.getRequest(medium.getDownloadId()));
+        assertNotNull(dbHelper.getRequest(oldLow.getDownloadId()));
+        assertNotNull(dbHelper.getRequest(newLow.getDownloadId()));
+
+        PRDownloader.cancel(second.getDownloadId());
+        assertTrue(TestDatabase.awaitBackgroundThread(WAIT_TIMEOUT_IN_MILLS));
+        assertNull(dbHelper.getRequest(oldLow.getDownloadId()));
+        assertNotNull(dbHelper.getRequest(newLow.getDownloadId()));
+        assertEquals(1, DownloadRequestQueue.getInstance().getSpilledRequestCount());
+        assertEquals(CAPACITY, DownloadRequestQueue.getInstance().getQueueDepth());
+        assertTrue(errors.isEmpty());
+    }
+
+    @Test
+    public void failedSpillWriteFailsRequest() throws Exception {
+        dbHelper = new MemoryDbHelper() {
+            @Override
+            public synchronized void insertRequest(RequestModel model) {
+                throw new IllegalStateException("disk full");
+            }
+        };
+        initialize(AdmissionPolicy.SPILL);
+        startRunning();
+        start("first", Priority.MEDIUM);
+        start("second", Priority.MEDIUM);
+        final DownloadRequest spilled = start("spilled", Priority.LOW);
+        assertTrue(TestDatabase.awaitBackgroundThread(WAIT_TIMEOUT_IN_MILLS));
+
+        assertEquals(1, errors.size());
+        assertTrue(errors.get(0).isQueueFull());
+        assertEquals(0, DownloadRequestQueue.getInstance().getSpilledRequestCount());
+        assertEquals(Status.UNKNOWN, PRDownloader.getStatus(spilled.getDownloadId()));
+    }
+
+    private void initialize(AdmissionPolicy policy) throws Exception {
+        final Context context = new MockContext();
+        TestDatabase.initialize(context, PRDownloaderConfig.newBuilder()
+                .setContext(context)
+                .setConcurrencyBounds(1, 1)
+                .setAdaptiveConcurrencyEnabled(false)
+                .setPreemptionEnabled(false)
+                .setQueueCapacity(CAPACITY)
+                .setAdmissionPolicy(policy)
+                .setCallbackExecutor(new DirectExecutor())
+                .build(), dbHelper);
+    }
+
+    /**
+     * Starts the download taking the only slot, which then stalls.
+     */
+    private void startRunning() throws InterruptedException {
+        start("running", Priority.LOW);
+        assertTrue(server.awaitRequest(WAIT_TIMEOUT_IN_MILLS));
+        assertEquals(0, DownloadRequestQueue.getInstance().getQueueDepth());
+    }
+
+    private DownloadRequest start(String fileName, Priority priority) {
+        final DownloadRequest request = PRDownloader.download(server.getUrl("/" + fileName), dir.getPath(),
+                fileName, "application/octet-stream")
+                .setPriority(priority)
+                .build();
+        request.start(new OnDownloadListener() {
+            @Override
+            public void onDownloadComplete(DownloadRequest request) {
+
+            }
+
+            @Override
+            public void onError(DownloadRequest request, Error error) {
+                errors.add(error);
+            }
+        });
+        return request;
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.internal;
+
+import android.content.Context;
+import android.test.mock.MockContext;
+
+import com.downloader.LocalServer;
+import com.downloader.PRDownloader;
+import com.downloader.PRDownloaderConfig;
+import com.downloader.SocketHttpClient;
+import com.downloader.Status;
+import com.downloader.TestFiles;
+import com.downloader.Response;
+import com.downloader.database.MemoryDbHelper;
+import com.downloader.request.DownloadRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which progress checkpoints reach the database, and in how many transactions.
+ */
+public class CheckpointTest {
+
+    private static final long WAIT_TIMEOUT_IN_MILLS = 10000;
+    private static final int BODY_LENGTH = 1000000;
+
+    private File dir;
+    private LocalServer server;
+    private MemoryDbHelper dbHelper;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("prdownloader").toFile();
+        final Context context = new MockContext();
+        PRDownloader.initialize(context, PRDownloaderConfig.newBuilder()
+                .setContext(context)
+                .setHttpClient(new SocketHttpClient())
+                .build());
+        dbHelper = new MemoryDbHelper();
+        ComponentHolder.getInstance().setDbHelper(dbHelper);
+        // sends the head and as many bytes as the path says, then stalls
+        server = new LocalServer(new LocalServer.Responder() {
+            @Override
+            public void respond(String requestHead, OutputStream out) throws IOException, InterruptedException {
+                final String path = requestHead.substring(requestHead.indexOf(' ') + 1, requestHead.indexOf(" HTTP/"));
+                out.write(("HTTP/1.1 206 Partial Content\r\n"
+                        + "Content-Length: " + BODY_LENGTH + "\r\n"
+                        + "Content-Range: bytes 0-" + (BODY_LENGTH - 1) + "/" + BODY_LENGTH + "\r\n"
+                        + "\r\n").getBytes("ISO-8859-1"));
+                out.write(new byte[Integer.parseInt(path.substring(1))]);
+                out.flush();
+                LocalServer.stall();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        PRDownloader.shutDown(WAIT_TIMEOUT_IN_MILLS);
+        TestFiles.delete(dir);
+    }
+
+    @Test
+    public void writerStoresLatestOffsetsInOneTransaction() {
+        final CheckpointWriter writer = new CheckpointWriter();
+        writer.checkpoint(1, 100);
+        writer.checkpoint(2, 50);
+        writer.checkpoint(1, 200);
+        writer.checkpoint(3, 70);
+        writer.discard(3);
+        writer.run();
+        writer.run();
+        assertEquals(Collections.singletonList(offsets(1, 200L, 2, 50L)), dbHelper.getProgressWrites());
+    }
+
+    @Test
+    public void writerDropsOffsetsAfterShutDown() {
+        final CheckpointWriter writer = new CheckpointWriter();
+        writer.checkpoint(1, 100);
+        writer.shutDown();
+        writer.checkpoint(1, 200);
+        writer.run();
+        assertEquals(Collections.singletonList(offsets(1, 100L)), dbHelper.getProgressWrites());
+    }
+
+    @Test
+    public void pauseStoresOneCheckpoint() throws Exception {
+        final DownloadRequest request = PRDownloader.download(server.getUrl("/1000"), dir.getPath(),
+                "file", "application/octet-stream").build();
+        request.setDownloadId(1);
+        request.moveTo(Status.RUNNING);
+        final Thread pauseThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    awaitDownloadedBytes(request, 1000);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                request.moveTo(Status.PAUSED);
+            }
+        });
+        pauseThread.start();
+        // run here, so that nothing discards a checkpoint queued while closing
+        final Response response = DownloadTask.create(request).run();
+        pauseThread.join();
+        assertTrue(response.isPaused());
+        DownloadRequestQueue.getInstance().getCheckpointWriter().run();
+        assertEquals(Collections.singletonList(offsets(1, 1000L)), dbHelper.getProgressWrites());
+    }
+
+    @Test
+    public void shutDownStoresSyncedOffsetsInOneTransaction() throws Exception {
+        final DownloadRequest first = start(1000);
+        final DownloadRequest second = start(3000);
+        awaitDownloadedBytes(first, 1000);
+        awaitDownloadedBytes(second, 3000);
+        assertTrue(PRDownloader.shutDown(WAIT_TIMEOUT_IN_MILLS));
+        DownloadRequestQueue.getInstance().getCheckpointWriter().run();
+        final List<Map<Integer, Long>> writes = dbHelper.getProgressWrites();
+        assertEquals(Collections.singletonList(offsets(first.getDownloadId(), 1000L,
+                second.getDownloadId(), 3000L)), writes);
+        // the stored offsets match what reached the files
+        assertEquals(1000, new File(dir, "file1000").length());
+        assertEquals(3000, new File(dir, "file3000").length());
+    }
+
+    private DownloadRequest start(int bytesBeforeStall) {
+        final DownloadRequest request = PRDownloader.download(server.getUrl("/" + bytesBeforeStall), dir.getPath(),
+                "file" + bytesBeforeStall, "application/octet-stream").build();
+        // the callbacks go to the main looper, which does not run here
+        request.start(null);
+        return request;
+    }
+
+    private static void awaitDownloadedBytes(DownloadRequest request, long bytes) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + WAIT_TIMEOUT_IN_MILLS;
+        while (request.getDownloadedBytes() < bytes) {
+            assertTrue("no body received", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static Map<Integer, Long> offsets(Object... idsAndOffsets) {
+        final Map<Integer, Long> offsets = new HashMap<>();
+        for (int i = 0; i < idsAndOffsets.length; i += 2) {
+            offsets.put((Integer) idsAndOffsets[i], (Long) idsAndOffsets[i + 1]);
+        }
+        return offsets;
+    }
+
+}
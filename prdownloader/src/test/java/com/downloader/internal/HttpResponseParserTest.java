@@ -0,0 +1,197 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader.internal;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HttpResponseParserTest {
+
+    private static final byte[] BODY = "0123456789abcdefghijklmnopqrstuvwxyz".getBytes();
+
+    @Test
+    public void readsBodyOfContentLength() throws IOException {
+        final HttpResponseParser parser = new HttpResponseParser();
+        final byte[] response = concat(head("HTTP/1.1 200 OK", "Content-Length: " + BODY.length), BODY);
+        assertArrayEquals(BODY, feed(parser, response, response.length));
+        assertTrue(parser.isComplete());
+        assertEquals(200, parser.getResponseCode());
+        assertEquals("OK", parser.getReasonPhrase());
+        assertEquals(BODY.length, parser.getContentLength());
+    }
+
+    @Test
+    public void stopsFeedingAtEndOfHead() throws IOException {
+        final HttpResponseParser parser = new HttpResponseParser();
+        final byte[] head = head("HTTP/1.1 200 OK", "Content-Length: " + BODY.length);
+        final byte[] response = concat(head, BODY);
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        assertEquals(head.length, parser.feed(response, 0, response.length, collect(body)));
+        assertTrue(parser.isHeadComplete());
+        assertEquals(0, body.size());
+    }
+
+    @Test
+    public void ignoresBytesAfterContentLength() throws IOException {
+        final HttpResponseParser parser = new HttpResponseParser();
+        final byte[] response = concat(head("HTTP/1.1 200 OK", "Content-Length: 10"), BODY);
+        assertArrayEquals(Arrays.copyOf(BODY, 10), feed(parser, response, response.length));
+        assertTrue(parser.isComplete());
+    }
+
+    @Test
+    public void readsChunkedBody() throws IOException {
+        final HttpResponseParser parser = new HttpResponseParser();
+        final byte[] response = concat(head("HTTP/1.1 200 OK", "Transfer-Encoding: chunked"),
+                ("a;name=value\r\n0123456789\r\n"
+                        + "1a\r\nabcdefghijklmnopqrstuvwxyz\r\n"
+                        + "0\r\nTrailer: value\r\n\r\n").getBytes());
+        assertArrayEquals(BODY, feed(parser, response, response.length));
+        assertTrue(parser.isComplete());
+        assertEquals(-1, parser.getContentLength());
+    }
+
+    @Test
+    public void readsBodyUntilClose() throws IOException {
+        final HttpResponseParser parser = new HttpResponseParser();
+        final byte[] response = concat(head("HTTP/1.0 200 OK"), BODY);
+        assertArrayEquals(BODY, feed(parser, response, response.length));
+        assertFalse(parser.isComplete());
+        assertTrue(parser.onEndOfStream());
+        assertTrue(parser.isComplete());
+    }
+
+    @Test
+    public void endOfStreamBeforeContentLengthIsIncomplete() throws IOException {
+        final HttpResponseParser parser = new HttpResponseParser();
+        final byte[] response = concat(head("HTTP/1.1 200 OK", "Content-Length: 100"), BODY);
+        feed(parser, response, response.length);
+        assertFalse(parser.onEndOfStream());
+    }
+
+    @Test
+    public void readsAcrossPartialReads() throws IOException {
+        final byte[][] responses = {
+                concat(head("HTTP/1.1 200 OK", "Content-Length: " + BODY.length), BODY),
+                concat(head("HTTP/1.1 200 OK", "Transfer-Encoding: chunked"),
+                        "10\r\n0123456789abcdef\r\n14\r\nghijklmnopqrstuvwxyz\r\n0\r\n\r\n".getBytes())
+        };
+        for (byte[] response : responses) {
+            for (int step = 1; step <= 7; step++) {
+                final HttpResponseParser parser = new HttpResponseParser();
+                assertArrayEquals("step " + step, BODY, feed(parser, response, step));
+                assertTrue("step " + step, parser.isComplete());
+            }
+        }
+    }
+
+    @Test
+    public void readsResumedBody() throws IOException {
+        final HttpResponseParser parser = new HttpResponseParser();
+        final byte[] rest = Arrays.copyOfRange(BODY, 10, BODY.length);
+        final byte[] response = concat(head("HTTP/1.1 206 Partial Content",
+                "Content-Range: bytes 10-" + (BODY.length - 1) + "/" + BODY.length,
+                "content-length: " + rest.length), rest);
+        assertArrayEquals(rest, feed(parser, response, 5));
+        assertTrue(parser.isComplete());
+        assertEquals(206, parser.getResponseCode());
+        assertEquals(rest.length, parser.getContentLength());
+        assertEquals("bytes 10-35/36", parser.getHeader("Content-Range"));
+    }
+
+    @Test
+    public void completesWithoutBodyOnNotModified() throws IOException {
+        final HttpResponseParser parser = new HttpResponseParser();
+        final byte[] response = head("HTTP/1.1 304 Not Modified", "ETag: \"tag\"", "Content-Length: 100");
+        assertEquals(0, feed(parser, response, response.length).length);
+        assertTrue(parser.isComplete());
+        assertEquals("\"tag\"", parser.getHeader("etag"));
+    }
+
+    @Test
+    public void keepsRepeatedHeaders() throws IOException {
+        final HttpResponseParser parser = new HttpResponseParser();
+        final byte[] response = head("HTTP/1.1 200 OK", "Set-Cookie: a=1", "Set-Cookie: b=2", "Content-Length: 0");
+        feed(parser, response, response.length);
+        assertEquals(Arrays.asList("a=1", "b=2"), parser.getHeaderFields().get("set-cookie"));
+        assertEquals("b=2", parser.getHeader("Set-Cookie"));
+        assertNull(parser.getHeader("Location"));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsMalformedStatusLine() throws IOException {
+        final byte[] response = head("SSH-2.0-OpenSSH");
+        new HttpResponseParser().feed(response, 0, response.length, collect(new ByteArrayOutputStream()));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsMalformedChunkSize() throws IOException {
+        final byte[] response = concat(head("HTTP/1.1 200 OK", "Transfer-Encoding: chunked"), "xyz\r\n".getBytes());
+        feed(new HttpResponseParser(), response, response.length);
+    }
+
+    /**
+     * Feeds the response in slices of at most the given size, as a channel would return it.
+     *
+     * @return the body handed to the consumer
+     */
+    private static byte[] feed(HttpResponseParser parser, byte[] response, int step) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final HttpResponseParser.BodyConsumer consumer = collect(body);
+        int offset = 0;
+        while (offset < response.length && !parser.isComplete()) {
+            final int end = Math.min(offset + step, response.length);
+            while (offset < end && !parser.isComplete()) {
+                offset += parser.feed(response, offset, end - offset, consumer);
+            }
+        }
+        return body.toByteArray();
+    }
+
+    private static HttpResponseParser.BodyConsumer collect(final ByteArrayOutputStream body) {
+        return new HttpResponseParser.BodyConsumer() {
+            @Override
+            public void onBody(byte[] buffer, int offset, int count) {
+                body.write(buffer, offset, count);
+            }
+        };
+    }
+
+    private static byte[] head(String... lines) {
+        final StringBuilder head = new StringBuilder();
+        for (String line : lines) {
+            head.append(line).append("\r\n");
+        }
+        return head.append("\r\n").toString().getBytes();
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        final byte[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader.internal;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IntObjectMapTest {
+
+    @Test
+    public void putGetRemove() {
+        final IntObjectMap<String> map = new IntObjectMap<>();
+        assertTrue(map.isEmpty());
+        assertNull(map.put(1, "a"));
+        assertNull(map.put(-7, "b"));
+        assertNull(map.put(0, "c"));
+        assertEquals("a", map.put(1, "d"));
+
+        assertEquals(3, map.size());
+        assertEquals("d", map.get(1));
+        assertEquals("b", map.get(-7));
+        assertEquals("c", map.get(0));
+        assertNull(map.get(2));
+
+        assertEquals("b", map.remove(-7));
+        assertNull(map.remove(-7));
+        assertNull(map.get(-7));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void removesOnlyMatchingValue() {
+        final IntObjectMap<String> map = new IntObjectMap<>();
+        final String value = "a";
+        map.put(1, value);
+        assertFalse(map.remove(1, new String("a")));
+        assertFalse(map.remove(2, value));
+        assertTrue(map.remove(1, value));
+        assertTrue(map.isEmpty());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void rejectsNullValue() {
+        new IntObjectMap<String>().put(1, null);
+    }
+
+    @Test
+    public void keepsEntriesAcrossResizes() {
+        final IntObjectMap<Integer> map = new IntObjectMap<>();
+        for (int i = 0; i < 10000; i++) {
+            map.put(i * 31, i);
+        }
+        assertEquals(10000, map.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(Integer.valueOf(i), map.get(i * 31));
+        }
+        assertNull(map.get(1));
+    }
+
+    @Test
+    public void keysAndValuesAreCopies() {
+        final IntObjectMap<String> map = new IntObjectMap<>();
+        map.put(1, "a");
+        map.put(2, "b");
+        final int[] keys = map.keys();
+        Arrays.sort(keys);
+        assertTrue(Arrays.equals(new int[]{1, 2}, keys));
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), new HashSet<>(map.values()));
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(1));
+        assertEquals(0, map.keys().length);
+        assertEquals(2, keys.length);
+    }
+
+    /**
+     * Removes in dense clusters of probe sequences, which only stay reachable if the
+     * entries after a removed one are shifted back correctly.
+     */
+    @Test
+    public void matchesHashMapUnderRandomOperations() {
+        final IntObjectMap<Integer> map = new IntObjectMap<>();
+        final Map<Integer, Integer> expected = new HashMap<>();
+        final Random random = new Random(7);
+        for (int i = 0; i < 200000; i++) {
+            // few distinct keys, so that the table is dense and removals are frequent
+            final int key = random.nextInt(48) - 8;
+            if (random.nextBoolean()) {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            } else {
+                assertEquals(expected.remove(key), map.remove(key));
+            }
+            assertEquals(expected.size(), map.size());
+            if (i % 1000 == 0) {
+                for (int k = -8; k < 40; k++) {
+                    assertEquals(expected.get(k), map.get(k));
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.internal;
+
+import android.content.Context;
+import android.test.mock.MockContext;
+
+import com.downloader.DownloadEngine;
+import com.downloader.LocalServer;
+import com.downloader.PRDownloader;
+import com.downloader.PRDownloaderConfig;
+import com.downloader.Priority;
+import com.downloader.Status;
+import com.downloader.TestFiles;
+import com.downloader.core.DirectExecutor;
+import com.downloader.request.DownloadRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class NioDownloadEngineTest {
+
+    private static final long WAIT_TIMEOUT_IN_MILLS = 10000;
+
+    private File dir;
+    private LocalServer server;
+    private final BlockingQueue<String> requestHeads = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("prdownloader").toFile();
+        server = new LocalServer(new LocalServer.Responder() {
+            @Override
+            public void respond(String requestHead, OutputStream out) throws InterruptedException {
+                requestHeads.add(requestHead);
+                LocalServer.stall();
+            }
+        });
+        final Context context = new MockContext();
+        PRDownloader.initialize(context, PRDownloaderConfig.newBuilder()
+                .setContext(context)
+                .setDownloadEngine(DownloadEngine.NON_BLOCKING)
+                .setConcurrencyBounds(1, 1)
+                .setAdaptiveConcurrencyEnabled(false)
+                .setCallbackExecutor(new DirectExecutor())
+                .build());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        PRDownloader.shutDown(WAIT_TIMEOUT_IN_MILLS);
+        TestFiles.delete(dir);
+    }
+
+    @Test
+    public void waitingTasksStartByTheirCurrentPriority() throws Exception {
+        final DownloadRequest running = start("running", Priority.MEDIUM);
+        assertTrue(awaitRequest().startsWith("GET /running "));
+        final DownloadRequest first = start("first", Priority.LOW);
+        final DownloadRequest second = start("second", Priority.LOW);
+        PRDownloader.setPriority(second.getDownloadId(), Priority.HIGH);
+
+        // the limit of one holds both back
+        assertEquals(Status.QUEUED, first.getStatus());
+        assertEquals(Status.QUEUED, second.getStatus());
+        PRDownloader.cancel(running.getDownloadId());
+        assertTrue(awaitRequest().startsWith("GET /second "));
+        assertEquals(Status.QUEUED, first.getStatus());
+
+        PRDownloader.cancel(second.getDownloadId());
+        assertTrue(awaitRequest().startsWith("GET /first "));
+    }
+
+    private String awaitRequest() throws InterruptedException {
+        final String requestHead = requestHeads.poll(WAIT_TIMEOUT_IN_MILLS, TimeUnit.MILLISECONDS);
+        assertNotNull(requestHead);
+        return requestHead;
+    }
+
+    private DownloadRequest start(String fileName, Priority priority) {
+        final DownloadRequest request = PRDownloader.download(server.getUrl("/" + fileName), dir.getPath(),
+                fileName, "application/octet-stream")
+                .setPriority(priority)
+                .build();
+        request.start(null);
+        return request;
+    }
+
+}
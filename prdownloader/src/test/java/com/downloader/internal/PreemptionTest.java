@@ -0,0 +1,206 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader.internal;
+
+import android.content.Context;
+import android.test.mock.MockContext;
+
+import com.downloader.Error;
+import com.downloader.LocalServer;
+import com.downloader.PRDownloader;
+import com.downloader.PRDownloaderConfig;
+import com.downloader.Priority;
+import com.downloader.TestFiles;
+import com.downloader.core.DirectExecutor;
+import com.downloader.database.MemoryDbHelper;
+import com.downloader.request.DownloadFuture;
+import com.downloader.request.DownloadRequest;
+import com.downloader.request.RequestObserver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a low priority download in the only slot and queues a high priority one behind it.
+ */
+public class PreemptionTest {
+
+    private static final long WAIT_TIMEOUT_IN_MILLS = 10000;
+    private static final int BODY_LENGTH = 4000;
+    private static final int BYTES_BEFORE_STALL = 1000;
+
+    private File dir;
+    private LocalServer server;
+    private final BlockingQueue<String> requestHeads = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("prdownloader").toFile();
+        final Context context = new MockContext();
+        TestDatabase.initialize(context, PRDownloaderConfig.newBuilder()
+                .setContext(context)
+                .setConcurrencyBounds(1, 1)
+                .setAdaptiveConcurrencyEnabled(false)
+                .setPreemptionEnabled(true)
+                .setCallbackExecutor(new DirectExecutor())
+                .build(), new MemoryDbHelper());
+        // "/low" sends part of the body and stalls, unless asked for the rest
+        server = new LocalServer(new LocalServer.Responder() {
+            @Override
+            public void respond(String requestHead, OutputStream out) throws IOException, InterruptedException {
+                requestHeads.add(requestHead);
+                if (!requestHead.startsWith("GET /low ")) {
+                    out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + BODY_LENGTH + "\r\n\r\n")
+                            .getBytes("ISO-8859-1"));
+                    out.write(new byte[BODY_LENGTH]);
+                    out.flush();
+                    return;
+                }
+                final boolean rest = ("bytes=" + BYTES_BEFORE_STALL + "-")
+                        .equals(LocalServer.getHeader(requestHead, "Range"));
+                final int start = rest ? BYTES_BEFORE_STALL : 0;
+                out.write(("HTTP/1.1 206 Partial Content\r\n"
+                        + "Content-Length: " + (BODY_LENGTH - start) + "\r\n"
+                        + "Content-Range: bytes " + start + "-" + (BODY_LENGTH - 1) + "/" + BODY_LENGTH + "\r\n"
+                        + "\r\n").getBytes("ISO-8859-1"));
+                out.write(new byte[rest ? BODY_LENGTH - start : BYTES_BEFORE_STALL]);
+                out.flush();
+                if (!rest) {
+                    LocalServer.stall();
+                }
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        PRDownloader.shutDown(WAIT_TIMEOUT_IN_MILLS);
+        TestFiles.delete(dir);
+    }
+
+    @Test
+    public void preemptedDownloadIsRequeuedAndResumesFromItsCheckpoint() throws Exception {
+        final DownloadRequest low = build("low", Priority.LOW);
+        final PauseCounter pauses = new PauseCounter();
+        low.addObserver(pauses);
+        final DownloadFuture lowFuture = low.startAsync();
+        awaitDownloadedBytes(low, BYTES_BEFORE_STALL);
+
+        final DownloadFuture highFuture = build("high", Priority.HIGH).startAsync();
+        assertTrue(highFuture.get(WAIT_TIMEOUT_IN_MILLS, TimeUnit.MILLISECONDS).isSuccessful());
+        assertTrue(lowFuture.get(WAIT_TIMEOUT_IN_MILLS, TimeUnit.MILLISECONDS).isSuccessful());
+
+        // the high one ran in the slot of the low one, which then asked for the rest only
+        final List<String> heads = new ArrayList<>(requestHeads);
+        assertEquals(3, heads.size());
+        assertEquals(Arrays.asList("GET /low ", "GET /high ", "GET /low "), Arrays.asList(
+                prefix(heads.get(0)), prefix(heads.get(1)), prefix(heads.get(2))));
+        assertEquals("bytes=" + BYTES_BEFORE_STALL + "-", LocalServer.getHeader(heads.get(2), "Range"));
+        assertEquals(BODY_LENGTH, new File(dir, "low").length());
+        assertEquals(1, PRDownloader.getPreemptionCount());
+        // the preemption is not reported as a pause
+        assertEquals(0, pauses.count.get());
+    }
+
+    @Test
+    public void equalPriorityDoesNotPreempt() throws Exception {
+        final DownloadRequest first = build("low", Priority.MEDIUM);
+        first.startAsync();
+        awaitDownloadedBytes(first, BYTES_BEFORE_STALL);
+
+        final DownloadRequest second = build("high", Priority.MEDIUM);
+        final DownloadFuture secondFuture = second.startAsync();
+        assertTrue(TestDatabase.awaitBackgroundThread(WAIT_TIMEOUT_IN_MILLS));
+        assertEquals(0, PRDownloader.getPreemptionCount());
+        assertEquals(1, requestHeads.size());
+
+        PRDownloader.cancel(first.getDownloadId());
+        assertTrue(secondFuture.get(WAIT_TIMEOUT_IN_MILLS, TimeUnit.MILLISECONDS).isSuccessful());
+    }
+
+    private DownloadRequest build(String fileName, Priority priority) {
+        return PRDownloader.download(server.getUrl("/" + fileName), dir.getPath(), fileName,
+                "application/octet-stream")
+                .setPriority(priority)
+                .build();
+    }
+
+    private static String prefix(String requestHead) {
+        return requestHead.substring(0, requestHead.indexOf(' ', 4) + 1);
+    }
+
+    private static void awaitDownloadedBytes(DownloadRequest request, long bytes) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + WAIT_TIMEOUT_IN_MILLS;
+        while (request.getDownloadedBytes() < bytes) {
+            assertTrue("no body received", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static class PauseCounter implements RequestObserver {
+
+        final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public void onStart(DownloadRequest request) {
+
+        }
+
+        @Override
+        public void onProgress(DownloadRequest request) {
+
+        }
+
+        @Override
+        public void onPause(DownloadRequest request) {
+            count.incrementAndGet();
+        }
+
+        @Override
+        public void onCancel(DownloadRequest request) {
+
+        }
+
+        @Override
+        public void onComplete(DownloadRequest request) {
+
+        }
+
+        @Override
+        public void onError(DownloadRequest request, Error error) {
+
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader.internal;
+
+import android.content.Context;
+import android.test.mock.MockContext;
+
+import com.downloader.LocalServer;
+import com.downloader.PRDownloader;
+import com.downloader.PRDownloaderConfig;
+import com.downloader.TestFiles;
+import com.downloader.core.DirectExecutor;
+import com.downloader.request.DownloadFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a download whose server is slow to answer next to a fast one, with a single
+ * transfer slot.
+ */
+public class ProbeLaneTest {
+
+    private static final long WAIT_TIMEOUT_IN_MILLS = 10000;
+    private static final int BODY_LENGTH = 1024;
+
+    private File dir;
+    private LocalServer server;
+    private final CountDownLatch slowResponse = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("prdownloader").toFile();
+        final Context context = new MockContext();
+        PRDownloader.initialize(context, PRDownloaderConfig.newBuilder()
+                .setContext(context)
+                .setConcurrencyBounds(1, 1)
+                .setAdaptiveConcurrencyEnabled(false)
+                .setProbeLaneEnabled(true)
+                .setCallbackExecutor(new DirectExecutor())
+                .build());
+        // "/slow" only answers once the test lets it
+        server = new LocalServer(new LocalServer.Responder() {
+            @Override
+            public void respond(String requestHead, OutputStream out) throws IOException, InterruptedException {
+                if (requestHead.startsWith("GET /slow ")) {
+                    slowResponse.await();
+                }
+                out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + BODY_LENGTH + "\r\n\r\n").getBytes("ISO-8859-1"));
+                out.write(new byte[BODY_LENGTH]);
+                out.flush();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        slowResponse.countDown();
+        server.close();
+        PRDownloader.shutDown(WAIT_TIMEOUT_IN_MILLS);
+        TestFiles.delete(dir);
+    }
+
+    @Test
+    public void connectingDownloadDoesNotTakeTheTransferSlot() throws Exception {
+        final DownloadFuture slow = start("slow");
+        assertTrue(server.awaitRequest(WAIT_TIMEOUT_IN_MILLS));
+
+        // the only slot is free while the slow one waits for its response
+        final DownloadFuture fast = start("fast");
+        assertTrue(fast.get(WAIT_TIMEOUT_IN_MILLS, TimeUnit.MILLISECONDS).isSuccessful());
+        assertFalse(slow.isDone());
+
+        slowResponse.countDown();
+        assertTrue(slow.get(WAIT_TIMEOUT_IN_MILLS, TimeUnit.MILLISECONDS).isSuccessful());
+        assertEquals(BODY_LENGTH, new File(dir, "slow").length());
+    }
+
+    private DownloadFuture start(String fileName) {
+        return PRDownloader.download(server.getUrl("/" + fileName), dir.getPath(), fileName,
+                "application/octet-stream").build().startAsync();
+    }
+
+}
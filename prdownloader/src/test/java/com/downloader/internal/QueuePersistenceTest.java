@@ -0,0 +1,173 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.internal;
+
+import android.content.Context;
+import android.test.mock.MockContext;
+
+import com.downloader.LocalServer;
+import com.downloader.PRDownloader;
+import com.downloader.PRDownloaderConfig;
+import com.downloader.Priority;
+import com.downloader.Status;
+import com.downloader.TestFiles;
+import com.downloader.core.DirectExecutor;
+import com.downloader.database.MemoryDbHelper;
+import com.downloader.database.RequestModel;
+import com.downloader.request.DownloadRequest;
+import com.downloader.utils.Utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stores requests as a previous process would have, then checks what a new one restores.
+ */
+public class QueuePersistenceTest {
+
+    private static final long WAIT_TIMEOUT_IN_MILLS = 10000;
+
+    private File dir;
+    private LocalServer server;
+    private final BlockingQueue<String> requestHeads = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("prdownloader").toFile();
+        server = new LocalServer(new LocalServer.Responder() {
+            @Override
+            public void respond(String requestHead, OutputStream out) throws InterruptedException {
+                requestHeads.add(requestHead);
+                LocalServer.stall();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        PRDownloader.shutDown(WAIT_TIMEOUT_IN_MILLS);
+        TestFiles.delete(dir);
+    }
+
+    @Test
+    public void restoresPausedAndQueuedRequests() throws Exception {
+        initialize(new MemoryDbHelper());
+        final DownloadRequest paused = build("paused", "album", "a");
+        final DownloadRequest queued = build("queued", null, "b");
+        PRDownloader.shutDown(WAIT_TIMEOUT_IN_MILLS);
+
+        final MemoryDbHelper dbHelper = new MemoryDbHelper();
+        dbHelper.insertRequest(RequestSerializer.toModel(paused, Status.PAUSED.name()));
+        dbHelper.insertRequest(RequestSerializer.toModel(queued, Status.QUEUED.name()));
+        initialize(dbHelper);
+        assertTrue(TestDatabase.awaitBackgroundThread(WAIT_TIMEOUT_IN_MILLS));
+
+        // the queued one is started, the paused one waits for a resume
+        final String queuedHead = requestHeads.poll(WAIT_TIMEOUT_IN_MILLS, TimeUnit.MILLISECONDS);
+        assertNotNull(queuedHead);
+        assertTrue(queuedHead.startsWith("GET /queued "));
+        assertEquals("b", LocalServer.getHeader(queuedHead, "X-Token"));
+        assertEquals(Status.PAUSED, PRDownloader.getStatus(paused.getDownloadId()));
+        assertEquals(0, requestHeads.size());
+
+        PRDownloader.resume(paused.getDownloadId());
+        final String pausedHead = requestHeads.poll(WAIT_TIMEOUT_IN_MILLS, TimeUnit.MILLISECONDS);
+        assertNotNull(pausedHead);
+        assertTrue(pausedHead.startsWith("GET /paused "));
+        assertEquals("a", LocalServer.getHeader(pausedHead, "X-Token"));
+
+        // the tag is restored as well
+        PRDownloader.cancel("album");
+        assertEquals(Status.UNKNOWN, PRDownloader.getStatus(paused.getDownloadId()));
+    }
+
+    @Test
+    public void unreadableRowsDoNotDropTheQueue() throws Exception {
+        initialize(new MemoryDbHelper());
+        final DownloadRequest paused = build("paused", null, "a");
+        final DownloadRequest queued = build("queued", null, "b");
+        PRDownloader.shutDown(WAIT_TIMEOUT_IN_MILLS);
+
+        final MemoryDbHelper dbHelper = new MemoryDbHelper();
+        dbHelper.insertRequest(unreadable(1, Status.PAUSED.name()));
+        dbHelper.insertRequest(RequestSerializer.toModel(paused, Status.PAUSED.name()));
+        dbHelper.insertRequest(unreadable(2, Status.QUEUED.name()));
+        dbHelper.insertRequest(RequestSerializer.toModel(queued, Status.QUEUED.name()));
+        initialize(dbHelper);
+        assertTrue(TestDatabase.awaitBackgroundThread(WAIT_TIMEOUT_IN_MILLS));
+
+        final String queuedHead = requestHeads.poll(WAIT_TIMEOUT_IN_MILLS, TimeUnit.MILLISECONDS);
+        assertNotNull(queuedHead);
+        assertTrue(queuedHead.startsWith("GET /queued "));
+        assertEquals(Status.PAUSED, PRDownloader.getStatus(paused.getDownloadId()));
+        assertTrue(TestDatabase.awaitBackgroundThread(WAIT_TIMEOUT_IN_MILLS));
+        assertNull(dbHelper.getRequest(1));
+        assertNull(dbHelper.getRequest(2));
+        assertNotNull(dbHelper.getRequest(paused.getDownloadId()));
+    }
+
+    private void initialize(MemoryDbHelper dbHelper) throws Exception {
+        final Context context = new MockContext();
+        TestDatabase.initialize(context, PRDownloaderConfig.newBuilder()
+                .setContext(context)
+                .setConcurrencyBounds(2, 2)
+                .setAdaptiveConcurrencyEnabled(false)
+                .setQueuePersistenceEnabled(true)
+                .setCallbackExecutor(new DirectExecutor())
+                .build(), dbHelper);
+    }
+
+    private DownloadRequest build(String fileName, String tag, String token) {
+        final DownloadRequest request = PRDownloader.download(server.getUrl("/" + fileName), dir.getPath(),
+                fileName, "application/octet-stream")
+                .setPriority(Priority.HIGH)
+                .setTag(tag)
+                .setHeader("X-Token", token)
+                .build();
+        request.setDownloadId(Utils.getUniqueId(request.getUrl(), dir.getPath(), fileName));
+        return request;
+    }
+
+    /**
+     * A row missing its directory, as an older or damaged database could hold.
+     */
+    private static RequestModel unreadable(int id, String status) {
+        final RequestModel model = new RequestModel();
+        model.setId(id);
+        model.setUrl("http://127.0.0.1/unreadable");
+        model.setFileName("unreadable");
+        model.setStatus(status);
+        return model;
+    }
+
+}
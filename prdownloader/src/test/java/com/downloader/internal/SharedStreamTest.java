@@ -0,0 +1,116 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.internal;
+
+import android.content.Context;
+import android.test.mock.MockContext;
+
+import com.downloader.LocalServer;
+import com.downloader.PRDownloader;
+import com.downloader.PRDownloaderConfig;
+import com.downloader.TestFiles;
+import com.downloader.request.DownloadRequest;
+import com.downloader.request.DownloadRequestBuilder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which requests for the same url join the network stream of a running one.
+ */
+public class SharedStreamTest {
+
+    private static final long WAIT_TIMEOUT_IN_MILLS = 10000;
+
+    private File dir;
+    private LocalServer server;
+    private DownloadRequest leader;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("prdownloader").toFile();
+        final Context context = new MockContext();
+        PRDownloader.initialize(context, PRDownloaderConfig.newBuilder().setContext(context).build());
+        // the leader stays connecting, so that it can still be joined
+        server = new LocalServer(new LocalServer.Responder() {
+            @Override
+            public void respond(String requestHead, OutputStream out) throws InterruptedException {
+                LocalServer.stall();
+            }
+        });
+        leader = start(download("leader").setHeader("Accept-Language", "en"));
+        assertTrue(server.awaitRequest(WAIT_TIMEOUT_IN_MILLS));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        PRDownloader.shutDown(WAIT_TIMEOUT_IN_MILLS);
+        TestFiles.delete(dir);
+    }
+
+    @Test
+    public void sameHeadersShare() {
+        final DownloadRequest follower = start(download("follower").setHeader("accept-language", "en"));
+        assertSame(leader, follower.getLeader());
+    }
+
+    @Test
+    public void otherHeaderValueDoesNotShare() {
+        final DownloadRequest follower = start(download("follower").setHeader("Accept-Language", "fr"));
+        assertNull(follower.getLeader());
+    }
+
+    @Test
+    public void additionalHeaderDoesNotShare() {
+        final DownloadRequest follower = start(download("follower")
+                .setHeader("Accept-Language", "en")
+                .setHeader("Authorization", "Bearer token"));
+        assertNull(follower.getLeader());
+    }
+
+    @Test
+    public void otherUserAgentDoesNotShare() {
+        final DownloadRequest follower = start(download("follower")
+                .setHeader("Accept-Language", "en")
+                .setUserAgent("other"));
+        assertNull(follower.getLeader());
+    }
+
+    private DownloadRequestBuilder download(String fileName) {
+        return PRDownloader.download(server.getUrl("/file"), dir.getPath(), fileName, "application/octet-stream");
+    }
+
+    private static DownloadRequest start(DownloadRequestBuilder builder) {
+        final DownloadRequest request = builder.build();
+        // the callbacks go to the main looper, which does not run here
+        request.start(null);
+        return request;
+    }
+
+}
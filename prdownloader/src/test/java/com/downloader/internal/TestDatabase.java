@@ -0,0 +1,64 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.internal;
+
+import android.content.Context;
+
+import com.downloader.PRDownloaderConfig;
+import com.downloader.core.Core;
+import com.downloader.database.DbHelper;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sets up the library with a database given by the test, for the tests which check what
+ * is stored and read back.
+ */
+public final class TestDatabase {
+
+    private TestDatabase() {
+
+    }
+
+    /**
+     * Same as PRDownloader.initialize, with the given database in place before the
+     * request queue is created.
+     */
+    public static void initialize(Context context, PRDownloaderConfig config, DbHelper dbHelper) {
+        ComponentHolder.getInstance().init(context, config);
+        ComponentHolder.getInstance().setDbHelper(dbHelper);
+        Core.initialize();
+        DownloadRequestQueue.initialize();
+    }
+
+    /**
+     * Waits for the work handed to the background thread so far, which runs in order.
+     */
+    public static boolean awaitBackgroundThread(long timeoutInMills) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        Core.getInstance().getExecutorSupplier().forBackgroundTasks().execute(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        return latch.await(timeoutInMills, TimeUnit.MILLISECONDS);
+    }
+
+}
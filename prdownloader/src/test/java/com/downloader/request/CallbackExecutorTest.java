@@ -0,0 +1,265 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader.request;
+
+import android.content.Context;
+import android.test.mock.MockContext;
+
+import com.downloader.Error;
+import com.downloader.GroupProgress;
+import com.downloader.LocalServer;
+import com.downloader.OnCancelListener;
+import com.downloader.OnDownloadListener;
+import com.downloader.OnGroupDownloadListener;
+import com.downloader.OnGroupProgressListener;
+import com.downloader.OnPauseListener;
+import com.downloader.OnProgressListener;
+import com.downloader.OnStartOrResumeListener;
+import com.downloader.PRDownloader;
+import com.downloader.PRDownloaderConfig;
+import com.downloader.Progress;
+import com.downloader.TestFiles;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that with a callback executor in the config no listener is called anywhere else.
+ */
+public class CallbackExecutorTest {
+
+    private static final long WAIT_TIMEOUT_IN_MILLS = 10000;
+    private static final int BODY_LENGTH = 64 * 1024;
+
+    private final RecordingExecutor configExecutor = new RecordingExecutor();
+    private final BlockingQueue<String> events = new LinkedBlockingQueue<>();
+    private File dir;
+    private LocalServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("prdownloader").toFile();
+        final Context context = new MockContext();
+        PRDownloader.initialize(context, PRDownloaderConfig.newBuilder()
+                .setContext(context)
+                .setCallbackExecutor(configExecutor)
+                .build());
+        // "/stalled" stalls after the head, "/missing" is not found
+        server = new LocalServer(new LocalServer.Responder() {
+            @Override
+            public void respond(String requestHead, OutputStream out) throws IOException, InterruptedException {
+                if (requestHead.startsWith("GET /missing ")) {
+                    out.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n".getBytes("ISO-8859-1"));
+                    out.flush();
+                    return;
+                }
+                out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + BODY_LENGTH + "\r\n\r\n").getBytes("ISO-8859-1"));
+                if (requestHead.startsWith("GET /stalled ")) {
+                    out.flush();
+                    LocalServer.stall();
+                    return;
+                }
+                out.write(new byte[BODY_LENGTH]);
+                out.flush();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        PRDownloader.shutDown(WAIT_TIMEOUT_IN_MILLS);
+        TestFiles.delete(dir);
+    }
+
+    @Test
+    public void completedDownloadAndGroupCallbacks() throws Exception {
+        final Listeners listeners = new Listeners(configExecutor);
+        final DownloadRequest request = listeners.attach(build("file"));
+        new DownloadGroup()
+                .add(request, listeners)
+                .setOnGroupProgressListener(listeners)
+                .start(listeners);
+
+        // the group hears of the end before the listener of the request
+        awaitEvents("start", "progress", "complete", "group progress", "group complete");
+    }
+
+    @Test
+    public void pauseResumeCancelAndErrorCallbacks() throws Exception {
+        final Listeners listeners = new Listeners(configExecutor);
+        final DownloadRequest stalled = listeners.attach(build("stalled"));
+        stalled.start(listeners);
+        awaitEvents("start");
+
+        PRDownloader.pause(stalled.getDownloadId());
+        awaitEvents("pause");
+        PRDownloader.resume(stalled.getDownloadId());
+        awaitEvents("start");
+        PRDownloader.cancel(stalled.getDownloadId());
+        awaitEvents("cancel");
+
+        listeners.attach(build("missing")).start(listeners);
+        awaitEvents("error");
+    }
+
+    @Test
+    public void executorOfTheRequestOverridesTheConfig() throws Exception {
+        final RecordingExecutor requestExecutor = new RecordingExecutor();
+        final Listeners listeners = new Listeners(requestExecutor);
+        listeners.attach(PRDownloader.download(server.getUrl("/file"), dir.getPath(), "file",
+                "application/octet-stream")
+                .setCallbackExecutor(requestExecutor)
+                .build())
+                .start(listeners);
+
+        awaitEvents("start", "complete");
+        assertEquals(0, configExecutor.count);
+        assertTrue(requestExecutor.count >= 2);
+    }
+
+    private DownloadRequest build(String fileName) {
+        return PRDownloader.download(server.getUrl("/" + fileName), dir.getPath(), fileName,
+                "application/octet-stream").build();
+    }
+
+    /**
+     * Takes the events until each of the given ones was seen, in any order, failing on any
+     * which was not called on the expected executor.
+     */
+    private void awaitEvents(String... names) throws InterruptedException {
+        final Set<String> missing = new HashSet<>(Arrays.asList(names));
+        final long deadline = System.currentTimeMillis() + WAIT_TIMEOUT_IN_MILLS;
+        while (!missing.isEmpty()) {
+            final String event = events.poll(Math.max(0, deadline - System.currentTimeMillis()),
+                    TimeUnit.MILLISECONDS);
+            assertNotNull("no " + missing, event);
+            assertFalse(event, event.startsWith("outside the executor"));
+            missing.remove(event);
+        }
+    }
+
+    /**
+     * Runs the callbacks right away, remembering which thread is inside it.
+     */
+    private static class RecordingExecutor implements Executor {
+
+        private final ThreadLocal<Boolean> running = new ThreadLocal<>();
+        volatile int count;
+
+        @Override
+        public synchronized void execute(Runnable runnable) {
+            count++;
+            running.set(true);
+            try {
+                runnable.run();
+            } finally {
+                running.remove();
+            }
+        }
+
+        boolean isRunning() {
+            return running.get() != null;
+        }
+    }
+
+    private class Listeners implements OnStartOrResumeListener, OnProgressListener, OnPauseListener,
+            OnCancelListener, OnDownloadListener, OnGroupProgressListener, OnGroupDownloadListener {
+
+        private final RecordingExecutor executor;
+
+        Listeners(RecordingExecutor executor) {
+            this.executor = executor;
+        }
+
+        DownloadRequest attach(DownloadRequest request) {
+            return request.setOnStartOrResumeListener(this)
+                    .setOnProgressListener(this)
+                    .setOnPauseListener(this)
+                    .setOnCancelListener(this);
+        }
+
+        private void onEvent(String name) {
+            events.add(executor.isRunning() ? name : "outside the executor: " + name);
+        }
+
+        @Override
+        public void onStartOrResume(DownloadRequest request) {
+            onEvent("start");
+        }
+
+        @Override
+        public void onProgress(DownloadRequest request, Progress progress) {
+            onEvent("progress");
+        }
+
+        @Override
+        public void onPause(DownloadRequest request) {
+            onEvent("pause");
+        }
+
+        @Override
+        public void onCancel(DownloadRequest request) {
+            onEvent("cancel");
+        }
+
+        @Override
+        public void onDownloadComplete(DownloadRequest request) {
+            onEvent("complete");
+        }
+
+        @Override
+        public void onError(DownloadRequest request, Error error) {
+            onEvent("error");
+        }
+
+        @Override
+        public void onProgress(DownloadGroup group, GroupProgress progress) {
+            onEvent("group progress");
+        }
+
+        @Override
+        public void onGroupComplete(DownloadGroup group) {
+            onEvent("group complete");
+        }
+
+        @Override
+        public void onGroupError(DownloadGroup group, List<DownloadRequest> failedRequests) {
+            onEvent("group error");
+        }
+    }
+
+}
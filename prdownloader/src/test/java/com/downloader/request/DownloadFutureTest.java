@@ -0,0 +1,215 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader.request;
+
+import android.content.Context;
+import android.test.mock.MockContext;
+
+import com.downloader.Error;
+import com.downloader.LocalServer;
+import com.downloader.PRDownloader;
+import com.downloader.PRDownloaderConfig;
+import com.downloader.Response;
+import com.downloader.Status;
+import com.downloader.TestFiles;
+import com.downloader.core.DirectExecutor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DownloadFutureTest {
+
+    private static final long WAIT_TIMEOUT_IN_MILLS = 10000;
+    private static final int BODY_LENGTH = 1024;
+
+    private File dir;
+    private LocalServer server;
+    private final AtomicInteger pausedRequestCount = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("prdownloader").toFile();
+        final Context context = new MockContext();
+        PRDownloader.initialize(context, PRDownloaderConfig.newBuilder()
+                .setContext(context)
+                .setCallbackExecutor(new DirectExecutor())
+                .build());
+        // "/stalled" never answers, "/paused" only answers the second time
+        server = new LocalServer(new LocalServer.Responder() {
+            @Override
+            public void respond(String requestHead, OutputStream out) throws IOException, InterruptedException {
+                if (requestHead.startsWith("GET /stalled ")
+                        || (requestHead.startsWith("GET /paused ") && pausedRequestCount.getAndIncrement() == 0)) {
+                    LocalServer.stall();
+                    return;
+                }
+                if (requestHead.startsWith("GET /missing ")) {
+                    out.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n".getBytes("ISO-8859-1"));
+                    out.flush();
+                    return;
+                }
+                out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + BODY_LENGTH + "\r\n\r\n").getBytes("ISO-8859-1"));
+                out.write(new byte[BODY_LENGTH]);
+                out.flush();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        PRDownloader.shutDown(WAIT_TIMEOUT_IN_MILLS);
+        TestFiles.delete(dir);
+    }
+
+    @Test
+    public void completesAndRunsListeners() throws Exception {
+        final CountDownLatch listenersRun = new CountDownLatch(2);
+        final Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                listenersRun.countDown();
+            }
+        };
+        final DownloadFuture future = build("file").startAsync();
+        future.addListener(listener, new DirectExecutor());
+
+        final Response response = future.get(WAIT_TIMEOUT_IN_MILLS, TimeUnit.MILLISECONDS);
+        assertTrue(response.isSuccessful());
+        assertTrue(future.isDone());
+        assertFalse(future.isCancelled());
+        assertEquals(BODY_LENGTH, new File(dir, "file").length());
+
+        // a listener added once done runs right away
+        future.addListener(listener, new DirectExecutor());
+        assertEquals(0, listenersRun.getCount());
+        assertFalse(future.cancel(true));
+    }
+
+    @Test
+    public void failedDownloadCompletesWithError() throws Exception {
+        final Response response = build("missing").startAsync().get(WAIT_TIMEOUT_IN_MILLS, TimeUnit.MILLISECONDS);
+        assertFalse(response.isSuccessful());
+        final Error error = response.getError();
+        assertNotNull(error);
+        assertEquals(404, error.getResponseCode());
+    }
+
+    @Test
+    public void cancelCancelsTheDownload() throws Exception {
+        final DownloadFuture future = build("stalled").startAsync();
+        assertTrue(server.awaitRequest(WAIT_TIMEOUT_IN_MILLS));
+        final CountDownLatch listenerRun = new CountDownLatch(1);
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                listenerRun.countDown();
+            }
+        }, new DirectExecutor());
+
+        assertTrue(future.cancel(true));
+        assertEquals(0, listenerRun.getCount());
+        assertTrue(future.isDone());
+        assertTrue(future.isCancelled());
+        assertFalse(future.cancel(true));
+        assertEquals(Status.UNKNOWN, PRDownloader.getStatus(future.getRequest().getDownloadId()));
+        try {
+            future.get(WAIT_TIMEOUT_IN_MILLS, TimeUnit.MILLISECONDS);
+            fail("a cancelled future has no result");
+        } catch (CancellationException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void pauseLeavesFuturePending() throws Exception {
+        final DownloadRequest request = build("paused");
+        final CountDownLatch paused = new CountDownLatch(1);
+        request.addObserver(new PauseObserver(paused));
+        final DownloadFuture future = request.startAsync();
+        assertTrue(server.awaitRequest(WAIT_TIMEOUT_IN_MILLS));
+
+        PRDownloader.pause(request.getDownloadId());
+        assertTrue(paused.await(WAIT_TIMEOUT_IN_MILLS, TimeUnit.MILLISECONDS));
+        assertFalse(future.isDone());
+
+        PRDownloader.resume(request.getDownloadId());
+        assertTrue(future.get(WAIT_TIMEOUT_IN_MILLS, TimeUnit.MILLISECONDS).isSuccessful());
+        assertEquals(2, pausedRequestCount.get());
+    }
+
+    private DownloadRequest build(String fileName) {
+        return PRDownloader.download(server.getUrl("/" + fileName), dir.getPath(), fileName,
+                "application/octet-stream").build();
+    }
+
+    private static class PauseObserver implements RequestObserver {
+
+        private final CountDownLatch paused;
+
+        PauseObserver(CountDownLatch paused) {
+            this.paused = paused;
+        }
+
+        @Override
+        public void onStart(DownloadRequest request) {
+
+        }
+
+        @Override
+        public void onProgress(DownloadRequest request) {
+
+        }
+
+        @Override
+        public void onPause(DownloadRequest request) {
+            paused.countDown();
+        }
+
+        @Override
+        public void onCancel(DownloadRequest request) {
+
+        }
+
+        @Override
+        public void onComplete(DownloadRequest request) {
+
+        }
+
+        @Override
+        public void onError(DownloadRequest request, Error error) {
+
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader.request;
+
+import android.content.Context;
+import android.test.mock.MockContext;
+
+import com.downloader.LocalServer;
+import com.downloader.OnGroupDownloadListener;
+import com.downloader.PRDownloader;
+import com.downloader.PRDownloaderConfig;
+import com.downloader.TestFiles;
+import com.downloader.core.DirectExecutor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadGroupTest {
+
+    private static final long WAIT_TIMEOUT_IN_MILLS = 10000;
+    private static final int BODY_LENGTH = 1024;
+
+    private File dir;
+    private LocalServer server;
+    private final GroupListener listener = new GroupListener();
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("prdownloader").toFile();
+        final Context context = new MockContext();
+        PRDownloader.initialize(context, PRDownloaderConfig.newBuilder()
+                .setContext(context)
+                .setCallbackExecutor(new DirectExecutor())
+                .build());
+        // "/stalled" never answers, "/missing" is not found
+        server = new LocalServer(new LocalServer.Responder() {
+            @Override
+            public void respond(String requestHead, OutputStream out) throws IOException, InterruptedException {
+                if (requestHead.startsWith("GET /stalled")) {
+                    LocalServer.stall();
+                    return;
+                }
+                if (requestHead.startsWith("GET /missing ")) {
+                    out.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n".getBytes("ISO-8859-1"));
+                    out.flush();
+                    return;
+                }
+                out.write(("HTTP/1.1 200 OK\r\nContent-Length: " + BODY_LENGTH + "\r\n\r\n").getBytes("ISO-8859-1"));
+                out.write(new byte[BODY_LENGTH]);
+                out.flush();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+        PRDownloader.shutDown(WAIT_TIMEOUT_IN_MILLS);
+        TestFiles.delete(dir);
+    }
+
+    @Test
+    public void completesOnceAllFinished() throws Exception {
+        final DownloadGroup group = new DownloadGroup()
+                .add(build("first"))
+                .add(build("second"));
+        group.start(listener);
+
+        assertTrue(listener.called.await(WAIT_TIMEOUT_IN_MILLS, TimeUnit.MILLISECONDS));
+        assertTrue(group.isFinished());
+        assertEquals(Collections.singletonList("complete"), listener.results);
+        // nothing is left to cancel, nor to report again
+        group.cancel();
+        group.start(listener);
+        assertEquals(Collections.singletonList("complete"), listener.results);
+    }
+
+    @Test
+    public void reportsFailedRequestsOnce() throws Exception {
+        final DownloadRequest missing = build("missing");
+        final DownloadGroup group = new DownloadGroup()
+                .add(build("file"))
+                .add(missing);
+        group.start(listener);
+
+        assertTrue(listener.called.await(WAIT_TIMEOUT_IN_MILLS, TimeUnit.MILLISECONDS));
+        assertEquals(Collections.singletonList("error"), listener.results);
+        assertEquals(1, listener.failedRequests.size());
+        assertSame(missing, listener.failedRequests.get(0));
+    }
+
+    @Test
+    public void cancelledMemberDoesNotHoldBackTheGroup() throws Exception {
+        final DownloadRequest stalled = build("stalled");
+        final DownloadGroup group = new DownloadGroup()
+                .add(stalled)
+                .add(build("file"));
+        group.start(listener);
+        assertTrue(server.awaitRequest(WAIT_TIMEOUT_IN_MILLS));
+
+        PRDownloader.cancel(stalled.getDownloadId());
+        assertTrue(listener.called.await(WAIT_TIMEOUT_IN_MILLS, TimeUnit.MILLISECONDS));
+        assertEquals(Collections.singletonList("complete"), listener.results);
+        // a cancel reaching the finished member again changes nothing
+        group.onCancel(stalled);
+        assertEquals(Collections.singletonList("complete"), listener.results);
+    }
+
+    @Test
+    public void cancelledGroupIsNotReported() throws Exception {
+        final DownloadRequest first = build("stalled1");
+        final DownloadRequest second = build("stalled2");
+        final DownloadGroup group = new DownloadGroup()
+                .add(first)
+                .add(second);
+        group.start(listener);
+        assertTrue(server.awaitRequest(WAIT_TIMEOUT_IN_MILLS));
+
+        group.cancel();
+        assertTrue(group.isFinished());
+        // the members can't finish again after the cancel
+        group.onComplete(first);
+        group.onError(second, null);
+        assertEquals(0, listener.results.size());
+    }
+
+    private DownloadRequest build(String fileName) {
+        return PRDownloader.download(server.getUrl("/" + fileName), dir.getPath(), fileName,
+                "application/octet-stream").build();
+    }
+
+    private static class GroupListener implements OnGroupDownloadListener {
+
+        final List<String> results = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch called = new CountDownLatch(1);
+        volatile List<DownloadRequest> failedRequests;
+
+        @Override
+        public void onGroupComplete(DownloadGroup group) {
+            results.add("complete");
+            called.countDown();
+        }
+
+        @Override
+        public void onGroupError(DownloadGroup group, List<DownloadRequest> failedRequests) {
+            this.failedRequests = failedRequests;
+            results.add("error");
+            called.countDown();
+        }
+    }
+
+}
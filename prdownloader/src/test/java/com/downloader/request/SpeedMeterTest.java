@@ -0,0 +1,87 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.request;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SpeedMeterTest {
+
+    private static final long START = 1000000L;
+    private static final long TOTAL_BYTES = 10000;
+
+    @Test
+    public void smoothsSamplesByTheTimeTheyCover() {
+        final SpeedMeter speedMeter = new SpeedMeter();
+        speedMeter.onBytes(0, START);
+        assertEquals(0, speedMeter.getSpeed(START));
+        assertEquals(-1, speedMeter.getEta(0, TOTAL_BYTES, START));
+
+        // the first sample is taken as is
+        speedMeter.onBytes(500, START + 500);
+        assertEquals(1000, speedMeter.getSpeed(START + 500));
+        assertEquals(1000, speedMeter.getAverageSpeed());
+        assertEquals(9500, speedMeter.getEta(500, TOTAL_BYTES, START + 500));
+
+        // within the sample interval nothing changes
+        speedMeter.onBytes(700, START + 700);
+        assertEquals(1000, speedMeter.getSpeed(START + 700));
+
+        // 2000 bytes per second for 500 ms weigh 1 - e^(-500 / 2000)
+        speedMeter.onBytes(1500, START + 1000);
+        assertEquals(1221, speedMeter.getSpeed(START + 1000));
+        assertEquals(1500, speedMeter.getAverageSpeed());
+        assertEquals(8500 * 1000 / 1221, speedMeter.getEta(1500, TOTAL_BYTES, START + 1000));
+    }
+
+    @Test
+    public void stallDropsSpeedAndEta() {
+        final SpeedMeter speedMeter = new SpeedMeter();
+        speedMeter.onBytes(0, START);
+        speedMeter.onBytes(1000, START + 1000);
+        assertEquals(1000, speedMeter.getSpeed(START + 4000));
+        assertEquals(0, speedMeter.getSpeed(START + 4001));
+        assertEquals(-1, speedMeter.getEta(1000, TOTAL_BYTES, START + 4001));
+    }
+
+    @Test
+    public void restartMeasuresAfresh() {
+        final SpeedMeter speedMeter = new SpeedMeter();
+        speedMeter.onBytes(0, START);
+        speedMeter.onBytes(1000, START + 1000);
+        speedMeter.restart();
+        assertEquals(0, speedMeter.getSpeed(START + 1000));
+
+        // the bytes before the restart don't count
+        speedMeter.onBytes(1000, START + 5000);
+        speedMeter.onBytes(1300, START + 6000);
+        assertEquals(300, speedMeter.getSpeed(START + 6000));
+        assertEquals(300, speedMeter.getAverageSpeed());
+    }
+
+    @Test
+    public void etaIsUnknownWithoutTotal() {
+        final SpeedMeter speedMeter = new SpeedMeter();
+        speedMeter.onBytes(0, START);
+        speedMeter.onBytes(1000, START + 1000);
+        assertEquals(-1, speedMeter.getEta(1000, 0, START + 1000));
+        assertEquals(0, speedMeter.getEta(TOTAL_BYTES + 1, TOTAL_BYTES, START + 1000));
+    }
+
+}
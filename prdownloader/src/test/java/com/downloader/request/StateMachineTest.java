@@ -0,0 +1,194 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package com.downloader.request;
+
+import com.downloader.Status;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StateMachineTest {
+
+    private static final int THREAD_COUNT = 8;
+
+    @Test
+    public void newRequestMovesAnywhere() {
+        for (Status to : Status.values()) {
+            assertTrue(to.name(), StateMachine.canMove(null, to));
+            assertEquals(to != Status.UNKNOWN, StateMachine.canMove(Status.UNKNOWN, to));
+        }
+        assertFalse(StateMachine.canMove(null, null));
+    }
+
+    @Test
+    public void finalStatusesNeverMove() {
+        for (Status from : new Status[]{Status.COMPLETED, Status.FAILED, Status.CANCELLED}) {
+            assertTrue(StateMachine.isFinal(from));
+            for (Status to : Status.values()) {
+                assertFalse(from + " -> " + to, StateMachine.canMove(from, to));
+            }
+        }
+    }
+
+    @Test
+    public void runningIsOnlyEnteredFromQueued() {
+        for (Status from : Status.values()) {
+            assertEquals(from.name(), from == Status.QUEUED || from == Status.UNKNOWN,
+                    StateMachine.canMove(from, Status.RUNNING));
+        }
+        assertTrue(StateMachine.canMove(Status.RUNNING, Status.PAUSED));
+        assertTrue(StateMachine.canMove(Status.PAUSED, Status.QUEUED));
+        assertTrue(StateMachine.canMove(Status.RUNNING, Status.COMPLETED));
+        assertFalse(StateMachine.canMove(Status.PAUSED, Status.UNKNOWN));
+    }
+
+    @Test
+    public void neverMovesToItself() {
+        for (Status status : Status.values()) {
+            assertFalse(status.name(), StateMachine.canMove(status, status));
+        }
+    }
+
+    @Test
+    public void compareAndSetChecksExpectedStatus() {
+        final StateMachine stateMachine = new StateMachine(null);
+        assertTrue(stateMachine.moveTo(Status.QUEUED));
+        assertFalse(stateMachine.compareAndSet(Status.PAUSED, Status.RUNNING));
+        assertTrue(stateMachine.compareAndSet(Status.QUEUED, Status.RUNNING));
+        assertFalse(stateMachine.compareAndSet(Status.RUNNING, Status.RUNNING));
+        assertEquals(Status.RUNNING, stateMachine.get());
+    }
+
+    @Test
+    public void hooksSeeEveryTransition() {
+        final StateMachine stateMachine = new StateMachine(null);
+        final List<String> transitions = new ArrayList<>();
+        stateMachine.addHook(new StateMachine.TransitionHook() {
+            @Override
+            public void onTransition(DownloadRequest request, Status from, Status to) {
+                transitions.add(from + "->" + to);
+            }
+        });
+        stateMachine.moveTo(Status.QUEUED);
+        stateMachine.compareAndSet(Status.QUEUED, Status.RUNNING);
+        stateMachine.moveTo(Status.RUNNING);
+        stateMachine.moveTo(Status.COMPLETED);
+        stateMachine.moveTo(Status.CANCELLED);
+
+        assertEquals(Arrays.asList("null->QUEUED", "QUEUED->RUNNING", "RUNNING->COMPLETED"), transitions);
+    }
+
+    @Test
+    public void restartOnlyLeavesFinalStatuses() {
+        final StateMachine stateMachine = new StateMachine(null);
+        stateMachine.moveTo(Status.PAUSED);
+        stateMachine.restart();
+        assertEquals(Status.PAUSED, stateMachine.get());
+
+        stateMachine.moveTo(Status.CANCELLED);
+        stateMachine.restart();
+        assertNull(stateMachine.get());
+        assertTrue(stateMachine.moveTo(Status.QUEUED));
+    }
+
+    @Test
+    public void oneThreadWinsTheStart() throws InterruptedException {
+        for (int round = 0; round < 200; round++) {
+            final StateMachine stateMachine = new StateMachine(null);
+            stateMachine.moveTo(Status.QUEUED);
+            final AtomicInteger winners = new AtomicInteger();
+            race(new Runnable() {
+                @Override
+                public void run() {
+                    if (stateMachine.compareAndSet(Status.QUEUED, Status.RUNNING)) {
+                        winners.incrementAndGet();
+                    }
+                }
+            });
+            assertEquals(1, winners.get());
+            assertEquals(Status.RUNNING, stateMachine.get());
+        }
+    }
+
+    @Test
+    public void cancelRacingStartEndsCancelled() throws InterruptedException {
+        for (int round = 0; round < 200; round++) {
+            final StateMachine stateMachine = new StateMachine(null);
+            stateMachine.moveTo(Status.QUEUED);
+            final AtomicInteger transitions = new AtomicInteger();
+            final AtomicInteger cancels = new AtomicInteger();
+            stateMachine.addHook(new StateMachine.TransitionHook() {
+                @Override
+                public void onTransition(DownloadRequest request, Status from, Status to) {
+                    transitions.incrementAndGet();
+                }
+            });
+            final AtomicInteger index = new AtomicInteger();
+            race(new Runnable() {
+                @Override
+                public void run() {
+                    if (index.getAndIncrement() % 2 == 0) {
+                        stateMachine.compareAndSet(Status.QUEUED, Status.RUNNING);
+                    } else if (stateMachine.moveTo(Status.CANCELLED)) {
+                        cancels.incrementAndGet();
+                    }
+                }
+            });
+            assertEquals(Status.CANCELLED, stateMachine.get());
+            assertEquals(1, cancels.get());
+            // the start, if it won, and the cancel
+            assertTrue(transitions.get() == 1 || transitions.get() == 2);
+        }
+    }
+
+    /**
+     * Runs the action on many threads released at the same time.
+     */
+    private static void race(final Runnable action) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] threads = new Thread[THREAD_COUNT];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    action.run();
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+}
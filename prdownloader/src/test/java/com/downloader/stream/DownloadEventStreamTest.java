@@ -0,0 +1,218 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.stream;
+
+import android.content.Context;
+import android.test.mock.MockContext;
+
+import com.downloader.Error;
+import com.downloader.PRDownloader;
+import com.downloader.PRDownloaderConfig;
+import com.downloader.core.DirectExecutor;
+import com.downloader.request.DownloadRequest;
+import com.downloader.request.RequestObserver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadEventStreamTest {
+
+    private DownloadRequest request;
+    private DownloadEventStream stream;
+    private RecordingSubscriber subscriber;
+
+    @Before
+    public void setUp() throws Exception {
+        final Context context = new MockContext();
+        PRDownloader.initialize(context, PRDownloaderConfig.newBuilder()
+                .setContext(context)
+                .setProgressInterval(60000)
+                .build());
+        request = PRDownloader.download("http://localhost/file", "/tmp", "file", "application/octet-stream")
+                .setCallbackExecutor(new DirectExecutor())
+                .build();
+        stream = request.getEvents();
+        subscriber = new RecordingSubscriber();
+        stream.subscribe(subscriber);
+    }
+
+    @After
+    public void tearDown() {
+        PRDownloader.shutDown(1000);
+    }
+
+    @Test
+    public void emitsOnlyWhatWasRequested() {
+        stream.onStart(request);
+        stream.onPause(request);
+        assertTrue(subscriber.events.isEmpty());
+
+        subscriber.subscription.request(1);
+        assertEquals(1, subscriber.events.size());
+        assertEquals(DownloadEvent.Type.START, subscriber.events.get(0).getType());
+
+        subscriber.subscription.request(5);
+        assertEquals(2, subscriber.events.size());
+        assertEquals(DownloadEvent.Type.PAUSE, subscriber.events.get(1).getType());
+
+        // the remaining demand is kept for the later events
+        stream.onStart(request);
+        assertEquals(3, subscriber.events.size());
+    }
+
+    @Test
+    public void conflatesProgressOfSlowSubscriber() {
+        stream.onStart(request);
+        for (long bytes = 10; bytes <= 50; bytes += 10) {
+            request.setDownloadedBytes(bytes);
+            stream.onProgress(request);
+        }
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(2, subscriber.events.size());
+        assertEquals(DownloadEvent.Type.START, subscriber.events.get(0).getType());
+        assertEquals(DownloadEvent.Type.PROGRESS, subscriber.events.get(1).getType());
+        assertEquals(50, subscriber.events.get(1).getProgress().currentBytes);
+
+        // once emitted, newer bytes queue a new event
+        request.setDownloadedBytes(60);
+        stream.onProgress(request);
+        assertEquals(3, subscriber.events.size());
+        assertEquals(60, subscriber.events.get(2).getProgress().currentBytes);
+    }
+
+    @Test
+    public void completesAfterTerminalEvent() {
+        stream.onComplete(request);
+        assertEquals(0, subscriber.completeCount);
+
+        subscriber.subscription.request(1);
+        assertEquals(1, subscriber.events.size());
+        assertEquals(DownloadEvent.Type.COMPLETE, subscriber.events.get(0).getType());
+        assertEquals(1, subscriber.completeCount);
+        assertFalse(stream.hasSubscribers());
+
+        // a late subscriber completes right away
+        final RecordingSubscriber lateSubscriber = new RecordingSubscriber();
+        stream.subscribe(lateSubscriber);
+        assertEquals(1, lateSubscriber.completeCount);
+    }
+
+    @Test
+    public void failingSubscriberIsCancelledWithError() {
+        final RuntimeException failure = new RuntimeException("subscriber failed");
+        subscriber.failure = failure;
+        subscriber.subscription.request(Long.MAX_VALUE);
+        stream.onStart(request);
+        stream.onPause(request);
+
+        assertEquals(1, subscriber.events.size());
+        assertSame(failure, subscriber.error);
+        assertEquals(0, subscriber.completeCount);
+        assertFalse(stream.hasSubscribers());
+    }
+
+    @Test
+    public void observersFollowProgressThrottling() {
+        final List<Long> observedBytes = new ArrayList<>();
+        request.addObserver(new ProgressObserver() {
+            @Override
+            public void onProgress(DownloadRequest request) {
+                observedBytes.add(request.getDownloadedBytes());
+            }
+        });
+        for (long bytes = 1; bytes <= 100; bytes++) {
+            request.setDownloadedBytes(bytes);
+            request.reportProgress(100, false);
+        }
+        request.reportProgress(100, true);
+        // the first update and the forced one, the others come within the interval
+        assertEquals(2, observedBytes.size());
+        assertEquals(1, (long) observedBytes.get(0));
+        assertEquals(100, (long) observedBytes.get(1));
+    }
+
+    private static class RecordingSubscriber implements Subscriber<DownloadEvent> {
+
+        final List<DownloadEvent> events = new ArrayList<>();
+        Subscription subscription;
+        RuntimeException failure;
+        Throwable error;
+        int completeCount;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(DownloadEvent item) {
+            events.add(item);
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completeCount++;
+        }
+    }
+
+    private abstract static class ProgressObserver implements RequestObserver {
+
+        @Override
+        public void onStart(DownloadRequest request) {
+
+        }
+
+        @Override
+        public void onPause(DownloadRequest request) {
+
+        }
+
+        @Override
+        public void onCancel(DownloadRequest request) {
+
+        }
+
+        @Override
+        public void onComplete(DownloadRequest request) {
+
+        }
+
+        @Override
+        public void onError(DownloadRequest request, Error error) {
+
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ *    Copyright (C) 2017 MINDORKS NEXTGEN PRIVATE LIMITED
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+
+package com.downloader.utils;
+
+import android.content.Context;
+import android.test.mock.MockContext;
+
+import com.downloader.PRDownloader;
+import com.downloader.PRDownloaderConfig;
+import com.downloader.request.DownloadRequest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class UtilsTest {
+
+    @Before
+    public void setUp() throws Exception {
+        final Context context = new MockContext();
+        PRDownloader.initialize(context, PRDownloaderConfig.newBuilder().setContext(context).build());
+    }
+
+    @After
+    public void tearDown() {
+        PRDownloader.shutDown(1000);
+    }
+
+    @Test
+    public void batchIdsMatchSingleIds() {
+        final List<DownloadRequest> requests = new ArrayList<>();
+        requests.add(newRequest("http://example.com/file", "/tmp", "file"));
+        requests.add(newRequest("http://example.com/file", "/tmp", "file"));
+        requests.add(newRequest("http://example.com/file", "/tmp/other", "file"));
+        requests.add(newRequest("https://example.com/a%20b?q=1&r=2#x", "/sdcard/Download", "a b.zip"));
+        requests.add(newRequest("http://\u4f8b\u3048.jp/\u30d5\u30a1\u30a4\u30eb", "/tmp/\u00fcn\u00efc\u00f8d\u00e9",
+                "\u00e9moji-\ud83d\ude00.txt"));
+        requests.add(newRequest("", "", ""));
+
+        final Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            requests.add(newRequest("http://host" + random.nextInt(10) + "/" + Long.toHexString(random.nextLong()),
+                    "/tmp/" + random.nextInt(5), "file" + random.nextInt()));
+        }
+
+        assertIdsMatch(requests);
+    }
+
+    @Test
+    public void emptyBatchHasNoIds() {
+        assertEquals(0, Utils.getUniqueIds(Collections.<DownloadRequest>emptyList()).length);
+    }
+
+    private static void assertIdsMatch(List<DownloadRequest> requests) {
+        final int[] ids = Utils.getUniqueIds(requests);
+        assertEquals(requests.size(), ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            final DownloadRequest request = requests.get(i);
+            assertEquals(request.getUrl(), Utils.getUniqueId(request.getUrl(),
+                    request.getDownloadDetails().getParentDirectory(),
+                    request.getDownloadDetails().getFileName()), ids[i]);
+        }
+    }
+
+    private static DownloadRequest newRequest(String url, String dirPath, String fileName) {
+        return PRDownloader.download(url, dirPath, fileName, "application/octet-stream").build();
+    }
+
+}